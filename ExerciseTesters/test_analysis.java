@@ -0,0 +1,154 @@
+package ExerciseTesters;
+
+import java.util.Arrays;
+import java.util.List;
+
+import configs.GraphAnalysis;
+import configs.Node;
+
+public class test_analysis { // GraphAnalysis: components, cycles, topological order and depths
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    /** Builds the analysis of a graph given as {from, to} edges, converted to CSR form. */
+    private static GraphAnalysis analyze(int nodeCount, int[][] edges) {
+        int[] offsets = new int[nodeCount + 1];
+        for (int[] edge : edges) {
+            offsets[edge[0] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] targets = new int[edges.length];
+        int[] fill = Arrays.copyOf(offsets, nodeCount);
+        for (int[] edge : edges) {
+            targets[fill[edge[0]]++] = edge[1];
+        }
+        return new GraphAnalysis(nodeCount, offsets, targets);
+    }
+
+    private static boolean hasEdge(int[][] edges, int from, int to) {
+        for (int[] edge : edges) {
+            if (edge[0] == from && edge[1] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A diamond of nodes: acyclic, ordered, and the join is one deeper than the longest branch
+    private static void testDiamond() {
+        Node a = new Node("TA");
+        Node b = new Node("AB");
+        Node c = new Node("AC");
+        Node d = new Node("TD");
+        a.addEdge(b);
+        a.addEdge(c);
+        b.addEdge(d);
+        c.addEdge(d);
+        GraphAnalysis analysis = GraphAnalysis.of(List.of(a, b, c, d));
+        check(!analysis.hasCycles() && analysis.getCycle().isEmpty(), "Diamond acyclic");
+        check(analysis.getComponentCount() == 4 && analysis.getCyclicComponents().isEmpty(), "Diamond components");
+        List<Node> order = analysis.getTopologicalOrder();
+        check(order != null && order.get(0) == a && order.get(3) == d, "Diamond topological order");
+        check(Arrays.equals(analysis.getDepths(), new int[]{0, 1, 1, 2}), "Diamond depths");
+
+        // Nodes reached through edges but missing from the list are included
+        GraphAnalysis partial = GraphAnalysis.of(List.of(a));
+        check(partial.getNodeCount() == 4 && partial.getNode(0) == a, "Nodes found through edges");
+    }
+
+    // A node with an edge to itself is a cycle of one node
+    private static void testSelfLoop() {
+        Node x = new Node("TX");
+        Node y = new Node("AY");
+        y.addEdge(x);
+        x.addEdge(x);
+        GraphAnalysis analysis = GraphAnalysis.of(List.of(y, x));
+        check(analysis.hasCycles() && analysis.getCycle().equals(List.of(x)), "Self loop is a cycle");
+        check(analysis.isCyclic(analysis.getComponent(1)) && !analysis.isCyclic(analysis.getComponent(0)), "Cyclic component of the loop");
+        check(analysis.getCyclicComponents().equals(List.of(List.of(x))), "Cyclic components");
+        check(analysis.getTopologicalOrder() == null, "No topological order with a cycle");
+        check(analysis.getDepth(0) == 0 && analysis.getDepth(1) == 1, "Self loop depths");
+    }
+
+    // Several weakly connected parts: a cycle with an input, a path and an isolated node
+    private static void testComponents() {
+        int[][] edges = {{3, 0}, {0, 1}, {1, 2}, {2, 0}, {4, 5}, {5, 6}};
+        GraphAnalysis analysis = analyze(8, edges);
+        check(analysis.hasCycles(), "Cycle found among components");
+        check(analysis.getComponentCount() == 6, "Component count");
+        check(analysis.getComponent(0) == analysis.getComponent(1) && analysis.getComponent(1) == analysis.getComponent(2),
+                "Cycle nodes share a component");
+        boolean downward = true;
+        for (int[] edge : edges) {
+            int from = analysis.getComponent(edge[0]);
+            int to = analysis.getComponent(edge[1]);
+            downward &= from == to || to < from;
+        }
+        check(downward, "Components in reverse topological order");
+
+        int[] cycle = analysis.getCycleIndexes();
+        boolean closed = cycle.length == 3;
+        for (int i = 0; closed && i < cycle.length; i++) {
+            closed = hasEdge(edges, cycle[i], cycle[(i + 1) % cycle.length]);
+        }
+        check(closed, "Cycle follows the edges back to its first node");
+        check(analysis.getCycle().isEmpty(), "No nodes when built from arrays");
+        check(Arrays.equals(analysis.getDepths(), new int[]{1, 1, 1, 0, 0, 1, 2, 0}), "Depths with a shared cycle depth");
+
+        GraphAnalysis acyclic = analyze(8, new int[][]{{3, 0}, {0, 1}, {1, 2}, {4, 5}, {5, 6}});
+        int[] order = acyclic.getTopologicalOrderIndexes();
+        int[] position = new int[8];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+        boolean ordered = order.length == 8;
+        for (int[] edge : new int[][]{{3, 0}, {0, 1}, {1, 2}, {4, 5}, {5, 6}}) {
+            ordered &= position[edge[0]] < position[edge[1]];
+        }
+        check(ordered, "Topological order of several components");
+    }
+
+    // A chain far deeper than a recursive DFS could follow, open and then closed into one cycle
+    private static void testLongChain() {
+        int n = 1_000_000;
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[n];
+        for (int v = 0; v < n; v++) {
+            offsets[v] = v;
+            targets[v] = v + 1;
+        }
+        offsets[n] = n - 1; // The last node has no edge
+        GraphAnalysis chain = new GraphAnalysis(n, offsets, Arrays.copyOf(targets, n - 1));
+        check(!chain.hasCycles() && chain.getComponentCount() == n, "Long chain acyclic");
+        check(chain.getDepth(n - 1) == n - 1, "Depth at the end of the long chain");
+        int[] order = chain.getTopologicalOrderIndexes();
+        check(order[0] == 0 && order[n - 1] == n - 1, "Long chain order");
+
+        targets[n - 1] = 0;
+        offsets[n] = n;
+        GraphAnalysis ring = new GraphAnalysis(n, offsets, targets);
+        check(ring.hasCycles() && ring.getComponentCount() == 1, "Long chain closed into a cycle");
+        check(ring.getCycleIndexes().length == n && ring.getDepth(n - 1) == 0, "Cycle of the whole chain");
+    }
+
+    public static void main(String[] args) {
+        testDiamond();
+        testSelfLoop();
+        testComponents();
+        testLongChain();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All graph analysis tests passed");
+    }
+}
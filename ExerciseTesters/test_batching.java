@@ -0,0 +1,216 @@
+package ExerciseTesters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import configs.GenericConfig;
+import configs.Graph;
+import configs.Node;
+import graph.BatchAgent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.Pure;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.MetricsRegistry;
+
+public class test_batching { // ParallelAgent batches on a graph loaded from a configuration
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static final int MESSAGES = 50;
+
+    // Holds the first callback of the agents until released, so the following messages queue up
+    static final CountDownLatch release = new CountDownLatch(1);
+    static final AtomicInteger pureCalls = new AtomicInteger();
+    static final AtomicInteger batches = new AtomicInteger();
+    static final AtomicInteger batched = new AtomicInteger();
+
+    private static void await() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Publishes its input plus one, a pure function of its input. */
+    @Pure
+    public static class GatedIncAgent extends TestAgent {
+        public GatedIncAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            await();
+            pureCalls.incrementAndGet();
+            out.publish(new Message(msg.asDouble + 1));
+        }
+    }
+
+    /** Counts the batches it receives and publishes the last value of each. */
+    public static class GatedBatchAgent extends TestAgent implements BatchAgent {
+        public GatedBatchAgent(String[] subs, String[] pubs) {
+            super(subs, pubs);
+        }
+
+        @Override
+        public void callbackBatch(Topic[] topics, String[] topicNames, Message[] msgs, int size) {
+            await();
+            batches.incrementAndGet();
+            batched.addAndGet(size);
+            out.publish(msgs[size - 1]);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            callbackBatch(new Topic[]{null}, new String[]{topic}, new Message[]{msg}, 1);
+        }
+    }
+
+    public abstract static class TestAgent implements graph.Agent {
+        final Topic in;
+        final Topic out;
+
+        TestAgent(String[] subs, String[] pubs) {
+            TopicManager tm = TopicManagerSingleton.get();
+            in = tm.getTopic(subs[0]);
+            out = tm.getTopic(pubs[0]);
+            in.subscribe(this);
+            out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void close() {
+            in.unsubscribe(this);
+            out.removePublisher(this);
+        }
+    }
+
+    private static boolean awaitValue(Topic topic, String value) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!value.equals(topic.getLastMessage())) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    // The agents of a configuration run on their ParallelAgents, which batch and coalesce the queued messages
+    private static void testConfigGraph() throws Exception {
+        String graphId = "test-batching";
+        TopicManager tm = TopicManagerSingleton.get(graphId);
+        Path file = Files.createTempFile("batching", ".conf");
+        Files.write(file, ("T.ExerciseTesters.test_batching$GatedIncAgent\nA\nB\n"
+                + "T.ExerciseTesters.test_batching$GatedBatchAgent\nC\nD\n").getBytes(StandardCharsets.UTF_8));
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(tm);
+        config.setAsync(true);
+        try {
+            config.create();
+            ParallelAgent pure = config.agents.get(0);
+            check(tm.getTopic("A").getSubs().contains(pure) && !tm.getTopic("A").getSubs().contains(pure.getAgent()),
+                    "ParallelAgent subscribed in place of its agent");
+
+            for (int i = 0; i < MESSAGES; i++) {
+                tm.getTopic("A").publish(new Message(i));
+                tm.getTopic("C").publish(new Message(i));
+            }
+            check(tm.getTopic("B").getPublishCount() == 0, "Messages queued, not processed on the publishing thread");
+            release.countDown();
+            check(awaitValue(tm.getTopic("B"), MESSAGES + ".0"), "Last value processed by the pure agent");
+            check(awaitValue(tm.getTopic("D"), (MESSAGES - 1) + ".0"), "Last value processed by the batch agent");
+
+            check(pureCalls.get() < MESSAGES, "Superseded messages coalesced for the pure agent");
+            long coalesced = MetricsRegistry.get().counter("agent_coalesced_messages_total",
+                    "Messages superseded by a later message on the same topic in a batch of a ParallelAgent.", "graph", graphId).sum();
+            check(coalesced > 0 && coalesced + pureCalls.get() == MESSAGES, "Coalesced messages counted");
+            check(batched.get() == MESSAGES, "Every message delivered to the batch agent");
+            check(batches.get() < MESSAGES, "Messages delivered in batches");
+
+            config.close();
+            check(tm.getTopic("A").getSubs().isEmpty() && tm.getTopic("C").getSubs().isEmpty(),
+                    "ParallelAgents unsubscribed when closed");
+        } finally {
+            release.countDown();
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(file);
+        }
+    }
+
+    private static GenericConfig load(String graphId, boolean async) throws Exception {
+        GenericConfig config = new GenericConfig();
+        config.setConfFile("config_files/CycleGraph.conf");
+        config.setTopicManager(TopicManagerSingleton.get(graphId));
+        config.setAsync(async);
+        config.setParallelism(2); // Agents created and wrapped on threads not bound to the graph
+        config.create();
+        return config;
+    }
+
+    private static int edges(Graph graph) {
+        int edges = 0;
+        for (Node node : graph) {
+            edges += node.getEdges().size();
+        }
+        return edges;
+    }
+
+    // A ParallelAgent shares the node of its agent, so the graph and its cycles are the same in both modes
+    private static void testGraphOfAsyncConfig() throws Exception {
+        GenericConfig syncConfig = load("test-batching-sync", false);
+        GenericConfig asyncConfig = load("test-batching-async", true);
+        try {
+            Graph sync = Graph.of(TopicManagerSingleton.get("test-batching-sync"));
+            Graph async = Graph.of(TopicManagerSingleton.get("test-batching-async"));
+            check(sync.hasCycles() && async.hasCycles(), "Cycle detected in asynchronous mode");
+            check(async.size() == sync.size(), "One node per agent in asynchronous mode");
+            check(edges(async) == edges(sync), "Agents wired to their topics in asynchronous mode");
+            for (ParallelAgent agent : asyncConfig.agents) {
+                check("test-batching-async".equals(agent.getGraphId()), "Graph of a ParallelAgent created in parallel");
+            }
+        } finally {
+            syncConfig.close();
+            asyncConfig.close();
+            TopicManagerSingleton.remove("test-batching-sync");
+            TopicManagerSingleton.remove("test-batching-async");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("agent.batchSize", "8"); // Read when ParallelAgent is loaded
+        testConfigGraph();
+        testGraphOfAsyncConfig();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All batching tests passed");
+    }
+}
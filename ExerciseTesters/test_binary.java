@@ -0,0 +1,196 @@
+package ExerciseTesters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import configs.BinaryConfig;
+import configs.GenericConfig;
+import graph.Agent;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+import servlets.ConfLoader;
+
+public class test_binary { // BinaryConfig: conversion, loading and uploads
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Collections.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String typeOf(Agent agent) {
+        if (agent instanceof ParallelAgent) {
+            agent = ((ParallelAgent) agent).getAgent();
+        }
+        return agent.getClass().getName();
+    }
+
+    /**
+     * Describes the wiring of a graph by agent type, one line per subscription and publication, sorted.
+     * Agent names are left out, as they carry counters shared by every graph.
+     */
+    private static List<String> wiring(TopicManager tm) {
+        List<String> lines = new ArrayList<>();
+        for (Topic topic : tm.getTopics().values()) {
+            for (Agent sub : topic.getSubs()) {
+                lines.add(topic.name + " -> " + typeOf(sub));
+            }
+            for (Agent pub : topic.getPubs()) {
+                lines.add(typeOf(pub) + " -> " + topic.name);
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static GenericConfig load(Path file, String graphId) throws Exception {
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(TopicManagerSingleton.get(graphId));
+        config.create();
+        return config;
+    }
+
+    // Every shipped configuration, with and without agent arguments, loads to the same graph in both formats
+    private static void testRoundTrip(Path directory) throws Exception {
+        List<Path> confs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get("config_files"))) {
+            files.filter(p -> p.toString().endsWith(".conf")).sorted().forEach(confs::add);
+        }
+        check(confs.stream().anyMatch(p -> p.getFileName().toString().equals("windows.conf")), "Configurations with arguments found");
+        for (Path text : confs) {
+            String name = text.getFileName().toString();
+            Path binary = directory.resolve(name.replace(".conf", ".gcb"));
+            BinaryConfig.convert(text, binary);
+            check(BinaryConfig.isBinary(binary) && !BinaryConfig.isBinary(text), name + " format detected");
+
+            GenericConfig fromText = load(text, "test-binary-text");
+            GenericConfig fromBinary = load(binary, "test-binary-bin");
+            try {
+                List<String> agentTypes = new ArrayList<>();
+                for (ParallelAgent agent : fromText.agents) {
+                    agentTypes.add(typeOf(agent));
+                }
+                List<String> binaryTypes = new ArrayList<>();
+                for (ParallelAgent agent : fromBinary.agents) {
+                    binaryTypes.add(typeOf(agent));
+                }
+                check(!agentTypes.isEmpty() && agentTypes.equals(binaryTypes), name + " agents in both formats");
+                check(wiring(TopicManagerSingleton.get("test-binary-text")).equals(wiring(TopicManagerSingleton.get("test-binary-bin"))),
+                        name + " wiring in both formats");
+            } finally {
+                fromText.close();
+                fromBinary.close();
+                TopicManagerSingleton.remove("test-binary-text");
+                TopicManagerSingleton.remove("test-binary-bin");
+            }
+        }
+    }
+
+    // A binary configuration cut anywhere after its magic number is rejected, not loaded in part
+    private static void testTruncated(Path directory) throws Exception {
+        Path binary = directory.resolve("windows.gcb");
+        BinaryConfig.convert(Paths.get("config_files/windows.conf"), binary);
+        byte[] bytes = Files.readAllBytes(binary);
+        Path truncated = directory.resolve("truncated.gcb");
+        int rejected = 0;
+        for (int length = 4; length < bytes.length; length++) {
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            GenericConfig config = new GenericConfig();
+            config.setConfFile(truncated.toString());
+            config.setTopicManager(TopicManagerSingleton.get("test-binary-truncated"));
+            try {
+                config.create();
+                config.close();
+            } catch (IllegalArgumentException e) {
+                rejected++;
+            } finally {
+                TopicManagerSingleton.remove("test-binary-truncated");
+            }
+        }
+        check(rejected == bytes.length - 4, "Truncated binary configurations rejected");
+    }
+
+    // ConfLoader loads an uploaded binary configuration, and one already on the server by name
+    private static void testUpload() throws Exception {
+        String graphId = "test-binary-upload";
+        Path uploads = Paths.get(System.getProperty("user.dir"), "uploads", graphId);
+        Path binary = Files.createTempFile("upload", ".gcb");
+        ConfLoader loader = new ConfLoader();
+        try {
+            BinaryConfig.convert(Paths.get("config_files/windows.conf"), binary);
+            GenericConfig expected = load(Paths.get("config_files/windows.conf"), "test-binary-text");
+            List<String> expectedWiring = wiring(TopicManagerSingleton.get("test-binary-text"));
+            expected.close();
+            TopicManagerSingleton.remove("test-binary-text");
+
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("graph", graphId);
+            parameters.put("filename", "\"windows.gcb\"");
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            loader.handle(new RequestInfo("POST", "/upload?graph=" + graphId, new String[]{"upload"}, parameters,
+                    Files.readAllBytes(binary)), response);
+            GenericConfig active = loader.getActiveConfig(graphId);
+            check(active != null && active.agents.size() == 4, "Uploaded binary configuration loaded");
+            check(wiring(TopicManagerSingleton.get(graphId)).equals(expectedWiring), "Wiring of the uploaded binary configuration");
+            check(!response.toString(StandardCharsets.UTF_8).contains("Error"), "Uploaded binary configuration accepted");
+
+            parameters.remove("filename");
+            parameters.put("conf", "windows.gcb");
+            parameters.put("mode", "replace");
+            loader.handle(new RequestInfo("GET", "/upload?graph=" + graphId + "&conf=windows.gcb&mode=replace",
+                    new String[]{"upload"}, parameters, new byte[0]), new ByteArrayOutputStream());
+            check(loader.getActiveConfig(graphId) != active && loader.getActiveConfig(graphId).agents.size() == 4,
+                    "Binary configuration loaded by name");
+            check(wiring(TopicManagerSingleton.get(graphId)).equals(expectedWiring), "Wiring of the binary configuration loaded by name");
+        } finally {
+            GenericConfig active = loader.getActiveConfig(graphId);
+            if (active != null) {
+                active.close();
+            }
+            TopicManagerSingleton.remove(graphId);
+            Files.deleteIfExists(binary);
+            if (Files.exists(uploads)) {
+                delete(uploads);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("binary-config");
+        try {
+            testRoundTrip(directory);
+            testTruncated(directory);
+            testUpload();
+        } finally {
+            delete(directory);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All binary config tests passed");
+    }
+}
@@ -0,0 +1,132 @@
+package ExerciseTesters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import configs.IncAgent;
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+public class test_dedup { // Suppression of unchanged publications
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    /** Records the texts delivered on a topic. */
+    private static final class Recorder implements Agent {
+        final List<String> texts = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "Recorder";
+        }
+
+        @Override
+        public void reset() {
+            texts.clear();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            texts.add(msg.asText);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Recorder publish(Topic topic, String... texts) {
+        Recorder recorder = new Recorder();
+        topic.subscribe(recorder);
+        for (String text : texts) {
+            topic.publish(new Message(text));
+        }
+        topic.unsubscribe(recorder);
+        return recorder;
+    }
+
+    // Repeated values are suppressed and counted, the first publication always goes through
+    private static void testExact() {
+        TopicManager tm = TopicManagerSingleton.get("test-dedup-exact");
+        try {
+            Topic topic = tm.getTopic("A");
+            topic.setDedup(0);
+            Recorder recorder = publish(topic, "0.0", "0.0", "1.0", "1.0", "2.0", "1.0");
+            check(recorder.texts.equals(List.of("0.0", "1.0", "2.0", "1.0")), "Repeated values suppressed");
+            check(topic.getSuppressedCount() == 2 && topic.getPublishCount() == 4, "Suppressed publications counted");
+            check("1.0".equals(topic.getLastMessage()), "Last value kept");
+
+            Recorder texts = publish(tm.getTopic("T"), "a", "a", "b");
+            check(texts.texts.equals(List.of("a", "a", "b")), "Dedup off by default");
+            tm.getTopic("T").setDedup(0);
+            texts = publish(tm.getTopic("T"), "b", "c", "c");
+            check(texts.texts.equals(List.of("c")), "Texts compared when not numbers");
+
+            topic.setDedup(-1);
+            check(publish(topic, "1.0", "1.0").texts.size() == 2, "Dedup disabled");
+        } finally {
+            TopicManagerSingleton.remove("test-dedup-exact");
+        }
+    }
+
+    // Values within epsilon of the last delivered value are suppressed, so slow drifts still get through
+    private static void testEpsilon() {
+        TopicManager tm = TopicManagerSingleton.get("test-dedup-epsilon");
+        try {
+            Topic topic = tm.getTopic("A");
+            topic.setDedup(0.5);
+            Recorder recorder = publish(topic, "1.0", "1.3", "1.6", "1.9", "2.2", "NaN", "NaN");
+            check(recorder.texts.equals(List.of("1.0", "1.6", "2.2", "NaN")), "Values within epsilon suppressed");
+        } finally {
+            TopicManagerSingleton.remove("test-dedup-epsilon");
+        }
+    }
+
+    // Dedup set on an agent applies to the topics it publishes to, and nothing downstream runs
+    private static void testAgent() {
+        TopicManager tm = TopicManagerSingleton.get("test-dedup-agent");
+        TopicManager previous = TopicManagerSingleton.bind(tm);
+        try {
+            IncAgent first = new IncAgent(new String[]{"A"}, new String[]{"B"});
+            IncAgent second = new IncAgent(new String[]{"B"}, new String[]{"C"});
+            tm.setDedup(first, 0);
+            check(tm.getTopic("B").getDedup() == 0 && tm.getTopic("C").getDedup() < 0, "Dedup on the topics of an agent");
+            Recorder recorder = new Recorder();
+            tm.getTopic("C").subscribe(recorder);
+            tm.getTopic("A").publish(new Message(1.0));
+            tm.getTopic("A").publish(new Message(1.0));
+            tm.getTopic("A").publish(new Message(2.0));
+            check(recorder.texts.equals(List.of("3.0", "4.0")), "Downstream agents not run on suppressed values");
+            check(tm.getTopic("C").getPublishCount() == 2, "Downstream topic published once per change");
+            first.close();
+            second.close();
+
+            tm.setDedup(0);
+            check(tm.getTopic("New").getDedup() == 0, "Graph dedup applied to new topics");
+        } finally {
+            TopicManagerSingleton.bind(previous);
+            TopicManagerSingleton.remove("test-dedup-agent");
+        }
+    }
+
+    public static void main(String[] args) {
+        testExact();
+        testEpsilon();
+        testAgent();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All dedup tests passed");
+    }
+}
@@ -0,0 +1,115 @@
+package ExerciseTesters;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicHistory;
+import graph.TopicManagerSingleton;
+import server.RequestParser;
+import servlets.TopicHistoryServlet;
+
+public class test_history { // TopicHistory and TopicHistoryServlet
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    // Latest entries and time ranges, oldest first, once the ring wrapped around
+    private static void testLatestAndRange() {
+        TopicHistory history = new TopicHistory(6); // Rounded up to 8
+        check(history.getCapacity() == 8, "Capacity rounded up");
+        for (int i = 1; i <= 20; i++) {
+            history.record(i * 10L, i);
+        }
+        check(history.size() == 8 && history.getRecordedCount() == 20, "Size after wrapping");
+
+        long[] times = new long[3];
+        double[] values = new double[3];
+        check(history.latest(3, times, values) == 3 && times[0] == 180 && values[2] == 20, "Latest entries");
+
+        check(history.count(150, 175) == 3, "Entries counted in a range");
+        check(history.count(0, 120) == 0, "Overwritten entries not counted");
+        times = new long[3];
+        values = new double[3];
+        check(history.range(150, 175, times, values) == 3 && times[0] == 150 && times[2] == 170, "Entries in a range");
+    }
+
+    // Readers racing a writer only see whole entries, in order
+    private static void testSeqlock() throws Exception {
+        TopicHistory history = new TopicHistory(64);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long i = 1; running.get(); i++) {
+                history.record(i, i); // Value always equals the timestamp
+            }
+        });
+        writer.start();
+        boolean whole = true;
+        boolean ordered = true;
+        long[] times = new long[64];
+        double[] values = new double[64];
+        try {
+            for (int round = 0; round < 20_000; round++) {
+                int count = round % 2 == 0 ? history.latest(64, times, values) : history.range(0, Long.MAX_VALUE, times, values);
+                for (int i = 0; i < count; i++) {
+                    whole &= values[i] == times[i];
+                    ordered &= i == 0 || times[i] > times[i - 1];
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        check(whole, "No torn entries while writing");
+        check(ordered, "Entries oldest first while writing");
+    }
+
+    private static String get(TopicHistoryServlet servlet, String query) throws Exception {
+        RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(
+                "GET /history?" + query + " HTTP/1.1\nHost: localhost\n\n")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        servlet.handle(ri, out);
+        String response = out.toString(StandardCharsets.UTF_8);
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+    // The servlet escapes the topic name and returns the entries of a range
+    private static void testServlet() throws Exception {
+        String graphId = "test-history";
+        Topic topic = TopicManagerSingleton.get(graphId).getTopic("a\"b\\c");
+        topic.enableHistory(1024);
+        for (int i = 0; i < 3; i++) {
+            topic.publish(new Message(i));
+        }
+        TopicHistoryServlet servlet = new TopicHistoryServlet();
+        try {
+            String json = get(servlet, "graph=" + graphId + "&topic=a\"b\\c&from=0");
+            check(json.startsWith("{\"topic\":\"a\\\"b\\\\c\",\"points\":[["), "Topic name escaped");
+            check(json.endsWith(",2.0]]}") && json.split("\\],\\[").length == 3, "Points of the range");
+        } finally {
+            servlet.close();
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testLatestAndRange();
+        testSeqlock();
+        testServlet();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All history tests passed");
+    }
+}
@@ -0,0 +1,141 @@
+package ExerciseTesters;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import graph.ReplayEngine;
+import graph.TopicJournal;
+
+public class test_journal { // TopicJournal and the recordings of ReplayEngine
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws Exception {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    // Full segments roll over, the oldest beyond the retention are deleted, and closing writes every queued record
+    private static void testRollAndClose() throws Exception {
+        Path directory = Files.createTempDirectory("journal-roll");
+        try {
+            int a;
+            TopicJournal closed = new TopicJournal(directory, 10, 3, 0, 1024);
+            try (closed) {
+                a = closed.register("A");
+                check(closed.register("A") == a, "Topic registered once");
+                for (int i = 0; i < 45; i++) {
+                    check(closed.append(a, i, i), "Record " + i + " queued");
+                }
+            }
+            check(closed.getWrittenCount() == 45 && closed.getDroppedCount() == 0, "Queued records written on close");
+            check(!closed.append(a, 45, 45) && closed.getDroppedCount() == 1, "Record after closing dropped");
+            check(segments(directory).size() == 3, "Oldest segments deleted");
+            List<Double> values = new ArrayList<>();
+            TopicJournal.forEach(directory, (topicId, topicName, nanoTime, epochMillis, value) -> {
+                check(topicId == a && "A".equals(topicName), "Record topic");
+                values.add(value);
+            });
+            check(values.size() == 25 && values.get(0) == 20 && values.get(24) == 44, "Records of the kept segments");
+
+            // Reopening keeps the topic ids and continues after the existing segments
+            try (TopicJournal journal = new TopicJournal(directory, 10, 3, 0, 1024)) {
+                check(journal.register("A") == a && journal.register("B") != a, "Topic ids kept across restarts");
+                journal.append(a, 100, 100);
+            }
+            List<Path> segments = segments(directory);
+            check(segments.size() == 3, "Retention applied after reopening");
+            double[] last = {Double.NaN};
+            TopicJournal.forEach(directory, (topicId, topicName, nanoTime, epochMillis, value) -> last[0] = value);
+            check(last[0] == 100, "Record of the new run read last");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // The schedule follows the wall clock across runs and nanoTime within a run, unknown topics are counted
+    private static void testReplaySchedule() throws Exception {
+        Path directory = Files.createTempDirectory("journal-replay");
+        try {
+            long first;
+            try (TopicJournal journal = new TopicJournal(directory, 1000, 10, -1, 1024)) {
+                int a = journal.register("A");
+                first = System.nanoTime();
+                journal.append(a, first, 1);
+                journal.append(a, first + 1_500, 2);
+                journal.append(99, first + 3_000, 3); // Not in the index
+            }
+            Thread.sleep(50);
+            long second;
+            try (TopicJournal journal = new TopicJournal(directory, 1000, 10, -1, 1024)) {
+                int a = journal.register("A");
+                second = System.nanoTime();
+                journal.append(a, second, 4);
+                journal.append(a, second + 2_500, 5);
+            }
+            // Make the second run look like another process, whose nanoTime origin is an hour later
+            long shift = 3_600_000_000_000L;
+            Path segment = segments(directory).get(1);
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(TopicJournal.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, 0);
+                header.putLong(24, header.getLong(24) - shift);
+                for (int i = 0; i < 2; i++) {
+                    ByteBuffer time = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                    long position = TopicJournal.HEADER_SIZE + (long) i * TopicJournal.RECORD_SIZE + 4;
+                    channel.read(time, position);
+                    time.putLong(0, time.getLong(0) - shift);
+                    time.rewind();
+                    channel.write(time, position);
+                }
+                header.rewind();
+                channel.write(header, 0);
+            }
+
+            ReplayEngine.Recording recording = ReplayEngine.load(directory);
+            long[] times = recording.times;
+            check(recording.size() == 4, "Records of known topics loaded");
+            check(recording.unknownRecords == 1, "Record of an unknown topic counted");
+            check(times[1] - times[0] == 1_500 && times[3] - times[2] == 2_500, "Spacing within a run taken from nanoTime");
+            long gap = times[2] - times[1];
+            check(gap >= 40_000_000L && gap < 10_000_000_000L, "Spacing between runs taken from the wall clock");
+            check(Math.abs(times[0] / 1_000_000 - System.currentTimeMillis()) < 60_000, "Schedule in epoch time");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testRollAndClose();
+        testReplaySchedule();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All journal tests passed");
+    }
+}
@@ -0,0 +1,150 @@
+package ExerciseTesters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import configs.GenericConfig;
+import graph.Agent;
+import graph.MemoAgent;
+import graph.Message;
+import graph.Pure;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.MetricsRegistry;
+
+public class test_memo { // MemoAgent caching of pure agents
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    /** Publishes the sum of the inputs it received since it was created or reset. */
+    @Pure(cacheSize = 2)
+    public static class SumAgent implements Agent {
+        final Topic[] inputs;
+        final Double[] values;
+        final Topic out;
+
+        public SumAgent(String[] subs, String[] pubs) {
+            TopicManager tm = TopicManagerSingleton.get();
+            inputs = new Topic[subs.length];
+            values = new Double[subs.length];
+            for (int i = 0; i < subs.length; i++) {
+                inputs[i] = tm.getTopic(subs[i]);
+                inputs[i].subscribe(this);
+            }
+            out = tm.getTopic(pubs[0]);
+            out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "SumAgent";
+        }
+
+        @Override
+        public void reset() {
+            java.util.Arrays.fill(values, null);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            double sum = 0;
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i].name.equals(topic)) {
+                    values[i] = msg.asDouble;
+                }
+                sum += values[i] != null ? values[i] : 0;
+            }
+            out.publish(new Message(sum));
+        }
+
+        @Override
+        public void close() {
+            for (Topic input : inputs) {
+                input.unsubscribe(this);
+            }
+            out.removePublisher(this);
+        }
+    }
+
+    private static GenericConfig create(String graphId, String text, Path file) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(TopicManagerSingleton.get(graphId));
+        config.create();
+        return config;
+    }
+
+    // The least recently used input combination is evicted when the cache is full
+    private static void testEviction() throws Exception {
+        String graphId = "test-memo-eviction";
+        Path file = Files.createTempFile("memo", ".conf");
+        GenericConfig config = create(graphId, "T.ExerciseTesters.test_memo$SumAgent\nA\nB\n", file);
+        try {
+            TopicManager tm = TopicManagerSingleton.get(graphId);
+            MemoAgent memo = (MemoAgent) config.agents.get(0).getAgent();
+            Topic a = tm.getTopic("A");
+            a.publish(new Message(1.0)); // Miss
+            a.publish(new Message(2.0)); // Miss
+            a.publish(new Message(1.0)); // Hit, 2 is now the least recently used
+            check(memo.getMissCount() == 2 && memo.getHitCount() == 1, "Repeated input answered from the cache");
+            check("1.0".equals(tm.getTopic("B").getLastMessage()), "Cached publication published again");
+
+            a.publish(new Message(3.0)); // Miss, evicts 2
+            a.publish(new Message(1.0)); // Hit, kept
+            a.publish(new Message(2.0)); // Miss, was evicted
+            check(memo.getMissCount() == 4 && memo.getHitCount() == 2, "Least recently used combination evicted");
+            check("2.0".equals(tm.getTopic("B").getLastMessage()), "Evicted combination computed again");
+            long evictions = MetricsRegistry.get().counter("memo_evictions_total",
+                    "Input combinations evicted from the cache of a pure agent.", "graph", graphId, "agent", "SumAgent").sum();
+            check(evictions == 2, "Evictions counted");
+        } finally {
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(file);
+        }
+    }
+
+    // After a reset the inputs received before are forgotten by the cache key too
+    private static void testReset() throws Exception {
+        String graphId = "test-memo-reset";
+        Path file = Files.createTempFile("memo", ".conf");
+        GenericConfig config = create(graphId, "T.ExerciseTesters.test_memo$SumAgent\nA,B\nC\n", file);
+        try {
+            TopicManager tm = TopicManagerSingleton.get(graphId);
+            MemoAgent memo = (MemoAgent) config.agents.get(0).getAgent();
+            tm.getTopic("A").publish(new Message(1.0));
+            tm.getTopic("B").publish(new Message(2.0));
+            check("3.0".equals(tm.getTopic("C").getLastMessage()), "Sum before the reset");
+
+            memo.reset();
+            tm.getTopic("A").publish(new Message(1.0)); // B was forgotten
+            check("1.0".equals(tm.getTopic("C").getLastMessage()), "Input combination after the reset");
+            tm.getTopic("B").publish(new Message(2.0));
+            check("3.0".equals(tm.getTopic("C").getLastMessage()), "Sum after the reset");
+        } finally {
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(file);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testEviction();
+        testReset();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All memo tests passed");
+    }
+}
@@ -0,0 +1,191 @@
+package ExerciseTesters;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.MetricsRegistry;
+
+public class test_parallel { // ParallelAgent queueing and closing
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static LongAdder dropped(String graphId) {
+        return MetricsRegistry.get().counter("agent_dropped_messages_total",
+                "Messages dropped because the receiving ParallelAgent was closed.", "graph", graphId);
+    }
+
+    private static ParallelAgent create(String graphId, Agent agent, int capacity) {
+        TopicManager previous = TopicManagerSingleton.bind(TopicManagerSingleton.get(graphId));
+        try {
+            return new ParallelAgent(agent, capacity, 1);
+        } finally {
+            TopicManagerSingleton.bind(previous);
+        }
+    }
+
+    // A publisher waiting for space when the agent closes drops its message instead of blocking forever
+    private static void testCloseWakesPublishers() throws Exception {
+        String graphId = "test-parallel-wake";
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        ParallelAgent parallel = create(graphId, new TestAgent() {
+            @Override
+            public void callback(String topic, Message msg) {
+                awaitQuietly(release);
+                processed.incrementAndGet();
+            }
+        }, 1);
+        try {
+            parallel.callback("In", new Message(1)); // Processed, holding the thread
+            Thread.sleep(50);
+            parallel.callback("In", new Message(2)); // Queued, the queue is full
+            Thread publisher = new Thread(() -> parallel.callback("In", new Message(3)));
+            publisher.start();
+            Thread.sleep(50);
+            check(publisher.isAlive(), "Publisher waiting for space");
+            Thread closer = new Thread(parallel::close);
+            closer.start();
+            publisher.join(TimeUnit.SECONDS.toMillis(5));
+            check(!publisher.isAlive(), "Publisher woken by close");
+            release.countDown();
+            closer.join(TimeUnit.SECONDS.toMillis(5));
+            check(!closer.isAlive(), "Close returned");
+            check(processed.get() == 2, "Queued messages processed before closing");
+            check(dropped(graphId).sum() == 1, "Message of the woken publisher counted as dropped");
+
+            parallel.callback("In", new Message(4));
+            check(processed.get() == 2 && dropped(graphId).sum() == 2, "Message after closing counted as dropped");
+        } finally {
+            release.countDown();
+            parallel.close();
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    // Closing from the agent's own callback with a full queue still stops the thread after the queue empties
+    private static void testCloseFromOwnThread() throws Exception {
+        String graphId = "test-parallel-self";
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        AtomicReference<ParallelAgent> self = new AtomicReference<>();
+        ParallelAgent parallel = create(graphId, new TestAgent() {
+            @Override
+            public void callback(String topic, Message msg) {
+                worker.set(Thread.currentThread());
+                if (processed.incrementAndGet() == 1) {
+                    awaitQuietly(release);
+                    self.get().close();
+                }
+            }
+        }, 2);
+        self.set(parallel);
+        try {
+            parallel.callback("In", new Message(1)); // Closes the agent once released
+            Thread.sleep(50);
+            parallel.callback("In", new Message(2));
+            parallel.callback("In", new Message(3)); // The queue is full
+            release.countDown();
+            Thread thread = waitFor(worker);
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+            check(!thread.isAlive(), "Thread stopped after closing from its own callback");
+            check(processed.get() == 3, "Messages queued before closing processed");
+            check(dropped(graphId).sum() == 0, "No message dropped");
+        } finally {
+            release.countDown();
+            parallel.close();
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    // Publishers racing with close either deliver or count their message, none is lost
+    private static void testCloseRace() throws Exception {
+        String graphId = "test-parallel-race";
+        AtomicInteger processed = new AtomicInteger();
+        ParallelAgent parallel = create(graphId, new TestAgent() {
+            @Override
+            public void callback(String topic, Message msg) {
+                processed.incrementAndGet();
+            }
+        }, 4);
+        int publishers = 4;
+        int messages = 10_000;
+        Thread[] threads = new Thread[publishers];
+        try {
+            for (int p = 0; p < publishers; p++) {
+                threads[p] = new Thread(() -> {
+                    for (int i = 0; i < messages; i++) {
+                        parallel.callback("In", new Message(i));
+                    }
+                });
+                threads[p].start();
+            }
+            Thread.sleep(5);
+            parallel.close();
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+                check(!thread.isAlive(), "Publisher finished after closing");
+            }
+            check(processed.get() + dropped(graphId).sum() == (long) publishers * messages, "Every message processed or dropped");
+        } finally {
+            parallel.close();
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Thread waitFor(AtomicReference<Thread> ref) throws InterruptedException {
+        while (ref.get() == null) {
+            Thread.sleep(1);
+        }
+        return ref.get();
+    }
+
+    private abstract static class TestAgent implements Agent {
+        @Override
+        public String getName() {
+            return "TestAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testCloseWakesPublishers();
+        testCloseFromOwnThread();
+        testCloseRace();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All ParallelAgent tests passed");
+    }
+}
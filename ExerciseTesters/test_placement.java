@@ -0,0 +1,130 @@
+package ExerciseTesters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import configs.GenericConfig;
+import configs.Placement;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+public class test_placement { // Placement of the ParallelAgent threads of a configuration
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static TreeSet<Integer> cpus(int[] list) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int cpu : list) {
+            set.add(cpu);
+        }
+        return set;
+    }
+
+    // Parses a kernel CPU list such as 0-3,8
+    private static TreeSet<Integer> cpus(String list) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (String range : list.trim().split(",")) {
+            String[] bounds = range.split("-");
+            for (int cpu = Integer.parseInt(bounds[0]); cpu <= Integer.parseInt(bounds[bounds.length - 1]); cpu++) {
+                set.add(cpu);
+            }
+        }
+        return set;
+    }
+
+    // Returns the CPUs a thread of this process may run on, null if unknown
+    private static TreeSet<Integer> allowedCpus(long tid) throws Exception {
+        Path status = Paths.get("/proc/self/task/" + tid + "/status");
+        if (tid < 0 || !Files.exists(status)) {
+            return null;
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+            if (line.startsWith("Cpus_allowed_list:")) {
+                return cpus(line.substring(line.indexOf(':') + 1));
+            }
+        }
+        return null;
+    }
+
+    private static boolean tasksetAvailable() {
+        try {
+            Process process = new ProcessBuilder("taskset", "-p", "1").redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            return process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // A configuration in asynchronous mode places its agents along the chain and pins their threads
+    private static void testConfigGraph() throws Exception {
+        String graphId = "test-placement";
+        TopicManager tm = TopicManagerSingleton.get(graphId);
+        Path file = Files.createTempFile("placement", ".conf");
+        // A chain A -> B -> C -> D -> E, listed out of order
+        Files.write(file, ("T.configs.IncAgent\nC\nD\nT.configs.IncAgent\nA\nB\n"
+                + "T.configs.IncAgent\nD\nE\nT.configs.IncAgent\nB\nC\n").getBytes(StandardCharsets.UTF_8));
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(tm);
+        config.setAsync(true);
+        config.setPlacement(true);
+        try {
+            config.create();
+            List<ParallelAgent> agents = config.agents;
+            for (ParallelAgent agent : agents) {
+                check(agent.getAffinity() != null, "Agent placed when the configuration is created");
+            }
+
+            Map<ParallelAgent, int[]> plan = Placement.plan(tm, new int[][]{{0}, {1}, {2}, {3}});
+            List<ParallelAgent> chain = Arrays.asList(agents.get(1), agents.get(3), agents.get(0), agents.get(2));
+            check(new ArrayList<>(plan.keySet()).equals(chain), "Agents ordered along the chain");
+            for (int i = 0; i < chain.size(); i++) {
+                check(Arrays.equals(plan.get(chain.get(i)), new int[]{i}), "Agent " + i + " of the chain on its own group");
+            }
+
+            tm.getTopic("A").publish(new Message(1.0)); // Starts the threads
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!"5.0".equals(tm.getTopic("E").getLastMessage()) && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            check("5.0".equals(tm.getTopic("E").getLastMessage()), "Message through the placed chain");
+            if (tasksetAvailable()) {
+                for (ParallelAgent agent : agents) {
+                    TreeSet<Integer> allowed = allowedCpus(agent.getThreadId());
+                    check(allowed != null && allowed.equals(cpus(agent.getAffinity())), "Thread pinned to its group");
+                }
+            }
+        } finally {
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(file);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testConfigGraph();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All placement tests passed");
+    }
+}
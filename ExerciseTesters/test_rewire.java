@@ -0,0 +1,258 @@
+package ExerciseTesters;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import configs.GenericConfig;
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser;
+import servlets.ConfLoader;
+
+public class test_rewire { // Hot reload and TopicManager.rewire
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static Path writeConfig(String text) throws Exception {
+        Path file = Files.createTempFile("rewire", ".conf");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static GenericConfig load(TopicManager tm, Path file, GenericConfig running) throws Exception {
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(tm);
+        if (running == null) {
+            config.create();
+        } else {
+            config.createFrom(running);
+        }
+        return config;
+    }
+
+    // Unchanged agents are kept with their state, new agents are added and removed agents detached
+    private static void testDiff() throws Exception {
+        TopicManager tm = TopicManagerSingleton.get("test-rewire-diff");
+        Path first = writeConfig("T.configs.PlusAgent\nA,B\nC\nT.configs.IncAgent\nC\nD\nT.configs.IncAgent\nA\nX\n");
+        Path second = writeConfig("T.configs.PlusAgent\nA,B\nC\nT.configs.IncAgent\nC\nD\nT.configs.IncAgent\nD\nE\n");
+        GenericConfig running = null;
+        GenericConfig reloaded = null;
+        try {
+            running = load(tm, first, null);
+            ParallelAgent plus = running.agents.get(0);
+            ParallelAgent inc = running.agents.get(1);
+            tm.getTopic("A").publish(new Message(1.0));
+            tm.getTopic("B").publish(new Message(2.0));
+            check("4.0".equals(tm.getTopic("D").getLastMessage()), "First configuration");
+
+            reloaded = load(tm, second, running);
+            check(reloaded.agents.size() == 3, "Agent count after reload");
+            check(reloaded.agents.get(0) == plus && reloaded.agents.get(1) == inc, "Unchanged agents kept");
+            check(running.agents.isEmpty(), "Running configuration emptied");
+            check(!tm.getTopics().containsKey("X"), "Unused topic removed");
+
+            tm.getTopic("A").publish(new Message(5.0)); // The kept PlusAgent still holds B = 2
+            check("9.0".equals(tm.getTopic("E").getLastMessage()), "Reloaded configuration");
+        } finally {
+            if (reloaded != null) {
+                reloaded.close();
+            } else if (running != null) {
+                running.close();
+            }
+            TopicManagerSingleton.remove("test-rewire-diff");
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    // Publications during a rewiring are delivered along the old graph, the new one applies when it ends
+    private static void testSnapshots() throws Exception {
+        TopicManager tm = TopicManagerSingleton.get("test-rewire-snapshot");
+        Topic topic = tm.getTopic("In");
+        int[] oldCount = {0};
+        int[] newCount = {0};
+        Agent oldAgent = new CountingAgent(oldCount);
+        Agent newAgent = new CountingAgent(newCount);
+        topic.subscribe(oldAgent);
+        try {
+            tm.rewire(() -> {
+                topic.unsubscribe(oldAgent);
+                topic.subscribe(newAgent);
+                topic.publish(new Message(1.0));
+                return null;
+            });
+            check(oldCount[0] == 1 && newCount[0] == 0, "Publication during the rewiring");
+            topic.publish(new Message(2.0));
+            check(oldCount[0] == 1 && newCount[0] == 1, "Publication after the rewiring");
+        } finally {
+            TopicManagerSingleton.remove("test-rewire-snapshot");
+        }
+    }
+
+    // A publisher blocked on a full ParallelAgent queue while a rewiring waits must not deadlock
+    private static void testNoDeadlock() throws Exception {
+        TopicManager tm = TopicManagerSingleton.get("test-rewire-deadlock");
+        Topic in = tm.getTopic("In");
+        Topic out = tm.getTopic("Out");
+        CountDownLatch release = new CountDownLatch(1);
+        Agent slow = new Agent() {
+            @Override
+            public String getName() {
+                return "Slow";
+            }
+
+            @Override
+            public void reset() {
+            }
+
+            @Override
+            public void callback(String topic, Message msg) {
+                try {
+                    release.await(); // Holds the queue full until the rewiring is pending
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.publish(msg);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ParallelAgent parallel = new ParallelAgent(slow, 1);
+        in.subscribe(parallel);
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                in.publish(new Message(i));
+            }
+        });
+        Thread rewirer = new Thread(() -> {
+            try {
+                tm.rewire(() -> {
+                    tm.getTopic("Other").subscribe(new CountingAgent(new int[1]));
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            publisher.start();
+            Thread.sleep(100);
+            rewirer.start();
+            Thread.sleep(100);
+            release.countDown();
+            publisher.join(TimeUnit.SECONDS.toMillis(5));
+            rewirer.join(TimeUnit.SECONDS.toMillis(5));
+            check(!publisher.isAlive() && !rewirer.isAlive(), "Publishing while rewiring without deadlock");
+        } finally {
+            parallel.close();
+            TopicManagerSingleton.remove("test-rewire-deadlock");
+        }
+    }
+
+    // Concurrent uploads to one graph are applied one at a time, without leaking agents
+    private static void testConcurrentUploads() throws Exception {
+        String graphId = "test-rewire-upload";
+        Path dir = Paths.get(System.getProperty("user.dir"), "uploads", graphId);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("one.conf"), "T.configs.PlusAgent\nA,B\nC\nT.configs.IncAgent\nC\nD\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("two.conf"), "T.configs.PlusAgent\nA,B\nC\nT.configs.IncAgent\nC\nE\n".getBytes(StandardCharsets.UTF_8));
+        ConfLoader loader = new ConfLoader();
+        List<Thread> uploads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String conf = i % 2 == 0 ? "one.conf" : "two.conf";
+            String mode = i % 3 == 0 ? "&mode=replace" : "";
+            uploads.add(new Thread(() -> {
+                try {
+                    RequestParser.RequestInfo ri = RequestParser.parseRequest(new BufferedReader(new StringReader(
+                            "GET /upload?graph=" + graphId + "&conf=" + conf + mode + " HTTP/1.1\nHost: localhost\n\n")));
+                    loader.handle(ri, new ByteArrayOutputStream());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        try {
+            for (Thread upload : uploads) {
+                upload.start();
+            }
+            for (Thread upload : uploads) {
+                upload.join(TimeUnit.SECONDS.toMillis(30));
+            }
+            TopicManager tm = TopicManagerSingleton.get(graphId);
+            GenericConfig active = loader.getActiveConfig(graphId);
+            check(active != null && active.agents.size() == 2, "Active configuration after concurrent uploads");
+            check(tm.getTopic("A").getSubs().size() == 1 && tm.getTopic("C").getSubs().size() == 1,
+                    "No agents leaked by concurrent uploads");
+        } finally {
+            GenericConfig active = loader.getActiveConfig(graphId);
+            if (active != null) {
+                active.close();
+            }
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(dir.resolve("one.conf"));
+            Files.delete(dir.resolve("two.conf"));
+            Files.delete(dir);
+        }
+    }
+
+    private static final class CountingAgent implements Agent {
+        private final int[] count;
+
+        CountingAgent(int[] count) {
+            this.count = count;
+        }
+
+        @Override
+        public String getName() {
+            return "CountingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            count[0]++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testDiff();
+        testSnapshots();
+        testNoDeadlock();
+        testConcurrentUploads();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All rewire tests passed");
+    }
+}
@@ -0,0 +1,154 @@
+package ExerciseTesters;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import configs.GenericConfig;
+import configs.GraphSnapshot;
+import graph.Message;
+import graph.StatefulAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+public class test_snapshot { // GraphSnapshot save and load
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    /**
+     * Keeps every value it received, and reports a stale state size, as if it grew while being saved.
+     * It never publishes to its publication topic.
+     */
+    public static class GrowingAgent implements StatefulAgent {
+        final Topic in;
+        final Topic out;
+        final List<Double> values = new ArrayList<>();
+
+        public GrowingAgent(String[] subs, String[] pubs) {
+            in = TopicManagerSingleton.get().getTopic(subs[0]);
+            out = TopicManagerSingleton.get().getTopic(pubs[0]);
+            in.subscribe(this);
+            out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "GrowingAgent";
+        }
+
+        @Override
+        public void reset() {
+            values.clear();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            values.add(msg.asDouble);
+        }
+
+        @Override
+        public void close() {
+            in.unsubscribe(this);
+            out.removePublisher(this);
+        }
+
+        @Override
+        public int stateSize() {
+            return 4; // Sized before the values arrived
+        }
+
+        @Override
+        public void saveState(ByteBuffer out) {
+            out.putInt(values.size());
+            for (double value : values) {
+                out.putDouble(value);
+            }
+        }
+
+        @Override
+        public void loadState(ByteBuffer in) {
+            values.clear();
+            for (int i = in.getInt(); i > 0; i--) {
+                values.add(in.getDouble());
+            }
+        }
+    }
+
+    private static GenericConfig create(String graphId, Path conf) throws Exception {
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(conf.toString());
+        config.setTopicManager(TopicManagerSingleton.get(graphId));
+        config.create();
+        return config;
+    }
+
+    // Topic values and agent states are restored, and the restored agents continue from them
+    private static void testRoundTrip() throws Exception {
+        String graphId = "test-snapshot";
+        Path conf = Files.createTempFile("snapshot", ".conf");
+        Path restoredConf = Files.createTempFile("snapshot-restored", ".conf");
+        Path snapshot = Files.createTempFile("snapshot", ".snap");
+        Files.write(conf, ("T.configs.PlusAgent\nA,B\nC\nT.configs.IncAgent\nC\nD\n"
+                + "T.ExerciseTesters.test_snapshot$GrowingAgent\nA\nX\n").getBytes(StandardCharsets.UTF_8));
+        GenericConfig config = create(graphId, conf);
+        GenericConfig restored = null;
+        try {
+            TopicManager tm = TopicManagerSingleton.get(graphId);
+            for (int i = 0; i < 100; i++) {
+                tm.getTopic("A").publish(new Message(i));
+            }
+            tm.getTopic("B").publish(new Message(2.0));
+            check("101.0".equals(tm.getTopic("C").getLastMessage()) && "102.0".equals(tm.getTopic("D").getLastMessage()),
+                    "Graph before the snapshot");
+            GraphSnapshot.save(config, snapshot);
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+
+            restored = GraphSnapshot.load(snapshot, restoredConf);
+            tm = TopicManagerSingleton.get(graphId);
+            check(restored.getTopicManager() == tm, "Restored in the saved graph");
+            check("101.0".equals(tm.getTopic("C").getLastMessage()) && "102.0".equals(tm.getTopic("D").getLastMessage()),
+                    "Topic values restored");
+            Topic unpublished = tm.getTopic("X");
+            check(!unpublished.hasPublished(), "Topic never published to still unpublished");
+            unpublished.setDedup(0);
+            unpublished.publish(new Message(0.0));
+            check(unpublished.getPublishCount() == 1, "First publication of the initial value not suppressed");
+            GrowingAgent growing = (GrowingAgent) restored.agents.get(2).getAgent();
+            check(growing.values.size() == 100 && growing.values.get(99) == 99.0, "State larger than its reported size restored");
+
+            tm.getTopic("A").publish(new Message(5.0)); // The restored PlusAgent still holds B = 2
+            check("7.0".equals(tm.getTopic("C").getLastMessage()) && "8.0".equals(tm.getTopic("D").getLastMessage()),
+                    "Agents continue from the restored state");
+        } finally {
+            config.close();
+            if (restored != null) {
+                restored.close();
+            }
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(conf);
+            Files.delete(restoredConf);
+            Files.delete(snapshot);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testRoundTrip();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All snapshot tests passed");
+    }
+}
@@ -0,0 +1,104 @@
+package ExerciseTesters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import configs.GenericConfig;
+import graph.Agent;
+import graph.Message;
+import graph.Propagation;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+public class test_waves { // Join agents in the wave mode of Propagation
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    /** Records the values published on a topic. */
+    private static final class Recorder implements Agent {
+        final List<Double> values = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "Recorder";
+        }
+
+        @Override
+        public void reset() {
+            values.clear();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            values.add(msg.asDouble);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // In a diamond and a join of two depths, every join fires once per publication, with fresh inputs only
+    private static void testDiamond() throws Exception {
+        String graphId = "test-waves";
+        TopicManager tm = TopicManagerSingleton.get(graphId);
+        Path file = Files.createTempFile("waves", ".conf");
+        // A -> R1, A -> R2, (R1, R2) -> R3, R3 -> R4, (R4, R1) -> R5
+        Files.write(file, ("T.configs.IncAgent\nA\nR1\nT.configs.IncAgent\nA\nR2\nT.configs.PlusAgent\nR1,R2\nR3\n"
+                + "T.configs.IncAgent\nR3\nR4\nT.configs.PlusAgent\nR4,R1\nR5\n").getBytes(StandardCharsets.UTF_8));
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(tm);
+        Recorder r3 = new Recorder();
+        Recorder r5 = new Recorder();
+        try {
+            config.create();
+            tm.getTopic("R3").subscribe(r3);
+            tm.getTopic("R5").subscribe(r5);
+            Topic a = tm.getTopic("A");
+            long coalesced = Propagation.getCoalescedCount();
+
+            a.publish(new Message(1.0));
+            check(r3.values.equals(List.of(4.0)), "Diamond join fired once with both inputs");
+            check(r5.values.equals(List.of(7.0)), "Join of two depths fired once with both inputs");
+
+            a.publish(new Message(5.0));
+            check(r3.values.equals(List.of(4.0, 12.0)), "No stale input in the second wave");
+            check(r5.values.equals(List.of(7.0, 19.0)), "No stale input at the deeper join");
+            // Per wave, R3 merges R2 into the firing queued by R1, and R5 merges R4 into the one queued by R1
+            check(Propagation.getCoalescedCount() - coalesced == 4, "Inputs merged into queued firings counted");
+
+            // A wave started in the middle of the graph: R5 is reached by R1 and later by R4, and fires once
+            tm.getTopic("R1").publish(new Message(10.0));
+            check(r3.values.equals(List.of(4.0, 12.0, 16.0)), "Join fired by a publication on one input");
+            check(r5.values.equals(List.of(7.0, 19.0, 27.0)), "Join reached twice fired once with the last values");
+        } finally {
+            tm.getTopic("R3").unsubscribe(r3);
+            tm.getTopic("R5").unsubscribe(r5);
+            config.close();
+            TopicManagerSingleton.remove(graphId);
+            Files.delete(file);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("graph.joins", "wave"); // Read when Propagation is loaded
+        testDiamond();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All wave tests passed");
+    }
+}
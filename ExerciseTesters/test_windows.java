@@ -0,0 +1,229 @@
+package ExerciseTesters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import configs.MaxWindowAgent;
+import configs.MeanWindowAgent;
+import configs.MinWindowAgent;
+import configs.PercentileWindowAgent;
+import configs.QuantileSketch;
+import configs.SumWindowAgent;
+import configs.VarianceWindowAgent;
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+public class test_windows { // Windowed aggregation agents and QuantileSketch
+
+    private static int failures = 0;
+
+    private static void check(boolean ok, String test) {
+        if (!ok) {
+            System.out.println(test + " test failed");
+            failures++;
+        }
+    }
+
+    private static boolean near(double actual, double expected, double relative) {
+        return Math.abs(actual - expected) <= relative * Math.abs(expected);
+    }
+
+    /** Records the values published on a topic. */
+    private static final class Recorder implements Agent {
+        final List<Double> values = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "Recorder";
+        }
+
+        @Override
+        public void reset() {
+            values.clear();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            values.add(msg.asDouble);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Creates a window agent on IN publishing to OUT, publishes the values to IN and returns what was published on OUT.
+     */
+    private static List<Double> run(String type, String[] args, double... inputs) {
+        String graphId = "test-windows";
+        TopicManager tm = TopicManagerSingleton.get(graphId);
+        TopicManager previous = TopicManagerSingleton.bind(tm);
+        try {
+            String[] subs = {"IN"};
+            String[] pubs = {"OUT"};
+            Agent agent;
+            switch (type) {
+                case "sum":
+                    agent = new SumWindowAgent(subs, pubs, args);
+                    break;
+                case "mean":
+                    agent = new MeanWindowAgent(subs, pubs, args);
+                    break;
+                case "variance":
+                    agent = new VarianceWindowAgent(subs, pubs, args);
+                    break;
+                case "min":
+                    agent = new MinWindowAgent(subs, pubs, args);
+                    break;
+                case "max":
+                    agent = new MaxWindowAgent(subs, pubs, args);
+                    break;
+                default:
+                    agent = new PercentileWindowAgent(subs, pubs, args);
+            }
+            Recorder recorder = new Recorder();
+            tm.getTopic("OUT").subscribe(recorder);
+            for (double input : inputs) {
+                tm.getTopic("IN").publish(new Message(input));
+            }
+            agent.close();
+            return recorder.values;
+        } finally {
+            TopicManagerSingleton.bind(previous);
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    // Count windows: a sliding window publishes on every value, a tumbling one once it is full
+    private static void testCountWindows() {
+        check(run("sum", new String[]{"3"}, 1, 2, 3, 4, 5).equals(List.of(1.0, 3.0, 6.0, 9.0, 12.0)), "Sliding sum");
+        check(run("mean", new String[]{"2", "tumbling"}, 1, 3, 5, 7, 9).equals(List.of(2.0, 6.0)), "Tumbling mean");
+        check(run("sum", new String[0], 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1).equals(List.of(1.0, 2.0, 3.0, 4.0, 5.0,
+                6.0, 7.0, 8.0, 9.0, 10.0, 10.0, 10.0)), "Default window of 10 values");
+        check(run("max", new String[]{"3"}, 3, 1, 2, 5, 4, 1, 1).equals(List.of(3.0, 3.0, 3.0, 5.0, 5.0, 5.0, 4.0)), "Sliding max");
+        check(run("min", new String[]{"3"}, 3, 1, 2, 5, 4, 1, 6).equals(List.of(3.0, 1.0, 1.0, 1.0, 2.0, 1.0, 1.0)), "Sliding min");
+        check(run("max", new String[]{"2"}, 5, 5, 1, 1).equals(List.of(5.0, 5.0, 5.0, 1.0)), "Equal values kept by the max queue");
+        check(run("max", new String[]{"2", "tumbling"}, 1, 4, 3, 2).equals(List.of(4.0, 3.0)), "Tumbling max");
+
+        List<Double> variance = run("variance", new String[]{"4"}, 1e9 + 1, 1e9 + 2, 1e9 + 3, 1e9 + 4, 1e9 + 5);
+        check(near(variance.get(3), 1.25, 1e-6) && near(variance.get(4), 1.25, 1e-6), "Variance of large values");
+
+        double[] inputs = new double[100];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = i + 1;
+        }
+        List<Double> median = run("percentile", new String[]{"11", "sliding", "50"}, inputs);
+        check(near(median.get(99), 95, 0.01), "Sliding median");
+        List<Double> p90 = run("percentile", new String[]{"50", "tumbling", "90"}, inputs);
+        check(p90.size() == 2 && near(p90.get(0), 45, 0.01) && near(p90.get(1), 95, 0.01), "Tumbling percentile");
+
+        check(run("sum", new String[]{"2"}, 1, Double.NaN, 2).equals(List.of(1.0, 3.0)), "Values that are not numbers ignored");
+    }
+
+    /** Waits until the start of the next period of the wall clock plus the given margin. */
+    private static void alignTo(long periodMillis, long marginMillis) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Thread.sleep(periodMillis - Math.floorMod(now, periodMillis) + marginMillis);
+    }
+
+    // Time windows, measured with the timestamps of the messages
+    private static void testTimeWindows() throws Exception {
+        String graphId = "test-windows-time";
+        TopicManager tm = TopicManagerSingleton.get(graphId);
+        TopicManager previous = TopicManagerSingleton.bind(tm);
+        try {
+            SumWindowAgent sliding = new SumWindowAgent(new String[]{"IN"}, new String[]{"SLIDING"}, new String[]{"300ms"});
+            SumWindowAgent tumbling = new SumWindowAgent(new String[]{"IN"}, new String[]{"TUMBLING"}, new String[]{"300ms", "tumbling"});
+            Recorder slidingOut = new Recorder();
+            Recorder tumblingOut = new Recorder();
+            tm.getTopic("SLIDING").subscribe(slidingOut);
+            tm.getTopic("TUMBLING").subscribe(tumblingOut);
+            Topic in = tm.getTopic("IN");
+
+            alignTo(300, 20);
+            in.publish(new Message(1.0));
+            in.publish(new Message(2.0));
+            check(slidingOut.values.equals(List.of(1.0, 3.0)), "Sliding time window within its duration");
+            check(tumblingOut.values.isEmpty(), "Tumbling time window open");
+            alignTo(300, 100); // At least 300ms after the first values, early in the next window
+            in.publish(new Message(4.0));
+            check(slidingOut.values.equals(List.of(1.0, 3.0, 4.0)), "Values older than the duration evicted");
+            check(tumblingOut.values.equals(List.of(3.0)), "Tumbling time window closed by the next window");
+            sliding.close();
+            tumbling.close();
+        } finally {
+            TopicManagerSingleton.bind(previous);
+            TopicManagerSingleton.remove(graphId);
+        }
+    }
+
+    // Quantiles within the relative accuracy, also when the bucket range moved while values were removed
+    private static void testSketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+            sketch.add(-i);
+        }
+        sketch.add(0);
+        check(sketch.count() == 2001, "Values counted");
+        check(near(sketch.quantile(0.75), 500, 0.01) && near(sketch.quantile(0.25), -500, 0.01), "Quantiles of both signs");
+        check(sketch.quantile(0.5) == 0 && near(sketch.quantile(1), 1000, 0.01), "Zero and maximum");
+        sketch.clear();
+        check(sketch.count() == 0 && Double.isNaN(sketch.quantile(0.5)), "Empty sketch");
+
+        // A value collapsed into the lowest bucket is removed from that bucket
+        sketch = new QuantileSketch(0.01, 16);
+        double gamma = 1.01 / 0.99;
+        double[] values = new double[3];
+        int[] indexes = {20, 27, 5};
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 2 * Math.pow(gamma, indexes[i]) / (gamma + 1); // The value representing the bucket
+            sketch.add(values[i]);
+        }
+        check(sketch.isCollapsed(), "Lowest value collapsed");
+        for (double value : values) {
+            sketch.remove(value);
+        }
+        check(sketch.count() == 0 && !sketch.isCollapsed(), "Collapsed value removed");
+        sketch.add(values[2]);
+        check(near(sketch.quantile(0.5), values[2], 0.01), "Value after removing collapsed values");
+    }
+
+    // A sliding percentile over values spanning more decades than the buckets, then over a narrow range
+    private static void testWideWindow() {
+        Random random = new Random(42);
+        double[] inputs = new double[2000];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = i < 1000 ? Math.pow(10, random.nextDouble() * 24 - 12) : 1 + random.nextDouble();
+        }
+        for (String quantile : new String[]{"0", "50", "100"}) {
+            List<Double> published = run("percentile", new String[]{"50", "sliding", quantile}, inputs);
+            double q = Double.parseDouble(quantile) / 100;
+            boolean accurate = true;
+            for (int i = 1100; i < inputs.length; i++) { // Rebuilt once the wide values left the window
+                double[] window = Arrays.copyOfRange(inputs, i - 49, i + 1);
+                Arrays.sort(window);
+                accurate &= near(published.get(i), window[(int) (q * (window.length - 1))], 0.01);
+            }
+            check(accurate, "Quantile " + quantile + " of a sliding window after a wide range");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        testCountWindows();
+        testTimeWindows();
+        testSketch();
+        testWideWindow();
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All window tests passed");
+    }
+}
@@ -0,0 +1,353 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import metrics.LatencyHistogram;
+
+/**
+ * A small benchmark harness: warmup and measurement iterations of a fixed duration, results on
+ * stdout and in a JSON file, and an optional comparison against the results of an earlier run.
+ * <p>
+ * Benchmarks run in one of two modes. {@link #averageTime} calls the operation in batches and reports
+ * the average time per call, for operations far shorter than a clock read. {@link #sample} times every
+ * call on its own and also reports percentiles, for latencies and for operations that need a cleanup
+ * outside the measured time. Every operation returns a value that is folded into a sink, so the JIT
+ * cannot drop the work.
+ * </p>
+ * The JSON file uses the field names of JMH's JSON output (benchmark, mode, primaryMetric.score,
+ * scoreError, scoreUnit, scorePercentiles, rawData), so the usual JMH result viewers read it.
+ * The runner is configured with system properties:
+ * <ul>
+ *     <li>{@code bench.warmup}: warmup iterations, default 3</li>
+ *     <li>{@code bench.iterations}: measurement iterations, default 5</li>
+ *     <li>{@code bench.time}: duration of an iteration in milliseconds, default 1000</li>
+ *     <li>{@code bench.filter}: a regular expression, only the benchmarks whose name contains a match run</li>
+ *     <li>{@code bench.out}: the JSON result file, default bench-results.json</li>
+ *     <li>{@code bench.baseline}: the JSON result file of an earlier run to compare against</li>
+ *     <li>{@code bench.threshold}: the slowdown in percent reported as a regression, default 10</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A benchmarked operation.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @return Any value derived from the result, consumed so the work is not optimized away.
+         * @throws Exception If the operation fails; the benchmark is aborted.
+         */
+        long run() throws Exception;
+
+        /**
+         * Cleans up after one call, outside the measured time. Only called in sample mode.
+         *
+         * @throws Exception If the cleanup fails; the benchmark is aborted.
+         */
+        default void after() throws Exception {
+        }
+    }
+
+    // Two-sided 99.9% quantiles of Student's t distribution for 1 to 10 degrees of freedom, as JMH reports
+    private static final double[] T_999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+    private static final double Z_999 = 3.29;
+
+    private static final double[] PERCENTILES = {0, 50, 90, 99, 99.9, 100};
+
+    private final int warmupIterations = Integer.getInteger("bench.warmup", 3);
+    private final int measurementIterations = Math.max(1, Integer.getInteger("bench.iterations", 5));
+    private final long iterationNanos = Long.getLong("bench.time", 1000) * 1_000_000L;
+    private final Pattern filter = Pattern.compile(System.getProperty("bench.filter", ""));
+    private final List<Result> results = new ArrayList<>();
+    private long sink;
+
+    /**
+     * Returns whether a benchmark is selected by the filter, so callers can skip its setup.
+     *
+     * @param name The benchmark name.
+     * @return Whether the benchmark runs.
+     */
+    public boolean selected(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Measures the average time of an operation, calling it in batches long enough to hide the clock.
+     *
+     * @param name The benchmark name.
+     * @param unit The reported unit: "ns", "us" or "ms".
+     * @param op   The operation.
+     * @throws Exception If the operation fails.
+     */
+    public void averageTime(String name, String unit, Operation op) throws Exception {
+        if (!selected(name)) {
+            return;
+        }
+        // Grow the batch until it takes at least 100 microseconds
+        long batch = 1;
+        while (timeBatch(op, batch) < 100_000 && batch < (1L << 30)) {
+            batch *= 2;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            averageIteration(op, batch);
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = averageIteration(op, batch) / divisor(unit);
+        }
+        report(new Result(name, "avgt", unit + "/op", scores, null));
+    }
+
+    /**
+     * Runs batches for one iteration and returns the average nanoseconds per call.
+     */
+    private double averageIteration(Operation op, long batch) throws Exception {
+        long calls = 0;
+        long elapsed = 0;
+        while (elapsed < iterationNanos) {
+            elapsed += timeBatch(op, batch);
+            calls += batch;
+        }
+        return (double) elapsed / calls;
+    }
+
+    private long timeBatch(Operation op, long batch) throws Exception {
+        long value = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < batch; i++) {
+            value ^= op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += value;
+        return elapsed;
+    }
+
+    /**
+     * Times every call of an operation and reports the mean and the percentiles of the calls.
+     *
+     * @param name The benchmark name.
+     * @param unit The reported unit: "ns", "us" or "ms".
+     * @param op   The operation.
+     * @throws Exception If the operation fails.
+     */
+    public void sample(String name, String unit, Operation op) throws Exception {
+        if (!selected(name)) {
+            return;
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < warmupIterations; i++) {
+            sampleIteration(op, histogram);
+        }
+        histogram.reset();
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = sampleIteration(op, histogram) / divisor(unit);
+        }
+        report(new Result(name, "sample", unit + "/op", scores, histogram));
+    }
+
+    /**
+     * Runs timed calls for one iteration, recording each, and returns the average nanoseconds per call.
+     */
+    private double sampleIteration(Operation op, LatencyHistogram histogram) throws Exception {
+        long calls = 0;
+        long measured = 0;
+        long end = System.nanoTime() + iterationNanos;
+        long value = 0;
+        do {
+            long start = System.nanoTime();
+            value ^= op.run();
+            long elapsed = System.nanoTime() - start;
+            op.after();
+            histogram.record(elapsed);
+            measured += elapsed;
+            calls++;
+        } while (System.nanoTime() < end);
+        sink += value;
+        return (double) measured / calls;
+    }
+
+    private static double divisor(String unit) {
+        switch (unit) {
+            case "ns":
+                return 1;
+            case "us":
+                return 1e3;
+            case "ms":
+                return 1e6;
+            default:
+                throw new IllegalArgumentException("Unknown unit " + unit);
+        }
+    }
+
+    private void report(Result result) {
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-40s %-6s %14.3f +- %10.3f %s%n",
+                result.name, result.mode, result.score, result.error, result.unit);
+        if (result.histogram != null) {
+            double unit = result.score > 0 ? result.histogram.getMean() / result.score : 1;
+            System.out.printf(Locale.ROOT, "%-40s        p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f %s (%d samples)%n", "",
+                    result.histogram.getValueAtPercentile(50) / unit,
+                    result.histogram.getValueAtPercentile(99) / unit,
+                    result.histogram.getValueAtPercentile(99.9) / unit,
+                    result.histogram.getMax() / unit, result.unit, result.histogram.getCount());
+        }
+    }
+
+    /**
+     * Writes the results as JSON and, if a baseline is configured, compares them against it.
+     *
+     * @return The number of regressions against the baseline, 0 without a baseline.
+     * @throws IOException If the results cannot be written or the baseline cannot be read.
+     */
+    public int finish() throws IOException {
+        if (sink == 42) {
+            System.out.println(); // Keeps the sink alive
+        }
+        Path out = Paths.get(System.getProperty("bench.out", "bench-results.json"));
+        Files.write(out, toJson().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.toAbsolutePath());
+
+        String baseline = System.getProperty("bench.baseline");
+        return baseline == null ? 0 : compare(Paths.get(baseline), Double.parseDouble(System.getProperty("bench.threshold", "10")));
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int r = 0; r < results.size(); r++) {
+            Result result = results.get(r);
+            json.append("    {\n");
+            json.append("        \"benchmark\" : \"").append(result.name).append("\",\n");
+            json.append("        \"mode\" : \"").append(result.mode).append("\",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 1,\n");
+            json.append("        \"jvm\" : \"").append(escape(System.getProperty("java.home"))).append("\",\n");
+            json.append("        \"jdkVersion\" : \"").append(System.getProperty("java.version")).append("\",\n");
+            json.append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            json.append("        \"warmupTime\" : \"").append(iterationNanos / 1_000_000).append(" ms\",\n");
+            json.append("        \"measurementIterations\" : ").append(measurementIterations).append(",\n");
+            json.append("        \"measurementTime\" : \"").append(iterationNanos / 1_000_000).append(" ms\",\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(number(result.score)).append(",\n");
+            json.append("            \"scoreError\" : ").append(number(result.error)).append(",\n");
+            json.append("            \"scoreUnit\" : \"").append(result.unit).append("\",\n");
+            if (result.histogram != null) {
+                double unit = result.score > 0 ? result.histogram.getMean() / result.score : 1;
+                json.append("            \"scorePercentiles\" : {");
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    long value = PERCENTILES[i] == 100 ? result.histogram.getMax()
+                            : result.histogram.getValueAtPercentile(PERCENTILES[i]);
+                    json.append(i == 0 ? "\n" : ",\n").append("                \"")
+                            .append(String.format(Locale.ROOT, "%.1f", PERCENTILES[i]))
+                            .append("\" : ").append(number(value / unit));
+                }
+                json.append("\n            },\n");
+            }
+            json.append("            \"rawData\" : [[");
+            for (int i = 0; i < result.scores.length; i++) {
+                json.append(i == 0 ? "" : ", ").append(number(result.scores[i]));
+            }
+            json.append("]]\n");
+            json.append("        }\n");
+            json.append(r == results.size() - 1 ? "    }\n" : "    },\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static String number(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.6f", value) : "0";
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Compares the results against an earlier run and prints the change of every benchmark in both.
+     * Lower scores are better in both modes.
+     *
+     * @return The number of benchmarks slower than the baseline by more than the threshold.
+     */
+    private int compare(Path baselineFile, double thresholdPercent) throws IOException {
+        Map<String, Double> baseline = readScores(new String(Files.readAllBytes(baselineFile), StandardCharsets.UTF_8));
+        int regressions = 0;
+        System.out.println("Compared with " + baselineFile + ":");
+        for (Result result : results) {
+            Double before = baseline.get(result.name);
+            if (before == null || before == 0) {
+                continue;
+            }
+            double change = (result.score - before) / before * 100;
+            boolean regression = change > thresholdPercent;
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf(Locale.ROOT, "%-40s %+8.1f%%%s%n", result.name, change, regression ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    /**
+     * Reads the benchmark names and primary scores of a result file written by this runner or by JMH.
+     */
+    static Map<String, Double> readScores(String json) {
+        Map<String, Double> scores = new HashMap<>();
+        Matcher m = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\".*?\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-0-9.eE]+)",
+                Pattern.DOTALL).matcher(json);
+        while (m.find()) {
+            scores.put(m.group(1), Double.parseDouble(m.group(2)));
+        }
+        return scores;
+    }
+
+    /**
+     * The result of one benchmark.
+     */
+    private static final class Result {
+        final String name;
+        final String mode;
+        final String unit;
+        final double[] scores;
+        final double score;
+        final double error;
+        final LatencyHistogram histogram;
+
+        Result(String name, String mode, String unit, double[] scores, LatencyHistogram histogram) {
+            this.name = name;
+            this.mode = mode;
+            this.unit = unit;
+            this.scores = scores;
+            this.histogram = histogram;
+
+            double sum = 0;
+            for (double s : scores) {
+                sum += s;
+            }
+            this.score = sum / scores.length;
+            if (scores.length > 1) {
+                double squares = 0;
+                for (double s : scores) {
+                    squares += (s - score) * (s - score);
+                }
+                int df = scores.length - 1;
+                double t = df <= T_999.length ? T_999[df - 1] : Z_999;
+                this.error = t * Math.sqrt(squares / df) / Math.sqrt(scores.length);
+            } else {
+                this.error = Double.NaN;
+            }
+        }
+    }
+}
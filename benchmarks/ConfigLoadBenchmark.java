@@ -0,0 +1,125 @@
+package benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import configs.GenericConfig;
+import graph.Agent;
+import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * Measures the time to load configurations of 1k, 10k and 100k agents.
+ * <p>
+ * The "reflective" variant reproduces how configurations used to be loaded: the whole file is read
+ * into a list, and every agent is created with Class.forName, getConstructor and newInstance.
+ * The "sequential" and "parallel" variants use {@link GenericConfig#create()}, which streams the file
+ * and invokes cached constructor handles, with one thread and with one thread per core.
+ * Every load goes into a fresh graph that is removed afterwards.
+ * </p>
+ * Usage: {@code ConfigLoadBenchmark [agentCount...]}
+ */
+public class ConfigLoadBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{1_000, 10_000, 100_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int size : sizes) {
+            Path file = writeConfig(size);
+            try {
+                long reflective = Long.MAX_VALUE;
+                long sequential = Long.MAX_VALUE;
+                long parallel = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    reflective = Math.min(reflective, time(file, 0));
+                    sequential = Math.min(sequential, time(file, 1));
+                    parallel = Math.min(parallel, time(file, threads));
+                }
+                System.out.printf("%,d agents: reflective %.1f ms, sequential %.1f ms, parallel (%d threads) %.1f ms%n",
+                        size, reflective / 1e6, sequential / 1e6, threads, parallel / 1e6);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Writes a configuration of independent chains: a PlusAgent feeding an IncAgent, repeated.
+     */
+    private static Path writeConfig(int agentCount) throws Exception {
+        Path file = Files.createTempFile("bench", ".conf");
+        StringBuilder conf = new StringBuilder(agentCount * 32);
+        for (int i = 0; i < agentCount; i++) {
+            if (i % 2 == 0) {
+                conf.append("Bench.configs.PlusAgent\nA").append(i).append(",B").append(i).append("\nC").append(i).append('\n');
+            } else {
+                conf.append("Bench.configs.IncAgent\nC").append(i - 1).append("\nD").append(i).append('\n');
+            }
+        }
+        Files.writeString(file, conf);
+        return file;
+    }
+
+    /**
+     * Loads the configuration into a fresh graph and returns the elapsed nanoseconds.
+     *
+     * @param parallelism 0 for the reflective loader, otherwise the parallelism of GenericConfig.
+     */
+    private static long time(Path file, int parallelism) throws Exception {
+        TopicManager tm = TopicManagerSingleton.get("bench");
+        long start = System.nanoTime();
+        List<ParallelAgent> agents;
+        if (parallelism == 0) {
+            agents = loadReflectively(file, tm);
+        } else {
+            GenericConfig config = new GenericConfig();
+            config.setConfFile(file.toString());
+            config.setTopicManager(tm);
+            config.setParallelism(parallelism);
+            config.create();
+            agents = config.agents;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (agents.size() == 0) {
+            throw new IllegalStateException("No agents created");
+        }
+        for (ParallelAgent agent : agents) {
+            agent.close();
+        }
+        TopicManagerSingleton.remove("bench");
+        return elapsed;
+    }
+
+    /**
+     * Loads a configuration as GenericConfig did before constructor caching and streaming.
+     */
+    private static List<ParallelAgent> loadReflectively(Path file, TopicManager tm) throws Exception {
+        List<String> lines = Files.readAllLines(file);
+        List<ParallelAgent> agents = new ArrayList<>();
+        TopicManager previous = TopicManagerSingleton.bind(tm);
+        try {
+            for (int i = 0; i < lines.size(); i += 3) {
+                String agentType = lines.get(i);
+                agentType = agentType.substring(agentType.indexOf('.') + 1);
+                String[] subs = lines.get(i + 1).split(",");
+                String[] pubs = lines.get(i + 2).split(",");
+                Class<?> agentClass = Class.forName(agentType);
+                Constructor<?> constructor = agentClass.getConstructor(String[].class, String[].class);
+                agents.add(new ParallelAgent((Agent) constructor.newInstance((Object) subs, (Object) pubs)));
+            }
+        } finally {
+            TopicManagerSingleton.bind(previous);
+        }
+        return agents;
+    }
+}
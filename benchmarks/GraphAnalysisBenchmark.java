@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.Random;
+
+import configs.Graph;
+import configs.GraphAnalysis;
+import configs.Node;
+
+/**
+ * Measures the graph analysis on large graphs.
+ * <p>
+ * The CSR graph is a random DAG of 1M nodes with a long chain through it, so it is both wide and
+ * deep; the node graph is a 1M node chain, deep enough to overflow a recursive search. Each is
+ * analyzed acyclic, then with one back edge closing a cycle.
+ * </p>
+ * Usage: {@code GraphAnalysisBenchmark [nodeCount]}
+ */
+public class GraphAnalysisBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int EXTRA_EDGES_PER_NODE = 3;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        // Random DAG: a chain 0 -> 1 -> ... -> n-1 plus edges to random later nodes
+        Random random = new Random(42);
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[(n - 1) + (n - 1) * EXTRA_EDGES_PER_NODE + 1];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = e;
+            if (v + 1 < n) {
+                targets[e++] = v + 1;
+                for (int k = 0; k < EXTRA_EDGES_PER_NODE; k++) {
+                    targets[e++] = v + 1 + random.nextInt(n - v - 1);
+                }
+            }
+        }
+        offsets[n] = e;
+        measure("CSR DAG", n, offsets, targets, e);
+
+        // The same graph with an edge from the last node back to the first
+        offsets[n] = e + 1;
+        targets[e] = 0;
+        measure("CSR DAG + back edge", n, offsets, targets, e + 1);
+
+        // A chain of nodes
+        Graph graph = new Graph();
+        Node previous = null;
+        for (int v = 0; v < n; v++) {
+            Node node = new Node("N" + v);
+            if (previous != null) {
+                previous.addEdge(node);
+            }
+            graph.add(node);
+            previous = node;
+        }
+        long start = System.nanoTime();
+        GraphAnalysis analysis = graph.analyze();
+        System.out.printf("Node chain: %.1f ms, cycles=%b, max depth=%d%n",
+                (System.nanoTime() - start) / 1e6, analysis.hasCycles(), analysis.getDepth(n - 1));
+        previous.addEdge(graph.get(0));
+        start = System.nanoTime();
+        analysis = graph.analyze();
+        System.out.printf("Node chain + back edge: %.1f ms, cycles=%b, cycle length=%d%n",
+                (System.nanoTime() - start) / 1e6, analysis.hasCycles(), analysis.getCycle().size());
+    }
+
+    private static void measure(String label, int n, int[] offsets, int[] targets, int edges) {
+        long best = Long.MAX_VALUE;
+        GraphAnalysis analysis = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            analysis = new GraphAnalysis(n, offsets, targets);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        int maxDepth = 0;
+        for (int depth : analysis.getDepths()) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        System.out.printf("%s (%,d nodes, %,d edges): %.1f ms, components=%,d, cycles=%b, cycle length=%d, max depth=%d%n",
+                label, n, edges, best / 1e6, analysis.getComponentCount(), analysis.hasCycles(),
+                analysis.getCycleIndexes().length, maxDepth);
+    }
+}
@@ -0,0 +1,341 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import configs.GenericConfig;
+import configs.Placement;
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.MyHTTPServer;
+import server.RequestParser;
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+import views.ResponseTemplate;
+
+/**
+ * The benchmark suite of the hot paths of the graph, the parser and the server, meant to be run
+ * before every release and compared against the results of the previous one.
+ * <ul>
+ *     <li>{@code message.*}: constructing a message from a number and from text</li>
+ *     <li>{@code topic.publish.fanoutN}: publishing to a topic with N direct subscribers</li>
+ *     <li>{@code parallelAgent.hop}: the round trip of a message through a ParallelAgent's queue and thread</li>
+ *     <li>{@code parallelAgent.chainN}, {@code parallelAgent.chainN.placed}: a message relayed by a chain of N
+ *     ParallelAgents, with the threads anywhere and then placed with {@link Placement}. On a single socket
+ *     both are expected to match.</li>
+ *     <li>{@code config.createN}: loading a configuration of N agents with {@link GenericConfig#create()}</li>
+ *     <li>{@code requestParser.*}: parsing a GET request with a query and a POST request with a body</li>
+ *     <li>{@code http.get}: a complete request to a {@link MyHTTPServer}, from connect to the end of the response</li>
+ * </ul>
+ * See {@link BenchmarkRunner} for the options and the result file. The same benchmarks are written for JMH in
+ * {@code benchmarks.jmh}, built by {@code mvn package}; this suite needs no dependency and is the fallback
+ * where Maven and JMH are not available.
+ * <p>
+ * Usage: {@code java -Dbench.baseline=previous.json benchmarks.HotPathBenchmarks}; the exit status is 1
+ * if a benchmark regressed against the baseline.
+ * </p>
+ */
+public class HotPathBenchmarks {
+
+    private static final String GRAPH = "bench";
+    private static final String CHAIN_GRAPH = "bench-chain";
+    private static final int CHAIN_LENGTH = 4;
+
+    /**
+     * A subscriber that counts the messages it receives.
+     */
+    private static final class CountingAgent implements Agent {
+        volatile long received;
+
+        @Override
+        public String getName() {
+            return "CountingAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(Topic topic, Message msg) {
+            received++; // Single writer: the publisher or the ParallelAgent's thread
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            received++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Publishes every message it receives to its output topic.
+     */
+    private static final class RelayAgent implements Agent {
+        private final String name;
+        private final Topic output;
+
+        RelayAgent(String name, Topic output) {
+            this.name = name;
+            this.output = output;
+            output.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(Topic topic, Message msg) {
+            output.publish(msg);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            output.publish(msg);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        try {
+            messages(runner);
+            publish(runner);
+            parallelAgentHop(runner);
+            parallelAgentChain(runner);
+            configLoad(runner);
+            requestParser(runner);
+            httpRequest(runner);
+        } finally {
+            TopicManagerSingleton.remove(GRAPH);
+        }
+        System.exit(runner.finish() > 0 ? 1 : 0);
+    }
+
+    private static void messages(BenchmarkRunner runner) throws Exception {
+        double[] counter = {0};
+        runner.averageTime("message.fromDouble", "ns", () -> new Message(counter[0]++).data.length);
+        runner.averageTime("message.fromText", "ns", () -> Double.doubleToRawLongBits(new Message("12.5").asDouble));
+    }
+
+    private static void publish(BenchmarkRunner runner) throws Exception {
+        TopicManager tm = TopicManagerSingleton.get(GRAPH);
+        Message msg = new Message(1.0);
+        for (int fanout : new int[]{1, 8, 64}) {
+            Topic topic = tm.getTopic("Fanout" + fanout);
+            CountingAgent[] agents = new CountingAgent[fanout];
+            for (int i = 0; i < fanout; i++) {
+                agents[i] = new CountingAgent();
+                topic.subscribe(agents[i]);
+            }
+            runner.averageTime("topic.publish.fanout" + fanout, "ns", () -> {
+                topic.publish(msg);
+                return agents[0].received;
+            });
+            for (CountingAgent agent : agents) {
+                topic.unsubscribe(agent);
+            }
+        }
+    }
+
+    private static void parallelAgentHop(BenchmarkRunner runner) throws Exception {
+        if (!runner.selected("parallelAgent.hop")) {
+            return;
+        }
+        Topic topic = TopicManagerSingleton.get(GRAPH).getTopic("Hop");
+        CountingAgent counter = new CountingAgent();
+        ParallelAgent agent = new ParallelAgent(counter);
+        Message msg = new Message(1.0);
+        try {
+            runner.sample("parallelAgent.hop", "ns", () -> {
+                long before = counter.received;
+                agent.callback(topic, msg);
+                while (counter.received == before) {
+                    Thread.onSpinWait(); // The hop ends when the agent's thread delivered the message
+                }
+                return before;
+            });
+        } finally {
+            agent.close();
+        }
+    }
+
+    private static void parallelAgentChain(BenchmarkRunner runner) throws Exception {
+        String unplaced = "parallelAgent.chain" + CHAIN_LENGTH;
+        String placed = unplaced + ".placed";
+        if (!runner.selected(unplaced) && !runner.selected(placed)) {
+            return;
+        }
+        TopicManager tm = TopicManagerSingleton.get(CHAIN_GRAPH);
+        List<ParallelAgent> agents = new ArrayList<>();
+        CountingAgent counter = new CountingAgent();
+        Topic first = tm.getTopic("Chain0");
+        Message msg = new Message(1.0);
+        try {
+            for (int i = 0; i < CHAIN_LENGTH; i++) {
+                ParallelAgent agent = new ParallelAgent(new RelayAgent("Relay" + i, tm.getTopic("Chain" + (i + 1))));
+                agents.add(agent);
+                tm.getTopic("Chain" + i).subscribe(agent);
+            }
+            tm.getTopic("Chain" + CHAIN_LENGTH).subscribe(counter);
+            BenchmarkRunner.Operation relay = () -> {
+                long before = counter.received;
+                first.publish(msg);
+                while (counter.received == before) {
+                    Thread.onSpinWait(); // Ends when the last agent of the chain published
+                }
+                return before;
+            };
+            runner.sample(unplaced, "us", relay);
+            Placement.apply(tm);
+            runner.sample(placed, "us", relay);
+        } finally {
+            for (ParallelAgent agent : agents) {
+                agent.close();
+            }
+            TopicManagerSingleton.remove(CHAIN_GRAPH);
+        }
+    }
+
+    private static void configLoad(BenchmarkRunner runner) throws Exception {
+        for (int size : new int[]{1_000, 10_000}) {
+            String name = "config.create" + size;
+            if (!runner.selected(name)) {
+                continue;
+            }
+            Path file = writeConfig(size);
+            GenericConfig[] loaded = new GenericConfig[1];
+            try {
+                runner.sample(name, "ms", new BenchmarkRunner.Operation() {
+                    @Override
+                    public long run() throws Exception {
+                        GenericConfig config = new GenericConfig();
+                        config.setConfFile(file.toString());
+                        config.setTopicManager(TopicManagerSingleton.get("bench-config"));
+                        config.create();
+                        loaded[0] = config;
+                        return config.agents.size();
+                    }
+
+                    @Override
+                    public void after() {
+                        loaded[0].close();
+                        TopicManagerSingleton.remove("bench-config");
+                    }
+                });
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Writes a configuration of independent chains: a PlusAgent feeding an IncAgent, repeated.
+     */
+    private static Path writeConfig(int agentCount) throws IOException {
+        Path file = Files.createTempFile("bench", ".conf");
+        StringBuilder conf = new StringBuilder(agentCount * 32);
+        for (int i = 0; i < agentCount; i++) {
+            if (i % 2 == 0) {
+                conf.append("Bench.configs.PlusAgent\nA").append(i).append(",B").append(i).append("\nC").append(i).append('\n');
+            } else {
+                conf.append("Bench.configs.IncAgent\nC").append(i - 1).append("\nD").append(i).append('\n');
+            }
+        }
+        Files.write(file, conf.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void requestParser(BenchmarkRunner runner) throws Exception {
+        byte[] get = ("GET /publish?graph=default&topic=A&message=12.5 HTTP/1.1\r\n"
+                + "Host: localhost:8080\r\n"
+                + "User-Agent: Mozilla/5.0\r\n"
+                + "Accept: text/html\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8);
+        String body = "----boundary\r\nContent-Disposition: form-data; name=\"fileUpload\"; filename=\"simple.conf\"\r\n\r\n"
+                + "Project.configs.PlusAgent\r\nA,B\r\nC\r\nProject.configs.IncAgent\r\nC\r\nD\r\n----boundary--\r\n";
+        byte[] post = ("POST /upload HTTP/1.1\r\n"
+                + "Host: localhost:8080\r\n"
+                + "Content-Type: multipart/form-data; boundary=--boundary\r\n"
+                + "Content-Length: " + body.length() + "\r\n"
+                + "\r\n" + body).getBytes(StandardCharsets.UTF_8);
+        runner.averageTime("requestParser.get", "ns", () -> parse(get).getParameters().size());
+        runner.averageTime("requestParser.post", "ns", () -> parse(post).getContent().length);
+    }
+
+    private static RequestInfo parse(byte[] request) throws IOException {
+        return RequestParser.parseRequest(new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(request), StandardCharsets.UTF_8)));
+    }
+
+    private static void httpRequest(BenchmarkRunner runner) throws Exception {
+        if (!runner.selected("http.get")) {
+            return;
+        }
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ResponseTemplate ok = ResponseTemplate.html("200 OK", "<p>ok</p>");
+        MyHTTPServer server = new MyHTTPServer(port, 4);
+        server.addServlet("GET", "/bench", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                ok.send(toClient);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server.start();
+        byte[] request = ("GET /bench?x=1 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] buffer = new byte[4096];
+        try {
+            runner.sample("http.get", "ms", () -> {
+                long received = 0;
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setTcpNoDelay(true);
+                    socket.getOutputStream().write(request);
+                    InputStream in = socket.getInputStream();
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        received += n;
+                    }
+                }
+                if (received == 0) {
+                    throw new IOException("Empty response");
+                }
+                return received;
+            });
+        } finally {
+            server.close();
+        }
+    }
+}
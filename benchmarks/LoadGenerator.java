@@ -0,0 +1,378 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.LatencyHistogram;
+import server.MyHTTPServer;
+import servlets.ConfLoader;
+import servlets.GraphJsonServlet;
+import servlets.HtmlLoader;
+import servlets.MetricsServlet;
+import servlets.TopicDisplayer;
+import servlets.TopicHistoryServlet;
+
+/**
+ * Drives a {@link MyHTTPServer} with a mix of configuration uploads, publications and static page
+ * fetches, and reports the latency percentiles of every kind of request.
+ * <p>
+ * In the open-loop mode requests follow a fixed schedule at the given rate whatever the server does,
+ * as independent users would, and every latency is measured from the time the request was due, so a
+ * stalled server is charged for the requests queued behind the stall. In the closed-loop mode each
+ * connection waits for its response before the next request; with a rate the requests are paced and
+ * the latencies are corrected for coordinated omission with {@link LatencyHistogram#recordCorrected},
+ * without a rate the connections run flat out and only raw latencies are reported.
+ * </p>
+ * Options are {@code key=value} arguments:
+ * <ul>
+ *     <li>{@code mode}: {@code open} or {@code closed}, default open</li>
+ *     <li>{@code concurrency}: the number of concurrent connections, default 4</li>
+ *     <li>{@code rate}: requests per second over all connections, default 20; 0 runs closed loop flat out</li>
+ *     <li>{@code duration}, {@code warmup}: the measured and the unrecorded seconds, default 30 and 5</li>
+ *     <li>{@code mix}: the weights of the kinds of requests, default {@code upload:1,publish:8,static:1}</li>
+ *     <li>{@code host}, {@code port}: the server; without a port a server with {@code serverThreads} threads, default 5, is started in this process</li>
+ *     <li>{@code graph}: the graph instance uploads and publications go to, default load</li>
+ *     <li>{@code conf}: the configuration file uploaded, default config_files/simple.conf</li>
+ *     <li>{@code topics}: the topics publications go to, named as in the graph view, default TA,TB</li>
+ *     <li>{@code page}: the static page fetched, default /app/index.html</li>
+ * </ul>
+ * Usage: {@code LoadGenerator mode=open rate=200 concurrency=16 duration=60}
+ */
+public class LoadGenerator {
+
+    private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99, 100};
+
+    /**
+     * A kind of request, with its counters and histograms.
+     */
+    private static final class Kind {
+        final String name;
+        final int weight;
+        final LatencyHistogram corrected = new LatencyHistogram();
+        final LatencyHistogram raw = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        Kind(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<String, String> options;
+    private final String host;
+    private final int concurrency;
+    private final double rate;
+    private final boolean open;
+    private final String graph;
+    private final byte[] upload;
+    private final String[] topics;
+    private final String page;
+    private final Kind[] kinds;
+    private final Kind[] schedule; // Kinds in proportion to their weights, cycled through by the workers
+    private int port;
+
+    private LoadGenerator(Map<String, String> options) throws IOException {
+        this.options = options;
+        this.host = option("host", "localhost");
+        this.port = Integer.parseInt(option("port", "0"));
+        this.concurrency = Integer.parseInt(option("concurrency", "4"));
+        this.rate = Double.parseDouble(option("rate", "20"));
+        this.open = option("mode", "open").equals("open");
+        if (!open && !option("mode", "open").equals("closed")) {
+            throw new IllegalArgumentException("Unknown mode " + option("mode", "") + ", expected open or closed");
+        }
+        if (concurrency < 1 || rate < 0 || (open && rate == 0)) {
+            throw new IllegalArgumentException("The concurrency must be positive and an open loop needs a rate");
+        }
+        this.graph = option("graph", "load");
+        this.upload = Files.readAllBytes(Paths.get(option("conf", "config_files/simple.conf")));
+        this.topics = option("topics", "TA,TB").split(",");
+        this.page = option("page", "/app/index.html");
+
+        List<Kind> parsed = new ArrayList<>();
+        List<Kind> slots = new ArrayList<>();
+        for (String entry : option("mix", "upload:1,publish:8,static:1").split(",")) {
+            String[] parts = entry.split(":");
+            if (!parts[0].matches("upload|publish|static")) {
+                throw new IllegalArgumentException("Unknown request kind " + parts[0] + ", expected upload, publish or static");
+            }
+            Kind kind = new Kind(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            parsed.add(kind);
+            for (int i = 0; i < kind.weight; i++) {
+                slots.add(kind);
+            }
+        }
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no requests");
+        }
+        this.kinds = parsed.toArray(new Kind[0]);
+        // Spread the kinds over the schedule rather than sending each kind in a burst
+        this.schedule = new Kind[slots.size()];
+        for (int i = 0; i < schedule.length; i++) {
+            schedule[i] = slots.get((int) ((long) i * 7919 % schedule.length));
+        }
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception {
+        MyHTTPServer server = null;
+        if (port == 0) {
+            server = startLocalServer(Integer.parseInt(option("serverThreads", "5")));
+        }
+        try {
+            // Load the graph once, so publications find their topics
+            if (send("upload", 0) / 100 != 2) {
+                System.out.println("Warning: the initial upload failed");
+            }
+            long warmupNanos = (long) (Double.parseDouble(option("warmup", "5")) * 1e9);
+            long durationNanos = (long) (Double.parseDouble(option("duration", "30")) * 1e9);
+            System.out.printf(Locale.ROOT, "%s loop, %d connections, %s, %s:%d, warmup %.0fs, duration %.0fs%n",
+                    open ? "Open" : "Closed", concurrency, rate > 0 ? rate + " requests/s" : "unpaced",
+                    host, port, warmupNanos / 1e9, durationNanos / 1e9);
+
+            long start = System.nanoTime();
+            long recordFrom = start + warmupNanos;
+            long end = recordFrom + durationNanos;
+            CountDownLatch done = new CountDownLatch(concurrency);
+            for (int w = 0; w < concurrency; w++) {
+                int worker = w;
+                Thread thread = new Thread(() -> {
+                    try {
+                        work(worker, start, recordFrom, end);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-" + w);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            done.await();
+            report(durationNanos);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a server with the servlets of the application on a free port.
+     */
+    private MyHTTPServer startLocalServer(int threads) throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        MyHTTPServer server = new MyHTTPServer(port, threads);
+        server.addServlet("GET", "/publish", new TopicDisplayer());
+        server.addServlet("POST", "/upload", new ConfLoader());
+        server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        server.addServlet("GET", "/graph.json", new GraphJsonServlet());
+        server.addServlet("GET", "/metrics", new MetricsServlet());
+        server.start();
+        // Wait until the server accepts connections
+        for (int attempt = 0; ; attempt++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 1000);
+                break;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                LockSupport.parkNanos(100_000_000L);
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Sends the requests of one connection until the end of the run.
+     *
+     * @param worker     The index of the connection.
+     * @param start      The start of the run.
+     * @param recordFrom The end of the warmup.
+     * @param end        The end of the run.
+     */
+    private void work(int worker, long start, long recordFrom, long end) {
+        // Each connection sends every concurrency-th request of the schedule
+        long interval = rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+        long due = start + (rate > 0 ? (long) (1e9 * worker / rate) : 0);
+        long sequence = worker;
+        while (true) {
+            if (interval > 0) {
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                return;
+            }
+            Kind kind = schedule[(int) (sequence % schedule.length)];
+            int status = send(kind.name, sequence);
+            long received = System.nanoTime();
+
+            if (sent >= recordFrom) {
+                if (status / 100 != 2) {
+                    kind.errors.incrementAndGet();
+                } else if (open) {
+                    kind.corrected.record(received - due); // Charged from the time the request was due
+                    kind.raw.record(received - sent);
+                } else {
+                    kind.corrected.recordCorrected(received - sent, interval);
+                    kind.raw.record(received - sent);
+                }
+            }
+            sequence += concurrency;
+            if (interval > 0) {
+                due += interval;
+                if (!open && due < received) {
+                    due = received; // A closed loop never sends more than one request at a time
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a request on a new connection and reads the whole response.
+     *
+     * @return The status code, or 0 if the request failed.
+     */
+    private int send(String kind, long sequence) {
+        byte[] request;
+        switch (kind) {
+            case "upload":
+                request = uploadRequest();
+                break;
+            case "publish":
+                request = get("/publish?graph=" + graph + "&topic=" + topics[(int) (sequence % topics.length)]
+                        + "&message=" + (sequence % 1000));
+                break;
+            default:
+                request = get(page + (page.contains("?") ? "&" : "?") + "graph=" + graph);
+                break;
+        }
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(60_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request); // In one write, the server reads what is available when it starts
+            out.flush();
+            return readStatus(socket.getInputStream());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private byte[] get(String uri) {
+        return ("GET " + uri + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] uploadRequest() {
+        String body = "------LoadBoundary\r\n"
+                + "Content-Disposition: form-data; name=\"fileUpload\"; filename=\"load.conf\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"
+                + new String(upload, StandardCharsets.UTF_8) + "\r\n"
+                + "------LoadBoundary--\r\n";
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        return ("POST /upload?graph=" + graph + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Content-Type: multipart/form-data; boundary=----LoadBoundary\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a response to the end of the stream and returns its status code, 0 if there is none.
+     */
+    private static int readStatus(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int status = 0;
+        int spaces = 0;
+        boolean statusDone = false;
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            for (int i = 0; i < n && !statusDone; i++) {
+                byte b = buffer[i];
+                if (b == ' ') {
+                    statusDone = ++spaces == 2;
+                } else if (spaces == 1 && b >= '0' && b <= '9') {
+                    status = status * 10 + (b - '0');
+                } else if (b == '\n') {
+                    statusDone = true;
+                }
+            }
+        }
+        return status;
+    }
+
+    private void report(long durationNanos) {
+        LatencyHistogram allCorrected = new LatencyHistogram();
+        LatencyHistogram allRaw = new LatencyHistogram();
+        long errors = 0;
+        for (Kind kind : kinds) {
+            allCorrected.add(kind.corrected);
+            allRaw.add(kind.raw);
+            errors += kind.errors.get();
+        }
+        boolean corrected = open || rate > 0;
+        System.out.printf(Locale.ROOT, "%nLatency in ms%s%n", corrected
+                ? (open ? ", corrected from the time each request was due" : ", corrected for coordinated omission")
+                : ", uncorrected: an unpaced closed loop has no schedule to correct against");
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-16s %9s %8s %9s", "", "requests", "errors", "req/s"));
+        for (double p : PERCENTILES) {
+            header.append(String.format(Locale.ROOT, " %9s", p == 100 ? "max" : "p" + (p == (long) p ? String.valueOf((long) p) : String.valueOf(p))));
+        }
+        System.out.println(header);
+        for (Kind kind : kinds) {
+            if (corrected) {
+                printRow(kind.name, kind.corrected, kind.raw.getCount(), kind.errors.get(), durationNanos);
+            }
+            printRow(corrected ? kind.name + " (raw)" : kind.name, kind.raw, kind.raw.getCount(), kind.errors.get(), durationNanos);
+        }
+        if (corrected) {
+            printRow("all", allCorrected, allRaw.getCount(), errors, durationNanos);
+        }
+        printRow(corrected ? "all (raw)" : "all", allRaw, allRaw.getCount(), errors, durationNanos);
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram, long requests, long errors, long durationNanos) {
+        StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-16s %9d %8d %9.1f",
+                name, requests, errors, (requests + errors) * 1e9 / durationNanos));
+        for (double p : PERCENTILES) {
+            long value = p == 100 ? histogram.getMax() : histogram.getValueAtPercentile(p);
+            row.append(String.format(Locale.ROOT, " %9.2f", value / 1e6));
+        }
+        System.out.println(row);
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import configs.PlusAgent;
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * Compares the publish path with topic lookups by name against cached topic handles.
+ * <p>
+ * The "by name" variant reproduces how agents used to work: every publish looks the topic up in the
+ * TopicManager and every callback compares topic names. The "interned" variant uses
+ * {@link PlusAgent}, which resolves its topics once and dispatches on topic ids.
+ * Each operation publishes one input value that is added and published to an output topic.
+ * </p>
+ */
+public class PublishPathBenchmark {
+
+    private static final int OPERATIONS = 5_000_000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * A PlusAgent as it was before topic interning: name lookups and string compares on every message.
+     */
+    private static class ByNamePlusAgent implements Agent {
+        private final String inputTopic1;
+        private final String inputTopic2;
+        private final String outputTopic;
+        private Message messageFromTopic1;
+        private Message messageFromTopic2;
+
+        ByNamePlusAgent(String in1, String in2, String out) {
+            inputTopic1 = in1;
+            inputTopic2 = in2;
+            outputTopic = out;
+            TopicManagerSingleton.get().getTopic(in1).subscribe(this);
+            TopicManagerSingleton.get().getTopic(in2).subscribe(this);
+            TopicManagerSingleton.get().getTopic(out).addPublisher(this);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (topic.equals(inputTopic1)) {
+                messageFromTopic1 = msg;
+            } else if (topic.equals(inputTopic2)) {
+                messageFromTopic2 = msg;
+            }
+            if (messageFromTopic1 != null && messageFromTopic2 != null) {
+                double sum = messageFromTopic1.asDouble + messageFromTopic2.asDouble;
+                TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(sum));
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "ByNamePlusAgent";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TopicManager tm = TopicManagerSingleton.get();
+
+        // Pad the topic map so lookups are not trivially cheap
+        for (int i = 0; i < 1000; i++) {
+            tm.getTopic("Padding" + i);
+        }
+
+        new ByNamePlusAgent("NameA", "NameB", "NameC");
+        tm.getTopic("NameB").publish(new Message(1.0));
+        new PlusAgent(new String[]{"IdA", "IdB"}, new String[]{"IdC"});
+        Topic idA = tm.getTopic("IdA");
+        tm.getTopic("IdB").publish(new Message(1.0));
+
+        Message msg = new Message(2.0); // Reused so the measurement is not dominated by parsing
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                TopicManagerSingleton.get().getTopic("NameA").publish(msg);
+            }
+            long byName = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                idA.publish(msg);
+            }
+            long interned = System.nanoTime() - start;
+
+            System.out.printf("round %d: by name %.1f ns/op, interned %.1f ns/op%n", round,
+                    (double) byName / OPERATIONS, (double) interned / OPERATIONS);
+        }
+        System.out.println("Last results: " + tm.getTopic("NameC").getLastMessage() + " " + tm.getTopic("IdC").getLastMessage());
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import configs.GenericConfig;
+import graph.ReplayEngine;
+import graph.ReplayEngine.Mode;
+import graph.ReplayEngine.Recording;
+import graph.ReplayEngine.Report;
+
+/**
+ * Replays a recording into a graph loaded from a configuration file, for capacity planning.
+ * Usage: {@code ReplayDriver <config.conf> <recording dir | file.jsonl> [fast | realtime | <N>x]}
+ * <p>
+ * A JSON-lines file is imported into a temporary journal directory first. The report of the
+ * {@link ReplayEngine} is printed when the replay ends.
+ * </p>
+ */
+public class ReplayDriver {
+
+    /**
+     * Loads the configuration, replays the recording into its graph and prints the report.
+     *
+     * @param args The command line arguments.
+     * @throws Exception If the graph or the recording cannot be loaded.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ReplayDriver <config.conf> <recording dir | file.jsonl> [fast | realtime | <N>x]");
+            return;
+        }
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(args[0]);
+        config.create();
+
+        Path source = Path.of(args[1]);
+        if (source.toString().endsWith(".jsonl")) {
+            Path directory = Files.createTempDirectory("replay");
+            System.out.println("Imported " + ReplayEngine.importJsonLines(source, directory) + " records");
+            source = directory;
+        }
+        Recording recording = ReplayEngine.load(source);
+        if (recording.unknownRecords > 0) {
+            System.out.println("Skipped " + recording.unknownRecords + " records with a topic missing from the index");
+        }
+
+        Mode mode = Mode.AS_FAST_AS_POSSIBLE;
+        double speed = 1;
+        if (args.length > 2) {
+            if (args[2].equalsIgnoreCase("realtime")) {
+                mode = Mode.REAL_TIME;
+            } else if (args[2].endsWith("x")) {
+                mode = Mode.SCALED;
+                speed = Double.parseDouble(args[2].substring(0, args[2].length() - 1));
+            }
+        }
+
+        Report report = new ReplayEngine(config.getTopicManager()).replay(recording, mode, speed, null);
+        System.out.print(report);
+        config.close();
+    }
+}
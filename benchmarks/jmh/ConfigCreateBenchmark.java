@@ -0,0 +1,80 @@
+package benchmarks.jmh;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import configs.GenericConfig;
+import graph.TopicManagerSingleton;
+
+/**
+ * Loading a configuration of N agents with {@link GenericConfig#create()}, {@code config.createN} of
+ * {@code benchmarks.HotPathBenchmarks}. The loaded graph is closed after every call, outside the measured time.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigCreateBenchmark {
+
+    private static final String GRAPH = "jmh-config";
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    private Path file;
+    private GenericConfig config;
+
+    @Setup
+    public void writeConfig() throws IOException {
+        // Independent chains: a PlusAgent feeding an IncAgent, repeated
+        file = Files.createTempFile("bench", ".conf");
+        StringBuilder conf = new StringBuilder(size * 32);
+        for (int i = 0; i < size; i++) {
+            if (i % 2 == 0) {
+                conf.append("Bench.configs.PlusAgent\nA").append(i).append(",B").append(i).append("\nC").append(i).append('\n');
+            } else {
+                conf.append("Bench.configs.IncAgent\nC").append(i - 1).append("\nD").append(i).append('\n');
+            }
+        }
+        Files.write(file, conf.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeConfig() {
+        config.close();
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @TearDown
+    public void deleteConfig() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int create() throws Exception {
+        config = new GenericConfig();
+        config.setConfFile(file.toString());
+        config.setTopicManager(TopicManagerSingleton.get(GRAPH));
+        config.create();
+        return config.agents.size();
+    }
+}
@@ -0,0 +1,35 @@
+package benchmarks.jmh;
+
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+
+/**
+ * A subscriber that counts the messages it receives, the sink of the publish benchmarks.
+ */
+final class CountingAgent implements Agent {
+    volatile long received;
+
+    @Override
+    public String getName() {
+        return "CountingAgent";
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        received++; // Single writer: the publisher or the ParallelAgent's thread
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        received++;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.MyHTTPServer;
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+import views.ResponseTemplate;
+
+/**
+ * A complete request to a {@link MyHTTPServer}, from connect to the end of the response,
+ * {@code http.get} of {@code benchmarks.HotPathBenchmarks}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpBenchmark {
+
+    private final byte[] request = ("GET /bench?x=1 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private final byte[] buffer = new byte[4096];
+    private MyHTTPServer server;
+    private int port;
+
+    @Setup
+    public void start() throws IOException, InterruptedException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ResponseTemplate ok = ResponseTemplate.html("200 OK", "<p>ok</p>");
+        server = new MyHTTPServer(port, 4);
+        server.addServlet("GET", "/bench", new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+                ok.send(toClient);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server.start();
+        while (true) { // The server binds its socket on its own thread
+            try (Socket socket = new Socket("localhost", port)) {
+                return;
+            } catch (ConnectException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        server.close();
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        long received = 0;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            socket.getOutputStream().write(request);
+            InputStream in = socket.getInputStream();
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                received += n;
+            }
+        }
+        if (received == 0) {
+            throw new IOException("Empty response");
+        }
+        return received;
+    }
+}
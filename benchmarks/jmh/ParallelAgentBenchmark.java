@@ -0,0 +1,63 @@
+package benchmarks.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import graph.Message;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+/**
+ * The round trip of a message through a ParallelAgent's queue and thread, {@code parallelAgent.hop}
+ * of {@code benchmarks.HotPathBenchmarks}. Sampled, so the percentiles of the hop are reported.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelAgentBenchmark {
+
+    private static final String GRAPH = "jmh-hop";
+
+    private Topic topic;
+    private CountingAgent counter;
+    private ParallelAgent agent;
+    private final Message msg = new Message(1.0);
+
+    @Setup
+    public void setup() {
+        topic = TopicManagerSingleton.get(GRAPH).getTopic("Hop");
+        counter = new CountingAgent();
+        agent = new ParallelAgent(counter, ParallelAgent.DEFAULT_CAPACITY, 1, GRAPH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        agent.close();
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @Benchmark
+    public long hop() {
+        long before = counter.received;
+        agent.callback(topic, msg);
+        while (counter.received == before) {
+            Thread.onSpinWait(); // The hop ends when the agent's thread delivered the message
+        }
+        return before;
+    }
+}
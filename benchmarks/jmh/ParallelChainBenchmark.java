@@ -0,0 +1,121 @@
+package benchmarks.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import configs.Placement;
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * A message relayed by a chain of four ParallelAgents, with the threads anywhere and then placed with
+ * {@link Placement}, {@code parallelAgent.chain4(.placed)} of {@code benchmarks.HotPathBenchmarks}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelChainBenchmark {
+
+    private static final String GRAPH = "jmh-chain";
+    private static final int CHAIN_LENGTH = 4;
+
+    @Param({"false", "true"})
+    public boolean placed;
+
+    private final List<ParallelAgent> agents = new ArrayList<>();
+    private final CountingAgent counter = new CountingAgent();
+    private final Message msg = new Message(1.0);
+    private Topic first;
+
+    /**
+     * Publishes every message it receives to its output topic.
+     */
+    private static final class RelayAgent implements Agent {
+        private final String name;
+        private final Topic output;
+
+        RelayAgent(String name, Topic output) {
+            this.name = name;
+            this.output = output;
+            output.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(Topic topic, Message msg) {
+            output.publish(msg);
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            output.publish(msg);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        TopicManager tm = TopicManagerSingleton.get(GRAPH);
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            ParallelAgent agent = new ParallelAgent(new RelayAgent("Relay" + i, tm.getTopic("Chain" + (i + 1))),
+                    ParallelAgent.DEFAULT_CAPACITY, ParallelAgent.BATCH_SIZE, GRAPH);
+            agents.add(agent);
+            tm.getTopic("Chain" + i).subscribe(agent);
+        }
+        tm.getTopic("Chain" + CHAIN_LENGTH).subscribe(counter);
+        first = tm.getTopic("Chain0");
+        if (placed) {
+            Placement.apply(tm);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ParallelAgent agent : agents) {
+            agent.close();
+        }
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @Benchmark
+    public long relay() {
+        long before = counter.received;
+        first.publish(msg);
+        while (counter.received == before) {
+            Thread.onSpinWait(); // Ends when the last agent of the chain published
+        }
+        return before;
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks.jmh;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.RequestParser;
+import server.RequestParser.RequestInfo;
+
+/**
+ * Parsing a GET request with a query and a POST request with a body, {@code requestParser.*} of
+ * {@code benchmarks.HotPathBenchmarks}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+
+    private static final String BODY = "----boundary\r\nContent-Disposition: form-data; name=\"fileUpload\"; filename=\"simple.conf\"\r\n\r\n"
+            + "Project.configs.PlusAgent\r\nA,B\r\nC\r\nProject.configs.IncAgent\r\nC\r\nD\r\n----boundary--\r\n";
+
+    private final byte[] getRequest = ("GET /publish?graph=default&topic=A&message=12.5 HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0\r\n"
+            + "Accept: text/html\r\n"
+            + "\r\n").getBytes(StandardCharsets.UTF_8);
+    private final byte[] postRequest = ("POST /upload HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "Content-Type: multipart/form-data; boundary=--boundary\r\n"
+            + "Content-Length: " + BODY.length() + "\r\n"
+            + "\r\n" + BODY).getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public int get() throws IOException {
+        return parse(getRequest).getParameters().size();
+    }
+
+    @Benchmark
+    public int post() throws IOException {
+        return parse(postRequest).getContent().length;
+    }
+
+    private static RequestInfo parse(byte[] request) throws IOException {
+        return RequestParser.parseRequest(new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(request), StandardCharsets.UTF_8)));
+    }
+}
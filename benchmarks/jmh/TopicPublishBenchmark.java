@@ -0,0 +1,62 @@
+package benchmarks.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+/**
+ * Publishing to a topic with N direct subscribers, {@code topic.publish.fanoutN} of {@code benchmarks.HotPathBenchmarks}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicPublishBenchmark {
+
+    private static final String GRAPH = "jmh-publish";
+
+    @Param({"1", "8", "64"})
+    public int fanout;
+
+    private Topic topic;
+    private CountingAgent[] agents;
+    private final Message msg = new Message(1.0);
+
+    @Setup
+    public void setup() {
+        topic = TopicManagerSingleton.get(GRAPH).getTopic("Fanout");
+        agents = new CountingAgent[fanout];
+        for (int i = 0; i < fanout; i++) {
+            agents[i] = new CountingAgent();
+            topic.subscribe(agents[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        TopicManagerSingleton.remove(GRAPH);
+    }
+
+    @Benchmark
+    public long publish() {
+        topic.publish(msg);
+        return agents[0].received;
+    }
+}
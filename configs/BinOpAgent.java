@@ -1,20 +1,25 @@
 package configs;
 
+import java.nio.ByteBuffer;
 import java.util.function.BinaryOperator;
 
-import graph.Agent;
+import graph.JoinAgent;
 import graph.Message;
+import graph.Propagation;
+import graph.StatefulAgent;
+import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
 
 /**
  * BinOpAgent represents an agent that performs a binary operation on two input values.
  * It subscribes to two input topics, performs the operation, and publishes the result to an output topic.
  */
-public class BinOpAgent implements Agent {
+public class BinOpAgent implements StatefulAgent, JoinAgent {
 	private String agentName;
-	private String firstInputTopic;
-	private String secondInputTopic;
-	private String outputTopic;
+	private final Topic firstInputTopic;
+	private final Topic secondInputTopic;
+	private final Topic outputTopic;
 	private Double x;
 	private Double y;
 	private Double outputResultMsg;
@@ -30,16 +35,17 @@ public class BinOpAgent implements Agent {
 	 * @param operator The binary operator to apply to the inputs.
 	 */
 	public BinOpAgent(String operatorName, String firstInputTopic, String secondInputTopic, String outputTopic, BinaryOperator<Double> operator) {
-		this.firstInputTopic = firstInputTopic;
-		this.secondInputTopic = secondInputTopic;
-		this.outputTopic = outputTopic;
+		TopicManager topicManager = TopicManagerSingleton.get();
+		this.firstInputTopic = topicManager.getTopic(firstInputTopic);
+		this.secondInputTopic = topicManager.getTopic(secondInputTopic);
+		this.outputTopic = topicManager.getTopic(outputTopic);
 		this.operator = operator;
 		this.agentName = operatorName;
 
 		// Subscribe the agent to the input topics and add it as a publisher to the output topic.
-		TopicManagerSingleton.get().getTopic(firstInputTopic).subscribe(this);
-		TopicManagerSingleton.get().getTopic(secondInputTopic).subscribe(this);
-		TopicManagerSingleton.get().getTopic(outputTopic).addPublisher(this);
+		this.firstInputTopic.subscribe(this);
+		this.secondInputTopic.subscribe(this);
+		this.outputTopic.addPublisher(this);
 	}
 
 	/**
@@ -69,18 +75,54 @@ public class BinOpAgent implements Agent {
 	 * @param msg The message received.
 	 */
 	@Override
+	public void callback(Topic topic, Message msg) {
+		if (topic == firstInputTopic) { // Check if the current topic is the first input topic.
+			this.x = msg.asDouble;
+		}
+		if (topic == secondInputTopic) { // Check if the current topic is the second input topic.
+			this.y = msg.asDouble;
+		}
+		if (!Propagation.defer(this, topic)) { // Waits for the end of the wave in wave mode
+			publishResult();
+		}
+	}
+
+	/**
+	 * Name-based variant of {@link #callback(Topic, Message)}, for callers that only know the topic name.
+	 *
+	 * @param topic The name of the topic on which the message was received.
+	 * @param msg The message received.
+	 */
+	@Override
 	public void callback(String topic, Message msg) {
-		if (topic.equals(firstInputTopic)) { // Check if the current topic is the first input topic.
+		Topic input = firstInputTopic; // The topic the message came from, which ranks the agent in the wave
+		if (topic.equals(firstInputTopic.name)) { // Check if the current topic is the first input topic.
 			this.x = msg.asDouble;
 		}
-		if (topic.equals(secondInputTopic)) { // Check if the current topic is the second input topic.
+		if (topic.equals(secondInputTopic.name)) { // Check if the current topic is the second input topic.
 			this.y = msg.asDouble;
+			input = secondInputTopic;
+		}
+		if (!Propagation.defer(this, input)) {
+			publishResult();
 		}
+	}
+
+	/**
+	 * Publishes the result of the inputs received in the wave, see {@link Propagation}.
+	 */
+	@Override
+	public void fire() {
+		publishResult();
+	}
 
-		// Perform the binary operation if both inputs are available and publish the result.
+	/**
+	 * Performs the binary operation if both inputs are available and publishes the result.
+	 */
+	private void publishResult() {
 		if (this.x != null && this.y != null) {
 			this.outputResultMsg = this.operator.apply(x, y);
-			TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(outputResultMsg));
+			outputTopic.publish(new Message(outputResultMsg));
 		}
 	}
 
@@ -91,4 +133,38 @@ public class BinOpAgent implements Agent {
 	public void close() {
 		// No resources to close in this implementation.
 	}
+
+	/**
+	 * Returns the size of the agent's state: both input values and the last result.
+	 *
+	 * @return The size of the state in bytes.
+	 */
+	@Override
+	public int stateSize() {
+		return StatefulAgent.doubleSize(x) + StatefulAgent.doubleSize(y) + StatefulAgent.doubleSize(outputResultMsg);
+	}
+
+	/**
+	 * Saves both input values and the last result.
+	 *
+	 * @param out The buffer to write to.
+	 */
+	@Override
+	public void saveState(ByteBuffer out) {
+		StatefulAgent.putDouble(out, x);
+		StatefulAgent.putDouble(out, y);
+		StatefulAgent.putDouble(out, outputResultMsg);
+	}
+
+	/**
+	 * Restores both input values and the last result.
+	 *
+	 * @param in The buffer to read from.
+	 */
+	@Override
+	public void loadState(ByteBuffer in) {
+		x = StatefulAgent.getDouble(in);
+		y = StatefulAgent.getDouble(in);
+		outputResultMsg = StatefulAgent.getDouble(in);
+	}
 }
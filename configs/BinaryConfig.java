@@ -0,0 +1,195 @@
+package configs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryConfig is a compact, precompiled form of a text configuration.
+ * <p>
+ * Topic names and agent types are stored once in string tables, and every agent refers to them by
+ * index, so loading a configuration maps the file and wires agents without splitting or re-validating
+ * any lines. {@link GenericConfig} detects the format by its magic number, so a binary configuration
+ * can be used anywhere a text one can.
+ * </p>
+ * <pre>
+ * int magic, int version
+ * int topicCount, then per topic: str name
+ * int typeCount, then per type: str type
+ * int agentCount, then per agent: int type, int subCount, int[subCount] topics, int pubCount, int[pubCount] topics
+ * </pre>
+ * where {@code str} is an int byte length followed by UTF-8 bytes. Types are stored without the
+ * project prefix of the text format, e.g. {@code configs.PlusAgent}.
+ * Usage: {@code BinaryConfig <text config> <binary config>} converts a text configuration.
+ */
+public class BinaryConfig {
+
+    private static final int MAGIC = 0x47434647; // "GCFG"
+    private static final int VERSION = 1;
+
+    private BinaryConfig() {}
+
+    /**
+     * Checks whether a file is a binary configuration.
+     *
+     * @param file The configuration file.
+     * @return true if the file starts with the binary configuration magic number.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isBinary(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(4);
+            return head.length == 4 && ByteBuffer.wrap(head).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Converts a text configuration to the binary format.
+     *
+     * @param textFile   The text configuration to read.
+     * @param binaryFile The binary configuration to write.
+     * @throws Exception If the text configuration cannot be read or is malformed.
+     */
+    public static void convert(Path textFile, Path binaryFile) throws Exception {
+        Map<String, Integer> topicIndex = new HashMap<>();
+        Map<String, Integer> typeIndex = new HashMap<>();
+        List<String> topics = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<int[]> agents = new ArrayList<>(); // type, subCount, subs..., pubCount, pubs...
+
+        GenericConfig.forEachTextEntry(textFile, entry -> {
+            int[] agent = new int[3 + entry.subs.length + entry.pubs.length];
+            agent[0] = typeIndex.computeIfAbsent(entry.type, t -> { types.add(t); return types.size() - 1; });
+            int pos = 1;
+            agent[pos++] = entry.subs.length;
+            for (String sub : entry.subs) {
+                agent[pos++] = topicIndex.computeIfAbsent(sub, t -> { topics.add(t); return topics.size() - 1; });
+            }
+            agent[pos++] = entry.pubs.length;
+            for (String pub : entry.pubs) {
+                agent[pos++] = topicIndex.computeIfAbsent(pub, t -> { topics.add(t); return topics.size() - 1; });
+            }
+            agents.add(agent);
+        });
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(binaryFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(topics.size());
+            for (String topic : topics) {
+                writeString(out, topic);
+            }
+            out.writeInt(types.size());
+            for (String type : types) {
+                writeString(out, type);
+            }
+            out.writeInt(agents.size());
+            for (int[] agent : agents) {
+                for (int value : agent) {
+                    out.writeInt(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a binary configuration and passes each agent entry to the visitor.
+     * Topic names and types are decoded once; the entries share them.
+     *
+     * @param file    The binary configuration.
+     * @param visitor Receives the entries in file order.
+     * @throws Exception If the file is not a valid binary configuration or the visitor fails.
+     */
+    static void forEachEntry(Path file, GenericConfig.EntryVisitor visitor) throws Exception {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a binary config: " + file);
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary config version " + version + ": " + file);
+        }
+        String[] topics;
+        String[] types;
+        int agentCount;
+        try {
+            topics = readStrings(in);
+            types = readStrings(in);
+            agentCount = in.getInt();
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Invalid binary config: " + file, e);
+        }
+
+        for (int i = 0; i < agentCount; i++) {
+            GenericConfig.AgentEntry entry;
+            try {
+                String type = types[in.getInt()];
+                String[] subs = readTopics(in, topics);
+                String[] pubs = readTopics(in, topics);
+                entry = new GenericConfig.AgentEntry(type, subs, pubs);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IllegalArgumentException("Invalid binary config: " + file + ", agent " + i, e);
+            }
+            visitor.visit(entry);
+        }
+    }
+
+    /**
+     * Reads a count followed by that many strings.
+     */
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Reads a count followed by that many topic indexes, resolved to topic names.
+     */
+    private static String[] readTopics(ByteBuffer in, String[] topics) {
+        String[] names = new String[in.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = topics[in.getInt()];
+        }
+        return names;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: BinaryConfig <text config> <binary config>");
+            return;
+        }
+        long start = System.nanoTime();
+        convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("Converted %s to %s in %.1f ms%n", args[0], args[1], (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -1,31 +1,36 @@
 package configs;
 
-import graph.Agent;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import graph.JoinAgent;
 import graph.Message;
+import graph.Propagation;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 
 /**
- * The DivAgent class implements the Agent interface and performs division operations
+ * The DivAgent class implements the StatefulAgent interface and performs division operations
  * on messages received from two subscribed topics, then publishes the result to a third topic.
  */
-public class DivAgent implements Agent {
+public class DivAgent implements StatefulAgent, JoinAgent {
     /** The values for division. */
     private double numerator = 0;
     private double denominator = 0;
 
-    /** The name of the topics this agent subscribes to. */
-    private final String inputTopic1;
-    private final String inputTopic2;
-    private final String outputTopic;
+    /** The topics this agent subscribes and publishes to, resolved once at construction. */
+    private final Topic inputTopic1;
+    private final Topic inputTopic2;
+    private final Topic outputTopic;
 
     /** The last message received from the first and second topic. */
     private Message messageFromTopic1 = null;
     private Message messageFromTopic2 = null;
 
     private final String name;
-    private static int counter=0;
+    private static final AtomicInteger counter = new AtomicInteger();
 
     /**
      * Constructs a new DivAgent with specified subscription and publication topics.
@@ -41,21 +46,20 @@ public class DivAgent implements Agent {
             throw new IllegalArgumentException("DivAgent requires at least 1 publication topic.");
         }
 
-        counter++;
-        this.name = ("DivAgent" +counter);
+        this.name = "DivAgent" + counter.incrementAndGet();
 
-        // Subscribe to the first 2 topics from subscriptions array:
+        // Resolve the topics once, the callbacks use the cached references:
         TopicManager topicManager = TopicManagerSingleton.get();
-        topicManager.getTopic(subscriptions[0]).subscribe(this);
-        topicManager.getTopic(subscriptions[1]).subscribe(this);
-        // Initialize input topic names:
-        inputTopic1 = subscriptions[0];
-        inputTopic2 = subscriptions[1];
+        inputTopic1 = topicManager.getTopic(subscriptions[0]);
+        inputTopic2 = topicManager.getTopic(subscriptions[1]);
+        outputTopic = topicManager.getTopic(publications[0]);
+
+        // Subscribe to the first 2 topics from subscriptions array:
+        inputTopic1.subscribe(this);
+        inputTopic2.subscribe(this);
 
         // Add the first publisher from publications array:
-        topicManager.getTopic(publications[0]).addPublisher(this);
-        // Initialize output topic name:
-        outputTopic = publications[0];
+        outputTopic.addPublisher(this);
     }
 
     /**
@@ -63,20 +67,59 @@ public class DivAgent implements Agent {
      * When messages from both subscribed topics are received, their values are divided
      * and the result is published to the output topic.
      *
+     * @param topic The topic from which the message was received.
+     * @param msg The received message.
+     */
+    @Override
+    public void callback(Topic topic, Message msg) {
+        // Store the message if it's from the first topic (dispatch on the topic reference)
+        if (topic == inputTopic1) {
+            messageFromTopic1 = msg;
+        }
+        // Store the message if it's from the second topic
+        else if (topic == inputTopic2) {
+            messageFromTopic2 = msg;
+        }
+        if (!Propagation.defer(this, topic)) { // Waits for the end of the wave in wave mode
+            publishResult();
+        }
+    }
+
+    /**
+     * Name-based variant of {@link #callback(Topic, Message)}, for callers that only know the topic name.
+     *
      * @param topic The name of the topic from which the message was received.
      * @param msg The received message.
      */
     @Override
     public void callback(String topic, Message msg) {
+        Topic input = inputTopic1; // The topic the message came from, which ranks the agent in the wave
         // Store the message if it's from the first topic
-        if (topic.equals(inputTopic1)) {
+        if (topic.equals(inputTopic1.name)) {
             messageFromTopic1 = msg;
         }
         // Store the message if it's from the second topic
-        else if (topic.equals(inputTopic2)) {
+        else if (topic.equals(inputTopic2.name)) {
             messageFromTopic2 = msg;
+            input = inputTopic2;
+        }
+        if (!Propagation.defer(this, input)) {
+            publishResult();
         }
+    }
+
+    /**
+     * Publishes the result of the inputs received in the wave, see {@link Propagation}.
+     */
+    @Override
+    public void fire() {
+        publishResult();
+    }
 
+    /**
+     * Publishes the division of the last values of both input topics, once both were received.
+     */
+    private void publishResult() {
         // If both messages are received, divide their values and publish the result
         if (messageFromTopic1 != null && messageFromTopic2 != null) {
             numerator = messageFromTopic1.asDouble;
@@ -86,7 +129,7 @@ public class DivAgent implements Agent {
                 return;
             }
             // Publish the division of the values
-            TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(numerator / denominator));
+            outputTopic.publish(new Message(numerator / denominator));
         }
     }
 
@@ -96,15 +139,11 @@ public class DivAgent implements Agent {
     @Override
     public void close() {
         // Unsubscribe from the topics
-        TopicManager topicManager = TopicManagerSingleton.get();
-        Topic topic1 = topicManager.getTopic(inputTopic1);
-        topic1.unsubscribe(this);
-
-        Topic topic2 = topicManager.getTopic(inputTopic2);
-        topic2.unsubscribe(this);
+        inputTopic1.unsubscribe(this);
+        inputTopic2.unsubscribe(this);
 
-        Topic resultTopic = topicManager.getTopic(outputTopic);
-        resultTopic.removePublisher(this);
+        // Remove this agent as a publisher
+        outputTopic.removePublisher(this);
     }
 
     /**
@@ -125,4 +164,40 @@ public class DivAgent implements Agent {
         this.numerator = 0;
         this.denominator = 0;
     }
+
+    /**
+     * Returns the size of the agent's state: the last message of each input topic and the current values.
+     *
+     * @return The size of the state in bytes.
+     */
+    @Override
+    public int stateSize() {
+        return StatefulAgent.messageSize(messageFromTopic1) + StatefulAgent.messageSize(messageFromTopic2) + 16;
+    }
+
+    /**
+     * Saves the last message of each input topic and the current values.
+     *
+     * @param out The buffer to write to.
+     */
+    @Override
+    public void saveState(ByteBuffer out) {
+        StatefulAgent.putMessage(out, messageFromTopic1);
+        StatefulAgent.putMessage(out, messageFromTopic2);
+        out.putDouble(numerator);
+        out.putDouble(denominator);
+    }
+
+    /**
+     * Restores the last message of each input topic and the current values.
+     *
+     * @param in The buffer to read from.
+     */
+    @Override
+    public void loadState(ByteBuffer in) {
+        messageFromTopic1 = StatefulAgent.getMessage(in);
+        messageFromTopic2 = StatefulAgent.getMessage(in);
+        numerator = in.getDouble();
+        denominator = in.getDouble();
+    }
 }
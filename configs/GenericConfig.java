@@ -1,19 +1,48 @@
 package configs;
 
 import graph.Agent;
+import graph.MemoAgent;
 import graph.ParallelAgent;
+import graph.Pure;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import logging.Logger;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * GenericConfig is a class that implements the Config interface.
  * It reads configuration data from a file, creates agents based on the configuration,
  * and manages these agents within a list of ParallelAgent instances.
+ * The type line of an entry may pass arguments to the agent in parentheses,
+ * e.g. {@code Project.configs.MeanWindowAgent(100,tumbling)}.
+ * <p>
+ * By default the agents run on the thread publishing to them, and the ParallelAgents only hold them.
+ * In asynchronous mode each ParallelAgent takes the place of its agent on the subscribed topics, so
+ * every agent processes its messages on its own thread, in batches when {@code -Dagent.batchSize} is set.
+ * With placement enabled, these threads are then placed on the core groups of the machine, see {@link Placement}.
+ * </p>
  */
 public class GenericConfig implements Config {
 
@@ -23,35 +52,335 @@ public class GenericConfig implements Config {
 	/** List of ParallelAgent instances created from the configuration file. */
 	public List<ParallelAgent> agents;
 
+	/** Keys of the agents, see {@link AgentEntry#key}, in the order of the agents list. */
+	private List<String> agentKeys = new ArrayList<>();
+
+	/** Whether the agents process their messages on the threads of their ParallelAgents. */
+	private boolean async = Boolean.parseBoolean(System.getProperty("config.async", Boolean.toString(ParallelAgent.BATCH_SIZE > 1)));
+
+	/** Whether the threads of the agents are placed on the core groups once the agents are wired, in asynchronous mode. */
+	private boolean placement = Boolean.getBoolean("agent.placement");
+
+	/** Number of threads creating agents, 1 to create them on the calling thread. */
+	private int parallelism = Integer.getInteger("config.parallelism", 1);
+
+	/** Constructors of the agent types, resolved once per type. */
+	private static final ConcurrentHashMap<String, MethodHandle> constructors = new ConcurrentHashMap<>();
+	private static final MethodType AGENT_CONSTRUCTOR = MethodType.methodType(Agent.class, String[].class, String[].class);
+
+	private static final Logger log = Logger.get(GenericConfig.class);
+
+	/** The graph the agents are wired into, null for the TopicManager current when created. */
+	private TopicManager topicManager;
+
 	/**
 	 * Creates the configuration by reading the configuration file,
 	 * initializing agents based on the file content, and adding them to the list of agents.
+	 * The file is parsed as a stream of three-line entries, or mapped when it is in the
+	 * {@link BinaryConfig binary format}. With a parallelism above 1 the
+	 * agents are created by several threads; their order in the agents list is kept, but the
+	 * order of subscribers on a shared topic is then unspecified.
+	 * If an agent cannot be created, the agents created so far are closed.
 	 *
 	 * @throws Exception if an error occurs during the creation of the agents.
 	 */
 	@Override
 	public void create() throws Exception {
-		List<String> lines = readFile(this.path);
+		agents = new ArrayList<>(); // Ensure agents list is initialized
+		agentKeys = new ArrayList<>();
 
-		if (lines.size() % 3 != 0) {
-			throw new IllegalArgumentException("Invalid input file format: number of lines is not divisible by 3.");
+		// Agents subscribe through TopicManagerSingleton.get(), so bind this config's graph while creating them
+		if (topicManager == null) {
+			topicManager = TopicManagerSingleton.get();
 		}
+		if (parallelism > 1) {
+			createInParallel(readEntries());
+			place();
+			return;
+		}
+		TopicManager previous = TopicManagerSingleton.bind(topicManager);
+		try {
+			forEachEntry(entry -> {
+				agents.add(wrap(createAgent(entry), entry));
+				agentKeys.add(entry.key);
+			});
+		} catch (Exception e) {
+			close();
+			throw e;
+		} finally {
+			TopicManagerSingleton.bind(previous);
+		}
+		place();
+	}
 
-		agents = new ArrayList<>(); // Ensure agents list is initialized
+	/**
+	 * Places the threads of the agents of the graph when placement is enabled, see {@link Placement}.
+	 */
+	private void place() {
+		if (placement && async) {
+			Placement.apply(topicManager);
+		}
+	}
+
+	/**
+	 * Creates the agents of the given entries with {@link #parallelism} threads,
+	 * each creating a contiguous range of entries.
+	 */
+	private void createInParallel(List<AgentEntry> entries) throws Exception {
+		int count = entries.size();
+		Agent[] created = new Agent[count];
+		int chunk = (count + parallelism - 1) / parallelism;
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		Exception failure = null;
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int from = 0; from < count; from += chunk) {
+				int start = from;
+				int end = Math.min(count, from + chunk);
+				futures.add(executor.submit(() -> {
+					TopicManagerSingleton.bind(topicManager);
+					try {
+						for (int i = start; i < end; i++) {
+							created[i] = createAgent(entries.get(i));
+						}
+					} finally {
+						TopicManagerSingleton.bind(null);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		if (failure != null) {
+			for (Agent agent : created) {
+				if (agent != null) {
+					agent.close();
+				}
+			}
+			throw failure;
+		}
+		for (int i = 0; i < count; i++) {
+			agents.add(wrap(created[i], entries.get(i)));
+			agentKeys.add(entries.get(i).key);
+		}
+	}
+
+	/**
+	 * Creates the configuration by diffing it against a running configuration of the same graph.
+	 * <p>
+	 * Agents whose type, subscriptions and publications are unchanged are kept with their state,
+	 * new agents are created, and agents that are no longer configured are detached from their topics
+	 * and closed once their queued messages are processed. The change is applied with
+	 * {@link TopicManager#rewire}: the topics switch to the new subscribers once the change is complete,
+	 * so each publication sees either the old or the new graph and publishers never wait. Topics left
+	 * without subscribers and publishers are removed. If an agent cannot be created, the running
+	 * configuration is left untouched.
+	 * </p>
+	 * After this call the running configuration holds no agents, so closing it has no effect.
+	 *
+	 * @param running The configuration currently running, already created.
+	 * @throws Exception if an error occurs during the creation of the new agents.
+	 */
+	public void createFrom(GenericConfig running) throws Exception {
+		List<AgentEntry> entries = readEntries();
+		if (topicManager == null) {
+			topicManager = running.getTopicManager();
+		}
 
-		for (int i = 0; i < lines.size(); i += 3) {
-			String agentType = lines.get(i);
-			agentType = agentType.substring(agentType.indexOf('.') + 1); // Extract agent type
-			String[] subs = lines.get(i + 1).split(","); // Subscriptions
-			String[] pubs = lines.get(i + 2).split(","); // Publications
+		// Running agents by key, in configuration order for keys that appear several times
+		Map<String, Deque<ParallelAgent>> runningAgents = new HashMap<>();
+		for (int i = 0; i < running.agents.size(); i++) {
+			runningAgents.computeIfAbsent(running.agentKeys.get(i), k -> new ArrayDeque<>()).add(running.agents.get(i));
+		}
+
+		List<ParallelAgent> created = new ArrayList<>();
+		List<ParallelAgent> removed;
+		try {
+			removed = topicManager.rewire(() -> swapAgents(running, entries, runningAgents, created));
+		} catch (Exception e) {
+			for (ParallelAgent parallelAgent : created) {
+				parallelAgent.close();
+			}
+			throw e;
+		}
+
+		// Outside the rewiring, so the removed agents can still publish the messages they drain
+		for (ParallelAgent parallelAgent : removed) {
+			parallelAgent.close();
+		}
+		place(); // The new agents change the walk, so the whole graph is placed again
+	}
+
+	/**
+	 * Builds the new agent list from reused and created agents, and detaches the agents left over.
+	 * Runs while the graph is being rewired.
+	 *
+	 * @return The running agents that are not part of this configuration.
+	 */
+	private List<ParallelAgent> swapAgents(GenericConfig running, List<AgentEntry> entries,
+			Map<String, Deque<ParallelAgent>> runningAgents, List<ParallelAgent> created) throws Exception {
+		List<ParallelAgent> newAgents = new ArrayList<>();
+		List<String> newKeys = new ArrayList<>();
+		TopicManager previous = TopicManagerSingleton.bind(topicManager);
+		try {
+			for (AgentEntry entry : entries) {
+				Deque<ParallelAgent> unchanged = runningAgents.get(entry.key);
+				ParallelAgent parallelAgent = unchanged != null ? unchanged.poll() : null;
+				if (parallelAgent == null) {
+					parallelAgent = wrap(createAgent(entry), entry);
+					created.add(parallelAgent);
+				}
+				newAgents.add(parallelAgent);
+				newKeys.add(entry.key);
+			}
+		} catch (Exception e) {
+			for (ParallelAgent parallelAgent : created) {
+				topicManager.detach(parallelAgent.getAgent()); // Closed by the caller once the graph runs again
+			}
+			throw e;
+		} finally {
+			TopicManagerSingleton.bind(previous);
+		}
+
+		List<ParallelAgent> removed = new ArrayList<>();
+		for (Deque<ParallelAgent> leftOver : runningAgents.values()) {
+			for (ParallelAgent parallelAgent : leftOver) {
+				topicManager.detach(parallelAgent.getAgent());
+				topicManager.detach(parallelAgent);
+				removed.add(parallelAgent);
+			}
+		}
+		topicManager.removeUnusedTopics();
+
+		agents = newAgents;
+		agentKeys = newKeys;
+		running.agents = new ArrayList<>();
+		running.agentKeys = new ArrayList<>();
+		return removed;
+	}
+
+	/**
+	 * An agent entry of a configuration: the agent type, its subscriptions and its publications.
+	 */
+	static final class AgentEntry {
+		final String type;   // Class name of the agent, without the leading project prefix
+		final String[] subs; // Subscriptions
+		final String[] pubs; // Publications
+		final String key;    // Identifies the entry when diffing configurations
+
+		/**
+		 * Parses the three lines of a text entry.
+		 */
+		AgentEntry(String typeLine, String subsLine, String pubsLine) {
+			this(typeLine.substring(typeLine.indexOf('.') + 1), subsLine.split(","), pubsLine.split(","));
+		}
 
-			Agent agent = createAgent(agentType, subs, pubs);
-			agents.add(new ParallelAgent(agent));
+		AgentEntry(String type, String[] subs, String[] pubs) {
+			this.type = type;
+			this.subs = subs;
+			this.pubs = pubs;
+			this.key = type + '\n' + String.join(",", subs) + '\n' + String.join(",", pubs);
 		}
 	}
 
 	/**
-	 * Creates an agent instance using reflection based on the provided agent type, subscriptions, and publications.
+	 * Receives the entries of a configuration file as they are parsed.
+	 */
+	interface EntryVisitor {
+		void visit(AgentEntry entry) throws Exception;
+	}
+
+	/**
+	 * Streams the configuration file, in the text or the binary format, passing each entry to the visitor
+	 * without holding the whole file in memory.
+	 *
+	 * @param visitor Receives the entries in file order.
+	 * @throws Exception if the file cannot be read, is malformed, or the visitor fails.
+	 */
+	private void forEachEntry(EntryVisitor visitor) throws Exception {
+		Path file = Paths.get(path);
+		if (BinaryConfig.isBinary(file)) {
+			BinaryConfig.forEachEntry(file, visitor);
+		} else {
+			forEachTextEntry(file, visitor);
+		}
+	}
+
+	/**
+	 * Streams a configuration file in the text format, passing each complete three-line entry to the visitor.
+	 *
+	 * @param file    The configuration file.
+	 * @param visitor Receives the entries in file order.
+	 * @throws Exception if the file cannot be read, ends with an incomplete entry, or the visitor fails.
+	 */
+	static void forEachTextEntry(Path file, EntryVisitor visitor) throws Exception {
+		try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String typeLine;
+			while ((typeLine = br.readLine()) != null) {
+				String subsLine = br.readLine();
+				String pubsLine = br.readLine();
+				if (subsLine == null || pubsLine == null) {
+					throw new IllegalArgumentException("Invalid input file format: number of lines is not divisible by 3.");
+				}
+				visitor.visit(new AgentEntry(typeLine, subsLine, pubsLine));
+			}
+		}
+	}
+
+	/**
+	 * Parses all entries of the configuration file.
+	 *
+	 * @return The entries in file order.
+	 * @throws Exception if the file cannot be read or ends with an incomplete entry.
+	 */
+	private List<AgentEntry> readEntries() throws Exception {
+		List<AgentEntry> entries = new ArrayList<>();
+		forEachEntry(entries::add);
+		return entries;
+	}
+
+	/**
+	 * Wraps the agent of an entry in a ParallelAgent, which takes its place on its topics in asynchronous mode.
+	 * The graph is given explicitly, since agents created in parallel are wrapped on an unbound thread.
+	 */
+	private ParallelAgent wrap(Agent agent, AgentEntry entry) {
+		ParallelAgent parallelAgent = new ParallelAgent(agent, ParallelAgent.DEFAULT_CAPACITY, ParallelAgent.BATCH_SIZE,
+				topicManager.getGraphId());
+		if (async) {
+			List<Topic> inputs = new ArrayList<>();
+			for (String name : entry.subs) {
+				Topic topic = topicManager.getTopics().get(name);
+				if (topic != null && !inputs.contains(topic)) {
+					inputs.add(topic);
+				}
+			}
+			parallelAgent.attach(inputs.toArray(new Topic[0]));
+		}
+		return parallelAgent;
+	}
+
+	/**
+	 * Creates the agent of an entry.
+	 */
+	private static Agent createAgent(AgentEntry entry) throws Exception {
+		return createAgent(entry.type, entry.subs, entry.pubs);
+	}
+
+	/**
+	 * Creates an agent instance based on the provided agent type, subscriptions, and publications.
+	 * The constructor of each agent type is looked up once and then invoked through a cached MethodHandle.
+	 * An agent of a type annotated with {@link Pure} is wrapped in a {@link MemoAgent}.
 	 *
 	 * @param agentType The type of the agent to be created.
 	 * @param subs The topics to which the agent subscribes.
@@ -59,10 +388,59 @@ public class GenericConfig implements Config {
 	 * @return The created Agent instance.
 	 * @throws Exception if an error occurs during agent creation.
 	 */
-	private Agent createAgent(String agentType, String[] subs, String[] pubs) throws Exception {
-		Class<?> agentClass = Class.forName(agentType);
-		Constructor<?> constructor = agentClass.getConstructor(String[].class, String[].class);
-		return (Agent) constructor.newInstance((Object) subs, (Object) pubs); // Casting to Object is necessary to match varargs signature
+	private static Agent createAgent(String agentType, String[] subs, String[] pubs) throws Exception {
+		MethodHandle constructor = constructors.get(agentType);
+		if (constructor == null) {
+			constructor = constructors.computeIfAbsent(agentType, GenericConfig::findConstructor);
+		}
+		try {
+			Agent agent = (Agent) constructor.invokeExact(subs, pubs);
+			Agent memoized = MemoAgent.wrapIfPure(agent, subs, pubs);
+			if (memoized == agent && agent.getClass().isAnnotationPresent(Pure.class)) {
+				log.warn("Pure agent not memoized, an output topic is memoized already", "agent", agent.getName());
+			}
+			return memoized;
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	/**
+	 * Looks up the (String[] subs, String[] pubs) constructor of an agent type,
+	 * adapted to return an Agent so it can be invoked exactly.
+	 * A type with arguments, e.g. {@code configs.MeanWindowAgent(100,sliding)}, uses the
+	 * (String[] subs, String[] pubs, String[] args) constructor with the arguments bound.
+	 */
+	private static MethodHandle findConstructor(String agentType) {
+		String className = agentType;
+		String[] args = null;
+		int open = agentType.indexOf('(');
+		if (open >= 0) {
+			if (!agentType.endsWith(")")) {
+				throw new IllegalArgumentException("Invalid agent type " + agentType);
+			}
+			className = agentType.substring(0, open).trim();
+			String argList = agentType.substring(open + 1, agentType.length() - 1).trim();
+			args = argList.isEmpty() ? new String[0] : argList.split("\\s*,\\s*");
+		}
+		try {
+			Class<?> agentClass = Class.forName(className);
+			if (!Agent.class.isAssignableFrom(agentClass)) {
+				throw new IllegalArgumentException(className + " is not an Agent");
+			}
+			if (args == null) {
+				return MethodHandles.publicLookup()
+						.findConstructor(agentClass, MethodType.methodType(void.class, String[].class, String[].class))
+						.asType(AGENT_CONSTRUCTOR);
+			}
+			MethodHandle constructor = MethodHandles.publicLookup()
+					.findConstructor(agentClass, MethodType.methodType(void.class, String[].class, String[].class, String[].class));
+			return MethodHandles.insertArguments(constructor, 2, (Object) args).asType(AGENT_CONSTRUCTOR);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Cannot create agents of type " + agentType, e);
+		}
 	}
 
 	/**
@@ -105,6 +483,9 @@ public class GenericConfig implements Config {
 	 */
 	@Override
 	public void close() {
+		if (agents == null) {
+			return;
+		}
 		for (ParallelAgent parallelAgent : agents) {
 			parallelAgent.close();
 		}
@@ -124,11 +505,61 @@ public class GenericConfig implements Config {
 				lines.add(line);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.error("cannot read config", "file", filePath, e);
 		}
 		return lines;
 	}
 
+	/**
+	 * Sets the graph the agents are wired into. Must be called before {@link #create()}.
+	 *
+	 * @param topicManager The TopicManager of the graph.
+	 */
+	public void setTopicManager(TopicManager topicManager) {
+		this.topicManager = topicManager;
+	}
+
+	/**
+	 * Sets the number of threads creating agents in {@link #create()}.
+	 * Defaults to the {@code config.parallelism} system property, or 1.
+	 *
+	 * @param parallelism The number of threads, 1 to create the agents on the calling thread.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Sets whether the agents process their messages on the threads of their ParallelAgents.
+	 * Must be called before {@link #create()}. Defaults to the {@code config.async} system property,
+	 * or to true when {@code agent.batchSize} is above 1.
+	 *
+	 * @param async true to queue the messages of each agent, false to call the agents on the publishing thread.
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	/**
+	 * Sets whether the threads of the agents are placed on the core groups of the machine once the agents
+	 * are wired, which only applies in asynchronous mode. Must be called before {@link #create()}.
+	 * Defaults to the {@code agent.placement} system property, or false.
+	 *
+	 * @param placement true to place the threads with {@link Placement#apply(TopicManager)}.
+	 */
+	public void setPlacement(boolean placement) {
+		this.placement = placement;
+	}
+
+	/**
+	 * Returns the graph the agents are wired into.
+	 *
+	 * @return The TopicManager of the graph, or the current one if the config was not created yet.
+	 */
+	public TopicManager getTopicManager() {
+		return topicManager != null ? topicManager : TopicManagerSingleton.get();
+	}
+
 	/**
 	 * Sets the path to the configuration file.
 	 *
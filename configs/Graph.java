@@ -2,25 +2,53 @@ package configs;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import graph.Agent;
+import graph.ParallelAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
+import graph.WiringListener;
+import logging.Logger;
 
 /**
  * Represents a graph of nodes, where each node corresponds to a topic or an agent.
  * This class provides methods to check for cycles, print the graph, and create the graph from topics.
+ * A graph registered as a {@link WiringListener} follows the wiring of its topics incrementally.
+ * A {@link ParallelAgent} shares the node of the agent it runs, so an agent keeps a single node
+ * whether it receives its messages directly or through its queue.
+ * Removing a node moves the last node into its place, so the nodes keep the order they were added in
+ * only until one is removed.
  */
-public class Graph extends ArrayList<Node> {
+public class Graph extends ArrayList<Node> implements WiringListener {
+
+    private static final Logger log = Logger.get(Graph.class);
 
     /** List of topics in the graph */
     public List<Topic> topics;
 
     /** Map of node names to node instances */
-    private Map<String, Node> nodes;
+    private Map<String, Node> nodes = new HashMap<>();
+
+    /** Nodes of the topics and agents, by identity so equal names cannot collide */
+    private final Map<Topic, Node> topicNodes = new IdentityHashMap<>();
+    private final Map<Agent, Node> agentNodes = new IdentityHashMap<>();
+
+    /** Position of each node of a topic or agent in this list, so a node is removed in O(1) */
+    private final Map<Node, Integer> positions = new IdentityHashMap<>();
+
+    /** Number of subscriptions and publications of each agent, its node is removed at 0 */
+    private final Map<Agent, Integer> agentLinks = new IdentityHashMap<>();
+
+    /** Number of wiring changes applied, so readers can tell whether the graph changed */
+    private long version;
+
+    /** Live graphs of the graph instances, see {@link #of(TopicManager)} */
+    private static final Map<TopicManager, Graph> liveGraphs = new WeakHashMap<>();
 
     /**
      * Constructor for the Graph class.
@@ -30,28 +58,34 @@ public class Graph extends ArrayList<Node> {
     }
 
     /**
-     * Checks if the graph has cycles.
+     * Checks if the graph has cycles, in time linear in the size of the graph.
      *
      * @return true if the graph has cycles, false otherwise.
      */
     public boolean hasCycles() {
-        for (Node node : this) {
-            if (node.hasCycles() == true)
-                return true;
-        }
-        return false;
+        return analyze().hasCycles();
     }
 
     /**
-     * Prints the graph to the standard output, showing the edges of each node.
+     * Analyzes the graph: strongly connected components, an offending cycle if any,
+     * topological order and node depths.
+     *
+     * @return The analysis of the graph as it is now.
+     */
+    public GraphAnalysis analyze() {
+        return GraphAnalysis.of(this);
+    }
+
+    /**
+     * Logs the graph, showing the edges of each node.
      */
     public void printGraph() {
         for (Node node : this) {
-            System.out.print(node.getName() + " -> ");
+            StringBuilder edges = new StringBuilder();
             for (Node edge : node.getEdges()) {
-                System.out.print(edge.getName() + " ");
+                edges.append(edges.length() > 0 ? " " : "").append(edge.getName());
             }
-            System.out.println();
+            log.info("node", "name", node.getName(), "edges", edges.toString());
         }
     }
 
@@ -60,70 +94,213 @@ public class Graph extends ArrayList<Node> {
      * Each topic and agent is represented as a node in the graph.
      */
     public void createFromTopics() {
-        TopicManager tm = TopicManagerSingleton.get();
-
-        // Get all topics
-        Topic[] topics = tm.getTopics().values().toArray(new Topic[0]);
-
-        // Create a hashmap to remember the nodes
-        HashMap<String, Node> nodes = new HashMap<>();
+        createFromTopics(TopicManagerSingleton.get());
+    }
 
-        // For each topic, create a node
-        for (Topic curTopic : topics) {
+    /**
+     * Creates the graph from the topics of the given graph instance.
+     * Each topic and agent is represented as a node in the graph, with one edge per subscription
+     * and publication. Calling it again only adds what is missing.
+     *
+     * @param tm The TopicManager of the graph.
+     */
+    public synchronized void createFromTopics(TopicManager tm) {
+        for (Topic curTopic : tm.getTopics().values()) {
             // Create a node for the topic if it doesn't exist
-            Node curNode = nodes.get("T" + curTopic.getName());
-            if (curNode == null) {
-                curNode = new Node("T" + curTopic.getName());
-                nodes.put(curNode.getName(), curNode);
-                this.add(curNode);
-            }
+            topicNode(curTopic);
 
-            // Get the subscribers of the topic
+            // Add an edge from the topic node to each subscriber node
             for (Agent agent : curTopic.getSubs()) {
-                // Create a node for the subscriber agent if it doesn't exist
-                Node subNode = nodes.get("A" + agent.getName());
-                if (subNode == null) {
-                    subNode = new Node("A" + agent.getName());
-                    nodes.put(subNode.getName(), subNode);
-                    this.add(subNode);
-                }
-                // Add an edge from the topic node to the subscriber node
-                curNode.addEdge(subNode);
+                subscribed(curTopic, agent);
             }
 
-            // Get the publishers of the topic
+            // Add an edge from each publisher node to the topic node
             for (Agent agent : curTopic.getPubs()) {
-                // Create a node for the publisher agent if it doesn't exist
-                Node pubNode = nodes.get("A" + agent.getName());
-                if (pubNode == null) {
-                    pubNode = new Node("A" + agent.getName());
-                    nodes.put(pubNode.getName(), pubNode);
-                    this.add(pubNode);
-                }
-                // Add an edge from the publisher node to the topic node
-                pubNode.addEdge(curNode);
+                publisherAdded(curTopic, agent);
             }
         }
+    }
 
-        this.nodes = nodes;
+    /**
+     * Returns the graph of a graph instance, kept up to date as agents subscribe and publish.
+     * The first call builds it from the topics; later calls return the same graph without scanning.
+     * Readers synchronize on the returned graph to see a consistent state.
+     *
+     * @param tm The TopicManager of the graph.
+     * @return The live graph.
+     */
+    public static Graph of(TopicManager tm) {
+        synchronized (liveGraphs) {
+            Graph graph = liveGraphs.get(tm);
+            if (graph == null) {
+                graph = new Graph();
+                synchronized (graph) {
+                    tm.addWiringListener(graph); // Changes made while scanning wait for the scan, then apply
+                    graph.createFromTopics(tm);
+                }
+                liveGraphs.put(tm, graph);
+            }
+            return graph;
+        }
     }
 
     /**
-     * Retrieves a node from the graph by its name.
-     * If the node does not exist, creates a new node and adds it to the graph.
+     * Returns the number of wiring changes applied to the graph. It changes whenever the graph may have.
      *
-     * @param name The name of the node.
-     * @return The node with the given name.
+     * @return The version of the graph.
      */
-    private Node getNode(String name) {
-        for (Node n : this) {
-            if (n.getName().equals(name))
-                return n;
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // Wiring changes, applied incrementally
+
+    @Override
+    public synchronized void topicAdded(Topic topic) {
+        version++;
+        topicNode(topic);
+    }
+
+    @Override
+    public synchronized void topicRemoved(Topic topic) {
+        version++;
+        Node node = topicNodes.remove(topic);
+        if (node != null) {
+            nodes.remove(node.getName(), node);
+            removeNode(node);
+        }
+    }
+
+    @Override
+    public synchronized void subscribed(Topic topic, Agent agent) {
+        version++;
+        agent = owner(agent);
+        if (topicNode(topic).addEdge(agentNode(agent))) {
+            agentLinks.merge(agent, 1, Integer::sum);
         }
+    }
+
+    @Override
+    public synchronized void unsubscribed(Topic topic, Agent agent) {
+        version++;
+        agent = owner(agent);
+        Node topicNode = topicNodes.get(topic);
+        Node agentNode = agentNodes.get(agent);
+        if (topicNode != null && agentNode != null && topicNode.removeEdge(agentNode)) {
+            unlink(agent);
+        }
+    }
 
-        Node n = new Node(name);
-        this.add(n);
-        return n;
+    @Override
+    public synchronized void publisherAdded(Topic topic, Agent agent) {
+        version++;
+        agent = owner(agent);
+        if (agentNode(agent).addEdge(topicNode(topic))) {
+            agentLinks.merge(agent, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    public synchronized void publisherRemoved(Topic topic, Agent agent) {
+        version++;
+        agent = owner(agent);
+        Node topicNode = topicNodes.get(topic);
+        Node agentNode = agentNodes.get(agent);
+        if (topicNode != null && agentNode != null && agentNode.removeEdge(topicNode)) {
+            unlink(agent);
+        }
+    }
+
+    @Override
+    public synchronized void cleared() {
+        version++;
+        clear();
+        nodes.clear();
+        topicNodes.clear();
+        agentNodes.clear();
+        positions.clear();
+        agentLinks.clear();
+    }
+
+    /**
+     * Returns the node of a topic, creating it if needed.
+     */
+    private Node topicNode(Topic topic) {
+        Node node = topicNodes.get(topic);
+        if (node == null) {
+            node = new Node("T" + topic.getName());
+            topicNodes.put(topic, node);
+            nodes.put(node.getName(), node);
+            addNode(node);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the agent whose node represents an agent: the encapsulated agent of a ParallelAgent.
+     */
+    private static Agent owner(Agent agent) {
+        return agent instanceof ParallelAgent ? ((ParallelAgent) agent).getAgent() : agent;
+    }
+
+    /**
+     * Returns the node of an agent, creating it if needed.
+     */
+    private Node agentNode(Agent agent) {
+        Node node = agentNodes.get(agent);
+        if (node == null) {
+            node = new Node("A" + agent.getName());
+            agentNodes.put(agent, node);
+            nodes.put(node.getName(), node);
+            addNode(node);
+        }
+        return node;
+    }
+
+    /**
+     * Counts down the links of an agent, and removes its node when it has none left.
+     */
+    private void unlink(Agent agent) {
+        Integer links = agentLinks.merge(agent, -1, Integer::sum);
+        if (links != null && links <= 0) {
+            agentLinks.remove(agent);
+            Node node = agentNodes.remove(agent);
+            nodes.remove(node.getName(), node);
+            removeNode(node);
+        }
+    }
+
+    /**
+     * Appends a node, remembering its position.
+     */
+    private void addNode(Node node) {
+        positions.put(node, size());
+        add(node);
+    }
+
+    /**
+     * Removes a node in O(1) by moving the last node into its position.
+     */
+    private void removeNode(Node node) {
+        Integer position = positions.remove(node);
+        if (position == null) {
+            return;
+        }
+        Node last = remove(size() - 1);
+        if (last != node) {
+            set(position, last);
+            positions.put(last, position);
+        }
+    }
+
+    /**
+     * Returns the node of an agent, without creating it. A ParallelAgent has the node of its agent.
+     *
+     * @param agent The agent.
+     * @return The node, or null if the agent has no subscription or publication in the graph.
+     */
+    public synchronized Node getNode(Agent agent) {
+        return agentNodes.get(owner(agent));
     }
 
     /**
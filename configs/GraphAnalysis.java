@@ -0,0 +1,415 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GraphAnalysis validates a graph in linear time: it finds the strongly connected components,
+ * reports a cycle when there is one, and computes a topological order and the depth of every node.
+ * <p>
+ * The nodes are numbered 0..n-1 and the edges are held in compressed sparse row form: the targets
+ * of node {@code v} are {@code targets[offsets[v]] .. targets[offsets[v + 1] - 1]}. All traversals
+ * are iterative, so deep graphs cannot overflow the stack, and the whole analysis is a few passes
+ * over int arrays.
+ * </p>
+ * The depth of a node is the length of the longest path reaching it from a node without inputs,
+ * where the nodes of a cycle share one depth.
+ */
+public class GraphAnalysis {
+
+    // The graph in CSR form
+    private final int nodeCount;
+    private final int[] offsets;
+    private final int[] targets;
+    private final Node[] nodes; // Node of each index, null when built from arrays
+
+    // Results
+    private final int[] component;      // Strongly connected component of each node, in reverse topological order
+    private final int componentCount;
+    private final boolean[] cyclic;     // Whether a component contains a cycle (several nodes or a self loop)
+    private final int[] componentStart; // Nodes of component c are componentNodes[componentStart[c] .. componentStart[c + 1] - 1]
+    private final int[] componentNodes;
+    private final int[] depth;
+    private final int cyclicComponent;  // First cyclic component, -1 if the graph is acyclic
+
+    /**
+     * Analyzes a graph given in CSR form.
+     *
+     * @param nodeCount The number of nodes.
+     * @param offsets   The edge offsets, of length nodeCount + 1.
+     * @param targets   The edge targets.
+     */
+    public GraphAnalysis(int nodeCount, int[] offsets, int[] targets) {
+        this(nodeCount, offsets, targets, null);
+    }
+
+    private GraphAnalysis(int nodeCount, int[] offsets, int[] targets, Node[] nodes) {
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.nodes = nodes;
+
+        this.component = new int[nodeCount];
+        this.componentCount = findComponents();
+
+        // Group the nodes by component (counting sort)
+        componentStart = new int[componentCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            componentStart[component[v] + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            componentStart[c + 1] += componentStart[c];
+        }
+        componentNodes = new int[nodeCount];
+        int[] fill = Arrays.copyOf(componentStart, componentCount);
+        for (int v = 0; v < nodeCount; v++) {
+            componentNodes[fill[component[v]]++] = v;
+        }
+
+        // A component is cyclic if it has several nodes or a node with an edge to itself
+        cyclic = new boolean[componentCount];
+        int firstCyclic = -1;
+        for (int v = 0; v < nodeCount; v++) {
+            int c = component[v];
+            if (componentStart[c + 1] - componentStart[c] > 1) {
+                cyclic[c] = true;
+            } else {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (targets[e] == v) {
+                        cyclic[c] = true;
+                        break;
+                    }
+                }
+            }
+            if (cyclic[c] && firstCyclic < 0) {
+                firstCyclic = c;
+            }
+        }
+        cyclicComponent = firstCyclic;
+
+        depth = computeDepths();
+    }
+
+    /**
+     * Analyzes a graph of nodes. Nodes reachable through edges but missing from the graph's list are included.
+     *
+     * @param graph The nodes of the graph.
+     * @return The analysis.
+     */
+    public static GraphAnalysis of(List<Node> graph) {
+        Map<Node, Integer> indexes = new IdentityHashMap<>(graph.size() * 2);
+        List<Node> nodes = new ArrayList<>(graph.size());
+        for (Node node : graph) {
+            if (indexes.putIfAbsent(node, nodes.size()) == null) {
+                nodes.add(node);
+            }
+        }
+
+        // Number the nodes and count the edges; nodes found through edges are appended
+        int edgeCount = 0;
+        for (int v = 0; v < nodes.size(); v++) {
+            for (Node target : nodes.get(v).getEdges()) {
+                if (indexes.putIfAbsent(target, nodes.size()) == null) {
+                    nodes.add(target);
+                }
+                edgeCount++;
+            }
+        }
+
+        int n = nodes.size();
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[edgeCount];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = e;
+            for (Node target : nodes.get(v).getEdges()) {
+                targets[e++] = indexes.get(target);
+            }
+        }
+        offsets[n] = e;
+        return new GraphAnalysis(n, offsets, targets, nodes.toArray(new Node[0]));
+    }
+
+    /**
+     * Finds the strongly connected components with an iterative version of Tarjan's algorithm.
+     * Components are numbered in the order they complete, which is a reverse topological order.
+     *
+     * @return The number of components.
+     */
+    private int findComponents() {
+        int[] index = new int[nodeCount];
+        int[] low = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        int[] stack = new int[nodeCount];     // Tarjan's stack of visited nodes
+        int[] callStack = new int[nodeCount]; // The DFS path
+        int[] nextEdge = new int[nodeCount];  // Next edge to explore for each node on the path
+        Arrays.fill(index, -1);
+
+        int nextIndex = 0;
+        int components = 0;
+        int sp = 0;
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int top = 0;
+            callStack[top++] = root;
+            index[root] = low[root] = nextIndex++;
+            nextEdge[root] = offsets[root];
+            stack[sp++] = root;
+            onStack[root] = true;
+
+            while (top > 0) {
+                int v = callStack[top - 1];
+                if (nextEdge[v] < offsets[v + 1]) {
+                    int w = targets[nextEdge[v]++];
+                    if (index[w] < 0) {
+                        // Descend into w
+                        index[w] = low[w] = nextIndex++;
+                        nextEdge[w] = offsets[w];
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callStack[top++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    // All edges of v explored: close its component if it is a root, then return to the parent
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component[w] = components;
+                        } while (w != v);
+                        components++;
+                    }
+                    top--;
+                    if (top > 0) {
+                        int parent = callStack[top - 1];
+                        low[parent] = Math.min(low[parent], low[v]);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Computes the longest path depth of every node over the condensation of the graph,
+     * visiting the components in topological order.
+     */
+    private int[] computeDepths() {
+        int[] componentDepth = new int[componentCount];
+        for (int c = componentCount - 1; c >= 0; c--) {
+            for (int i = componentStart[c]; i < componentStart[c + 1]; i++) {
+                int v = componentNodes[i];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int target = component[targets[e]];
+                    if (target != c && componentDepth[target] < componentDepth[c] + 1) {
+                        componentDepth[target] = componentDepth[c] + 1;
+                    }
+                }
+            }
+        }
+        int[] nodeDepth = new int[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            nodeDepth[v] = componentDepth[component[v]];
+        }
+        return nodeDepth;
+    }
+
+    /**
+     * Checks whether the graph has a cycle.
+     *
+     * @return true if the graph has a cycle, false otherwise.
+     */
+    public boolean hasCycles() {
+        return cyclicComponent >= 0;
+    }
+
+    /**
+     * Returns one cycle of the graph, as node indexes in edge order. The last node has an edge to the first.
+     *
+     * @return The cycle, or an empty array if the graph is acyclic.
+     */
+    public int[] getCycleIndexes() {
+        if (cyclicComponent < 0) {
+            return new int[0];
+        }
+        // Breadth-first search inside the component, from one of its nodes back to itself
+        int start = componentNodes[componentStart[cyclicComponent]];
+        int[] parent = new int[nodeCount];
+        Arrays.fill(parent, -1);
+        int[] queue = new int[componentStart[cyclicComponent + 1] - componentStart[cyclicComponent]];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        int last = -1;
+        while (head < tail && last < 0) {
+            int v = queue[head++];
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                if (w == start) {
+                    last = v;
+                    break;
+                }
+                if (component[w] == cyclicComponent && parent[w] < 0) {
+                    parent[w] = v;
+                    queue[tail++] = w;
+                }
+            }
+        }
+
+        int length = 1;
+        for (int u = last; u != start; u = parent[u]) {
+            length++;
+        }
+        int[] cycle = new int[length];
+        int v = last;
+        for (int i = length - 1; i >= 0; i--) {
+            cycle[i] = v;
+            if (i > 0) {
+                v = parent[v];
+            }
+        }
+        return cycle;
+    }
+
+    /**
+     * Returns one cycle of the graph, as nodes in edge order. The last node has an edge to the first.
+     *
+     * @return The cycle, or an empty list if the graph is acyclic.
+     */
+    public List<Node> getCycle() {
+        return toNodes(getCycleIndexes());
+    }
+
+    /**
+     * Returns the number of strongly connected components, counting single nodes as components.
+     *
+     * @return The number of components.
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Returns the strongly connected component of a node. Components are numbered in reverse
+     * topological order: edges between components always go to a lower number.
+     *
+     * @param node The node index.
+     * @return The component number.
+     */
+    public int getComponent(int node) {
+        return component[node];
+    }
+
+    /**
+     * Checks whether a strongly connected component contains a cycle.
+     *
+     * @param component The component number.
+     * @return true if the component has several nodes or a node with an edge to itself.
+     */
+    public boolean isCyclic(int component) {
+        return cyclic[component];
+    }
+
+    /**
+     * Returns the strongly connected components that contain a cycle.
+     *
+     * @return The cyclic components, each as a list of nodes.
+     */
+    public List<List<Node>> getCyclicComponents() {
+        List<List<Node>> result = new ArrayList<>();
+        for (int c = componentCount - 1; c >= 0; c--) {
+            if (cyclic[c]) {
+                result.add(toNodes(Arrays.copyOfRange(componentNodes, componentStart[c], componentStart[c + 1])));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node indexes in topological order: every edge goes from an earlier to a later node.
+     *
+     * @return The order, or null if the graph has a cycle.
+     */
+    public int[] getTopologicalOrderIndexes() {
+        if (hasCycles()) {
+            return null;
+        }
+        // Acyclic: every component is a single node, and components are numbered in reverse topological order
+        int[] order = new int[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            order[componentCount - 1 - component[v]] = v;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the nodes in topological order: every edge goes from an earlier to a later node.
+     *
+     * @return The order, or null if the graph has a cycle.
+     */
+    public List<Node> getTopologicalOrder() {
+        int[] order = getTopologicalOrderIndexes();
+        return order == null ? null : toNodes(order);
+    }
+
+    /**
+     * Returns the depth of a node: the longest path reaching it from a node without inputs.
+     *
+     * @param node The node index.
+     * @return The depth, 0 for nodes without inputs.
+     */
+    public int getDepth(int node) {
+        return depth[node];
+    }
+
+    /**
+     * Returns the depth of every node, by node index.
+     *
+     * @return The depths.
+     */
+    public int[] getDepths() {
+        return depth.clone();
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the node with the given index.
+     *
+     * @param index The node index.
+     * @return The node, or null if the analysis was built from arrays.
+     */
+    public Node getNode(int index) {
+        return nodes == null ? null : nodes[index];
+    }
+
+    /**
+     * Maps node indexes to nodes.
+     */
+    private List<Node> toNodes(int[] indexes) {
+        if (nodes == null) {
+            return Collections.emptyList();
+        }
+        List<Node> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(nodes[index]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+package configs;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.StatefulAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * GraphSnapshot saves the running state of a graph to a compact binary file and restores it,
+ * so a restart costs time proportional to the state size instead of replaying every input.
+ * <p>
+ * A snapshot holds the text of the active configuration, the last value of every topic published
+ * to, and the internal state of every agent implementing {@link StatefulAgent}. Agents are matched by their
+ * position in the configuration, which is stable because the configuration is stored alongside.
+ * The file is written and read through a single memory mapping. Agents keep running while they are saved,
+ * so the state of each agent is first serialized into its own buffer, which grows if the state grew
+ * after it was sized, and its length is taken from what was written.
+ * </p>
+ * <pre>
+ * int magic, int version, long createdMillis
+ * str graphId, str configPath, str configText
+ * int topicCount, then per topic published to: str name, byte tag, (double value | str text)
+ * int agentCount, then per stateful agent: int index, int size, byte[size] state
+ * </pre>
+ * where {@code str} is an int byte length followed by UTF-8 bytes.
+ */
+public class GraphSnapshot {
+
+    private static final int MAGIC = 0x47534E50; // "GSNP"
+    private static final int VERSION = 2;
+
+    private GraphSnapshot() {}
+
+    /**
+     * Saves the state of a created configuration and of the current topics to a file.
+     * The file is replaced atomically, so a crash while saving keeps the previous snapshot.
+     *
+     * @param config The active configuration.
+     * @param file   The snapshot file to write.
+     * @throws IOException If the configuration cannot be read or the snapshot cannot be written.
+     */
+    public static void save(GenericConfig config, Path file) throws IOException {
+        TopicManager topicManager = config.getTopicManager();
+        byte[] graphId = topicManager.getGraphId().getBytes(StandardCharsets.UTF_8);
+        byte[] configPath = config.path.getBytes(StandardCharsets.UTF_8);
+        byte[] configText = Files.readAllBytes(Paths.get(config.path));
+
+        // Collect the topics with their encoded last values; topics never published to keep their
+        // initial value when restored, so they still look unpublished, e.g. to dedup
+        List<byte[]> topicNames = new ArrayList<>();
+        List<Message> topicValues = new ArrayList<>();
+        for (Topic topic : topicManager.getTopics().values()) {
+            if (!topic.hasPublished()) {
+                continue;
+            }
+            topicNames.add(topic.getName().getBytes(StandardCharsets.UTF_8));
+            topicValues.add(new Message(topic.getLastMessage()));
+        }
+
+        // Compute the exact size of the file
+        long size = 4 + 4 + 8 + 4 + graphId.length + 4 + configPath.length + 4 + configText.length + 4;
+        for (int i = 0; i < topicNames.size(); i++) {
+            size += 4 + topicNames.get(i).length + StatefulAgent.messageSize(topicValues.get(i));
+        }
+        size += 4;
+        List<Integer> statefulIndexes = new ArrayList<>();
+        List<byte[]> states = new ArrayList<>();
+        for (int index = 0; index < config.agents.size(); index++) {
+            Agent agent = config.agents.get(index).getAgent();
+            if (agent instanceof StatefulAgent) {
+                byte[] state = saveState((StatefulAgent) agent);
+                size += 4 + 4 + state.length;
+                statefulIndexes.add(index);
+                states.add(state);
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size + " bytes");
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = parent.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(System.currentTimeMillis());
+            putBytes(out, graphId);
+            putBytes(out, configPath);
+            putBytes(out, configText);
+
+            out.putInt(topicNames.size());
+            for (int i = 0; i < topicNames.size(); i++) {
+                putBytes(out, topicNames.get(i));
+                StatefulAgent.putMessage(out, topicValues.get(i));
+            }
+
+            out.putInt(states.size());
+            for (int i = 0; i < states.size(); i++) {
+                out.putInt(statefulIndexes.get(i));
+                putBytes(out, states.get(i));
+            }
+            out.force();
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a graph from a snapshot: recreates the configuration in the graph it was saved from,
+     * then sets the last value of every topic that was published to and the state of every stateful agent, without publishing anything.
+     *
+     * @param file     The snapshot file to read.
+     * @param confFile Where to write the configuration text, or null to use the path it was saved from.
+     * @return The created configuration.
+     * @throws Exception If the snapshot is invalid or the configuration cannot be created.
+     */
+    public static GenericConfig load(Path file, Path confFile) throws Exception {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IOException("Not a graph snapshot: " + file);
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+        in.getLong(); // Creation time
+
+        String graphId = new String(getBytes(in), StandardCharsets.UTF_8);
+        String configPath = new String(getBytes(in), StandardCharsets.UTF_8);
+        byte[] configText = getBytes(in);
+        Path target = confFile != null ? confFile : Paths.get(configPath);
+        if (target.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+        }
+        Files.write(target, configText);
+
+        TopicManager topicManager = TopicManagerSingleton.get(graphId);
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(target.toString());
+        config.setTopicManager(topicManager);
+        config.create();
+
+        int topicCount = in.getInt();
+        for (int i = 0; i < topicCount; i++) {
+            String name = new String(getBytes(in), StandardCharsets.UTF_8);
+            Message last = StatefulAgent.getMessage(in);
+            topicManager.getTopic(name).setLastMessage(last);
+        }
+
+        int agentCount = in.getInt();
+        for (int i = 0; i < agentCount; i++) {
+            int index = in.getInt();
+            int stateSize = in.getInt();
+            int next = in.position() + stateSize;
+            if (index < config.agents.size() && config.agents.get(index).getAgent() instanceof StatefulAgent) {
+                ByteBuffer state = in.slice();
+                state.limit(stateSize);
+                ((StatefulAgent) config.agents.get(index).getAgent()).loadState(state);
+            }
+            in.position(next);
+        }
+        return config;
+    }
+
+    /**
+     * Serializes the state of an agent into its own buffer, sized from {@link StatefulAgent#stateSize()}
+     * and doubled until the state fits.
+     *
+     * @param agent The agent.
+     * @return The state, as many bytes as the agent wrote.
+     * @throws IOException If the state does not fit in an array.
+     */
+    private static byte[] saveState(StatefulAgent agent) throws IOException {
+        int capacity = Math.max(16, agent.stateSize());
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            try {
+                agent.saveState(buffer);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                if (capacity > Integer.MAX_VALUE / 2) {
+                    throw new IOException("State of " + agent.getName() + " too large", e);
+                }
+                capacity *= 2; // The state grew since it was sized
+            }
+        }
+    }
+
+    /**
+     * Writes a length-prefixed byte array.
+     */
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed byte array.
+     */
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -1,7 +1,10 @@
 package configs;
 
-import graph.Agent;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import graph.Message;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
@@ -10,20 +13,20 @@ import graph.TopicManagerSingleton.TopicManager;
  * Represents an Increment Agent that subscribes to a topic, increments the received value by 1,
  * and publishes the result to one or more topics.
  */
-public class IncAgent implements Agent {
+public class IncAgent implements StatefulAgent {
 
 	// Subscription and publication topic names
 	private final String name;
-	private static int counter=0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	public String[] subs;
 	public String[] pubs;
 	private Double x = 0.0;
 
 
-	// Instance variables to store specific topic names
-	private String firstTopicName;
-	private String resultTopicName;
+	// Topics resolved once at construction, used on the publish path
+	private final Topic firstTopic;
+	private final Topic resultTopic;
 
 	/**
 	 * Constructor for IncAgent.
@@ -40,22 +43,22 @@ public class IncAgent implements Agent {
 		if (pubs.length < 1) {
 			throw new IllegalArgumentException("IncAgent requires at least one publication topic.");
 		}
-		counter++;
-		this.name = ("IncAgent" +counter);
+		this.name = "IncAgent" + counter.incrementAndGet();
 
 		this.subs = subs;
 		this.pubs = pubs;
 
-		// Save the topic names
-		this.firstTopicName = subs[0];
-		this.resultTopicName = pubs[0];
+		// Resolve the topics once
+		TopicManager tm = TopicManagerSingleton.get();
+		this.firstTopic = tm.getTopic(subs[0]);
+		this.resultTopic = tm.getTopic(pubs[0]);
 
 		// Subscribe to the first subscription topic
-		TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+		firstTopic.subscribe(this);
 
 		// Add this agent as a publisher to the publication topics
 		for (String pub : pubs) {
-			TopicManagerSingleton.get().getTopic(pub).addPublisher(this);
+			tm.getTopic(pub).addPublisher(this);
 		}
 	}
 
@@ -66,7 +69,7 @@ public class IncAgent implements Agent {
 		if (x != null) {
 			double result = x + 1;
 			// Publish the result to the first publication topic
-			TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(result));
+			resultTopic.publish(new Message(result));
 		}
 	}
 
@@ -80,6 +83,16 @@ public class IncAgent implements Agent {
 		x = 0.0;
 	}
 
+	@Override
+	public void callback(Topic topic, Message msg) {
+		// Check if the topic is the subscribed topic (dispatch on the topic reference)
+		if (topic == firstTopic) {
+			x = msg.asDouble;
+		}
+		// Increment the value and publish the result
+		Inc();
+	}
+
 	@Override
 	public void callback(String topic, Message msg) {
 		// Check if the topic is the subscribed topic
@@ -93,10 +106,37 @@ public class IncAgent implements Agent {
 	@Override
 	public void close() {
 		// Unsubscribe from the topics and remove this agent as a publisher
-		TopicManager tm = TopicManagerSingleton.get();
-		Topic firstTopic = tm.getTopic(firstTopicName);
 		firstTopic.unsubscribe(this);
-		Topic resultTopic = tm.getTopic(resultTopicName);
 		resultTopic.removePublisher(this);
 	}
+
+	/**
+	 * Returns the size of the agent's state: the last received value.
+	 *
+	 * @return The size of the state in bytes.
+	 */
+	@Override
+	public int stateSize() {
+		return StatefulAgent.doubleSize(x);
+	}
+
+	/**
+	 * Saves the last received value.
+	 *
+	 * @param out The buffer to write to.
+	 */
+	@Override
+	public void saveState(ByteBuffer out) {
+		StatefulAgent.putDouble(out, x);
+	}
+
+	/**
+	 * Restores the last received value.
+	 *
+	 * @param in The buffer to read from.
+	 */
+	@Override
+	public void loadState(ByteBuffer in) {
+		x = StatefulAgent.getDouble(in);
+	}
 }
@@ -0,0 +1,57 @@
+package configs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the minimum of a window over the values of one topic.
+ * See {@link WindowAgent} for the window arguments.
+ */
+public class MinWindowAgent extends WindowAgent {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	// Candidates for the minimum of the window
+	private final MonotonicQueue queue = new MonotonicQueue(false);
+
+	/**
+	 * Constructor for MinWindowAgent with a sliding window of {@value WindowAgent#DEFAULT_COUNT} values.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 */
+	public MinWindowAgent(String[] subs, String[] pubs) {
+		this(subs, pubs, new String[0]);
+	}
+
+	/**
+	 * Constructor for MinWindowAgent.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 * @param args The window: a count or a duration, then sliding or tumbling.
+	 */
+	public MinWindowAgent(String[] subs, String[] pubs, String[] args) {
+		super("MinWindowAgent" + counter.incrementAndGet(), subs, pubs, args);
+		wire();
+	}
+
+	@Override
+	protected void add(double value) {
+		queue.add(value);
+	}
+
+	@Override
+	protected void evict(double value) {
+		queue.evict(value);
+	}
+
+	@Override
+	protected void clear() {
+		queue.clear();
+	}
+
+	@Override
+	protected double result() {
+		return queue.peek();
+	}
+}
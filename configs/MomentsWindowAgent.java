@@ -0,0 +1,93 @@
+package configs;
+
+/**
+ * Base class of the window agents aggregating the sum and the sum of squares of the window:
+ * sum, mean and variance.
+ * <p>
+ * The sums are kept relative to a shift, a value of the window, so large values with a small spread
+ * keep their precision. Values leaving a sliding window are subtracted, and the sums are recomputed
+ * from the window after as many evictions as the window holds, so rounding errors cannot accumulate
+ * and updates stay O(1) amortized.
+ * </p>
+ */
+abstract class MomentsWindowAgent extends WindowAgent {
+
+	private double shift;
+	private double sum;   // Sum of (value - shift)
+	private double sumSq; // Sum of (value - shift)^2
+	private int evictions;
+
+	MomentsWindowAgent(String name, String[] subs, String[] pubs, String[] args) {
+		super(name, subs, pubs, args);
+	}
+
+	@Override
+	protected void add(double value) {
+		if (size() == 1) {
+			shift = value;
+			sum = 0;
+			sumSq = 0;
+		}
+		double d = value - shift;
+		sum += d;
+		sumSq += d * d;
+	}
+
+	@Override
+	protected void evict(double value) {
+		double d = value - shift;
+		sum -= d;
+		sumSq -= d * d;
+		if (++evictions >= Math.max(size(), 16)) {
+			recompute();
+		}
+	}
+
+	@Override
+	protected void clear() {
+		sum = 0;
+		sumSq = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Recomputes the sums from the values of the window, shifted by the oldest value.
+	 */
+	private void recompute() {
+		evictions = 0;
+		sum = 0;
+		sumSq = 0;
+		boolean[] first = {true};
+		forEachValue(value -> {
+			if (first[0]) {
+				shift = value;
+				first[0] = false;
+			}
+			double d = value - shift;
+			sum += d;
+			sumSq += d * d;
+		});
+	}
+
+	/**
+	 * Returns the sum of the window.
+	 */
+	double sum() {
+		return size() * shift + sum;
+	}
+
+	/**
+	 * Returns the mean of the window.
+	 */
+	double mean() {
+		return shift + sum / size();
+	}
+
+	/**
+	 * Returns the population variance of the window.
+	 */
+	double variance() {
+		int n = size();
+		return Math.max(0, (sumSq - sum * sum / n) / n);
+	}
+}
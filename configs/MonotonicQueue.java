@@ -0,0 +1,72 @@
+package configs;
+
+/**
+ * A queue of the values of a window that keeps only the candidates for the window's maximum
+ * (or minimum), in decreasing (or increasing) order, so the extreme is always at the front.
+ * <p>
+ * A value that enters removes the candidates it dominates from the back, and a value that leaves
+ * removes the front if it is that value. Every value enters and leaves at most once, so updates are
+ * O(1) amortized. The candidates are kept in a primitive ring buffer.
+ * </p>
+ */
+final class MonotonicQueue {
+
+	private final boolean max;
+	private double[] values = new double[16];
+	private int head;
+	private int count;
+
+	/**
+	 * Creates a queue.
+	 *
+	 * @param max true to track the maximum, false to track the minimum.
+	 */
+	MonotonicQueue(boolean max) {
+		this.max = max;
+	}
+
+	/**
+	 * Adds a value entering the window.
+	 */
+	void add(double value) {
+		while (count > 0) {
+			double back = values[(head + count - 1) % values.length];
+			if (max ? back >= value : back <= value) {
+				break;
+			}
+			count--;
+		}
+		if (count == values.length) {
+			double[] grown = new double[values.length * 2];
+			for (int i = 0; i < count; i++) {
+				grown[i] = values[(head + i) % values.length];
+			}
+			values = grown;
+			head = 0;
+		}
+		values[(head + count) % values.length] = value;
+		count++;
+	}
+
+	/**
+	 * Removes a value leaving the window, oldest first.
+	 */
+	void evict(double value) {
+		if (count > 0 && values[head] == value) {
+			head = (head + 1) % values.length;
+			count--;
+		}
+	}
+
+	/**
+	 * Returns the maximum (or minimum) of the window.
+	 */
+	double peek() {
+		return values[head];
+	}
+
+	void clear() {
+		head = 0;
+		count = 0;
+	}
+}
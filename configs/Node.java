@@ -2,8 +2,13 @@ package configs;
 
 import graph.Message;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -16,6 +21,7 @@ public class Node {
     // Define members
     private String name;
     private List<Node> edges;
+    private Set<Node> edgeSet; // The same edges, to keep them unique
     private Message msg;
 
     /**
@@ -26,6 +32,7 @@ public class Node {
     public Node(String name) {
         this.name = name;
         this.edges = new ArrayList<Node>();
+        this.edgeSet = new HashSet<>();
     }
 
     // Getters and Setters
@@ -73,6 +80,7 @@ public class Node {
      */
     public void setEdges(List<Node> edges) {
         this.edges = edges;
+        this.edgeSet = new HashSet<>(edges);
     }
 
     /**
@@ -85,52 +93,65 @@ public class Node {
     }
 
     /**
-     * Adds an edge (connection) to another node.
+     * Adds an edge (connection) to another node, unless the nodes are already connected.
      *
      * @param n The node to connect to.
+     * @return true if the edge was added.
      */
-    public void addEdge(Node n) {
+    public boolean addEdge(Node n) {
+        if (!edgeSet.add(n)) {
+            return false;
+        }
         this.edges.add(n);
+        return true;
     }
 
     /**
-     * Checks if the graph has cycles starting from this node.
+     * Removes the edge (connection) to another node.
      *
-     * @return true if a cycle is detected, false otherwise.
+     * @param n The node to disconnect from.
+     * @return true if the edge existed.
      */
-    public boolean hasCycles() {
-        Set<Node> visited = new HashSet<>();
-        Set<Node> recStack = new HashSet<>();
-        return hasCycles(this, visited, recStack);
+    public boolean removeEdge(Node n) {
+        if (!edgeSet.remove(n)) {
+            return false;
+        }
+        this.edges.remove(n);
+        return true;
     }
 
     /**
-     * Helper method to check for cycles in the graph using DFS.
+     * Checks if the graph has cycles reachable from this node, with an iterative depth-first search.
      *
-     * @param node     The current node being visited.
-     * @param visited  Set of visited nodes.
-     * @param recStack Stack of nodes in the current DFS path.
      * @return true if a cycle is detected, false otherwise.
      */
-    private boolean hasCycles(Node node, Set<Node> visited, Set<Node> recStack) {
-        if (recStack.contains(node)) {
-            return true; // Cycle detected
-        }
-
-        if (visited.contains(node)) {
-            return false; // Node has been completely processed
-        }
-
-        visited.add(node);
-        recStack.add(node);
-
-        for (Node neighbor : node.getEdges()) {
-            if (hasCycles(neighbor, visited, recStack)) {
-                return true;
+    public boolean hasCycles() {
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Node> recStack = Collections.newSetFromMap(new IdentityHashMap<>()); // Nodes on the current DFS path
+        Deque<Node> path = new ArrayDeque<>();
+        Deque<Iterator<Node>> pending = new ArrayDeque<>(); // Remaining edges of each node on the path
+
+        visited.add(this);
+        recStack.add(this);
+        path.push(this);
+        pending.push(edges.iterator());
+        while (!path.isEmpty()) {
+            Iterator<Node> it = pending.peek();
+            if (it.hasNext()) {
+                Node neighbor = it.next();
+                if (recStack.contains(neighbor)) {
+                    return true; // Cycle detected
+                }
+                if (visited.add(neighbor)) {
+                    recStack.add(neighbor);
+                    path.push(neighbor);
+                    pending.push(neighbor.getEdges().iterator());
+                }
+            } else {
+                recStack.remove(path.pop()); // Node has been completely processed
+                pending.pop();
             }
         }
-
-        recStack.remove(node);
         return false;
     }
 
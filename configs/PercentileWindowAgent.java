@@ -0,0 +1,90 @@
+package configs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes an approximate percentile of a window over the values of one topic, from a
+ * {@link QuantileSketch} with a 1% relative accuracy.
+ * <p>
+ * The arguments are those of {@link WindowAgent}, followed by the quantile, e.g.
+ * {@code PercentileWindowAgent(1000,sliding,0.99)}; a number above 1 is read as a percent,
+ * e.g. {@code 99}. The default is the median.
+ * </p>
+ * While a sliding window spans more decades than the sketch has buckets, its lowest values are collapsed;
+ * the sketch is then rebuilt from the window once per window of evictions, so the lower quantiles are
+ * exact again once the range of the window narrows.
+ */
+public class PercentileWindowAgent extends WindowAgent {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final double quantile;
+	private final QuantileSketch sketch = new QuantileSketch();
+	private int evictions;
+
+	/**
+	 * Constructor for PercentileWindowAgent publishing the median of a sliding window of
+	 * {@value WindowAgent#DEFAULT_COUNT} values.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 */
+	public PercentileWindowAgent(String[] subs, String[] pubs) {
+		this(subs, pubs, new String[0]);
+	}
+
+	/**
+	 * Constructor for PercentileWindowAgent.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 * @param args The window: a count or a duration, then sliding or tumbling, then the quantile.
+	 */
+	public PercentileWindowAgent(String[] subs, String[] pubs, String[] args) {
+		super("PercentileWindowAgent" + counter.incrementAndGet(), subs, pubs, args);
+		double q = 0.5;
+		if (args.length > 2) {
+			try {
+				q = Double.parseDouble(args[2]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid quantile " + args[2]);
+			}
+			if (q > 1) {
+				q /= 100;
+			}
+			if (!(q >= 0 && q <= 1)) {
+				throw new IllegalArgumentException("Invalid quantile " + args[2]);
+			}
+		}
+		this.quantile = q;
+		wire();
+	}
+
+	@Override
+	protected void add(double value) {
+		sketch.add(value);
+	}
+
+	@Override
+	protected void evict(double value) {
+		sketch.remove(value);
+		if (++evictions >= Math.max(size(), 16)) {
+			evictions = 0;
+			if (sketch.isCollapsed()) {
+				sketch.clear();
+				forEachValue(sketch::add);
+			}
+		}
+	}
+
+	@Override
+	protected void clear() {
+		sketch.clear();
+		evictions = 0;
+	}
+
+	@Override
+	protected double result() {
+		return sketch.quantile(quantile);
+	}
+}
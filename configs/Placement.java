@@ -0,0 +1,150 @@
+package configs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import graph.Affinity;
+import graph.Agent;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton.TopicManager;
+import logging.Logger;
+
+/**
+ * Places the threads of the ParallelAgents of a graph on the core groups of the machine, so agents
+ * exchanging messages share a socket and its caches.
+ * <p>
+ * The agents are ordered by a depth-first walk of the {@link Graph} from its sources, which keeps the
+ * agents of a chain next to each other. The groups are then filled in turn: each one takes the next
+ * agents of the order, as many as it has CPUs, or its share of the agents when there are more agents
+ * than CPUs. A producer and its consumer only land on different groups when the first group is full.
+ * Each thread is restricted to the CPUs of its group with {@link ParallelAgent#setAffinity(int[])}, and
+ * moves freely between them.
+ * </p>
+ * Placement is explicit: call {@link #apply(TopicManager)} once the agents of a graph are subscribed, or
+ * enable it on a {@link GenericConfig} in asynchronous mode, which applies it after wiring the graph.
+ */
+public final class Placement {
+
+    private static final Logger log = Logger.get(Placement.class);
+
+    private Placement() {
+    }
+
+    /**
+     * Places the ParallelAgents subscribed in a graph on the core groups of the machine.
+     *
+     * @param tm The TopicManager of the graph.
+     * @return The CPUs of each placed agent.
+     */
+    public static Map<ParallelAgent, int[]> apply(TopicManager tm) {
+        int[][] groups = Affinity.coreGroups();
+        Map<ParallelAgent, int[]> plan = plan(tm, groups);
+        plan.forEach(ParallelAgent::setAffinity);
+        log.info("Placed agents", "agents", plan.size(), "groups", groups.length);
+        return plan;
+    }
+
+    /**
+     * Computes the placement of the ParallelAgents subscribed in a graph without applying it.
+     *
+     * @param tm     The TopicManager of the graph.
+     * @param groups The CPUs of each core group.
+     * @return The CPUs of each agent, in the order of the walk.
+     */
+    public static Map<ParallelAgent, int[]> plan(TopicManager tm, int[][] groups) {
+        List<ParallelAgent> order = order(tm);
+        int total = 0;
+        for (int[] group : groups) {
+            total += group.length;
+        }
+        Map<ParallelAgent, int[]> plan = new LinkedHashMap<>();
+        int next = 0;
+        for (int g = 0; g < groups.length && next < order.size(); g++) {
+            int share = (int) Math.ceil((double) order.size() * groups[g].length / Math.max(1, total));
+            int end = g == groups.length - 1 ? order.size() : Math.min(order.size(), next + Math.max(groups[g].length, share));
+            for (; next < end; next++) {
+                plan.put(order.get(next), groups[g]);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Orders the ParallelAgents of a graph by a depth-first walk from the sources, through the topics
+     * and the agents running on the publishing thread.
+     */
+    private static List<ParallelAgent> order(TopicManager tm) {
+        Set<ParallelAgent> subscribed = new LinkedHashSet<>(); // Identity, ParallelAgent keeps Object.equals
+        for (Topic topic : tm.getTopics().values()) {
+            for (Agent agent : topic.getSubs()) {
+                if (agent instanceof ParallelAgent) {
+                    subscribed.add((ParallelAgent) agent);
+                }
+            }
+        }
+        Graph graph = Graph.of(tm);
+        Set<ParallelAgent> order = new LinkedHashSet<>();
+        synchronized (graph) {
+            // A ParallelAgent shares the node of its agent, which it receives and publishes on
+            Map<Node, ParallelAgent> owners = new IdentityHashMap<>();
+            Map<Node, Integer> inDegree = new IdentityHashMap<>();
+            for (ParallelAgent agent : subscribed) {
+                Node node = graph.getNode(agent);
+                if (node != null) {
+                    owners.put(node, agent);
+                }
+            }
+            for (Node node : graph) {
+                for (Node target : node.getEdges()) {
+                    inDegree.merge(target, 1, Integer::sum);
+                }
+            }
+            Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Node> roots = new ArrayList<>();
+            for (Node node : graph) {
+                if (!inDegree.containsKey(node)) {
+                    roots.add(node);
+                }
+            }
+            roots.addAll(graph); // Then what only cycles reach
+            for (Node root : roots) {
+                walk(root, visited, owners, order);
+            }
+        }
+        order.addAll(subscribed); // Then the agents not in the graph yet
+        return new ArrayList<>(order);
+    }
+
+    /**
+     * Walks the graph depth-first from a node, adding the ParallelAgents in the order they are reached.
+     */
+    private static void walk(Node root, Set<Node> visited, Map<Node, ParallelAgent> owners, Set<ParallelAgent> order) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!visited.add(node)) {
+                continue;
+            }
+            List<Node> edges = node.getEdges();
+            ParallelAgent owner = owners.get(node);
+            if (owner != null) {
+                order.add(owner);
+            }
+            for (int i = edges.size() - 1; i >= 0; i--) {
+                if (!visited.contains(edges.get(i))) {
+                    stack.push(edges.get(i)); // The first edge is walked first
+                }
+            }
+        }
+    }
+}
@@ -1,34 +1,38 @@
 package configs;
 
-import graph.Agent;
+import graph.JoinAgent;
 import graph.Message;
+import graph.Propagation;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The SumAgent class implements the Agent interface and performs addition operations
+ * The SumAgent class implements the StatefulAgent interface and performs addition operations
  * on messages received from two subscribed topics, then publishes the result to a third topic.
  */
-public class PlusAgent implements Agent {
+public class PlusAgent implements StatefulAgent, JoinAgent {
 
 	/** The values for addition. */
 	private double firstValue = 0;
 	private double secondValue = 0;
 
-	/** The name of the topics this agent subscribes to. */
-	private final String inputTopic1;
-	private final String inputTopic2;
-	private final String outputTopic;
+	/** The topics this agent subscribes and publishes to, resolved once at construction. */
+	private final Topic inputTopic1;
+	private final Topic inputTopic2;
+	private final Topic outputTopic;
 
 	/** The last message received from the first and second topic. */
 	private Message messageFromTopic1 = null;
 	private Message messageFromTopic2 = null;
 
 	private final String name;
-	private static int counter=0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 
 
@@ -40,35 +44,67 @@ public class PlusAgent implements Agent {
 			throw new IllegalArgumentException("PlusAgent requires at least 1 publication topic.");
 		}
 
-		counter++;
-		this.name = ("PlusAgent" +counter);
+		this.name = "PlusAgent" + counter.incrementAndGet();
 
-		// Subscribe to the first 2 topics from subscriptions array:
+		// Resolve the topics once, the callbacks use the cached references:
 		TopicManager topicManager = TopicManagerSingleton.get();
-		topicManager.getTopic(subscriptions[0]).subscribe(this);
-		topicManager.getTopic(subscriptions[1]).subscribe(this);
-		// Initialize input topic names:
-		inputTopic1 = subscriptions[0];
-		inputTopic2 = subscriptions[1];
+		inputTopic1 = topicManager.getTopic(subscriptions[0]);
+		inputTopic2 = topicManager.getTopic(subscriptions[1]);
+		outputTopic = topicManager.getTopic(publications[0]);
+
+		// Subscribe to the first 2 topics from subscriptions array:
+		inputTopic1.subscribe(this);
+		inputTopic2.subscribe(this);
 
 		// Add the first publisher from publications array:
-		topicManager.getTopic(publications[0]).addPublisher(this);
-		// Initialize output topic name:
-		outputTopic = publications[0];
+		outputTopic.addPublisher(this);
 	}
 
 
+	@Override
+	public void callback(Topic topic, Message msg) {
+		// Store the message if it's from the first topic (dispatch on the topic reference)
+		if (topic == inputTopic1) {
+			messageFromTopic1 = msg;
+		}
+		// Store the message if it's from the second topic
+		else if (topic == inputTopic2) {
+			messageFromTopic2 = msg;
+		}
+		if (!Propagation.defer(this, topic)) { // Waits for the end of the wave in wave mode
+			publishResult();
+		}
+	}
+
 	@Override
 	public void callback(String topic, Message msg) {
+		Topic input = inputTopic1; // The topic the message came from, which ranks the agent in the wave
 		// Store the message if it's from the first topic
-		if (topic.equals(inputTopic1)) {
+		if (topic.equals(inputTopic1.name)) {
 			messageFromTopic1 = msg;
 		}
 		// Store the message if it's from the second topic
-		else if (topic.equals(inputTopic2)) {
+		else if (topic.equals(inputTopic2.name)) {
 			messageFromTopic2 = msg;
+			input = inputTopic2;
+		}
+		if (!Propagation.defer(this, input)) {
+			publishResult();
 		}
+	}
 
+	/**
+	 * Publishes the result of the inputs received in the wave, see {@link Propagation}.
+	 */
+	@Override
+	public void fire() {
+		publishResult();
+	}
+
+	/**
+	 * Publishes the sum of the last values of both input topics, once both were received.
+	 */
+	private void publishResult() {
 		// If both messages are received, add their values and publish the result
 		if (messageFromTopic1 != null && messageFromTopic2 != null) {
 			firstValue = messageFromTopic1.asDouble;
@@ -78,22 +114,18 @@ public class PlusAgent implements Agent {
 				return;
 			}
 			// Publish the sum of the values
-			TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(firstValue + secondValue));
+			outputTopic.publish(new Message(firstValue + secondValue));
 		}
 	}
 
 	@Override
 	public void close() {
 		// Unsubscribe from the topics
-		TopicManager topicManager = TopicManagerSingleton.get();
-		Topic topic1 = topicManager.getTopic(inputTopic1);
-		topic1.unsubscribe(this);
+		inputTopic1.unsubscribe(this);
+		inputTopic2.unsubscribe(this);
 
-		Topic topic2 = topicManager.getTopic(inputTopic2);
-		topic2.unsubscribe(this);
-
-		Topic resultTopic = topicManager.getTopic(outputTopic);
-		resultTopic.removePublisher(this);
+		// Remove this agent as a publisher
+		outputTopic.removePublisher(this);
 	}
 
 	@Override
@@ -108,4 +140,39 @@ public class PlusAgent implements Agent {
 		this.secondValue = 0;
 	}
 
+	/**
+	 * Returns the size of the agent's state: the last message of each input topic and the current values.
+	 *
+	 * @return The size of the state in bytes.
+	 */
+	@Override
+	public int stateSize() {
+		return StatefulAgent.messageSize(messageFromTopic1) + StatefulAgent.messageSize(messageFromTopic2) + 16;
+	}
+
+	/**
+	 * Saves the last message of each input topic and the current values.
+	 *
+	 * @param out The buffer to write to.
+	 */
+	@Override
+	public void saveState(ByteBuffer out) {
+		StatefulAgent.putMessage(out, messageFromTopic1);
+		StatefulAgent.putMessage(out, messageFromTopic2);
+		out.putDouble(firstValue);
+		out.putDouble(secondValue);
+	}
+
+	/**
+	 * Restores the last message of each input topic and the current values.
+	 *
+	 * @param in The buffer to read from.
+	 */
+	@Override
+	public void loadState(ByteBuffer in) {
+		messageFromTopic1 = StatefulAgent.getMessage(in);
+		messageFromTopic2 = StatefulAgent.getMessage(in);
+		firstValue = in.getDouble();
+		secondValue = in.getDouble();
+	}
 }
@@ -0,0 +1,272 @@
+package configs;
+
+import java.util.Arrays;
+
+/**
+ * QuantileSketch estimates quantiles of a stream of values with a bounded relative error.
+ * <p>
+ * Values are counted in logarithmic buckets: a bucket holds the values between gamma^(i-1) and gamma^i,
+ * where gamma = (1 + a) / (1 - a) for a relative accuracy a, so any quantile is reported within a
+ * factor of a of the true value. Negative values are counted in their own buckets and values near zero
+ * in a zero bucket. Adding and removing a value are O(1), so the sketch can follow a sliding window,
+ * and sketches with the same accuracy can be merged by adding their counts.
+ * </p>
+ * At most {@code maxBins} buckets are kept per sign. When values span a wider range the lowest buckets
+ * are collapsed, which keeps the accuracy of the upper quantiles. Lower values are then counted in the
+ * collapsed bucket until it is empty again, and removing a value takes it from the bucket that counted it.
+ */
+public class QuantileSketch {
+
+    private static final double MIN_VALUE = 1e-9; // Smaller magnitudes are counted as zero
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Bins positive;
+    private final Bins negative;
+    private long zeroCount;
+
+    /**
+     * Creates a sketch with a 1% relative accuracy and 1024 buckets per sign.
+     */
+    public QuantileSketch() {
+        this(0.01, 1024);
+    }
+
+    /**
+     * Creates a sketch.
+     *
+     * @param relativeAccuracy The relative accuracy, between 0 and 1.
+     * @param maxBins          The maximum number of buckets per sign.
+     */
+    public QuantileSketch(double relativeAccuracy, int maxBins) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1) || maxBins < 1) {
+            throw new IllegalArgumentException("Invalid accuracy " + relativeAccuracy + " or bucket count " + maxBins);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.positive = new Bins(maxBins);
+        this.negative = new Bins(maxBins);
+    }
+
+    /**
+     * Adds a value. NaN is ignored.
+     *
+     * @param value The value.
+     */
+    public void add(double value) {
+        update(value, 1);
+    }
+
+    /**
+     * Removes a value added before. NaN is ignored.
+     *
+     * @param value The value.
+     */
+    public void remove(double value) {
+        update(value, -1);
+    }
+
+    private void update(double value, long delta) {
+        if (value > MIN_VALUE) {
+            positive.add(index(value), delta);
+        } else if (value < -MIN_VALUE) {
+            negative.add(index(-value), delta);
+        } else if (value == value) {
+            zeroCount += delta;
+        }
+    }
+
+    /**
+     * Adds the counts of another sketch to this one.
+     *
+     * @param other A sketch with the same relative accuracy.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches of different accuracies");
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return The number of values.
+     */
+    public long count() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    /**
+     * Returns whether values are counted in a collapsed bucket, so lower quantiles may be off by more than the accuracy.
+     *
+     * @return true if a bucket holds collapsed values.
+     */
+    public boolean isCollapsed() {
+        return positive.floor != Integer.MIN_VALUE || negative.floor != Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns an estimate of a quantile.
+     *
+     * @param q The quantile, between 0 and 1, e.g. 0.99.
+     * @return The estimate, or NaN if the sketch is empty.
+     */
+    public double quantile(double q) {
+        long count = count();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (Math.max(0, Math.min(1, q)) * (count - 1));
+
+        // Negative values from the lowest, i.e. from the largest magnitude
+        if (rank < negative.total) {
+            return -value(negative.indexOfRank(negative.total - 1 - rank));
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return 0;
+        }
+        rank -= zeroCount;
+        return value(positive.indexOfRank(rank));
+    }
+
+    private int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /**
+     * Returns the value representing a bucket, with the same relative distance to both of its bounds.
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * The counts of the buckets of one sign, in an array covering a sliding range of bucket indexes.
+     */
+    private static final class Bins {
+        private final int maxBins;
+        private long[] counts; // Allocated on first use
+        private int offset;    // Bucket index of counts[0]
+        private int floor = Integer.MIN_VALUE; // Lower buckets were collapsed into this one while it is not empty
+        private long total;
+
+        Bins(int maxBins) {
+            this.maxBins = maxBins;
+        }
+
+        /**
+         * Adds to the count of a bucket, or removes from it with a negative delta. A value below the
+         * collapsed buckets is counted in the bucket they were collapsed into, when added and when
+         * removed, so removing a value always takes it from the bucket that counted it.
+         */
+        void add(int index, long delta) {
+            if (counts == null) {
+                counts = new long[maxBins];
+                offset = index - maxBins / 2;
+            }
+            index = Math.max(index, floor);
+            if (delta < 0) {
+                // A value added before is in the range, which only moves when adding
+                counts[Math.min(Math.max(index, offset), offset + maxBins - 1) - offset] += delta;
+                total += delta;
+                if (floor != Integer.MIN_VALUE && counts[floor - offset] == 0) {
+                    floor = Integer.MIN_VALUE; // The collapsed values are all removed, lower buckets are exact again
+                }
+                return;
+            }
+            if (index < offset) {
+                int used = highest();
+                if (used < 0 || used + offset - index < maxBins) {
+                    shift(index - offset); // Move the range down, nothing is lost
+                } else {
+                    index = offset;        // Below the range: counted in the lowest bucket
+                    floor = offset;
+                }
+            } else if (index >= offset + maxBins) {
+                shift(index - (offset + maxBins - 1)); // Move the range up, collapsing the lowest buckets
+            }
+            counts[index - offset] += delta;
+            total += delta;
+        }
+
+        /**
+         * Moves the range of buckets by the given number of indexes. Buckets moved out at the
+         * bottom are collapsed into the new lowest bucket.
+         */
+        private void shift(int by) {
+            long[] shifted = new long[maxBins];
+            for (int i = 0; i < maxBins; i++) {
+                if (counts[i] != 0) {
+                    int target = i - by;
+                    if (target < 0) {
+                        target = 0;
+                        floor = offset + by;
+                    }
+                    shifted[target] += counts[i];
+                }
+            }
+            counts = shifted;
+            offset += by;
+        }
+
+        /**
+         * Returns the position in counts of the highest non-empty bucket, -1 if there is none.
+         */
+        private int highest() {
+            for (int i = maxBins - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the bucket index holding the value of the given rank, from the lowest.
+         */
+        int indexOfRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < maxBins; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return i + offset;
+                }
+            }
+            return highest() + offset;
+        }
+
+        void merge(Bins other) {
+            if (other.counts == null) {
+                return;
+            }
+            for (int i = 0; i < other.maxBins; i++) {
+                if (other.counts[i] != 0) {
+                    add(i + other.offset, other.counts[i]);
+                }
+            }
+        }
+
+        void clear() {
+            if (counts != null) {
+                Arrays.fill(counts, 0);
+            }
+            floor = Integer.MIN_VALUE;
+            total = 0;
+        }
+    }
+}
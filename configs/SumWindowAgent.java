@@ -0,0 +1,39 @@
+package configs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the sum of a window over the values of one topic.
+ * See {@link WindowAgent} for the window arguments.
+ */
+public class SumWindowAgent extends MomentsWindowAgent {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * Constructor for SumWindowAgent with a sliding window of {@value WindowAgent#DEFAULT_COUNT} values.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 */
+	public SumWindowAgent(String[] subs, String[] pubs) {
+		this(subs, pubs, new String[0]);
+	}
+
+	/**
+	 * Constructor for SumWindowAgent.
+	 *
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 * @param args The window: a count or a duration, then sliding or tumbling.
+	 */
+	public SumWindowAgent(String[] subs, String[] pubs, String[] args) {
+		super("SumWindowAgent" + counter.incrementAndGet(), subs, pubs, args);
+		wire();
+	}
+
+	@Override
+	protected double result() {
+		return sum();
+	}
+}
@@ -0,0 +1,363 @@
+package configs;
+
+import java.nio.ByteBuffer;
+import java.util.function.DoubleConsumer;
+
+import graph.Message;
+import graph.StatefulAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * Base class of the windowed aggregation agents. A window agent subscribes to one topic, keeps the
+ * values of a window over it, and publishes an aggregate of the window to its first publication topic.
+ * <p>
+ * The window is given by the arguments of the type line, e.g. {@code Project.configs.MeanWindowAgent(100,tumbling)}:
+ * the first argument is a number of values, e.g. {@code 100}, or a duration with the unit ms, s, m or h,
+ * e.g. {@code 5s}, measured with the message timestamps. The second argument is {@code sliding}, the default,
+ * to publish the aggregate of the last window on every value, or {@code tumbling} to publish once per window:
+ * a count window after its last value, a time window when the first value of the next window arrives.
+ * Without arguments the window is a sliding window of {@value #DEFAULT_COUNT} values.
+ * </p>
+ * The values are kept in primitive ring buffers, and subclasses update their aggregate in O(1)
+ * amortized time per value. Messages that are not numbers are ignored.
+ */
+public abstract class WindowAgent implements StatefulAgent {
+
+	/** Number of values of the window when no arguments are given. */
+	public static final int DEFAULT_COUNT = 10;
+
+	private final String name;
+	public String[] subs;
+	public String[] pubs;
+
+	// Topics resolved once at construction
+	private final Topic inputTopic;
+	private final Topic resultTopic;
+	private final Topic[] pubTopics;
+
+	/** Number of values of a count window, 0 for a time window. */
+	protected final int windowCount;
+	/** Duration of a time window in milliseconds, 0 for a count window. */
+	protected final long windowMillis;
+	/** Whether the window is tumbling rather than sliding. */
+	protected final boolean tumbling;
+
+	// Values of the window and their timestamps, oldest first, in a ring buffer
+	private double[] values;
+	private long[] times;
+	private int head;
+	private int count;
+	private long windowStart; // Start of the current tumbling time window
+
+	/**
+	 * Parses the window and resolves the topics. Subclasses call {@link #wire()} once they are initialized.
+	 *
+	 * @param name The agent name.
+	 * @param subs Array of subscription topic names. Must contain exactly one topic.
+	 * @param pubs Array of publication topic names. Must contain at least one topic.
+	 * @param args The window arguments; subclasses may take more after them.
+	 */
+	protected WindowAgent(String name, String[] subs, String[] pubs, String[] args) {
+		if (subs.length != 1) {
+			throw new IllegalArgumentException(getClass().getSimpleName() + " requires one subscription topic.");
+		}
+		if (pubs.length < 1) {
+			throw new IllegalArgumentException(getClass().getSimpleName() + " requires at least one publication topic.");
+		}
+		this.name = name;
+		this.subs = subs;
+		this.pubs = pubs;
+
+		// The window size: a count of values or a duration
+		String size = args.length > 0 ? args[0] : String.valueOf(DEFAULT_COUNT);
+		long millis = parseMillis(size);
+		if (millis < 0) {
+			try {
+				this.windowCount = Integer.parseInt(size);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid window " + size + ", expected a count or a duration such as 5s");
+			}
+			if (windowCount < 1) {
+				throw new IllegalArgumentException("Invalid window " + size + ", the count must be positive");
+			}
+			this.windowMillis = 0;
+		} else {
+			this.windowCount = 0;
+			this.windowMillis = millis;
+		}
+		String mode = args.length > 1 ? args[1] : "sliding";
+		if (!mode.equals("sliding") && !mode.equals("tumbling")) {
+			throw new IllegalArgumentException("Invalid window mode " + mode + ", expected sliding or tumbling");
+		}
+		this.tumbling = mode.equals("tumbling");
+
+		int capacity = windowCount > 0 ? windowCount : 16;
+		this.values = new double[capacity];
+		this.times = new long[capacity];
+
+		// Resolve the topics once
+		TopicManager tm = TopicManagerSingleton.get();
+		this.inputTopic = tm.getTopic(subs[0]);
+		this.resultTopic = tm.getTopic(pubs[0]);
+		this.pubTopics = new Topic[pubs.length];
+		for (int i = 0; i < pubs.length; i++) {
+			pubTopics[i] = tm.getTopic(pubs[i]);
+		}
+	}
+
+	/**
+	 * Parses a duration such as 500ms, 5s, 2m or 1h.
+	 *
+	 * @return The duration in milliseconds, or -1 if the text has no unit.
+	 */
+	private static long parseMillis(String text) {
+		long unit;
+		String number;
+		if (text.endsWith("ms")) {
+			unit = 1;
+			number = text.substring(0, text.length() - 2);
+		} else if (text.endsWith("s")) {
+			unit = 1000;
+			number = text.substring(0, text.length() - 1);
+		} else if (text.endsWith("m")) {
+			unit = 60_000;
+			number = text.substring(0, text.length() - 1);
+		} else if (text.endsWith("h")) {
+			unit = 3_600_000;
+			number = text.substring(0, text.length() - 1);
+		} else {
+			return -1;
+		}
+		try {
+			long millis = Long.parseLong(number) * unit;
+			if (millis > 0) {
+				return millis;
+			}
+		} catch (NumberFormatException ignored) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Invalid window " + text + ", the duration must be positive");
+	}
+
+	/**
+	 * Subscribes to the input topic and registers as a publisher. Called last by the constructor of
+	 * each concrete agent, so no message arrives before the agent is initialized.
+	 */
+	protected final void wire() {
+		inputTopic.subscribe(this);
+		for (Topic pub : pubTopics) {
+			pub.addPublisher(this);
+		}
+	}
+
+	// The aggregate, updated by the subclasses
+
+	/**
+	 * Adds a value entering the window.
+	 *
+	 * @param value The value.
+	 */
+	protected abstract void add(double value);
+
+	/**
+	 * Removes the oldest value, leaving a sliding window.
+	 *
+	 * @param value The value.
+	 */
+	protected abstract void evict(double value);
+
+	/**
+	 * Empties the aggregate.
+	 */
+	protected abstract void clear();
+
+	/**
+	 * Returns the aggregate of the values in the window. Called only when the window has values.
+	 *
+	 * @return The aggregate.
+	 */
+	protected abstract double result();
+
+	/**
+	 * Returns the number of values in the window.
+	 *
+	 * @return The number of values.
+	 */
+	protected final int size() {
+		return count;
+	}
+
+	/**
+	 * Passes the values of the window to the consumer, oldest first.
+	 *
+	 * @param consumer Receives the values.
+	 */
+	protected final void forEachValue(DoubleConsumer consumer) {
+		for (int i = 0; i < count; i++) {
+			consumer.accept(values[(head + i) % values.length]);
+		}
+	}
+
+	/**
+	 * Adds a value to the window, evicting or closing windows as needed.
+	 *
+	 * @param value The value.
+	 * @param time  The timestamp of the value in milliseconds.
+	 * @return The aggregate to publish, or NaN if nothing is published.
+	 */
+	private synchronized double accept(double value, long time) {
+		double out = Double.NaN;
+		if (tumbling) {
+			if (windowMillis > 0) {
+				long start = time - Math.floorMod(time, windowMillis);
+				if (count > 0 && start != windowStart) {
+					out = result();
+					clearWindow();
+				}
+				windowStart = start;
+				push(value, time);
+			} else {
+				push(value, time);
+				if (count == windowCount) {
+					out = result();
+					clearWindow();
+				}
+			}
+		} else {
+			if (windowMillis == 0 && count == windowCount) {
+				evictOldest();
+			}
+			push(value, time);
+			while (windowMillis > 0 && times[head] <= time - windowMillis) {
+				evictOldest();
+			}
+			out = result();
+		}
+		return out;
+	}
+
+	private void push(double value, long time) {
+		if (count == values.length) {
+			// Only time windows grow, count windows are sized to the window
+			double[] grownValues = new double[values.length * 2];
+			long[] grownTimes = new long[times.length * 2];
+			for (int i = 0; i < count; i++) {
+				grownValues[i] = values[(head + i) % values.length];
+				grownTimes[i] = times[(head + i) % times.length];
+			}
+			values = grownValues;
+			times = grownTimes;
+			head = 0;
+		}
+		int tail = (head + count) % values.length;
+		values[tail] = value;
+		times[tail] = time;
+		count++;
+		add(value);
+	}
+
+	private void evictOldest() {
+		double value = values[head];
+		head = (head + 1) % values.length;
+		count--;
+		evict(value);
+	}
+
+	private void clearWindow() {
+		head = 0;
+		count = 0;
+		clear();
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public synchronized void reset() {
+		clearWindow();
+	}
+
+	@Override
+	public void callback(Topic topic, Message msg) {
+		if (topic == inputTopic) {
+			receive(msg);
+		}
+	}
+
+	@Override
+	public void callback(String topic, Message msg) {
+		if (topic.equals(subs[0])) {
+			receive(msg);
+		}
+	}
+
+	private void receive(Message msg) {
+		if (Double.isNaN(msg.asDouble)) {
+			return;
+		}
+		double out = accept(msg.asDouble, msg.date.getTime());
+		// Publish outside the lock, the result may flow back to this agent
+		if (!Double.isNaN(out)) {
+			resultTopic.publish(new Message(out));
+		}
+	}
+
+	@Override
+	public void close() {
+		// Unsubscribe from the topic and remove this agent as a publisher
+		inputTopic.unsubscribe(this);
+		for (Topic pub : pubTopics) {
+			pub.removePublisher(this);
+		}
+	}
+
+	/**
+	 * Returns the size of the agent's state: the values of the window and their timestamps.
+	 *
+	 * @return The size of the state in bytes.
+	 */
+	@Override
+	public synchronized int stateSize() {
+		return 4 + 8 + count * 16;
+	}
+
+	/**
+	 * Saves the values of the window and their timestamps.
+	 *
+	 * @param out The buffer to write to.
+	 */
+	@Override
+	public synchronized void saveState(ByteBuffer out) {
+		out.putInt(count);
+		out.putLong(windowStart);
+		for (int i = 0; i < count; i++) {
+			int index = (head + i) % values.length;
+			out.putDouble(values[index]);
+			out.putLong(times[index]);
+		}
+	}
+
+	/**
+	 * Restores the values of the window, and the aggregate from them.
+	 *
+	 * @param in The buffer to read from.
+	 */
+	@Override
+	public synchronized void loadState(ByteBuffer in) {
+		clearWindow();
+		int saved = in.getInt();
+		windowStart = in.getLong();
+		for (int i = 0; i < saved; i++) {
+			double value = in.getDouble();
+			long time = in.getLong();
+			if (windowCount > 0 && count == windowCount) {
+				evictOldest();
+			}
+			push(value, time);
+		}
+	}
+}
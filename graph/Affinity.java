@@ -0,0 +1,147 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import logging.Logger;
+
+/**
+ * Pins threads to CPUs on Linux, and reads the groups of CPUs that share a memory node.
+ * <p>
+ * The JVM has no affinity API, so a thread is pinned with {@code taskset -p -c <cpus> <tid>}, where the
+ * tid is the kernel id of the thread, read from the {@code /proc/thread-self} link by the thread itself.
+ * The core groups are the NUMA nodes listed in {@code /sys/devices/system/node}. Elsewhere, or when
+ * taskset is missing, pinning does nothing and all the CPUs form one group.
+ * </p>
+ */
+public final class Affinity {
+
+    private static final Logger log = Logger.get(Affinity.class);
+
+    private static volatile boolean disabled; // Set after the first failure, so it is logged once
+
+    private Affinity() {
+    }
+
+    /**
+     * Returns the kernel id of the current thread.
+     *
+     * @return The tid, or -1 if it cannot be read.
+     */
+    public static long currentThreadId() {
+        try {
+            Path self = Files.readSymbolicLink(Paths.get("/proc/thread-self")); // <pid>/task/<tid>
+            return Long.parseLong(self.getFileName().toString());
+        } catch (IOException | UnsupportedOperationException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Restricts a thread to a set of CPUs.
+     *
+     * @param tid  The kernel id of the thread, see {@link #currentThreadId()}.
+     * @param cpus The CPUs.
+     * @return true if the thread was pinned.
+     */
+    public static boolean pin(long tid, int[] cpus) {
+        if (disabled || tid < 0 || cpus.length == 0) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("taskset", "-p", "-c", format(cpus), Long.toString(tid))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("taskset timed out");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("taskset exited with status " + process.exitValue());
+            }
+            return true;
+        } catch (IOException e) {
+            disabled = true;
+            log.warn("Thread pinning disabled", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the groups of CPUs sharing a memory node, in node order.
+     *
+     * @return The CPUs of each node, a single group of all the CPUs if the nodes are unknown.
+     */
+    public static int[][] coreGroups() {
+        TreeMap<Integer, int[]> nodes = new TreeMap<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(Paths.get("/sys/devices/system/node"), "node[0-9]*")) {
+            for (Path dir : dirs) {
+                int[] cpus = parseCpuList(new String(Files.readAllBytes(dir.resolve("cpulist")), StandardCharsets.US_ASCII));
+                if (cpus.length > 0) {
+                    nodes.put(Integer.parseInt(dir.getFileName().toString().substring(4)), cpus);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            nodes.clear();
+        }
+        if (nodes.isEmpty()) {
+            int[] all = new int[Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return new int[][]{all};
+        }
+        return nodes.values().toArray(new int[0][]);
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,8-11}.
+     *
+     * @param list The list.
+     * @return The CPUs in the order listed.
+     */
+    static int[] parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Formats CPUs as a list for taskset.
+     *
+     * @param cpus The CPUs.
+     * @return The comma separated list.
+     */
+    static String format(int[] cpus) {
+        StringBuilder list = new StringBuilder();
+        for (int cpu : cpus) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpu);
+        }
+        return list.toString();
+    }
+}
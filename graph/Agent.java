@@ -6,6 +6,17 @@ public interface Agent {
 	void callback(String topic, Message msg);
 	void close();
 
+	/**
+	 * Callback used by {@link Topic#publish(Message)}. Agents that cache the topics they subscribe
+	 * to can override it to dispatch on {@link Topic#id} instead of comparing topic names.
+	 *
+	 * @param topic The topic on which the message was published.
+	 * @param msg   The published message.
+	 */
+	default void callback(Topic topic, Message msg) {
+		callback(topic.name, msg);
+	}
+
 	//String[] getSubs();
 	//String[] getPubs();
 }
@@ -0,0 +1,23 @@
+package graph;
+
+/**
+ * An agent that processes the messages queued for it by a {@link ParallelAgent} in batches.
+ * <p>
+ * When batching is enabled with {@code -Dagent.batchSize=N}, the thread of a ParallelAgent drains up to
+ * N queued messages at once and hands them to a batch agent in a single call, in the order they were
+ * published, instead of making one callback per message.
+ * </p>
+ */
+public interface BatchAgent extends Agent {
+
+	/**
+	 * Processes a batch of messages. The arrays are reused for the next batch, only the first
+	 * {@code size} entries are valid.
+	 *
+	 * @param topics     The topic of each message, null when only its name is known.
+	 * @param topicNames The name of the topic of each message.
+	 * @param msgs       The messages.
+	 * @param size       The number of messages in the batch, at least 1.
+	 */
+	void callbackBatch(Topic[] topics, String[] topicNames, Message[] msgs, int size);
+}
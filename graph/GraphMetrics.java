@@ -0,0 +1,126 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import metrics.BucketHistogram;
+import metrics.MetricsRegistry;
+import metrics.PrometheusWriter;
+
+/**
+ * The metrics of the topics and agents of all graphs, collected when the metrics are scraped.
+ * <p>
+ * Topics count their publications with a striped counter. Callback latencies are sampled: a topic
+ * times the callbacks of one delivery in {@link #SAMPLE_INTERVAL}, set with {@code -Dmetrics.sampleInterval},
+ * 0 to disable, so an untimed publish costs one counter increment. A callback's time includes the
+ * deliveries it triggers downstream, since delivery is depth-first. Agents behind a
+ * {@link ParallelAgent} are timed on the agent's thread, and their mailbox depth is reported too.
+ * </p>
+ */
+public final class GraphMetrics implements MetricsRegistry.Collector {
+
+    /** One delivery in this many is timed, a power of two; 0 when timing is disabled. */
+    public static final int SAMPLE_INTERVAL;
+
+    /** Mask selecting the timed deliveries of a counter, -1 when timing is disabled. */
+    static final int SAMPLE_MASK;
+
+    static {
+        int interval = Integer.getInteger("metrics.sampleInterval", 64);
+        SAMPLE_INTERVAL = interval > 0 ? Integer.highestOneBit(interval) : 0;
+        SAMPLE_MASK = SAMPLE_INTERVAL - 1;
+    }
+
+    // Weak, so closed agents are dropped once unreachable
+    private static final Map<Agent, BucketHistogram> callbackLatencies = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Set<ParallelAgent> parallelAgents = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    GraphMetrics() {
+    }
+
+    /**
+     * Returns the callback latency histogram of an agent, creating it on first use.
+     *
+     * @param agent The agent.
+     * @return The histogram.
+     */
+    static BucketHistogram callbackLatency(Agent agent) {
+        return callbackLatencies.computeIfAbsent(agent, a -> new BucketHistogram());
+    }
+
+    /**
+     * Reports the mailbox of a ParallelAgent until it is closed.
+     *
+     * @param agent The agent.
+     */
+    static void track(ParallelAgent agent) {
+        parallelAgents.add(agent);
+    }
+
+    /**
+     * Stops reporting the mailbox of a ParallelAgent.
+     *
+     * @param agent The agent.
+     */
+    static void untrack(ParallelAgent agent) {
+        parallelAgents.remove(agent);
+    }
+
+    @Override
+    public void collect(PrometheusWriter out) {
+        // Topics and the agents subscribed to them, per graph
+        List<String[]> topicLabels = new ArrayList<>();
+        List<Topic> topics = new ArrayList<>();
+        List<String[]> agentLabels = new ArrayList<>();
+        List<BucketHistogram> latencies = new ArrayList<>();
+        for (String graphId : TopicManagerSingleton.getGraphIds()) {
+            Set<Agent> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Topic topic : TopicManagerSingleton.get(graphId).getTopics().values()) {
+                topicLabels.add(new String[]{"graph", graphId, "topic", topic.name});
+                topics.add(topic);
+                for (Agent agent : topic.subs) {
+                    Agent timed = agent instanceof ParallelAgent ? ((ParallelAgent) agent).getAgent() : agent;
+                    if (seen.add(timed)) {
+                        BucketHistogram latency = callbackLatencies.get(timed);
+                        if (latency != null) {
+                            agentLabels.add(new String[]{"graph", graphId, "agent", timed.getName()});
+                            latencies.add(latency);
+                        }
+                    }
+                }
+            }
+        }
+
+        out.family("topic_published_total", "counter", "Messages published to the topic.");
+        for (int i = 0; i < topics.size(); i++) {
+            out.sample("topic_published_total", topicLabels.get(i), topics.get(i).getPublishCount());
+        }
+        out.family("topic_suppressed_total", "counter", "Publications suppressed because they did not change the topic's value.");
+        for (int i = 0; i < topics.size(); i++) {
+            out.sample("topic_suppressed_total", topicLabels.get(i), topics.get(i).getSuppressedCount());
+        }
+        out.family("topic_subscribers", "gauge", "Agents subscribed to the topic.");
+        for (int i = 0; i < topics.size(); i++) {
+            out.sample("topic_subscribers", topicLabels.get(i), topics.get(i).subs.size());
+        }
+        out.family("agent_callback_seconds", "histogram",
+                "Sampled callback time of the agent, including the deliveries it triggers downstream.");
+        for (int i = 0; i < latencies.size(); i++) {
+            out.histogram("agent_callback_seconds", agentLabels.get(i), latencies.get(i));
+        }
+
+        ParallelAgent[] mailboxes;
+        synchronized (parallelAgents) {
+            mailboxes = parallelAgents.toArray(new ParallelAgent[0]);
+        }
+        out.family("agent_mailbox_depth", "gauge", "Messages queued for the agent's thread.");
+        for (ParallelAgent agent : mailboxes) {
+            out.sample("agent_mailbox_depth", new String[]{"graph", agent.getGraphId(), "agent", agent.getName()}, agent.getQueueDepth());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package graph;
+
+/**
+ * An agent combining several input topics into one result, such as a binary operator.
+ * <p>
+ * In the wave join mode of {@link Propagation}, a join agent receiving an input during a publication
+ * only stores it and asks {@link Propagation#defer(JoinAgent, Topic)} to be fired later. Once the
+ * inputs of the wave that can reach the agent have arrived, {@link #fire()} computes and publishes
+ * the result once, instead of once per input with a stale value for the others.
+ * </p>
+ */
+public interface JoinAgent extends Agent {
+
+	/**
+	 * Computes the result from the stored inputs and publishes it.
+	 */
+	void fire();
+}
@@ -0,0 +1,297 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.MetricsRegistry;
+
+/**
+ * The MemoAgent class wraps a {@link Pure} agent and caches what it publishes for each combination of
+ * input values, so repeated combinations skip the agent entirely.
+ * <p>
+ * The wrapper takes the place of the agent on its topics. It keeps the last value of every input; when
+ * an input arrives, the values of all inputs form the key of a {@link MemoCache}. On a hit, the cached
+ * publications are published again. On a miss, the agent receives the inputs it has not seen yet and its
+ * publications on its output topics are recorded for the key; only the last of these deliveries publishes,
+ * the earlier ones, left over from hits, are muted. Inputs that are not numbers bypass the cache.
+ * In the wave join mode of {@link Propagation}, a wrapped {@link JoinAgent} fires once per wave like any
+ * other join. Like the agents it wraps, the wrapper expects its callbacks not to run concurrently.
+ * </p>
+ * Hits, misses and evictions are counted per agent as memo_hits_total, memo_misses_total and
+ * memo_evictions_total.
+ */
+public class MemoAgent implements JoinAgent {
+
+    private static final long MISSING = 0x7FF8_DEAD_0000_0001L; // Key part of an input without value, a NaN never cached
+
+    private final Agent agent;        // The wrapped agent
+    private final Topic[] inputs;
+    private final Topic[] outputs;
+    private final long[] key;         // Bits of the last value of each input
+    private final Message[] latest;   // Last message of each input
+    private final boolean[] unseen;   // Whether the agent has not received the last message of an input
+    private final MemoCache cache;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    // Recording of the publications of the agent, while it runs on a miss
+    private Thread recordingThread;
+    private boolean muted;
+    private final List<Object> recorded = new ArrayList<>(); // Output index and text, in turn
+
+    /**
+     * Wraps an agent, taking its place on its topics.
+     *
+     * @param agent     The agent, already subscribed and registered as a publisher.
+     * @param inputs    The topics the agent subscribes to.
+     * @param outputs   The topics the agent publishes to.
+     * @param cacheSize The number of input combinations cached.
+     */
+    MemoAgent(Agent agent, Topic[] inputs, Topic[] outputs, int cacheSize) {
+        this.agent = agent;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.key = new long[inputs.length];
+        this.latest = new Message[inputs.length];
+        this.unseen = new boolean[inputs.length];
+        java.util.Arrays.fill(key, MISSING);
+
+        String graphId = TopicManagerSingleton.get().getGraphId();
+        MetricsRegistry registry = MetricsRegistry.get();
+        this.hits = registry.counter("memo_hits_total", "Inputs answered from the cache of a pure agent.", "graph", graphId, "agent", agent.getName());
+        this.misses = registry.counter("memo_misses_total", "Inputs a pure agent was called for.", "graph", graphId, "agent", agent.getName());
+        this.cache = new MemoCache(cacheSize, inputs.length, registry.counter("memo_evictions_total",
+                "Input combinations evicted from the cache of a pure agent.", "graph", graphId, "agent", agent.getName()));
+
+        for (Topic topic : inputs) {
+            topic.unsubscribe(agent);
+            topic.subscribe(this);
+        }
+        for (Topic topic : outputs) {
+            topic.memo = this;
+            topic.removePublisher(agent);
+            topic.addPublisher(this);
+        }
+    }
+
+    /**
+     * Wraps an agent if its type is annotated with {@link Pure}, resolving its topics in the current graph.
+     *
+     * @param agent The agent.
+     * @param subs  The topics the agent was asked to subscribe to.
+     * @param pubs  The topics the agent was asked to publish to.
+     * @return The wrapper, or the agent itself if it is not pure or an output topic is memoized already.
+     */
+    public static Agent wrapIfPure(Agent agent, String[] subs, String[] pubs) {
+        Pure pure = agent.getClass().getAnnotation(Pure.class);
+        if (pure == null) {
+            return agent;
+        }
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        List<Topic> inputs = new ArrayList<>();
+        for (String name : subs) {
+            Topic topic = tm.getTopic(name);
+            if (topic.subs.contains(agent) && !inputs.contains(topic)) {
+                inputs.add(topic);
+            }
+        }
+        List<Topic> outputs = new ArrayList<>();
+        for (String name : pubs) {
+            Topic topic = tm.getTopic(name);
+            if (topic.pubs.contains(agent) && !outputs.contains(topic)) {
+                if (topic.memo != null) {
+                    return agent; // Recorded for another agent, which would see this one's publications
+                }
+                outputs.add(topic);
+            }
+        }
+        return new MemoAgent(agent, inputs.toArray(new Topic[0]), outputs.toArray(new Topic[0]), pure.cacheSize());
+    }
+
+    @Override
+    public String getName() {
+        return agent.getName();
+    }
+
+    @Override
+    public void reset() {
+        agent.reset();
+        // The agent forgot the inputs, so the key does not hold them either
+        java.util.Arrays.fill(key, MISSING);
+        java.util.Arrays.fill(latest, null);
+        java.util.Arrays.fill(unseen, false);
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] == topic) {
+                received(i, topic, msg);
+                return;
+            }
+        }
+        agent.callback(topic, msg);
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i].name.equals(topic)) {
+                received(i, inputs[i], msg);
+                return;
+            }
+        }
+        agent.callback(topic, msg);
+    }
+
+    /**
+     * Stores an input and fires, at once or at the end of the wave for a join agent.
+     */
+    private void received(int input, Topic topic, Message msg) {
+        latest[input] = msg;
+        key[input] = Double.doubleToRawLongBits(msg.asDouble);
+        unseen[input] = true;
+        if (agent instanceof JoinAgent && Propagation.defer(this, topic)) {
+            return;
+        }
+        fire();
+    }
+
+    /**
+     * Publishes the result of the current inputs, from the cache or by calling the agent.
+     */
+    @Override
+    public void fire() {
+        boolean cacheable = true;
+        for (long part : key) {
+            cacheable &= part == MISSING || !Double.isNaN(Double.longBitsToDouble(part));
+        }
+        if (!cacheable) {
+            deliverUnseen(); // Not a function of numbers
+            return;
+        }
+        long hash = MemoCache.hash(key);
+        Object cached;
+        synchronized (cache) {
+            cached = cache.get(key, hash);
+        }
+        if (cached != null) {
+            hits.increment();
+            Object[] publications = (Object[]) cached;
+            for (int i = 0; i < publications.length; i += 2) {
+                outputs[(Integer) publications[i]].publish(new Message((String) publications[i + 1]));
+            }
+            return;
+        }
+        misses.increment();
+        long[] computedKey = key.clone(); // The agent may publish to its own inputs
+        recorded.clear();
+        recordingThread = Thread.currentThread();
+        try {
+            deliverUnseen();
+        } finally {
+            recordingThread = null;
+        }
+        Object[] publications = recorded.toArray();
+        synchronized (cache) {
+            if (cache.get(computedKey, hash) == null) {
+                cache.put(computedKey, hash, publications);
+            }
+        }
+    }
+
+    /**
+     * Delivers the inputs the agent has not seen yet, muting all but the last delivery.
+     */
+    private void deliverUnseen() {
+        int last = -1;
+        for (int i = 0; i < inputs.length; i++) {
+            if (unseen[i]) {
+                last = i;
+            }
+        }
+        JoinAgent exempted = Propagation.exempt(agent instanceof JoinAgent ? (JoinAgent) agent : null);
+        try {
+            for (int i = 0; i <= last; i++) {
+                if (unseen[i]) {
+                    unseen[i] = false;
+                    muted = i != last;
+                    agent.callback(inputs[i], latest[i]);
+                }
+            }
+        } finally {
+            muted = false;
+            Propagation.exempt(exempted);
+        }
+    }
+
+    /**
+     * Called by an output topic before delivering a message: records the publications of the agent while
+     * it runs on a miss.
+     *
+     * @param topic The output topic.
+     * @param msg   The published message.
+     * @return true to drop the message, published by a muted delivery.
+     */
+    boolean intercept(Topic topic, Message msg) {
+        if (recordingThread != Thread.currentThread()) {
+            return false; // Another publisher, or not recording
+        }
+        if (muted) {
+            return true;
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            if (outputs[i] == topic) {
+                recorded.add(i);
+                recorded.add(msg.asText);
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Detaches the wrapper from the topics and closes the wrapped agent.
+     */
+    @Override
+    public void close() {
+        for (Topic topic : inputs) {
+            topic.unsubscribe(this);
+        }
+        for (Topic topic : outputs) {
+            topic.removePublisher(this);
+            if (topic.memo == this) {
+                topic.memo = null;
+            }
+        }
+        agent.close();
+    }
+
+    /**
+     * Returns the wrapped agent.
+     *
+     * @return The agent.
+     */
+    public Agent getAgent() {
+        return agent;
+    }
+
+    /**
+     * Returns the number of inputs answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of inputs the agent was called for.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,195 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache from a fixed number of {@code long} key parts to a value, evicting the least
+ * recently used entry when full.
+ * <p>
+ * Entries live in preallocated primitive arrays: the key parts, the hash and the links of a doubly
+ * linked list in recency order. An open-addressing table with linear probing maps the hashes to the
+ * entries; removed slots are closed by shifting the following slots back, so lookups never see
+ * tombstones. Looking up or adding an entry allocates nothing. Not thread-safe.
+ * </p>
+ */
+final class MemoCache {
+
+    private final int capacity;
+    private final int arity;
+    private final long[] keys;     // arity key parts per entry
+    private final long[] hashes;
+    private final Object[] values;
+    private final int[] prev;      // Towards the most recently used entry, -1 at the head
+    private final int[] next;      // Towards the least recently used entry, -1 at the tail
+    private final int[] table;     // Entry index + 1 per slot, 0 when empty
+    private final int mask;
+    private final LongAdder evictions;
+    private int head = -1;         // Most recently used entry
+    private int tail = -1;         // Least recently used entry
+    private int size;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity  The number of entries.
+     * @param arity     The number of key parts.
+     * @param evictions Counts the evicted entries.
+     */
+    MemoCache(int capacity, int arity, LongAdder evictions) {
+        this.capacity = Math.max(1, capacity);
+        this.arity = arity;
+        this.keys = new long[this.capacity * arity];
+        this.hashes = new long[this.capacity];
+        this.values = new Object[this.capacity];
+        this.prev = new int[this.capacity];
+        this.next = new int[this.capacity];
+        int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1; // At most half full
+        this.table = new int[slots];
+        this.mask = slots - 1;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Hashes the key parts.
+     *
+     * @param key The key parts.
+     * @return The hash.
+     */
+    static long hash(long[] key) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long part : key) {
+            h = (h ^ part) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Returns the value of a key and marks it as the most recently used.
+     *
+     * @param key  The key parts.
+     * @param hash The hash of the key.
+     * @return The value, or null if the key is not cached.
+     */
+    Object get(long[] key, long hash) {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0) {
+                return null;
+            }
+            if (hashes[entry] == hash && keyEquals(entry, key)) {
+                if (entry != head) {
+                    unlink(entry);
+                    linkFirst(entry);
+                }
+                return values[entry];
+            }
+        }
+    }
+
+    /**
+     * Adds a key that is not cached, evicting the least recently used entry if the cache is full.
+     *
+     * @param key   The key parts, copied.
+     * @param hash  The hash of the key.
+     * @param value The value.
+     */
+    void put(long[] key, long hash, Object value) {
+        int entry;
+        if (size == capacity) {
+            entry = tail;
+            removeSlot(entry);
+            unlink(entry);
+            evictions.increment();
+        } else {
+            entry = size++;
+        }
+        System.arraycopy(key, 0, keys, entry * arity, arity);
+        hashes[entry] = hash;
+        values[entry] = value;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+        linkFirst(entry);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, null);
+        head = tail = -1;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return The size.
+     */
+    int size() {
+        return size;
+    }
+
+    private boolean keyEquals(int entry, long[] key) {
+        int offset = entry * arity;
+        for (int i = 0; i < arity; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the slot of an entry from the table, shifting back the slots of its probe sequence.
+     */
+    private void removeSlot(int entry) {
+        int slot = (int) hashes[entry] & mask;
+        while (table[slot] != entry + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int free = slot;
+        for (int j = (free + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = (int) hashes[table[j] - 1] & mask;
+            // Move the slot back unless its home lies cyclically in (free, j]
+            boolean stays = free <= j ? free < home && home <= j : free < home || home <= j;
+            if (!stays) {
+                table[free] = table[j];
+                free = j;
+            }
+        }
+        table[free] = 0;
+    }
+
+    private void unlink(int entry) {
+        int p = prev[entry];
+        int n = next[entry];
+        if (p >= 0) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+        if (n >= 0) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+
+    private void linkFirst(int entry) {
+        prev[entry] = -1;
+        next[entry] = head;
+        if (head >= 0) {
+            prev[head] = entry;
+        }
+        head = entry;
+        if (tail < 0) {
+            tail = entry;
+        }
+    }
+}
@@ -13,6 +13,7 @@ public class Message {
 	public final String asText; // Text representation of the message
 	public final double asDouble; // Double representation of the message
 	public final Date date;     // Timestamp when the message was created
+	public final Trace trace;   // The trace of a sampled message, null when not traced, see Tracing
 
 	/**
 	 * Constructor for creating a Message from a byte array.
@@ -24,6 +25,7 @@ public class Message {
 		this.asText = new String(data);
 		this.asDouble = convertToDouble(this.asText);
 		this.date = new Date(); // Set the current date and time
+		this.trace = Tracing.ENABLED ? Tracing.forNewMessage() : null;
 	}
 
 	/**
@@ -47,6 +49,7 @@ public class Message {
 
 		// Set the date object to the current date and time
 		this.date = new Date();
+		this.trace = Tracing.ENABLED ? Tracing.forNewMessage() : null;
 	}
 
 	/**
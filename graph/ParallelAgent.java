@@ -1,30 +1,111 @@
 package graph;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import metrics.BucketHistogram;
+import metrics.MetricsRegistry;
 
 /**
  * The ParallelAgent class wraps an Agent to enable asynchronous message processing.
- * It uses a blocking queue to hold messages and a separate thread to process them.
+ * It uses a bounded queue to hold messages and a separate thread to process them.
+ * The queue and thread are created by the first queued message, so agents that are only called directly cost neither.
+ * Closing the agent processes the messages already queued before the thread stops. Messages published after
+ * closing, including those waiting for space in a full queue, are dropped and counted.
+ * <p>
+ * With {@code -Dagent.batchSize=N} greater than 1, the thread drains up to N queued messages at once and
+ * processes them as a batch, saving a wakeup per message when the inputs are bursty. A {@link BatchAgent}
+ * receives the whole batch in one call. A {@link Pure} agent, whose result depends only on the last value
+ * of each input, receives only the last message of each topic in the batch. Other agents receive every
+ * message in turn. In the wave join mode of {@link Propagation}, a batch is a single wave, so the join
+ * agents it reaches fire once per batch. Tracing processes messages one at a time.
+ * </p>
+ * A ParallelAgent only queues the messages it receives itself: {@link #attach(Topic[])} makes it take the
+ * place of the encapsulated agent on its topics.
+ * </p>
+ * The thread can be restricted to a set of CPUs with {@link #setAffinity(int[])}, see {@code configs.Placement}.
  */
 public class ParallelAgent implements Agent {
 
+    /**
+     * A queued message together with the topic it was published on.
+     * The topic reference is kept when known, so the encapsulated agent can dispatch on the topic reference.
+     */
+    private static final class Delivery {
+        final Topic topic;      // The topic, or null when only the name is known
+        final String topicName; // The name of the topic
+        final Message msg;      // The published message
+        final long enqueued;    // When a traced message was queued, 0 otherwise
+
+        Delivery(Topic topic, String topicName, Message msg) {
+            this.topic = topic;
+            this.topicName = topicName;
+            this.msg = msg;
+            this.enqueued = Tracing.ENABLED && msg != null && msg.trace != null ? System.nanoTime() : 0;
+        }
+    }
+
+    /** The default capacity of the message queue. */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /** The default number of messages processed at once, 1 to process them one at a time. */
+    public static final int BATCH_SIZE = Math.max(1, Integer.getInteger("agent.batchSize", 1));
+
     // Define members
     private Agent agent;                          // The encapsulated agent
-    private BlockingQueue<Message> messageQueue;  // Queue to hold incoming messages
-    private volatile boolean running = true;      // Flag to control the running state of the processing thread
-    private Thread messageProcessingThread;       // Thread to process messages asynchronously
+    private final int capacity;                   // Capacity of the message queue
+    private final int batchSize;                  // Maximum number of messages processed at once
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the queue, the running state and the thread start
+    private final Condition notEmpty = lock.newCondition(); // Signalled when a message is queued or the agent closed
+    private final Condition notFull = lock.newCondition();  // Signalled when messages are taken or the agent closed
+    private ArrayDeque<Delivery> messageQueue;    // Queue to hold incoming messages, created with the thread
+    private boolean running = true;               // Whether messages are accepted, false once closed
+    private volatile Thread messageProcessingThread; // Thread to process messages asynchronously, null until needed
+    private final String graphId;                 // The graph the agent was created in, for its metrics
+    private volatile LongAdder dropped;           // Messages dropped after closing, counted per graph once there is one
+    private volatile int[] affinity;              // The CPUs the thread may run on, null for any
+    private volatile long threadId = -1;          // Kernel id of the thread once started, -1 if unknown
+    private volatile Topic[] attached = new Topic[0]; // The topics this agent took the agent's place on
 
     /**
-     * Constructor with specified queue capacity.
+     * Constructor with specified queue capacity, batch size and graph.
+     *
+     * @param agent     The agent to be encapsulated.
+     * @param capacity  The capacity of the message queue.
+     * @param batchSize The maximum number of messages processed at once, 1 to process them one at a time.
+     * @param graphId   The id of the graph the agent runs in, which its metrics and traces are reported for.
+     */
+    public ParallelAgent(Agent agent, int capacity, int batchSize, String graphId) {
+        this.agent = agent;
+        this.capacity = capacity;
+        this.batchSize = Math.max(1, batchSize);
+        this.graphId = graphId;
+    }
+
+    /**
+     * Constructor with specified queue capacity and batch size, in the graph bound to the current thread.
+     *
+     * @param agent     The agent to be encapsulated.
+     * @param capacity  The capacity of the message queue.
+     * @param batchSize The maximum number of messages processed at once, 1 to process them one at a time.
+     */
+    public ParallelAgent(Agent agent, int capacity, int batchSize) {
+        this(agent, capacity, batchSize, TopicManagerSingleton.get().getGraphId());
+    }
+
+    /**
+     * Constructor with specified queue capacity and the default batch size.
      *
      * @param agent    The agent to be encapsulated.
      * @param capacity The capacity of the message queue.
      */
     public ParallelAgent(Agent agent, int capacity) {
-        this.agent = agent;
-        this.messageQueue = new ArrayBlockingQueue<>(capacity);
-        startMessageProcessingThread(); // Start the message processing thread
+        this(agent, capacity, BATCH_SIZE);
     }
 
     /**
@@ -33,7 +114,7 @@ public class ParallelAgent implements Agent {
      * @param agent The agent to be encapsulated.
      */
     public ParallelAgent(Agent agent) {
-        this(agent, 100); // Default capacity of 100
+        this(agent, DEFAULT_CAPACITY);
     }
 
     @Override
@@ -46,56 +127,343 @@ public class ParallelAgent implements Agent {
         agent.reset(); // Delegate reset to the encapsulated agent
     }
 
+    /**
+     * Stops accepting messages, waits until the queued messages are processed, stops the thread
+     * and closes the encapsulated agent. Closing an agent twice has no effect.
+     */
     @Override
     public void close() {
-        running = false; // Stop the processing thread
-        messageProcessingThread.interrupt();
+        for (Topic topic : attached) {
+            topic.unsubscribe(this);
+        }
+        Thread thread;
+        lock.lock();
         try {
-            messageProcessingThread.join(); // Ensure thread has stopped
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            if (!running) {
+                return;
+            }
+            running = false;      // Stop accepting messages
+            notEmpty.signal();    // The thread stops once the queue is empty
+            notFull.signalAll();  // Publishers waiting for space drop their messages
+            thread = messageProcessingThread; // Null if no message was ever queued
+        } finally {
+            lock.unlock();
         }
+        GraphMetrics.untrack(this);
+        if (thread != null && Thread.currentThread() != thread) {
+            try {
+                thread.join(); // Ensure thread has stopped
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
+            }
+        } // Closed from its own callback, the thread stops after returning and emptying the queue
         agent.close(); // Close the encapsulated agent
     }
 
+    @Override
+    public void callback(Topic topic, Message msg) {
+        enqueue(new Delivery(topic, topic.name, msg));
+    }
+
     @Override
     public void callback(String topic, Message msg) {
-        // Combine topic and message text into a single message
-        String messageText = topic + ":" + msg.asText;
-        Message messageWithTopic = new Message(messageText);
+        enqueue(new Delivery(null, topic, msg));
+    }
 
+    /**
+     * Takes the place of the encapsulated agent on the topics it subscribes to, so their messages are queued
+     * and processed on the thread of this agent. The topics the agent does not subscribe to are skipped.
+     * Closing this agent unsubscribes it from the topics.
+     *
+     * @param topics The topics.
+     */
+    public void attach(Topic[] topics) {
+        Topic[] taken = new Topic[topics.length];
+        int size = 0;
+        for (Topic topic : topics) {
+            if (topic.subs.contains(agent)) {
+                topic.unsubscribe(agent);
+                topic.subscribe(this);
+                taken[size++] = topic;
+            }
+        }
+        attached = Arrays.copyOf(taken, size);
+    }
+
+    /**
+     * Adds a delivery to the queue, waiting for space if the queue is full.
+     * The delivery is dropped if the agent is closed before it is queued.
+     *
+     * @param delivery The delivery to add.
+     */
+    private void enqueue(Delivery delivery) {
+        lock.lock();
         try {
-            messageQueue.put(messageWithTopic); // Add the message to the queue
+            if (running && messageQueue == null) {
+                startMessageProcessingThread();
+            }
+            while (running && messageQueue.size() == capacity) {
+                notFull.await();
+            }
+            if (running) {
+                messageQueue.addLast(delivery); // Add the message to the queue
+                notEmpty.signal();
+                return;
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        drop(); // Closed, the message would never be processed
+    }
+
+    /**
+     * Waits for queued messages and takes up to {@code batch.length} of them, in the order they were queued.
+     *
+     * @param batch The array receiving the messages.
+     * @return The number of messages taken, 0 once the agent is closed and the queue empty.
+     */
+    private int take(Delivery[] batch) {
+        lock.lock();
+        try {
+            while (messageQueue.isEmpty()) {
+                if (!running) {
+                    return 0; // All messages queued before close were processed
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+            int size = 0;
+            while (size < batch.length && !messageQueue.isEmpty()) {
+                batch[size++] = messageQueue.pollFirst();
+            }
+            if (size == 1) {
+                notFull.signal();
+            } else {
+                notFull.signalAll();
+            }
+            return size;
+        } finally {
+            lock.unlock();
         }
     }
 
+    private void drop() {
+        LongAdder counter = dropped;
+        if (counter == null) {
+            counter = MetricsRegistry.get().counter("agent_dropped_messages_total",
+                    "Messages dropped because the receiving ParallelAgent was closed.", "graph", graphId);
+            dropped = counter;
+        }
+        counter.increment();
+    }
+
     /**
-     * Starts the message processing thread.
+     * Creates the queue and starts the message processing thread, with the lock held.
      * This thread takes messages from the queue and processes them by calling the encapsulated agent's callback method.
      */
     private void startMessageProcessingThread() {
-        messageProcessingThread = new Thread(() -> {
-            while (running) {
-                try {
-                    Message msg = messageQueue.take(); // Take a message from the queue
-                    String[] parts = msg.asText.split(":", 2);
-                    if (parts.length == 2) {
-                        String topic = parts[0];
-                        String msgText = parts[1];
-                        Message originMsg = new Message(msgText);
-                        agent.callback(topic, originMsg); // Process the message with the encapsulated agent
-                    }
-                } catch (InterruptedException e) {
-                    if (!running) {
-                        break; // Exit the loop if interrupted and not running
-                    }
-                    Thread.currentThread().interrupt();
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        messageQueue = new ArrayDeque<>(capacity);
+        GraphMetrics.track(this);
+        BucketHistogram latency = GraphMetrics.SAMPLE_MASK >= 0 ? GraphMetrics.callbackLatency(agent) : null;
+        Runnable loop = batchSize > 1 && !Tracing.ENABLED ? () -> processBatches(latency) : () -> {
+            Delivery[] taken = new Delivery[1];
+            int processed = 0;
+            while (take(taken) > 0) { // Take a message from the queue
+                Delivery delivery = taken[0];
+                taken[0] = null;
+                if (Tracing.ENABLED) {
+                    processTracing(delivery);
+                    continue;
+                }
+                // Process the message with the encapsulated agent, timing a sample of the callbacks
+                boolean timed = latency != null && (++processed & GraphMetrics.SAMPLE_MASK) == 0;
+                long start = timed ? System.nanoTime() : 0;
+                if (delivery.topic != null) {
+                    agent.callback(delivery.topic, delivery.msg);
+                } else {
+                    agent.callback(delivery.topicName, delivery.msg);
                 }
+                if (timed) {
+                    latency.record(System.nanoTime() - start);
+                }
+            }
+        };
+        Thread thread = new Thread(() -> {
+            long tid = Affinity.currentThreadId();
+            threadId = tid;
+            int[] cpus = affinity;
+            if (cpus != null) {
+                Affinity.pin(tid, cpus); // Set before the thread started
             }
+            loop.run();
         });
-        messageProcessingThread.start(); // Start the thread
+        thread.start(); // Start the thread
+        messageProcessingThread = thread;
+    }
+
+    /**
+     * Takes the queued messages in batches and processes them until the end of the queue, timing a sample of the batches.
+     *
+     * @param latency The histogram of the sampled processing times, null when not sampling.
+     */
+    private void processBatches(BucketHistogram latency) {
+        Delivery[] batch = new Delivery[batchSize];
+        Topic[] topics = new Topic[batchSize];
+        String[] topicNames = new String[batchSize];
+        Message[] msgs = new Message[batchSize];
+        boolean coalesce = !(agent instanceof BatchAgent)
+                && (agent instanceof MemoAgent || agent.getClass().isAnnotationPresent(Pure.class));
+        LongAdder coalesced = coalesce ? MetricsRegistry.get().counter("agent_coalesced_messages_total",
+                "Messages superseded by a later message on the same topic in a batch of a ParallelAgent.", "graph", graphId) : null;
+        // Index of the last delivery of each topic in the batch, keyed by topic, or by name when only the name
+        // is known; equal names held in distinct strings are not coalesced, which only costs a callback
+        Map<Object, Integer> last = coalesce ? new IdentityHashMap<>() : null;
+        int processed = 0;
+        int size;
+        while ((size = take(batch)) > 0) { // Wait for the first message, then take the others without waiting
+            boolean timed = latency != null && (++processed & GraphMetrics.SAMPLE_MASK) == 0;
+            long start = timed ? System.nanoTime() : 0;
+            if (coalesce) {
+                for (int i = 0; i < size; i++) {
+                    last.put(source(batch[i]), i);
+                }
+            }
+            int delivered = 0;
+            for (int i = 0; i < size; i++) {
+                Delivery delivery = batch[i];
+                if (coalesce && last.get(source(delivery)) != i) {
+                    continue; // Only the last value of a topic matters to a pure agent
+                }
+                topics[delivered] = delivery.topic;
+                topicNames[delivered] = delivery.topicName;
+                msgs[delivered++] = delivery.msg;
+            }
+            if (coalesce) {
+                coalesced.add(size - delivered);
+            }
+            processBatch(topics, topicNames, msgs, delivered);
+            if (timed) {
+                latency.record(System.nanoTime() - start);
+            }
+            Arrays.fill(batch, 0, size, null); // Let the messages be collected while waiting
+            Arrays.fill(msgs, 0, delivered, null);
+            if (coalesce) {
+                last.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns what identifies the topic of a delivery when coalescing a batch.
+     */
+    private static Object source(Delivery delivery) {
+        return delivery.topic != null ? delivery.topic : delivery.topicName;
+    }
+
+    /**
+     * Processes the messages of a batch as one wave, in a single call for a {@link BatchAgent}.
+     */
+    private void processBatch(Topic[] topics, String[] topicNames, Message[] msgs, int size) {
+        Propagation.Wave wave = Propagation.WAVES ? Propagation.begin() : null;
+        try {
+            if (agent instanceof BatchAgent) {
+                ((BatchAgent) agent).callbackBatch(topics, topicNames, msgs, size);
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (topics[i] != null) {
+                        agent.callback(topics[i], msgs[i]);
+                    } else {
+                        agent.callback(topicNames[i], msgs[i]);
+                    }
+                }
+            }
+            if (wave != null) {
+                Propagation.flush(wave); // The joins reached by the batch fire once
+            }
+        } finally {
+            if (wave != null) {
+                Propagation.end(wave);
+            }
+        }
+    }
+
+    /**
+     * Processes a message while tracing is enabled, the callback of an untraced message in an untraced scope.
+     *
+     * @param delivery The delivery.
+     */
+    private void processTracing(Delivery delivery) {
+        if (delivery.msg.trace != null) {
+            processTraced(delivery);
+            return;
+        }
+        Tracing.Scope outer = Tracing.enterUntraced();
+        try {
+            if (delivery.topic != null) {
+                agent.callback(delivery.topic, delivery.msg);
+            } else {
+                agent.callback(delivery.topicName, delivery.msg);
+            }
+        } finally {
+            Tracing.restore(outer);
+        }
+    }
+
+    /**
+     * Processes a traced message, recording the time it waited in the queue and the compute time of the callback.
+     *
+     * @param delivery The delivery of the traced message.
+     */
+    private void processTraced(Delivery delivery) {
+        Tracing.Scope scope = Tracing.enter(delivery.msg.trace);
+        long start = System.nanoTime();
+        try {
+            if (delivery.topic != null) {
+                agent.callback(delivery.topic, delivery.msg);
+            } else {
+                agent.callback(delivery.topicName, delivery.msg);
+            }
+        } finally {
+            long nested = Tracing.exit(scope);
+            Tracing.record(graphId, delivery.topicName, agent.getName(), start - delivery.enqueued, System.nanoTime() - start - nested);
+        }
+    }
+
+    /**
+     * Restricts the thread of the agent to a set of CPUs, at once if it is running, otherwise when it starts.
+     *
+     * @param cpus The CPUs.
+     */
+    public void setAffinity(int[] cpus) {
+        affinity = cpus.clone();
+        long tid = threadId;
+        if (tid >= 0) {
+            Affinity.pin(tid, affinity);
+        }
+    }
+
+    /**
+     * Returns the CPUs the thread of the agent is restricted to.
+     *
+     * @return The CPUs, or null for any.
+     */
+    public int[] getAffinity() {
+        int[] cpus = affinity;
+        return cpus == null ? null : cpus.clone();
+    }
+
+    /**
+     * Returns the kernel id of the thread of the agent.
+     *
+     * @return The tid, or -1 before the thread started or if it is unknown.
+     */
+    public long getThreadId() {
+        return threadId;
     }
 
     /**
@@ -106,4 +474,27 @@ public class ParallelAgent implements Agent {
     public Agent getAgent() {
         return this.agent;
     }
+
+    /**
+     * Returns the id of the graph the agent was created in.
+     *
+     * @return The graph id.
+     */
+    public String getGraphId() {
+        return graphId;
+    }
+
+    /**
+     * Returns the number of messages waiting in the queue.
+     *
+     * @return The queue depth, 0 before the first message.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return messageQueue == null ? 0 : messageQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
 }
@@ -0,0 +1,248 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.MetricsRegistry;
+
+/**
+ * The join mode of agents with several inputs, set with {@code -Dgraph.joins=eager|wave}.
+ * <p>
+ * Delivery is synchronous and depth-first, so in the default eager mode a {@link JoinAgent} fires on
+ * every input: in a diamond such as {@code A -> R1, A -> R2, (R1, R2) -> R3}, one publication on A makes
+ * R3 fire once with the new R1 and the stale R2, a glitch, and once more with both.
+ * </p>
+ * <p>
+ * In wave mode, a publication made outside of any delivery starts a wave on its thread. Join agents
+ * reached during the wave store their inputs and are queued by rank, their depth in the graph, instead
+ * of firing; an agent already queued is not queued twice. When the publication returns, the queued agents
+ * fire in rank order, the lowest first, and the joins their results reach are queued in turn. Since all
+ * the producers of an agent's inputs have a lower rank, every join agent fires once per wave, after all
+ * the inputs of the wave that can reach it have arrived. Other agents still run as soon as they receive
+ * a message. Ranks are computed from the wiring of the graph when first needed and again after it
+ * changes. In a cycle the ranks are arbitrary, so joins in a cycle may still see stale inputs.
+ * </p>
+ * Messages crossing to a {@link ParallelAgent}'s thread start a new wave there.
+ */
+public final class Propagation {
+
+    /** Whether join agents wait for the end of the wave. */
+    public static final boolean WAVES = "wave".equalsIgnoreCase(System.getProperty("graph.joins", "eager"));
+
+    /** The wave of each thread. */
+    private static final ThreadLocal<Wave> waves = ThreadLocal.withInitial(Wave::new);
+
+    /** Inputs merged into a firing already queued, each one a result not published. */
+    private static final LongAdder coalesced = WAVES
+            ? MetricsRegistry.get().counter("graph_join_coalesced_total", "Join inputs merged into a firing already queued in the same wave.")
+            : new LongAdder();
+
+    private Propagation() {
+    }
+
+    /**
+     * The publications in progress on a thread and the join agents waiting to fire.
+     */
+    static final class Wave {
+        int depth;                            // Nested publications in progress
+        JoinAgent[] agents = new JoinAgent[16]; // Queued agents, by decreasing rank, so the next to fire is last
+        int[] ranks = new int[16];
+        int size;
+        JoinAgent exempt;                     // Fires at once, see exempt()
+    }
+
+    /**
+     * The ranks of the agents of a graph, valid while its wiring does not change.
+     */
+    static final class Ranks {
+        final Object wiring;               // The wiring stamp of the TopicManager the ranks were computed for
+        final Map<Agent, Integer> byAgent;
+
+        Ranks(Object wiring, Map<Agent, Integer> byAgent) {
+            this.wiring = wiring;
+            this.byAgent = byAgent;
+        }
+    }
+
+    /**
+     * Starts a publication on the current thread.
+     *
+     * @return The wave of the thread, to pass to {@link #flush(Wave)} and {@link #end(Wave)}.
+     */
+    static Wave begin() {
+        Wave wave = waves.get();
+        wave.depth++;
+        return wave;
+    }
+
+    /**
+     * Fires the queued join agents in rank order if the publication started the wave.
+     *
+     * @param wave The wave of the thread.
+     */
+    static void flush(Wave wave) {
+        if (wave.depth != 1) {
+            return; // A nested publication, the outermost one fires the joins
+        }
+        while (wave.size > 0) {
+            int last = --wave.size;
+            JoinAgent agent = wave.agents[last];
+            wave.agents[last] = null;
+            agent.fire(); // May queue more agents, of a higher rank
+        }
+    }
+
+    /**
+     * Ends a publication. When a callback failed, the joins still queued at the end of the wave are dropped.
+     *
+     * @param wave The wave of the thread.
+     */
+    static void end(Wave wave) {
+        if (--wave.depth == 0 && wave.size > 0) {
+            Arrays.fill(wave.agents, 0, wave.size, null);
+            wave.size = 0;
+        }
+    }
+
+    /**
+     * Called by a join agent that received an input: queues the agent to fire at the end of the wave.
+     *
+     * @param agent The agent.
+     * @param input The topic of the input, whose graph ranks the agent.
+     * @return true if the agent was queued or already was, false if it must fire now: in eager mode,
+     * or when called outside of a publication.
+     */
+    public static boolean defer(JoinAgent agent, Topic input) {
+        if (!WAVES) {
+            return false;
+        }
+        Wave wave = waves.get();
+        if (wave.depth == 0 || agent == wave.exempt) {
+            return false;
+        }
+        for (int i = wave.size - 1; i >= 0; i--) {
+            if (wave.agents[i] == agent) {
+                coalesced.increment();
+                return true;
+            }
+        }
+        int rank = rank(input.getManager(), agent);
+        if (wave.size == wave.agents.length) {
+            wave.agents = Arrays.copyOf(wave.agents, wave.size * 2);
+            wave.ranks = Arrays.copyOf(wave.ranks, wave.size * 2);
+        }
+        // Insert before the agents of the same or a lower rank: they fire first
+        int i = wave.size;
+        while (i > 0 && wave.ranks[i - 1] <= rank) {
+            wave.agents[i] = wave.agents[i - 1];
+            wave.ranks[i] = wave.ranks[i - 1];
+            i--;
+        }
+        wave.agents[i] = agent;
+        wave.ranks[i] = rank;
+        wave.size++;
+        return true;
+    }
+
+    /**
+     * Lets an agent fire as soon as it receives an input during the wave of the current thread, for a
+     * wrapper that delivers to it when the wave has already reached its rank, see {@link MemoAgent}.
+     *
+     * @param agent The agent, or null for none.
+     * @return The agent exempted before, to restore by passing it back.
+     */
+    static JoinAgent exempt(JoinAgent agent) {
+        if (!WAVES) {
+            return null;
+        }
+        Wave wave = waves.get();
+        JoinAgent previous = wave.exempt;
+        wave.exempt = agent;
+        return previous;
+    }
+
+    /**
+     * Returns the number of join inputs merged into a firing already queued.
+     *
+     * @return The number of inputs.
+     */
+    public static long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the rank of an agent in its graph, computing the ranks of the graph if its wiring changed.
+     *
+     * @param tm    The TopicManager of the graph, or null for unmanaged topics.
+     * @param agent The agent.
+     * @return The rank, 0 if unknown.
+     */
+    static int rank(TopicManagerSingleton.TopicManager tm, Agent agent) {
+        if (tm == null) {
+            return 0;
+        }
+        Ranks ranks = tm.ranks;
+        Object wiring = tm.wiring;
+        if (ranks == null || ranks.wiring != wiring) {
+            ranks = new Ranks(wiring, computeRanks(tm));
+            tm.ranks = ranks;
+        }
+        Integer rank = ranks.byAgent.get(agent);
+        return rank != null ? rank : 0;
+    }
+
+    /**
+     * Computes the rank of every agent of a graph in topological order: 1 for an agent whose inputs have
+     * no publishers, and otherwise one more than the highest rank of the publishers of its inputs.
+     * Agents in a cycle get no rank.
+     */
+    private static Map<Agent, Integer> computeRanks(TopicManagerSingleton.TopicManager tm) {
+        // Agent to agent edges through the topics
+        Map<Agent, List<Agent>> downstream = new IdentityHashMap<>();
+        Map<Agent, Integer> inDegree = new IdentityHashMap<>();
+        for (Topic topic : tm.getTopics().values()) {
+            for (Agent subscriber : topic.subs) {
+                inDegree.putIfAbsent(subscriber, 0);
+            }
+            for (Agent publisher : topic.pubs) {
+                inDegree.putIfAbsent(publisher, 0);
+                List<Agent> targets = downstream.computeIfAbsent(publisher, p -> new ArrayList<>());
+                for (Agent subscriber : topic.subs) {
+                    targets.add(subscriber);
+                    inDegree.merge(subscriber, 1, Integer::sum);
+                }
+            }
+        }
+
+        Map<Agent, Integer> ranks = new IdentityHashMap<>();
+        Deque<Agent> ready = new ArrayDeque<>();
+        for (Map.Entry<Agent, Integer> entry : inDegree.entrySet()) {
+            if (entry.getValue() == 0) {
+                ready.add(entry.getKey());
+                ranks.put(entry.getKey(), 1);
+            }
+        }
+        while (!ready.isEmpty()) {
+            Agent agent = ready.poll();
+            int next = ranks.get(agent) + 1;
+            for (Agent target : downstream.getOrDefault(agent, List.of())) {
+                ranks.merge(target, next, Math::max);
+                if (inDegree.merge(target, -1, Integer::sum) == 0) {
+                    ready.add(target);
+                }
+            }
+        }
+        inDegree.forEach((agent, degree) -> {
+            if (degree != 0) {
+                ranks.remove(agent); // In or behind a cycle
+            }
+        });
+        return ranks;
+    }
+}
@@ -0,0 +1,26 @@
+package graph;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an agent type as pure: what it publishes depends only on the last value of each of its input
+ * topics, and it has no other effect. Agents of such a type created from a configuration are wrapped
+ * in a {@link MemoAgent}, which reuses the publications of input combinations seen before instead of
+ * calling the agent again.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Pure {
+
+	/**
+	 * The number of input combinations cached per agent, the least recently used ones are evicted.
+	 *
+	 * @return The cache size.
+	 */
+	int cacheSize() default 1024;
+}
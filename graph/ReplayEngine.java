@@ -0,0 +1,419 @@
+package graph;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import graph.TopicManagerSingleton.TopicManager;
+import metrics.LatencyHistogram;
+
+/**
+ * The ReplayEngine class replays a recorded stream of (time, topic, value) publications into a
+ * loaded graph through {@link Topic#publish(Message)}, for capacity planning.
+ * <p>
+ * Recordings use the binary format of {@link TopicJournal}, so a journal directory written by a
+ * running server can be replayed as is. JSON-lines files can be imported into that format with
+ * {@link #importJsonLines(Path, Path)}.
+ * </p>
+ * <p>
+ * The stream can be replayed as fast as possible, in real time or at a multiple of real time.
+ * For every output topic the engine records the end-to-end latency between the injection of the
+ * latest input and the publication on that output topic, and it records how late each input was
+ * injected compared to its schedule.
+ * </p>
+ * The engine works on the topics of a {@link TopicManager}; {@code benchmarks.ReplayDriver} loads a
+ * configuration and replays a recording into it from the command line.
+ */
+public class ReplayEngine {
+
+    /**
+     * The pacing of a replay.
+     */
+    public enum Mode {
+        /** Publish every record as soon as the previous one was published. */
+        AS_FAST_AS_POSSIBLE,
+        /** Keep the original spacing between records. */
+        REAL_TIME,
+        /** Keep the original spacing divided by a speed factor. */
+        SCALED
+    }
+
+    /**
+     * A recording loaded in memory as primitive arrays.
+     */
+    public static class Recording {
+        public final String[] topicNames; // Topic name per topic index
+        public final int[] topics;        // Topic index per record
+        public final long[] times;        // Schedule per record, in nanoseconds since the epoch
+        public final double[] values;     // Value per record
+        public final long unknownRecords; // Records left out because their topic id is not in the index
+
+        /**
+         * Constructor for a recording.
+         *
+         * @param topicNames     Topic name per topic index.
+         * @param topics         Topic index per record.
+         * @param times          Nanosecond timestamps per record.
+         * @param values         Value per record.
+         * @param unknownRecords Number of records left out because their topic is unknown.
+         */
+        public Recording(String[] topicNames, int[] topics, long[] times, double[] values, long unknownRecords) {
+            this.topicNames = topicNames;
+            this.topics = topics;
+            this.times = times;
+            this.values = values;
+            this.unknownRecords = unknownRecords;
+        }
+
+        /**
+         * Constructor for a recording without unknown records.
+         *
+         * @param topicNames Topic name per topic index.
+         * @param topics     Topic index per record.
+         * @param times      Nanosecond timestamps per record.
+         * @param values     Value per record.
+         */
+        public Recording(String[] topicNames, int[] topics, long[] times, double[] values) {
+            this(topicNames, topics, times, values, 0);
+        }
+
+        /**
+         * Returns the number of records.
+         *
+         * @return The number of records.
+         */
+        public int size() {
+            return topics.length;
+        }
+    }
+
+    /**
+     * The results of a replay.
+     */
+    public static class Report {
+        public final long records;        // Number of published records
+        public final long elapsedNanos;   // Wall time of the replay
+        public final LatencyHistogram injectionLag = new LatencyHistogram(); // Lateness against the schedule
+        public final Map<String, LatencyHistogram> outputLatencies = new LinkedHashMap<>(); // Per output topic
+
+        Report(long records, long elapsedNanos) {
+            this.records = records;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            double seconds = elapsedNanos / 1e9;
+            sb.append(String.format("Replayed %d records in %.3f s (%.0f records/s)%n", records, seconds,
+                    seconds > 0 ? records / seconds : 0));
+            sb.append("Injection lag: ").append(injectionLag.summary(1000, "us")).append('\n');
+            for (Map.Entry<String, LatencyHistogram> entry : outputLatencies.entrySet()) {
+                sb.append("Output ").append(entry.getKey()).append(": ")
+                        .append(entry.getValue().summary(1000, "us")).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Agent subscribed to an output topic to measure end-to-end latency.
+     */
+    private static class LatencyProbe implements Agent {
+        private final ReplayEngine engine;
+        private final LatencyHistogram histogram;
+
+        LatencyProbe(ReplayEngine engine, LatencyHistogram histogram) {
+            this.engine = engine;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public String getName() {
+            return "ReplayLatencyProbe";
+        }
+
+        @Override
+        public void reset() {
+            histogram.reset();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            histogram.record(System.nanoTime() - engine.lastInjection);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+
+    // Define members
+    private final TopicManager topicManager; // The graph receiving the records
+    private volatile long lastInjection;     // nanoTime at which the latest record was published
+
+    /**
+     * Constructor for a replay engine publishing into the given graph.
+     *
+     * @param topicManager The topic manager of the loaded graph.
+     */
+    public ReplayEngine(TopicManager topicManager) {
+        this.topicManager = topicManager;
+    }
+
+    /**
+     * Replays a recording.
+     *
+     * @param recording    The records to publish.
+     * @param mode         The pacing of the replay.
+     * @param speed        The speed factor for {@link Mode#SCALED}, ignored otherwise.
+     * @param outputTopics The topics to measure, or null to measure every topic without subscribers.
+     * @return The report of the replay.
+     */
+    public Report replay(Recording recording, Mode mode, double speed, String[] outputTopics) {
+        if (mode == Mode.SCALED && !(speed > 0)) {
+            throw new IllegalArgumentException("Speed factor must be positive.");
+        }
+        double factor = mode == Mode.REAL_TIME ? 1.0 : speed;
+
+        // Resolve every topic once, outside of the replay loop
+        Topic[] topics = new Topic[recording.topicNames.length];
+        for (int i = 0; i < topics.length; i++) {
+            if (recording.topicNames[i] != null) {
+                topics[i] = topicManager.getTopic(recording.topicNames[i]);
+            }
+        }
+
+        // Attach a latency probe to every output topic
+        if (outputTopics == null) {
+            List<String> sinks = new ArrayList<>();
+            for (Topic topic : topicManager.getTopics().values()) {
+                if (topic.getSubs().isEmpty() && !topic.getPubs().isEmpty()) {
+                    sinks.add(topic.getName());
+                }
+            }
+            outputTopics = sinks.toArray(new String[0]);
+        }
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        List<Topic> probed = new ArrayList<>();
+        List<Agent> probes = new ArrayList<>();
+        for (String name : outputTopics) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            LatencyProbe probe = new LatencyProbe(this, histogram);
+            Topic topic = topicManager.getTopic(name);
+            topic.subscribe(probe);
+            latencies.put(name, histogram);
+            probed.add(topic);
+            probes.add(probe);
+        }
+
+        LatencyHistogram lag = new LatencyHistogram();
+        int size = recording.size();
+        long firstTime = size > 0 ? recording.times[0] : 0;
+        long start = System.nanoTime();
+        long published = 0;
+        try {
+            for (int i = 0; i < size; i++) {
+                Topic topic = topics[recording.topics[i]];
+                if (topic == null) {
+                    continue;
+                }
+                if (mode != Mode.AS_FAST_AS_POSSIBLE) {
+                    long due = start + (long) ((recording.times[i] - firstTime) / factor);
+                    waitUntil(due);
+                    lag.record(System.nanoTime() - due);
+                }
+                lastInjection = System.nanoTime();
+                topic.publish(new Message(recording.values[i]));
+                published++;
+            }
+        } finally {
+            for (int i = 0; i < probed.size(); i++) {
+                probed.get(i).unsubscribe(probes.get(i));
+            }
+        }
+
+        Report report = new Report(published, System.nanoTime() - start);
+        report.injectionLag.add(lag);
+        report.outputLatencies.putAll(latencies);
+        return report;
+    }
+
+    /**
+     * Waits until the given nanoTime, parking for long waits and spinning for the last stretch.
+     */
+    private static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (remaining > 200_000) {
+                LockSupport.parkNanos(remaining - 100_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Largest difference, in milliseconds, between the wall clock and the nanoTime spacing of two consecutive
+     * records of the same run. A larger difference means the records were written by different processes,
+     * whose nanoTime origins are unrelated.
+     */
+    private static final long RUN_TOLERANCE_MILLIS = 1000;
+
+    /**
+     * Loads a recording written in the {@link TopicJournal} format.
+     * <p>
+     * The schedule is built from the wall clock time of the records, in nanoseconds since the epoch, as
+     * the nanoTime of a journal restarts with every process writing to it. Within a run, where nanoTime
+     * keeps increasing in step with the wall clock, the spacing of consecutive records is taken from
+     * nanoTime, which is more precise. The schedule never goes back, even if the wall clock did.
+     * Records whose topic id is not in the index are left out and counted in
+     * {@link Recording#unknownRecords}.
+     * </p>
+     *
+     * @param directory The recording directory.
+     * @return The recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public static Recording load(Path directory) throws IOException {
+        Map<Integer, String> index = TopicJournal.readIndex(directory);
+        int maxId = 0;
+        for (int id : index.keySet()) {
+            maxId = Math.max(maxId, id);
+        }
+        String[] names = new String[maxId + 1];
+        for (Map.Entry<Integer, String> entry : index.entrySet()) {
+            names[entry.getKey()] = entry.getValue();
+        }
+
+        int[][] topics = {new int[1024]};
+        long[][] times = {new long[1024]};
+        double[][] values = {new double[1024]};
+        int[] count = {0};
+        long[] unknown = {0};
+        long[] previous = new long[3]; // Schedule, nanoTime and epochMillis of the previous record
+        TopicJournal.forEach(directory, (topicId, topicName, nanoTime, epochMillis, value) -> {
+            if (topicName == null || topicId < 0 || topicId >= names.length) {
+                unknown[0]++;
+                return;
+            }
+            int n = count[0];
+            if (n == topics[0].length) {
+                topics[0] = Arrays.copyOf(topics[0], n * 2);
+                times[0] = Arrays.copyOf(times[0], n * 2);
+                values[0] = Arrays.copyOf(values[0], n * 2);
+            }
+            long time = epochMillis * 1_000_000;
+            if (n > 0) {
+                long step = nanoTime - previous[1];
+                if (step >= 0 && Math.abs(step / 1_000_000 - (epochMillis - previous[2])) <= RUN_TOLERANCE_MILLIS) {
+                    time = previous[0] + step; // Same run
+                } else {
+                    time = Math.max(previous[0], time); // Another run, or the wall clock went back
+                }
+            }
+            previous[0] = time;
+            previous[1] = nanoTime;
+            previous[2] = epochMillis;
+            topics[0][n] = topicId;
+            times[0][n] = time;
+            values[0][n] = value;
+            count[0] = n + 1;
+        });
+        int n = count[0];
+        return new Recording(names, Arrays.copyOf(topics[0], n), Arrays.copyOf(times[0], n), Arrays.copyOf(values[0], n),
+                unknown[0]);
+    }
+
+    /**
+     * Imports a JSON-lines file into a recording directory. Each line is an object with a
+     * {@code "topic"} string, a numeric {@code "value"} and a {@code "time"} in milliseconds
+     * ({@code "t"} is accepted as well). Lines without a topic or value are skipped.
+     *
+     * @param jsonLines The file to import.
+     * @param directory The recording directory to create.
+     * @return The number of imported records.
+     * @throws IOException If the file cannot be read or the recording cannot be written.
+     */
+    public static long importJsonLines(Path jsonLines, Path directory) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        Map<Integer, String> names = new LinkedHashMap<>();
+        long imported = 0;
+        try (TopicJournal journal = new TopicJournal(directory, 1 << 20, Integer.MAX_VALUE, -1, 1 << 16);
+             BufferedReader reader = Files.newBufferedReader(jsonLines, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String topic = jsonString(line, "topic");
+                String value = jsonNumber(line, "value");
+                String time = jsonNumber(line, "time");
+                if (time == null) {
+                    time = jsonNumber(line, "t");
+                }
+                if (topic == null || value == null) {
+                    continue;
+                }
+                long nanos = time != null ? (long) (Double.parseDouble(time) * 1_000_000) : lineNumber * 1_000_000;
+                Integer id = ids.get(topic);
+                if (id == null) {
+                    id = journal.register(topic);
+                    ids.put(topic, id);
+                    names.put(id, topic);
+                }
+                // The journal drops records when its ring is full; an import must not lose any
+                while (!journal.append(id, nanos, Double.parseDouble(value))) {
+                    Thread.onSpinWait();
+                }
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Extracts a string field from a flat JSON object, or null if it is absent.
+     */
+    private static String jsonString(String json, String key) {
+        int keyIndex = json.indexOf("\"" + key + "\"");
+        if (keyIndex < 0) {
+            return null;
+        }
+        int colon = json.indexOf(':', keyIndex + key.length() + 2);
+        int open = colon < 0 ? -1 : json.indexOf('"', colon + 1);
+        int close = open < 0 ? -1 : json.indexOf('"', open + 1);
+        return close < 0 ? null : json.substring(open + 1, close);
+    }
+
+    /**
+     * Extracts a numeric field from a flat JSON object, or null if it is absent.
+     */
+    private static String jsonNumber(String json, String key) {
+        int keyIndex = json.indexOf("\"" + key + "\"");
+        if (keyIndex < 0) {
+            return null;
+        }
+        int start = json.indexOf(':', keyIndex + key.length() + 2) + 1;
+        if (start == 0) {
+            return null;
+        }
+        while (start < json.length() && (json.charAt(start) == ' ' || json.charAt(start) == '"')) {
+            start++;
+        }
+        int end = start;
+        while (end < json.length() && "+-.0123456789eE".indexOf(json.charAt(end)) >= 0) {
+            end++;
+        }
+        return end > start ? json.substring(start, end) : null;
+    }
+}
@@ -0,0 +1,127 @@
+package graph;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An agent whose internal state can be saved to and restored from a binary buffer,
+ * so a graph can be restarted from a snapshot instead of replaying its inputs.
+ * The state of an agent is restored after the agent was created with the same
+ * subscriptions and publications it had when the state was saved.
+ */
+public interface StatefulAgent extends Agent {
+
+	/**
+	 * Returns the number of bytes {@link #saveState(ByteBuffer)} will write. As the agent may keep
+	 * receiving messages, this is an estimate: a snapshot retries with a larger buffer when the state grew.
+	 *
+	 * @return The size of the state in bytes.
+	 */
+	int stateSize();
+
+	/**
+	 * Writes the internal state of the agent at the buffer's position.
+	 *
+	 * @param out The buffer to write to, with at least {@link #stateSize()} bytes remaining; a
+	 *            {@link java.nio.BufferOverflowException} when the state does not fit is expected.
+	 */
+	void saveState(ByteBuffer out);
+
+	/**
+	 * Restores the internal state of the agent from the buffer's position.
+	 *
+	 * @param in The buffer to read from.
+	 */
+	void loadState(ByteBuffer in);
+
+	// Helpers for encoding optional messages and values
+
+	/**
+	 * Returns the number of bytes {@link #putMessage(ByteBuffer, Message)} writes for a message.
+	 *
+	 * @param msg The message, may be null.
+	 * @return The encoded size in bytes.
+	 */
+	static int messageSize(Message msg) {
+		if (msg == null) {
+			return 1;
+		}
+		if (Double.toString(msg.asDouble).equals(msg.asText)) {
+			return 1 + 8;
+		}
+		return 1 + 4 + msg.data.length;
+	}
+
+	/**
+	 * Writes an optional message: a tag byte, then the value as a double when its text
+	 * is the canonical form of that double, or the raw bytes otherwise.
+	 *
+	 * @param out The buffer to write to.
+	 * @param msg The message, may be null.
+	 */
+	static void putMessage(ByteBuffer out, Message msg) {
+		if (msg == null) {
+			out.put((byte) 0);
+		} else if (Double.toString(msg.asDouble).equals(msg.asText)) {
+			out.put((byte) 1);
+			out.putDouble(msg.asDouble);
+		} else {
+			out.put((byte) 2);
+			out.putInt(msg.data.length);
+			out.put(msg.data);
+		}
+	}
+
+	/**
+	 * Reads an optional message written by {@link #putMessage(ByteBuffer, Message)}.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The message, or null if none was saved.
+	 */
+	static Message getMessage(ByteBuffer in) {
+		byte tag = in.get();
+		if (tag == 0) {
+			return null;
+		}
+		if (tag == 1) {
+			return new Message(in.getDouble());
+		}
+		byte[] data = new byte[in.getInt()];
+		in.get(data);
+		return new Message(data);
+	}
+
+	/**
+	 * Writes an optional double: a tag byte followed by the value when present.
+	 *
+	 * @param out   The buffer to write to.
+	 * @param value The value, may be null.
+	 */
+	static void putDouble(ByteBuffer out, Double value) {
+		if (value == null) {
+			out.put((byte) 0);
+		} else {
+			out.put((byte) 1);
+			out.putDouble(value);
+		}
+	}
+
+	/**
+	 * Reads an optional double written by {@link #putDouble(ByteBuffer, Double)}.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The value, or null if none was saved.
+	 */
+	static Double getDouble(ByteBuffer in) {
+		return in.get() == 0 ? null : in.getDouble();
+	}
+
+	/**
+	 * Returns the number of bytes {@link #putDouble(ByteBuffer, Double)} writes for a value.
+	 *
+	 * @param value The value, may be null.
+	 * @return The encoded size in bytes.
+	 */
+	static int doubleSize(Double value) {
+		return value == null ? 1 : 1 + 8;
+	}
+}
@@ -1,7 +1,11 @@
 package graph;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import logging.Logger;
 
 /**
  * The Topic class represents a communication topic in a publish-subscribe system.
@@ -11,9 +15,23 @@ public class Topic {
 
 	// Define members
 	public final String name;                       // The name of the topic
-	public List<Agent> subs = new ArrayList<>();    // List of subscriber agents
-	public List<Agent> pubs = new ArrayList<>();    // List of publisher agents
-	private Message lastMessage = new Message(0.0); // The last published message
+	public final int id;                            // Dense id assigned by the TopicManager, -1 if unmanaged
+	public List<Agent> subs = new CopyOnWriteArrayList<>(); // List of subscriber agents, changed through subscribe and unsubscribe
+	public List<Agent> pubs = new CopyOnWriteArrayList<>(); // List of publisher agents
+	private static final Agent[] NO_AGENTS = new Agent[0];
+	private static final Message INITIAL_MESSAGE = new Message(0.0); // Shared default, messages are immutable
+	private static final Logger log = Logger.get(Topic.class); // Logger of the print method
+	private Message lastMessage;                    // The last published message
+	private volatile TopicHistory history;          // Optional bounded history of published values
+	private volatile TopicJournal journal;          // Optional journal receiving every publication
+	private int journalId;                          // Id of this topic in the journal
+	private volatile Agent[] targets = NO_AGENTS;  // Immutable snapshot of the subscribers that publications are delivered to
+	private final TopicManagerSingleton.TopicManager manager; // The manager notified of wiring changes, null if unmanaged
+	private final LongAdder published = new LongAdder(); // Number of publications, striped for concurrent publishers
+	private int deliveries;                         // Selects the deliveries whose callbacks are timed, racy by design
+	private volatile double dedupEpsilon = -1;      // Publications this close to the last value are suppressed, negative when disabled
+	private final LongAdder suppressed = new LongAdder(); // Number of suppressed publications
+	MemoAgent memo;                                 // Records the publications of a memoized agent, null otherwise
 
 	/**
 	 * Constructor to initialize a topic with a given name.
@@ -21,8 +39,21 @@ public class Topic {
 	 * @param name The name of the topic.
 	 */
 	public Topic(String name) {
+		this(name, -1, null);
+	}
+
+	/**
+	 * Constructor to initialize a topic with a given name and id.
+	 *
+	 * @param name    The name of the topic.
+	 * @param id      The id of the topic, unique within its TopicManager.
+	 * @param manager The TopicManager holding the topic, or null.
+	 */
+	Topic(String name, int id, TopicManagerSingleton.TopicManager manager) {
 		this.name = name;
-		this.lastMessage = new Message(0); // Initialize last message with a default value
+		this.id = id;
+		this.manager = manager;
+		this.lastMessage = INITIAL_MESSAGE; // Initialize last message with a default value
 	}
 
 	/**
@@ -33,6 +64,10 @@ public class Topic {
 	public void subscribe(Agent sub) {
 		if (!subs.contains(sub)) {
 			subs.add(sub);
+			subscribersChanged();
+			if (manager != null) {
+				manager.fireSubscribed(this, sub);
+			}
 		}
 	}
 
@@ -42,23 +77,232 @@ public class Topic {
 	 * @param unSub The agent to unsubscribe.
 	 */
 	public void unsubscribe(Agent unSub) {
-		if (subs.contains(unSub)) {
-			subs.remove(unSub);
+		if (subs.remove(unSub)) {
+			subscribersChanged();
+			if (manager != null) {
+				manager.fireUnsubscribed(this, unSub);
+			}
 		}
 	}
 
+	/**
+	 * Replaces the snapshot of the subscribers, at once or, while the graph is rewired, when the rewiring ends.
+	 */
+	private void subscribersChanged() {
+		if (manager != null) {
+			manager.subscribersChanged(this); // See TopicManager.rewire
+		} else {
+			refreshTargets();
+		}
+	}
+
+	/**
+	 * Takes a new snapshot of the subscribers, which the following publications are delivered to.
+	 */
+	synchronized void refreshTargets() {
+		targets = subs.toArray(NO_AGENTS); // Ordered with concurrent changes by the lock, so the last snapshot is the latest
+	}
+
 	/**
 	 * Publishes a message to all subscribed agents.
 	 *
 	 * @param msg The message to publish.
 	 */
 	public void publish(Message msg) {
+		if (Propagation.WAVES) {
+			publishInWave(msg); // Join agents fire at the end of the wave, see Propagation
+			return;
+		}
+		deliver(msg);
+	}
+
+	/**
+	 * Publishes a message as part of the wave of the current thread, firing the queued join agents
+	 * when the publication started the wave.
+	 *
+	 * @param msg The message to publish.
+	 */
+	private void publishInWave(Message msg) {
+		Propagation.Wave wave = Propagation.begin();
+		try {
+			deliver(msg);
+			Propagation.flush(wave);
+		} finally {
+			Propagation.end(wave);
+		}
+	}
+
+	/**
+	 * Stores, records and delivers a message to all subscribed agents. Publishing takes no lock: the message
+	 * is delivered to the snapshot of the subscribers taken by the last wiring change.
+	 *
+	 * @param msg The message to deliver.
+	 */
+	private void deliver(Message msg) {
+		MemoAgent m = memo;
+		if (m != null && m.intercept(this, msg)) {
+			return; // A publication muted by the memoized agent, see MemoAgent
+		}
+		double epsilon = dedupEpsilon;
+		if (epsilon >= 0 && unchanged(msg, epsilon)) {
+			suppressed.increment(); // Nothing changed downstream, see setDedup
+			return;
+		}
 		lastMessage = msg; // Store the last message
 
-		for (int i = 0; i < subs.size(); i++) {
-			Agent agent = subs.get(i); // Get the specific subscriber from the list
-			agent.callback(this.name, msg); // Notify the subscriber with the message
+		TopicHistory h = history;
+		if (h != null) {
+			h.record(msg.date.getTime(), msg.asDouble); // Keep the value in the topic's history
+		}
+		TopicJournal j = journal;
+		if (j != null) {
+			j.append(journalId, System.nanoTime(), msg.asDouble); // Never blocks the publisher
+		}
+
+		published.increment(); // Counted for the metrics, exact with concurrent publishers
+		if (Tracing.ENABLED) {
+			deliverTracing(msg); // See Tracing
+			return;
+		}
+		deliverAll(msg);
+	}
+
+	/**
+	 * Delivers a message to all subscribed agents, timing a sample of the deliveries.
+	 *
+	 * @param msg The message to deliver.
+	 */
+	private void deliverAll(Message msg) {
+		if (GraphMetrics.SAMPLE_MASK >= 0 && (++deliveries & GraphMetrics.SAMPLE_MASK) == 0) {
+			deliverTimed(msg); // A sampled delivery, see GraphMetrics
+			return;
+		}
+		for (Agent agent : targets) {  // Iterates a snapshot of the subscribers
+			agent.callback(this, msg); // Notify the subscriber with the message
+		}
+	}
+
+	/**
+	 * Delivers a message while tracing is enabled. The callbacks of an untraced message run in an untraced
+	 * scope, so the messages they create do not start traces in the middle of the graph.
+	 *
+	 * @param msg The message to deliver.
+	 */
+	private void deliverTracing(Message msg) {
+		if (msg.trace != null) {
+			deliverTraced(msg);
+			return;
+		}
+		Tracing.Scope outer = Tracing.enterUntraced();
+		try {
+			deliverAll(msg);
+		} finally {
+			Tracing.restore(outer);
+		}
+	}
+
+	/**
+	 * Delivers a message, timing the callback of every subscriber. ParallelAgents time their own agent.
+	 *
+	 * @param msg The message to deliver.
+	 */
+	private void deliverTimed(Message msg) {
+		for (Agent agent : targets) {
+			if (agent instanceof ParallelAgent) {
+				agent.callback(this, msg);
+				continue;
+			}
+			long start = System.nanoTime();
+			agent.callback(this, msg);
+			GraphMetrics.callbackLatency(agent).record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Delivers a traced message, recording the queueing and compute time of every subscriber's callback
+	 * on its edge. ParallelAgents record their own agent on their thread.
+	 *
+	 * @param msg The message to deliver.
+	 */
+	private void deliverTraced(Message msg) {
+		String graphId = manager != null ? manager.getGraphId() : null;
+		long publishedAt = System.nanoTime();
+		Tracing.arrived(graphId, name, msg.trace, publishedAt);
+		for (Agent agent : targets) {
+			if (agent instanceof ParallelAgent) {
+				agent.callback(this, msg);
+				continue;
+			}
+			Tracing.Scope scope = Tracing.enter(msg.trace);
+			long start = System.nanoTime();
+			try {
+				agent.callback(this, msg);
+			} finally {
+				long nested = Tracing.exit(scope);
+				Tracing.record(graphId, name, agent.getName(), start - publishedAt, System.nanoTime() - start - nested);
+			}
+		}
+		Tracing.delivered(System.nanoTime() - publishedAt); // Not compute time of the publishing callback
+	}
+
+	/**
+	 * Checks whether a message carries the same value as the last delivered one. Values that are not
+	 * numbers are compared as text.
+	 *
+	 * @param msg     The message to publish.
+	 * @param epsilon The largest difference considered unchanged, 0 for an exact comparison.
+	 * @return true if the message would not change the value of the topic.
+	 */
+	private boolean unchanged(Message msg, double epsilon) {
+		Message last = lastMessage;
+		if (last == INITIAL_MESSAGE) {
+			return false; // Nothing published yet
+		}
+		double value = msg.asDouble;
+		double lastValue = last.asDouble;
+		if (Double.isNaN(value) || Double.isNaN(lastValue)) {
+			return Double.isNaN(value) && Double.isNaN(lastValue) && msg.asText.equals(last.asText);
 		}
+		return value == lastValue || Math.abs(value - lastValue) <= epsilon;
+	}
+
+	/**
+	 * Suppresses the publications that do not change the value of this topic: a message whose value is
+	 * within epsilon of the last delivered value is counted and dropped, so it is neither recorded nor
+	 * delivered, and nothing downstream of the topic runs. The value is compared with the last delivered
+	 * one, so slow drifts are still delivered once they exceed epsilon.
+	 *
+	 * @param epsilon The largest difference considered unchanged, 0 for exact equality, negative to disable.
+	 */
+	public void setDedup(double epsilon) {
+		dedupEpsilon = epsilon;
+	}
+
+	/**
+	 * Returns the largest difference from the last value suppressed by {@link #setDedup(double)}.
+	 *
+	 * @return The epsilon, negative when publications are never suppressed.
+	 */
+	public double getDedup() {
+		return dedupEpsilon;
+	}
+
+	/**
+	 * Returns the number of publications suppressed because they did not change the value.
+	 *
+	 * @return The number of suppressed publications.
+	 */
+	public long getSuppressedCount() {
+		return suppressed.sum();
+	}
+
+	/**
+	 * Returns the number of messages published to this topic.
+	 *
+	 * @return The number of publications.
+	 */
+	public long getPublishCount() {
+		return published.sum();
 	}
 
 	/**
@@ -69,6 +313,9 @@ public class Topic {
 	public void addPublisher(Agent publisher) {
 		if (!pubs.contains(publisher)) {
 			pubs.add(publisher);
+			if (manager != null) {
+				manager.firePublisherAdded(this, publisher);
+			}
 		}
 	}
 
@@ -78,8 +325,8 @@ public class Topic {
 	 * @param unPublisher The agent to remove as a publisher.
 	 */
 	public void removePublisher(Agent unPublisher) {
-		if (pubs.contains(unPublisher)) {
-			pubs.remove(unPublisher);
+		if (pubs.remove(unPublisher) && manager != null) {
+			manager.firePublisherRemoved(this, unPublisher);
 		}
 	}
 
@@ -94,6 +341,7 @@ public class Topic {
 
 	public void setSubs(List<Agent> subs) {
 		this.subs = subs;
+		subscribersChanged();
 	}
 
 	public void setPubs(List<Agent> pubs) {
@@ -105,6 +353,16 @@ public class Topic {
 		return name;
 	}
 
+	// Getter method for the TopicManager holding the topic, null if unmanaged
+	TopicManagerSingleton.TopicManager getManager() {
+		return manager;
+	}
+
+	// Getter method for topic id
+	public int getId() {
+		return id;
+	}
+
 	/**
 	 * Gets the last published message as a string.
 	 *
@@ -115,11 +373,71 @@ public class Topic {
 	}
 
 	/**
-	 * Prints the name of the topic to the console.
+	 * Returns whether a message was published to this topic, or set as its last message.
+	 *
+	 * @return false while the topic still holds its initial value.
+	 */
+	public boolean hasPublished() {
+		return lastMessage != INITIAL_MESSAGE;
+	}
+
+	/**
+	 * Sets the last message without publishing it, e.g. when restoring a snapshot.
+	 *
+	 * @param msg The message to store as the last message.
+	 */
+	public void setLastMessage(Message msg) {
+		lastMessage = msg;
+	}
+
+	/**
+	 * Enables a bounded history of the values published to this topic.
+	 * Any previously recorded history is discarded.
+	 *
+	 * @param capacity The number of entries to keep (rounded up to a power of two).
+	 * @return The new history.
+	 */
+	public TopicHistory enableHistory(int capacity) {
+		TopicHistory h = new TopicHistory(capacity);
+		history = h;
+		return h;
+	}
+
+	/**
+	 * Disables the history of this topic and releases its memory.
+	 */
+	public void disableHistory() {
+		history = null;
+	}
+
+	/**
+	 * Gets the history of this topic.
+	 *
+	 * @return The history, or null if history is not enabled for this topic.
+	 */
+	public TopicHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Sets the journal that records every publication to this topic.
+	 *
+	 * @param journal The journal, or null to stop journaling this topic.
+	 * @throws IOException If the topic cannot be registered in the journal.
+	 */
+	public void setJournal(TopicJournal journal) throws IOException {
+		if (journal != null) {
+			journalId = journal.register(name);
+		}
+		this.journal = journal;
+	}
+
+	/**
+	 * Logs the name of the topic at DEBUG level.
 	 *
 	 * @param message The message to print.
 	 */
 	public void print(String message) {
-		System.out.println(this.name);
+		log.debug("topic", "name", this.name);
 	}
 }
@@ -0,0 +1,175 @@
+package graph;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The TopicHistory class keeps a bounded history of the values published to a topic.
+ * Timestamps and values are stored in two primitive rings of fixed size, so the memory cost
+ * of a history is known when it is created and does not grow with the number of publications.
+ * <p>
+ * Publishers never wait for readers: each slot carries a sequence number that is invalidated
+ * before the slot is rewritten and set again afterwards. Readers copy a slot and then re-check
+ * its sequence, skipping entries that were overwritten while they were being read.
+ * </p>
+ */
+public class TopicHistory {
+
+    // Define members
+    private final int capacity;           // Number of entries kept (a power of two)
+    private final int mask;               // capacity - 1, used to map a sequence to its slot
+    private final long[] timestamps;      // Publication times in milliseconds since the epoch
+    private final double[] values;        // Published values
+    private final AtomicLongArray slotSeq; // Sequence currently stored in each slot, -1 while being written
+    private final AtomicLong cursor = new AtomicLong(); // Sequence of the next entry to write
+
+    /**
+     * Constructor for creating a history that keeps at least the given number of entries.
+     * The capacity is rounded up to the next power of two.
+     *
+     * @param capacity The minimal number of entries to keep.
+     */
+    public TopicHistory(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("History capacity must be between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.values = new double[size];
+        this.slotSeq = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slotSeq.set(i, -1);
+        }
+    }
+
+    /**
+     * Records a published value.
+     *
+     * @param timestamp The publication time in milliseconds since the epoch.
+     * @param value     The published value.
+     */
+    public void record(long timestamp, double value) {
+        long seq = cursor.getAndIncrement();
+        int slot = (int) (seq & mask);
+
+        slotSeq.set(slot, -1);      // Mark the slot as being written
+        VarHandle.storeStoreFence();
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        slotSeq.lazySet(slot, seq); // Publish the entry
+    }
+
+    /**
+     * Copies the most recent entries, oldest first, into the given arrays.
+     *
+     * @param count         The maximal number of entries to copy.
+     * @param timestampsOut Array receiving the timestamps.
+     * @param valuesOut     Array receiving the values.
+     * @return The number of entries copied.
+     */
+    public int latest(int count, long[] timestampsOut, double[] valuesOut) {
+        long end = cursor.get();
+        long start = Math.max(0, end - Math.min(count, capacity));
+        return copy(start, end, Long.MIN_VALUE, Long.MAX_VALUE, timestampsOut, valuesOut);
+    }
+
+    /**
+     * Copies the entries published within the given time range, oldest first, into the given arrays.
+     *
+     * @param fromMillis    The start of the range (inclusive), in milliseconds since the epoch.
+     * @param toMillis      The end of the range (inclusive), in milliseconds since the epoch.
+     * @param timestampsOut Array receiving the timestamps.
+     * @param valuesOut     Array receiving the values.
+     * @return The number of entries copied.
+     */
+    public int range(long fromMillis, long toMillis, long[] timestampsOut, double[] valuesOut) {
+        long end = cursor.get();
+        long start = Math.max(0, end - capacity);
+        return copy(start, end, fromMillis, toMillis, timestampsOut, valuesOut);
+    }
+
+    /**
+     * Counts the entries published within the given time range, to size the arrays given to
+     * {@link #range(long, long, long[], double[])}. Entries recorded in between are not counted.
+     *
+     * @param fromMillis The start of the range (inclusive), in milliseconds since the epoch.
+     * @param toMillis   The end of the range (inclusive), in milliseconds since the epoch.
+     * @return The number of entries in the range.
+     */
+    public int count(long fromMillis, long toMillis) {
+        long end = cursor.get();
+        int counted = 0;
+        for (long seq = Math.max(0, end - capacity); seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            if (slotSeq.get(slot) != seq) {
+                continue; // Not yet written or already overwritten
+            }
+            long timestamp = timestamps[slot];
+            VarHandle.loadLoadFence();
+            if (slotSeq.get(slot) == seq && timestamp >= fromMillis && timestamp <= toMillis) {
+                counted++;
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * Copies the entries with sequences in [start, end) whose timestamps fall within the range.
+     */
+    private int copy(long start, long end, long fromMillis, long toMillis, long[] timestampsOut, double[] valuesOut) {
+        int limit = Math.min(timestampsOut.length, valuesOut.length);
+        int copied = 0;
+        for (long seq = start; seq < end && copied < limit; seq++) {
+            int slot = (int) (seq & mask);
+            if (slotSeq.get(slot) != seq) {
+                continue; // Not yet written or already overwritten
+            }
+            long timestamp = timestamps[slot];
+            double value = values[slot];
+            VarHandle.loadLoadFence();
+            if (slotSeq.get(slot) != seq) {
+                continue; // Overwritten while being read
+            }
+            if (timestamp < fromMillis || timestamp > toMillis) {
+                continue;
+            }
+            timestampsOut[copied] = timestamp;
+            valuesOut[copied] = value;
+            copied++;
+        }
+        return copied;
+    }
+
+    /**
+     * Returns the number of entries this history can hold.
+     *
+     * @return The capacity of the history.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of entries currently held.
+     *
+     * @return The number of entries, at most the capacity.
+     */
+    public int size() {
+        return (int) Math.min(cursor.get(), capacity);
+    }
+
+    /**
+     * Returns the total number of values recorded since the history was created.
+     *
+     * @return The number of recorded values.
+     */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+}
@@ -0,0 +1,471 @@
+package graph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import logging.Logger;
+
+/**
+ * The TopicJournal class is an append-only audit trail of topic publications.
+ * <p>
+ * Every record has a fixed size of {@value #RECORD_SIZE} bytes: the topic id (int), the
+ * {@link System#nanoTime()} of the publication (long) and the published value (double).
+ * Publishers only copy the record into a lock-free in-memory ring and return; a background
+ * thread drains the ring in batches into memory-mapped segment files, rolls to a new segment
+ * when the current one is full, deletes the oldest segments beyond the retention limit and
+ * forces the data to disk at a configurable cadence. When the ring is full the record is
+ * dropped and counted rather than blocking the publisher.
+ * </p>
+ * <p>
+ * Topic names are mapped to ids in a small text index ({@value #INDEX_FILE}) written when a topic
+ * is registered, so the ids stay stable for a journal directory across restarts.
+ * </p>
+ */
+public class TopicJournal implements AutoCloseable {
+
+    /** Size in bytes of one journal record. */
+    public static final int RECORD_SIZE = 4 + 8 + 8;
+
+    /** Size in bytes of a segment header: magic, version, record count, base epoch millis, base nanos. */
+    public static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+
+    /** Name of the file mapping topic ids to topic names. */
+    public static final String INDEX_FILE = "topics.idx";
+
+    private static final int MAGIC = 0x544A4E4C; // "TJNL"
+    private static final int VERSION = 1;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final Logger log = Logger.get(TopicJournal.class);
+
+    /**
+     * Visitor receiving the records of a journal, see {@link #forEach(Path, RecordVisitor)}.
+     */
+    public interface RecordVisitor {
+        /**
+         * Called once per record, in the order the records were written.
+         *
+         * @param topicId   The id of the topic.
+         * @param topicName The name of the topic, or null if it is not in the index.
+         * @param nanoTime  The {@link System#nanoTime()} of the publication.
+         * @param epochMillis The publication time converted to milliseconds since the epoch.
+         * @param value     The published value.
+         */
+        void record(int topicId, String topicName, long nanoTime, long epochMillis, double value);
+    }
+
+    // Configuration
+    private final Path directory;          // Directory holding the segments and the index
+    private final int segmentRecords;      // Number of records per segment
+    private final int maxSegments;         // Number of segments kept on disk
+    private final long fsyncIntervalMillis; // Force cadence: 0 after every batch, negative never
+
+    // Topic ids
+    private final ConcurrentHashMap<String, Integer> topicIds = new ConcurrentHashMap<>();
+    private int nextTopicId = 1;           // Guarded by this
+
+    // In-memory ring between the publishers and the writer thread
+    private final int ringMask;
+    private final int[] ringIds;
+    private final long[] ringTimes;
+    private final double[] ringValues;
+    private final AtomicLongArray ringSeq; // Sequence stored in each slot, -1 while empty
+    private final AtomicLong tail = new AtomicLong(); // Next sequence claimed by a publisher
+    private final AtomicLong head = new AtomicLong(); // Next sequence read by the writer
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+
+    // Writer state, only touched by the writer thread
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private MappedByteBuffer segment;
+    private int segmentCount;
+    private long segmentIndex;
+    private long lastForce;
+
+    private volatile boolean running = true;
+    private final Thread writerThread;
+
+    /**
+     * Constructor with default settings: segments of 1M records, 16 segments kept,
+     * a force every second and a ring of 64K records.
+     *
+     * @param directory The directory holding the journal.
+     * @throws IOException If the directory or the index cannot be read or created.
+     */
+    public TopicJournal(Path directory) throws IOException {
+        this(directory, 1 << 20, 16, 1000, 1 << 16);
+    }
+
+    /**
+     * Constructor with explicit settings.
+     *
+     * @param directory           The directory holding the journal.
+     * @param segmentRecords      The number of records per segment file.
+     * @param maxSegments         The number of segment files kept; older ones are deleted.
+     * @param fsyncIntervalMillis How often written data is forced to disk, 0 after every batch, negative never.
+     * @param ringCapacity        The number of records buffered between publishers and the writer (rounded up to a power of two).
+     * @throws IOException If the directory or the index cannot be read or created.
+     */
+    public TopicJournal(Path directory, int segmentRecords, int maxSegments, long fsyncIntervalMillis, int ringCapacity) throws IOException {
+        if (segmentRecords < 1 || (long) segmentRecords * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of records per segment: " + segmentRecords);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("At least one segment must be kept.");
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+
+        int size = Integer.highestOneBit(Math.max(2, ringCapacity));
+        if (size < ringCapacity) {
+            size <<= 1;
+        }
+        this.ringMask = size - 1;
+        this.ringIds = new int[size];
+        this.ringTimes = new long[size];
+        this.ringValues = new double[size];
+        this.ringSeq = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ringSeq.set(i, -1);
+        }
+
+        Files.createDirectories(directory);
+        loadIndex();
+        for (Path existing : listSegments(directory)) {
+            segments.addLast(existing);
+            segmentIndex = Math.max(segmentIndex, segmentNumber(existing));
+        }
+
+        writerThread = new Thread(this::writeLoop, "topic-journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Returns the id of a topic, assigning and persisting a new id on first use.
+     * This is meant to be called when a topic is wired, not on every publication.
+     *
+     * @param topicName The name of the topic.
+     * @return The id of the topic.
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized int register(String topicName) throws IOException {
+        Integer id = topicIds.get(topicName);
+        if (id != null) {
+            return id;
+        }
+        int newId = nextTopicId++;
+        Files.writeString(directory.resolve(INDEX_FILE), newId + "," + topicName + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        topicIds.put(topicName, newId);
+        return newId;
+    }
+
+    /**
+     * Appends a record without blocking. If the in-memory ring is full, the record is dropped.
+     *
+     * @param topicId  The id of the topic, as returned by {@link #register(String)}.
+     * @param nanoTime The {@link System#nanoTime()} of the publication.
+     * @param value    The published value.
+     * @return true if the record was queued, false if it was dropped.
+     */
+    public boolean append(int topicId, long nanoTime, double value) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head.get() > ringMask || !running) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        int slot = (int) (seq & ringMask);
+        ringIds[slot] = topicId;
+        ringTimes[slot] = nanoTime;
+        ringValues[slot] = value;
+        ringSeq.lazySet(slot, seq); // Hand the record over to the writer
+        return true;
+    }
+
+    /**
+     * Background loop: drains the ring in batches and writes the records to the current segment.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                int batch = drain();
+                if (batch == 0) {
+                    if (!running && head.get() == tail.get()) {
+                        break;
+                    }
+                    forceIfDue(false);
+                    LockSupport.parkNanos(100_000); // Idle for 100us
+                } else {
+                    forceIfDue(fsyncIntervalMillis == 0);
+                }
+            }
+            if (segment != null && fsyncIntervalMillis >= 0) {
+                segment.force();
+            }
+        } catch (IOException e) {
+            running = false;
+            log.error("journal writer failed", "directory", directory, e);
+        }
+    }
+
+    /**
+     * Copies all records handed over by publishers into the mapped segment.
+     *
+     * @return The number of records written.
+     * @throws IOException If a new segment cannot be created.
+     */
+    private int drain() throws IOException {
+        long h = head.get();
+        int count = 0;
+        while (true) {
+            int slot = (int) (h & ringMask);
+            if (ringSeq.get(slot) != h) {
+                break; // Nothing more handed over yet
+            }
+            if (segment == null || segmentCount == segmentRecords) {
+                roll();
+            }
+            int position = HEADER_SIZE + segmentCount * RECORD_SIZE;
+            segment.putInt(position, ringIds[slot]);
+            segment.putLong(position + 4, ringTimes[slot]);
+            segment.putDouble(position + 12, ringValues[slot]);
+            segmentCount++;
+            h++;
+            count++;
+            // Release slots in chunks so publishers see free space during long bursts
+            if ((count & 1023) == 0) {
+                segment.putLong(8, segmentCount);
+                head.lazySet(h);
+            }
+        }
+        if (count > 0) {
+            segment.putLong(8, segmentCount); // Publish the record count in the header
+            head.lazySet(h);
+            written.addAndGet(count);
+        }
+        return count;
+    }
+
+    /**
+     * Forces the current segment to disk if the configured interval has elapsed.
+     *
+     * @param now true to force regardless of the interval.
+     */
+    private void forceIfDue(boolean now) {
+        if (segment == null || fsyncIntervalMillis < 0) {
+            return;
+        }
+        long millis = System.currentTimeMillis();
+        if (now || millis - lastForce >= fsyncIntervalMillis) {
+            segment.force();
+            lastForce = millis;
+        }
+    }
+
+    /**
+     * Closes the current segment and maps a new one, deleting the oldest segments beyond the retention limit.
+     *
+     * @throws IOException If the new segment cannot be created.
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.putLong(8, segmentCount); // The count of a segment filled in the middle of a batch
+            if (fsyncIntervalMillis >= 0) {
+                segment.force();
+            }
+        }
+        segmentIndex++;
+        Path path = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        long size = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, 0);
+        segment.putLong(16, System.currentTimeMillis());
+        segment.putLong(24, System.nanoTime());
+        segmentCount = 0;
+
+        segments.addLast(path);
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.removeFirst());
+        }
+    }
+
+    /**
+     * Loads the topic index of an existing journal directory.
+     *
+     * @throws IOException If the index cannot be read.
+     */
+    private synchronized void loadIndex() throws IOException {
+        for (Map.Entry<Integer, String> entry : readIndex(directory).entrySet()) {
+            topicIds.put(entry.getValue(), entry.getKey());
+            nextTopicId = Math.max(nextTopicId, entry.getKey() + 1);
+        }
+    }
+
+    /**
+     * Stops accepting records, writes everything already queued and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because the in-memory ring was full.
+     *
+     * @return The number of dropped records.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of records written to segment files.
+     *
+     * @return The number of written records.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Returns the directory holding this journal.
+     *
+     * @return The journal directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads every record of a journal directory, oldest segment first.
+     *
+     * @param directory The journal directory.
+     * @param visitor   The visitor receiving the records.
+     * @throws IOException If the journal cannot be read.
+     */
+    public static void forEach(Path directory, RecordVisitor visitor) throws IOException {
+        Map<Integer, String> names = readIndex(directory);
+        for (Path path : listSegments(directory)) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a journal segment: " + path);
+            }
+            long count = buffer.getLong(8);
+            long baseMillis = buffer.getLong(16);
+            long baseNanos = buffer.getLong(24);
+            for (int i = 0; i < count; i++) {
+                int position = HEADER_SIZE + i * RECORD_SIZE;
+                int topicId = buffer.getInt(position);
+                long nanoTime = buffer.getLong(position + 4);
+                double value = buffer.getDouble(position + 12);
+                long epochMillis = baseMillis + (nanoTime - baseNanos) / 1_000_000;
+                visitor.record(topicId, names.get(topicId), nanoTime, epochMillis, value);
+            }
+        }
+    }
+
+    /**
+     * Reads the topic index of a journal directory.
+     *
+     * @param directory The journal directory.
+     * @return A map from topic id to topic name.
+     * @throws IOException If the index cannot be read.
+     */
+    public static Map<Integer, String> readIndex(Path directory) throws IOException {
+        Map<Integer, String> names = new HashMap<>();
+        Path index = directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return names;
+        }
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            int comma = line.indexOf(',');
+            if (comma > 0) {
+                names.put(Integer.parseInt(line.substring(0, comma)), line.substring(comma + 1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes a topic index, replacing any existing one. Used by tools that produce journals offline.
+     *
+     * @param directory The journal directory.
+     * @param names     A map from topic id to topic name.
+     * @throws IOException If the index cannot be written.
+     */
+    public static void writeIndex(Path directory, Map<Integer, String> names) throws IOException {
+        Files.createDirectories(directory);
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String> entry : names.entrySet()) {
+                writer.write(entry.getKey() + "," + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Lists the segment files of a journal directory in write order.
+     */
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(result::add);
+        }
+        return result;
+    }
+
+    /**
+     * Extracts the sequence number from a segment file name.
+     */
+    private static long segmentNumber(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -1,26 +1,75 @@
 package graph;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import logging.Logger;
+import metrics.MetricsRegistry;
 
 /**
  * Singleton class for managing topics in a publish-subscribe system.
- * It ensures that only one instance of TopicManager exists.
+ * <p>
+ * Besides the default TopicManager, it holds named graph instances: each graph id has its own
+ * TopicManager with its own topics, so several configurations can run side by side in one JVM
+ * without sharing topics. Code that wires agents for a specific graph binds its TopicManager to
+ * the current thread with {@link #bind(TopicManager)}; {@link #get()} then returns it, so agents
+ * built through the usual constructors subscribe to the right graph.
+ * </p>
  */
 public class TopicManagerSingleton {
 
+    /** Id of the default graph, used when no graph id is given. */
+    public static final String DEFAULT_GRAPH = "default";
+
+    /** TopicManager bound to the current thread while wiring a graph, null for the default. */
+    private static final ThreadLocal<TopicManager> boundManager = new ThreadLocal<>();
+
+    private static final Logger log = Logger.get(TopicManagerSingleton.class);
+
     /**
      * Inner static class that holds the singleton instance of TopicManager.
      */
     public static class TopicManager {
 
         // Define members
-        public static final TopicManager instance = new TopicManager(); // Singleton instance
+        public static final TopicManager instance = new TopicManager(DEFAULT_GRAPH); // Default instance
+        private final String graphId;             // Id of the graph this manager holds
         private ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>(); // Thread-safe map of topics
+        private volatile int historyCapacity = 0; // History size given to new topics, 0 when disabled
+        private volatile double dedupEpsilon = -1; // Dedup given to new topics, negative when disabled
+        private volatile TopicJournal journal;    // Journal given to new topics, null when disabled
+        private final ReentrantLock rewireLock = new ReentrantLock(); // Serializes the rewirings, never taken by publishers
+        private final Set<Topic> pendingTopics = new LinkedHashSet<>(); // Topics whose subscribers changed during the rewiring, guarded by itself
+        private Thread rewiring;                  // The thread rewiring the graph, guarded by pendingTopics
+        private final List<WiringListener> wiringListeners = new CopyOnWriteArrayList<>(); // Notified of wiring changes
+        private int nextTopicId = 0;              // Guarded by this
+        volatile Object wiring = new Object();    // Replaced on every change of the wiring, see Propagation
+        volatile Propagation.Ranks ranks;         // Ranks of the agents for join waves, computed when needed
 
         /**
          * Private constructor to prevent instantiation from other classes.
+         *
+         * @param graphId The id of the graph this manager holds.
+         */
+        private TopicManager(String graphId) {
+            this.graphId = graphId;
+        }
+
+        /**
+         * Method to get the id of the graph this manager holds.
+         *
+         * @return The graph id.
          */
-        private TopicManager() {}
+        public String getGraphId() {
+            return graphId;
+        }
 
         /**
          * Method to get the singleton instance of TopicManager.
@@ -39,7 +88,109 @@ public class TopicManagerSingleton {
          */
         public Topic getTopic(String name) {
             // ComputeIfAbsent ensures atomicity and thread safety
-            return topics.computeIfAbsent(name, k -> new Topic(k));
+            return topics.computeIfAbsent(name, k -> createTopic(k));
+        }
+
+        /**
+         * Creates a new topic, enabling its history if a history capacity is set.
+         *
+         * @param name The name of the topic.
+         * @return The new topic.
+         */
+        private Topic createTopic(String name) {
+            Topic topic = registerTopic(name);
+            for (WiringListener listener : wiringListeners) {
+                listener.topicAdded(topic);
+            }
+            int capacity = historyCapacity;
+            if (capacity > 0) {
+                topic.enableHistory(capacity);
+            }
+            topic.setDedup(dedupEpsilon);
+            TopicJournal j = journal;
+            if (j != null) {
+                try {
+                    topic.setJournal(j);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return topic;
+        }
+
+        /**
+         * Sets the journal recording the publications of every topic, existing and future.
+         *
+         * @param journal The journal, or null to disable journaling.
+         * @throws IOException If a topic cannot be registered in the journal.
+         */
+        public void setJournal(TopicJournal journal) throws IOException {
+            this.journal = journal;
+            for (Topic topic : topics.values()) {
+                topic.setJournal(journal);
+            }
+        }
+
+        /**
+         * Gets the journal recording the publications of the topics.
+         *
+         * @return The journal, or null if journaling is disabled.
+         */
+        public TopicJournal getJournal() {
+            return journal;
+        }
+
+        /**
+         * Gives a new topic the next dense id.
+         *
+         * @param name The name of the topic.
+         * @return The new topic.
+         */
+        private synchronized Topic registerTopic(String name) {
+            return new Topic(name, nextTopicId++, this);
+        }
+
+        /**
+         * Sets the size of the history kept for every topic, existing and future.
+         *
+         * @param capacity The number of entries to keep per topic, or 0 to disable history.
+         */
+        public void setHistoryCapacity(int capacity) {
+            historyCapacity = capacity;
+            for (Topic topic : topics.values()) {
+                if (capacity > 0) {
+                    topic.enableHistory(capacity);
+                } else {
+                    topic.disableHistory();
+                }
+            }
+        }
+
+        /**
+         * Suppresses the publications that do not change the value of a topic, for every topic,
+         * existing and future. See {@link Topic#setDedup(double)}; single topics can be set too.
+         *
+         * @param epsilon The largest difference considered unchanged, 0 for exact equality, negative to disable.
+         */
+        public void setDedup(double epsilon) {
+            dedupEpsilon = epsilon;
+            for (Topic topic : topics.values()) {
+                topic.setDedup(epsilon);
+            }
+        }
+
+        /**
+         * Suppresses the unchanged publications of an agent, on the topics it publishes to.
+         *
+         * @param agent   The agent.
+         * @param epsilon The largest difference considered unchanged, 0 for exact equality, negative to disable.
+         */
+        public void setDedup(Agent agent, double epsilon) {
+            for (Topic topic : topics.values()) {
+                if (topic.pubs.contains(agent)) {
+                    topic.setDedup(epsilon);
+                }
+            }
         }
 
         /**
@@ -52,21 +203,163 @@ public class TopicManagerSingleton {
         }
 
         /**
-         * Method to clear all topics.
+         * Method to clear all topics. Topic ids start again from 0.
          */
         public void clear() {
-            topics.clear();
+            topics.clear(); // Not under the lock: topics are registered while holding a map bin lock
+            synchronized (this) {
+                nextTopicId = 0;
+            }
+            Tracing.clear(graphId); // The traced edges are gone with the topics
+            wiring = new Object();
+            for (WiringListener listener : wiringListeners) {
+                listener.cleared();
+            }
+        }
+
+        /**
+         * Applies a change to the wiring of the graph as one step, without stopping the publishers.
+         * <p>
+         * Publishing takes no lock: each topic delivers to an immutable snapshot of its subscribers. While
+         * the change runs, subscriptions and unsubscriptions update the subscriber lists but not the
+         * snapshots, so publications, including those made by the change, are still delivered along the
+         * old graph. When the change returns, or fails, the snapshots of the changed topics are replaced
+         * and every publication that starts afterwards sees the new graph. A publication already delivering
+         * may still reach an agent the change removed. Rewirings of the same graph run one at a time.
+         * </p>
+         *
+         * @param change The change to apply.
+         * @param <T>    The result type of the change.
+         * @return The result of the change.
+         * @throws Exception If the change fails.
+         */
+        public <T> T rewire(Callable<T> change) throws Exception {
+            rewireLock.lock();
+            boolean outermost = rewireLock.getHoldCount() == 1;
+            if (outermost) {
+                synchronized (pendingTopics) {
+                    rewiring = Thread.currentThread();
+                }
+            }
+            try {
+                return change.call();
+            } finally {
+                if (outermost) {
+                    synchronized (pendingTopics) {
+                        for (Topic topic : pendingTopics) {
+                            topic.refreshTargets(); // Switches the topic to the new subscribers
+                        }
+                        pendingTopics.clear();
+                        rewiring = null;
+                    }
+                }
+                rewireLock.unlock();
+            }
         }
 
         /**
-         * Method to print all topics.
+         * Called by a topic of this manager whose subscribers changed: takes its new snapshot of the
+         * subscribers at once, or when the rewiring in progress ends.
+         *
+         * @param topic The topic.
+         */
+        void subscribersChanged(Topic topic) {
+            synchronized (pendingTopics) {
+                if (rewiring != null) {
+                    pendingTopics.add(topic);
+                } else {
+                    topic.refreshTargets(); // Under the lock, so a rewiring starting now waits for it
+                }
+            }
+        }
+
+        /**
+         * Registers a listener notified of the wiring changes of this manager's topics.
+         *
+         * @param listener The listener to add.
+         */
+        public void addWiringListener(WiringListener listener) {
+            wiringListeners.add(listener);
+        }
+
+        /**
+         * Unregisters a wiring listener.
+         *
+         * @param listener The listener to remove.
+         */
+        public void removeWiringListener(WiringListener listener) {
+            wiringListeners.remove(listener);
+        }
+
+        // Notifications from the topics of this manager
+
+        void fireSubscribed(Topic topic, Agent agent) {
+            wiring = new Object();
+            for (WiringListener listener : wiringListeners) {
+                listener.subscribed(topic, agent);
+            }
+        }
+
+        void fireUnsubscribed(Topic topic, Agent agent) {
+            wiring = new Object();
+            for (WiringListener listener : wiringListeners) {
+                listener.unsubscribed(topic, agent);
+            }
+        }
+
+        void firePublisherAdded(Topic topic, Agent agent) {
+            wiring = new Object();
+            for (WiringListener listener : wiringListeners) {
+                listener.publisherAdded(topic, agent);
+            }
+        }
+
+        void firePublisherRemoved(Topic topic, Agent agent) {
+            wiring = new Object();
+            for (WiringListener listener : wiringListeners) {
+                listener.publisherRemoved(topic, agent);
+            }
+        }
+
+        /**
+         * Method to detach an agent from all topics, as a subscriber and as a publisher.
+         *
+         * @param agent The agent to detach.
+         */
+        public void detach(Agent agent) {
+            for (Topic topic : topics.values()) {
+                topic.unsubscribe(agent);
+                topic.removePublisher(agent);
+            }
+        }
+
+        /**
+         * Method to remove the topics that have neither subscribers nor publishers.
+         *
+         * @return The number of removed topics.
+         */
+        public int removeUnusedTopics() {
+            int removed = 0;
+            for (Topic topic : topics.values()) {
+                if (topic.subs.isEmpty() && topic.pubs.isEmpty() && topics.remove(topic.name, topic)) {
+                    removed++;
+                    for (WiringListener listener : wiringListeners) {
+                        listener.topicRemoved(topic);
+                    }
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Method to log all topics.
          */
         public void printTopics() {
             if (topics.isEmpty()) {
-                System.out.println("No topics available.");
+                log.info("no topics available", "graph", graphId);
             } else {
                 for (Topic topic : topics.values()) {
-                    System.out.println("Topic: " + topic.getName());
+                    log.info("topic", "graph", graphId, "name", topic.getName());
                 }
             }
         }
@@ -82,12 +375,92 @@ public class TopicManagerSingleton {
 
     }
 
+    /** TopicManagers of all graphs, by graph id. */
+    private static final ConcurrentHashMap<String, TopicManager> graphs = new ConcurrentHashMap<>();
+
+    static {
+        graphs.put(DEFAULT_GRAPH, TopicManager.instance);
+        MetricsRegistry.get().register(new GraphMetrics()); // Topic and agent metrics of all graphs
+    }
+
     /**
-     * Method to get the singleton instance of TopicManager.
+     * Method to get the TopicManager bound to the current thread, or the default instance.
      *
-     * @return The singleton instance of TopicManager.
+     * @return The current TopicManager.
      */
     public static TopicManager get() {
-        return TopicManager.instance;
+        TopicManager bound = boundManager.get();
+        return bound != null ? bound : TopicManager.instance;
+    }
+
+    /**
+     * Method to get the TopicManager of a graph, creating it if needed.
+     * A new graph keeps topic history and dedup like the default graph; the journal stays with the default graph.
+     *
+     * @param graphId The id of the graph, or null for the default graph.
+     * @return The TopicManager of the graph.
+     */
+    public static TopicManager get(String graphId) {
+        if (graphId == null || graphId.isEmpty()) {
+            return TopicManager.instance;
+        }
+        return graphs.computeIfAbsent(graphId, id -> {
+            TopicManager tm = new TopicManager(id);
+            tm.setHistoryCapacity(TopicManager.instance.historyCapacity);
+            tm.setDedup(TopicManager.instance.dedupEpsilon);
+            return tm;
+        });
+    }
+
+    /**
+     * Method to check whether a graph exists.
+     *
+     * @param graphId The id of the graph.
+     * @return true if the graph exists.
+     */
+    public static boolean exists(String graphId) {
+        return graphs.containsKey(graphId);
+    }
+
+    /**
+     * Method to remove a graph and clear its topics. The default graph is only cleared.
+     *
+     * @param graphId The id of the graph.
+     */
+    public static void remove(String graphId) {
+        TopicManager tm = DEFAULT_GRAPH.equals(graphId) ? graphs.get(graphId) : graphs.remove(graphId);
+        if (tm != null) {
+            tm.clear();
+        }
+    }
+
+    /**
+     * Method to get the ids of all graphs.
+     *
+     * @return An array of graph ids.
+     */
+    public static String[] getGraphIds() {
+        return graphs.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Binds a TopicManager to the current thread, so {@link #get()} returns it.
+     * Callers restore the previous binding when done:
+     * <pre>
+     * TopicManager previous = TopicManagerSingleton.bind(tm);
+     * try { ... } finally { TopicManagerSingleton.bind(previous); }
+     * </pre>
+     *
+     * @param tm The TopicManager to bind, or null to return to the default instance.
+     * @return The previously bound TopicManager, or null if none was bound.
+     */
+    public static TopicManager bind(TopicManager tm) {
+        TopicManager previous = boundManager.get();
+        if (tm == null || tm == TopicManager.instance) {
+            boundManager.remove();
+        } else {
+            boundManager.set(tm);
+        }
+        return previous;
     }
 }
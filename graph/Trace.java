@@ -0,0 +1,36 @@
+package graph;
+
+/**
+ * The trace of a sampled message, carried in {@link Message#trace}.
+ * <p>
+ * All messages caused by one sampled input share its trace id: a message created while an agent
+ * handles a traced message continues the trace one hop further. The timestamps are
+ * {@link System#nanoTime()} values, so they are only compared within the JVM.
+ * </p>
+ */
+public final class Trace {
+
+    /** The id shared by all messages of the trace. */
+    public final long traceId;
+
+    /** When the root message of the trace was created. */
+    public final long originNanos;
+
+    /** When this message was created. */
+    public final long createdNanos;
+
+    /** The number of agents between the root message and this one, 0 for the root. */
+    public final int hop;
+
+    Trace(long traceId, long originNanos, long createdNanos, int hop) {
+        this.traceId = traceId;
+        this.originNanos = originNanos;
+        this.createdNanos = createdNanos;
+        this.hop = hop;
+    }
+
+    @Override
+    public String toString() {
+        return "Trace{id=" + traceId + ", hop=" + hop + ", age=" + (createdNanos - originNanos) + "ns}";
+    }
+}
@@ -0,0 +1,450 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Causal tracing of messages through the agent graph.
+ * <p>
+ * A message created outside of any agent callback starts a trace with the probability
+ * {@link #SAMPLE_RATE}, set with {@code -Dtrace.sampleRate=0.01}; the default 0 disables tracing,
+ * and then nothing but a constant check is done. While an agent handles a traced message, the trace
+ * is the current trace of the thread, and every message the agent creates continues it; the messages created
+ * while handling an untraced message are never traced.
+ * </p>
+ * Each delivery of a traced message is recorded on its graph edge, from the topic to the agent:
+ * <ul>
+ *     <li>the queueing time, from the publication to the start of the callback: the time spent in the
+ *     queue of a {@link ParallelAgent}, or behind the earlier subscribers of a direct delivery</li>
+ *     <li>the compute time of the callback, without the deliveries it triggers downstream</li>
+ * </ul>
+ * The time since the origin of the trace is recorded for every topic a traced message reaches.
+ * {@link #criticalPath(String)} finds the path of the graph with the largest mean latency.
+ */
+public final class Tracing {
+
+    /** The probability that a message created outside of a callback starts a trace. */
+    public static final double SAMPLE_RATE = Math.max(0, Math.min(1, Double.parseDouble(System.getProperty("trace.sampleRate", "0"))));
+
+    /** Whether tracing is enabled. */
+    public static final boolean ENABLED = SAMPLE_RATE > 0;
+
+    private static final AtomicLong traceIds = new AtomicLong();
+
+    /** The traced callback running on the thread, innermost first. */
+    private static final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+    /** The scope of the callbacks of untraced messages, whose messages are never traced. */
+    private static final Scope UNTRACED = new Scope(null, null);
+
+    /** The statistics of each graph, by graph id. */
+    private static final Map<String, GraphStats> graphs = new ConcurrentHashMap<>();
+
+    private Tracing() {
+    }
+
+    /**
+     * A traced callback running on a thread.
+     */
+    static final class Scope {
+        final Trace trace;
+        final Scope parent;
+        long nested; // Time spent in deliveries triggered by the callback
+
+        Scope(Trace trace, Scope parent) {
+            this.trace = trace;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Latency statistics, in nanoseconds.
+     */
+    public static final class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            sum.add(nanos);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long c = count.sum();
+            return c == 0 ? 0 : (double) sum.sum() / c;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+    }
+
+    /**
+     * The statistics of the deliveries on one edge, from a topic to an agent.
+     */
+    public static final class EdgeStats {
+        public final String topic;
+        public final String agent;
+        public final Stats queue = new Stats();
+        public final Stats compute = new Stats();
+
+        EdgeStats(String topic, String agent) {
+            this.topic = topic;
+            this.agent = agent;
+        }
+
+        /**
+         * Returns the mean latency of the edge, queueing and compute.
+         *
+         * @return The mean in nanoseconds.
+         */
+        public double getMeanLatency() {
+            return queue.getMean() + compute.getMean();
+        }
+    }
+
+    /** The statistics of one graph. */
+    private static final class GraphStats {
+        final LongAdder traces = new LongAdder();
+        final Map<String, EdgeStats> edges = new ConcurrentHashMap<>();  // By topic and agent name
+        final Map<String, Stats> arrivals = new ConcurrentHashMap<>();   // Time since the origin, by topic name
+    }
+
+    /**
+     * Returns the trace of a new message: the next hop of the current trace inside a traced callback,
+     * a new trace if sampled outside of any callback, and null otherwise.
+     *
+     * @return The trace, or null.
+     */
+    static Trace forNewMessage() {
+        Scope scope = current.get();
+        long now = System.nanoTime();
+        if (scope == UNTRACED) {
+            return null; // Caused by an untraced message
+        }
+        if (scope != null) {
+            Trace trace = scope.trace;
+            return new Trace(trace.traceId, trace.originNanos, now, trace.hop + 1);
+        }
+        if (ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE) {
+            return new Trace(traceIds.incrementAndGet(), now, now, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Makes a trace the current trace of the thread, for the callback about to run.
+     *
+     * @param trace The trace of the delivered message.
+     * @return The scope to pass to {@link #exit(Scope)}.
+     */
+    static Scope enter(Trace trace) {
+        Scope scope = new Scope(trace, current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Ends a callback and restores the trace of the enclosing callback, if any.
+     *
+     * @param scope The scope returned by {@link #enter(Trace)}.
+     * @return The time the callback spent in the deliveries it triggered.
+     */
+    static long exit(Scope scope) {
+        if (scope.parent != null) {
+            current.set(scope.parent);
+        } else {
+            current.remove();
+        }
+        return scope.nested;
+    }
+
+    /**
+     * Starts the callbacks of an untraced message: the messages they create are not traced.
+     *
+     * @return The scope to pass to {@link #restore(Scope)}.
+     */
+    static Scope enterUntraced() {
+        Scope outer = current.get();
+        current.set(UNTRACED);
+        return outer;
+    }
+
+    /**
+     * Ends the callbacks of an untraced message.
+     *
+     * @param outer The scope returned by {@link #enterUntraced()}.
+     */
+    static void restore(Scope outer) {
+        if (outer != null) {
+            current.set(outer);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Charges the time of a delivery to the enclosing callback, which does not count it as compute time.
+     *
+     * @param nanos The duration of the delivery.
+     */
+    static void delivered(long nanos) {
+        Scope scope = current.get();
+        if (scope != null && scope != UNTRACED) {
+            scope.nested += nanos;
+        }
+    }
+
+    /**
+     * Records that a traced message reached a topic.
+     *
+     * @param graphId The graph of the topic, or null for an unmanaged topic.
+     * @param topic   The topic name.
+     * @param trace   The trace of the message.
+     * @param now     The time of the publication.
+     */
+    static void arrived(String graphId, String topic, Trace trace, long now) {
+        GraphStats stats = stats(graphId);
+        if (trace.hop == 0) {
+            stats.traces.increment();
+        }
+        stats.arrivals.computeIfAbsent(topic, t -> new Stats()).record(now - trace.originNanos);
+    }
+
+    /**
+     * Records a delivery on an edge.
+     *
+     * @param graphId      The graph of the topic, or null for an unmanaged topic.
+     * @param topic        The topic name.
+     * @param agent        The agent name.
+     * @param queueNanos   The time from the publication to the start of the callback.
+     * @param computeNanos The time of the callback, without the deliveries it triggered.
+     */
+    static void record(String graphId, String topic, String agent, long queueNanos, long computeNanos) {
+        EdgeStats edge = stats(graphId).edges.computeIfAbsent(topic + '\u0000' + agent, k -> new EdgeStats(topic, agent));
+        edge.queue.record(queueNanos);
+        edge.compute.record(computeNanos);
+    }
+
+    private static GraphStats stats(String graphId) {
+        return graphs.computeIfAbsent(graphId != null ? graphId : "", id -> new GraphStats());
+    }
+
+    /**
+     * Returns the number of traces started in a graph.
+     *
+     * @param graphId The graph id.
+     * @return The number of traces.
+     */
+    public static long getTraceCount(String graphId) {
+        GraphStats stats = graphs.get(graphId);
+        return stats == null ? 0 : stats.traces.sum();
+    }
+
+    /**
+     * Returns the statistics of the edge from a topic to an agent.
+     *
+     * @param graphId The graph id.
+     * @param topic   The topic name.
+     * @param agent   The agent name.
+     * @return The statistics, or null if no traced message went through the edge.
+     */
+    public static EdgeStats getEdge(String graphId, String topic, String agent) {
+        GraphStats stats = graphs.get(graphId);
+        return stats == null ? null : stats.edges.get(topic + '\u0000' + agent);
+    }
+
+    /**
+     * Returns the statistics of all traced edges of a graph.
+     *
+     * @param graphId The graph id.
+     * @return The edges.
+     */
+    public static List<EdgeStats> getEdges(String graphId) {
+        GraphStats stats = graphs.get(graphId);
+        return stats == null ? Collections.emptyList() : new ArrayList<>(stats.edges.values());
+    }
+
+    /**
+     * Returns the time from the origin of the traces to their arrival at a topic.
+     *
+     * @param graphId The graph id.
+     * @param topic   The topic name.
+     * @return The statistics, or null if no traced message reached the topic.
+     */
+    public static Stats getArrival(String graphId, String topic) {
+        GraphStats stats = graphs.get(graphId);
+        return stats == null ? null : stats.arrivals.get(topic);
+    }
+
+    /**
+     * Forgets the statistics of a graph, e.g. when it is reloaded.
+     *
+     * @param graphId The graph id.
+     */
+    public static void clear(String graphId) {
+        graphs.remove(graphId);
+    }
+
+    /**
+     * Finds the path of a graph with the largest sum of mean edge latencies: a chain of topics and the
+     * agents between them, from a topic to a topic. Edges without traced deliveries count as 0, and
+     * cycles are cut where they are entered a second time.
+     *
+     * @param graphId The graph id.
+     * @return The edges of the path in order, empty if nothing was traced.
+     */
+    public static List<EdgeStats> criticalPath(String graphId) {
+        GraphStats stats = graphs.get(graphId);
+        if (stats == null || stats.edges.isEmpty() || !TopicManagerSingleton.exists(graphId)) {
+            return Collections.emptyList();
+        }
+        // The topics each agent publishes to, from the wiring of the graph
+        Map<String, List<String>> outputs = new HashMap<>();
+        for (Topic topic : TopicManagerSingleton.get(graphId).getTopics().values()) {
+            for (Agent publisher : topic.pubs) {
+                outputs.computeIfAbsent(publisher.getName(), a -> new ArrayList<>()).add(topic.name);
+            }
+        }
+        // The traced edges leaving each topic
+        Map<String, List<EdgeStats>> leaving = new HashMap<>();
+        for (EdgeStats edge : stats.edges.values()) {
+            leaving.computeIfAbsent(edge.topic, t -> new ArrayList<>()).add(edge);
+        }
+
+        Map<String, Double> longest = new HashMap<>();    // Longest latency from a topic
+        Map<String, EdgeStats> next = new HashMap<>();    // First edge of that path
+        Set<String> visiting = new HashSet<>();
+        String start = null;
+        for (String topic : leaving.keySet()) {
+            double latency = longestFrom(topic, leaving, outputs, longest, next, visiting);
+            if (start == null || latency > longest.get(start)) {
+                start = topic;
+            }
+        }
+        List<EdgeStats> path = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String topic = start; topic != null && seen.add(topic); ) {
+            EdgeStats edge = next.get(topic);
+            if (edge == null) {
+                break;
+            }
+            path.add(edge);
+            topic = nextTopic(edge, outputs, longest);
+        }
+        return path;
+    }
+
+    /**
+     * Computes the longest path from a topic by depth-first search, memoized.
+     */
+    private static double longestFrom(String topic, Map<String, List<EdgeStats>> leaving, Map<String, List<String>> outputs,
+                                      Map<String, Double> longest, Map<String, EdgeStats> next, Set<String> visiting) {
+        Double known = longest.get(topic);
+        if (known != null) {
+            return known;
+        }
+        if (!visiting.add(topic)) {
+            return 0; // A cycle, cut here
+        }
+        double best = 0;
+        for (EdgeStats edge : leaving.getOrDefault(topic, Collections.emptyList())) {
+            double downstream = 0;
+            for (String output : outputs.getOrDefault(edge.agent, Collections.emptyList())) {
+                downstream = Math.max(downstream, longestFrom(output, leaving, outputs, longest, next, visiting));
+            }
+            double latency = edge.getMeanLatency() + downstream;
+            if (next.get(topic) == null || latency > best) {
+                best = latency;
+                next.put(topic, edge);
+            }
+        }
+        visiting.remove(topic);
+        longest.put(topic, best);
+        return best;
+    }
+
+    /**
+     * Returns the output of an edge's agent on the longest path, or null if the agent publishes nothing.
+     */
+    private static String nextTopic(EdgeStats edge, Map<String, List<String>> outputs, Map<String, Double> longest) {
+        String best = null;
+        for (String output : outputs.getOrDefault(edge.agent, Collections.emptyList())) {
+            if (best == null || longest.getOrDefault(output, 0.0) > longest.getOrDefault(best, 0.0)) {
+                best = output;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns a text report of a graph: the traced edges and the critical path.
+     *
+     * @param graphId The graph id.
+     * @return The report.
+     */
+    public static String report(String graphId) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Traces of graph %s: %d sampled at rate %s%n%n", graphId, getTraceCount(graphId), SAMPLE_RATE));
+        if (!ENABLED) {
+            out.append("Tracing is disabled, start the server with -Dtrace.sampleRate=0.01 to sample 1% of the inputs.\n");
+            return out.toString();
+        }
+        List<EdgeStats> edges = getEdges(graphId);
+        edges.sort((a, b) -> Double.compare(b.getMeanLatency(), a.getMeanLatency()));
+        out.append(String.format("%-40s %8s %12s %12s %12s %12s%n", "Edge", "count", "queue mean", "queue max", "compute mean", "compute max"));
+        for (EdgeStats edge : edges) {
+            out.append(String.format("%-40s %8d %12s %12s %12s %12s%n", edge.topic + " -> " + edge.agent, edge.queue.getCount(),
+                    duration(edge.queue.getMean()), duration(edge.queue.getMax()),
+                    duration(edge.compute.getMean()), duration(edge.compute.getMax())));
+        }
+
+        GraphStats stats = graphs.get(graphId);
+        if (stats != null && !stats.arrivals.isEmpty()) {
+            out.append(String.format("%n%-40s %8s %12s %12s%n", "Topic", "count", "since origin", "max"));
+            for (Map.Entry<String, Stats> arrival : new TreeMap<>(stats.arrivals).entrySet()) {
+                Stats s = arrival.getValue();
+                out.append(String.format("%-40s %8d %12s %12s%n", arrival.getKey(), s.getCount(), duration(s.getMean()), duration(s.getMax())));
+            }
+        }
+
+        List<EdgeStats> path = criticalPath(graphId);
+        out.append(String.format("%nCritical path, by mean latency:%n"));
+        double total = 0;
+        for (EdgeStats edge : path) {
+            total += edge.getMeanLatency();
+            out.append(String.format("  %-38s queue %10s  compute %10s  cumulative %10s%n", edge.topic + " -> " + edge.agent,
+                    duration(edge.queue.getMean()), duration(edge.compute.getMean()), duration(total)));
+        }
+        if (path.isEmpty()) {
+            out.append("  No traced deliveries yet.\n");
+        }
+        return out.toString();
+    }
+
+    private static String duration(double nanos) {
+        if (nanos >= 1e6) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
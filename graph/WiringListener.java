@@ -0,0 +1,62 @@
+package graph;
+
+/**
+ * Receives the changes to the wiring of a graph, so a model of the graph can be kept up to date
+ * without rescanning every topic.
+ * Listeners are registered on a TopicManager and called on the thread making the change,
+ * after the change is applied. Changes made by assigning {@link Topic#subs} or {@link Topic#pubs}
+ * directly are not reported.
+ */
+public interface WiringListener {
+
+	/**
+	 * Called when a topic is created.
+	 *
+	 * @param topic The new topic.
+	 */
+	default void topicAdded(Topic topic) {}
+
+	/**
+	 * Called when a topic is removed from its TopicManager.
+	 *
+	 * @param topic The removed topic.
+	 */
+	default void topicRemoved(Topic topic) {}
+
+	/**
+	 * Called when an agent subscribes to a topic.
+	 *
+	 * @param topic The topic.
+	 * @param agent The new subscriber.
+	 */
+	default void subscribed(Topic topic, Agent agent) {}
+
+	/**
+	 * Called when an agent unsubscribes from a topic.
+	 *
+	 * @param topic The topic.
+	 * @param agent The removed subscriber.
+	 */
+	default void unsubscribed(Topic topic, Agent agent) {}
+
+	/**
+	 * Called when an agent becomes a publisher of a topic.
+	 *
+	 * @param topic The topic.
+	 * @param agent The new publisher.
+	 */
+	default void publisherAdded(Topic topic, Agent agent) {}
+
+	/**
+	 * Called when an agent stops being a publisher of a topic.
+	 *
+	 * @param topic The topic.
+	 * @param agent The removed publisher.
+	 */
+	default void publisherRemoved(Topic topic, Agent agent) {}
+
+	/**
+	 * Called when all topics of the TopicManager are cleared.
+	 */
+	default void cleared() {}
+}
@@ -0,0 +1,257 @@
+package logging;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.MetricsRegistry;
+
+/**
+ * The writer of the log events of all {@link Logger}s.
+ * <p>
+ * Loggers copy the references of an event into a lock-free ring of preallocated slots and return;
+ * a background thread formats the events in order and writes them in batches, to {@code System.out}
+ * below {@link Level#WARN} and to {@code System.err} from it. When the ring is full the event is
+ * dropped and counted rather than blocking the logging thread. The ring holds
+ * {@code -Dlog.bufferSize} events, 8192 by default. Pending events are written at shutdown.
+ * </p>
+ */
+public final class AsyncLogWriter {
+
+    private static final long IDLE_NANOS = 1_000_000; // Sleep of the writer when the ring is empty
+
+    private static final AsyncLogWriter instance = new AsyncLogWriter(Integer.getInteger("log.bufferSize", 8192));
+
+    // The ring between the loggers and the writer thread, one array per field
+    private final int ringMask;
+    private final Level[] levels;
+    private final long[] times;
+    private final String[] loggers;
+    private final String[] threads;
+    private final String[] messages;
+    private final String[] keys1;
+    private final Object[] values1;
+    private final String[] keys2;
+    private final Object[] values2;
+    private final Throwable[] errors;
+    private final AtomicLongArray ringSeq; // Sequence stored in each slot, -1 while empty
+    private final AtomicLong tail = new AtomicLong(); // Next sequence claimed by a logger
+    private final AtomicLong head = new AtomicLong(); // Next sequence read by the writer
+    private final LongAdder dropped;
+
+    // Writer state, only touched by the writer thread
+    private final StringBuilder out = new StringBuilder(8192);
+    private final StringBuilder err = new StringBuilder(1024);
+
+    private final Thread writerThread;
+
+    /**
+     * Creates the writer and starts its thread.
+     *
+     * @param capacity The number of events the ring holds, rounded up to a power of two.
+     */
+    private AsyncLogWriter(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ringMask = size - 1;
+        levels = new Level[size];
+        times = new long[size];
+        loggers = new String[size];
+        threads = new String[size];
+        messages = new String[size];
+        keys1 = new String[size];
+        values1 = new Object[size];
+        keys2 = new String[size];
+        values2 = new Object[size];
+        errors = new Throwable[size];
+        ringSeq = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ringSeq.set(i, -1);
+        }
+        dropped = MetricsRegistry.get().counter("log_dropped_events_total",
+                "Log events dropped because the log ring was full.");
+
+        writerThread = new Thread(this::run, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "log-flush"));
+    }
+
+    /**
+     * Returns the writer of the process.
+     *
+     * @return The writer.
+     */
+    public static AsyncLogWriter get() {
+        return instance;
+    }
+
+    /**
+     * Hands an event over to the writer thread, or drops it if the ring is full.
+     */
+    void append(Level level, String logger, String msg, String key1, Object value1, String key2, Object value2, Throwable error) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head.get() > ringMask) {
+                dropped.increment(); // Full, never block the caller
+                return;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        int slot = (int) (seq & ringMask);
+        levels[slot] = level;
+        times[slot] = System.currentTimeMillis();
+        loggers[slot] = logger;
+        threads[slot] = Thread.currentThread().getName();
+        messages[slot] = msg;
+        keys1[slot] = key1;
+        values1[slot] = value1;
+        keys2[slot] = key2;
+        values2[slot] = value2;
+        errors[slot] = error;
+        ringSeq.lazySet(slot, seq); // Hand the event over to the writer
+    }
+
+    /**
+     * Waits until the events logged before the call are written, e.g. before a command line tool exits.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (head.get() < target && writerThread.isAlive()) {
+            LockSupport.parkNanos(IDLE_NANOS / 10);
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because the ring was full.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        while (true) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Formats and writes all events handed over so far.
+     *
+     * @return The number of events written.
+     */
+    private int drain() {
+        long h = head.get();
+        int count = 0;
+        while (true) {
+            int slot = (int) (h & ringMask);
+            if (ringSeq.get(slot) != h) {
+                break; // Nothing more handed over yet
+            }
+            format(slot, levels[slot].compareTo(Level.WARN) >= 0 ? err : out);
+            // Release the references so the values can be collected
+            loggers[slot] = null;
+            threads[slot] = null;
+            messages[slot] = null;
+            keys1[slot] = null;
+            values1[slot] = null;
+            keys2[slot] = null;
+            values2[slot] = null;
+            errors[slot] = null;
+            h++;
+            count++;
+            if ((count & 255) == 0) {
+                write(); // Keep the buffers small during long bursts
+                head.lazySet(h);
+            }
+        }
+        if (count > 0) {
+            write();
+            head.lazySet(h);
+        }
+        return count;
+    }
+
+    /**
+     * Formats the event of a slot as a logfmt line.
+     */
+    private void format(int slot, StringBuilder line) {
+        line.append("time=").append(Instant.ofEpochMilli(times[slot]))
+                .append(" level=").append(levels[slot].name())
+                .append(" logger=").append(loggers[slot]);
+        field(line, "thread", threads[slot]);
+        field(line, "msg", messages[slot]);
+        if (keys1[slot] != null) {
+            field(line, keys1[slot], values1[slot]);
+        }
+        if (keys2[slot] != null) {
+            field(line, keys2[slot], values2[slot]);
+        }
+        Throwable error = errors[slot];
+        if (error != null) {
+            field(line, "error", error.toString());
+            line.append('\n');
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        } else {
+            line.append('\n');
+        }
+    }
+
+    /**
+     * Appends a field, quoting the value if it contains spaces, quotes or equal signs.
+     */
+    private static void field(StringBuilder line, String key, Object value) {
+        line.append(' ').append(key).append('=');
+        String text = String.valueOf(value);
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Writes the formatted lines.
+     */
+    private void write() {
+        write(System.out, out);
+        write(System.err, err);
+    }
+
+    private static void write(PrintStream stream, StringBuilder lines) {
+        if (lines.length() > 0) {
+            stream.append(lines);
+            stream.flush();
+            lines.setLength(0);
+        }
+    }
+}
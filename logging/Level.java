@@ -0,0 +1,31 @@
+package logging;
+
+/**
+ * The levels of log events, from the most verbose to the most severe.
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    /** Disables logging when used as the threshold. */
+    OFF;
+
+    /**
+     * Parses a level name, ignoring case.
+     *
+     * @param name         The name, or null.
+     * @param defaultLevel The level returned for a null or unknown name.
+     * @return The level.
+     */
+    public static Level parse(String name, Level defaultLevel) {
+        if (name != null) {
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name.trim())) {
+                    return level;
+                }
+            }
+        }
+        return defaultLevel;
+    }
+}
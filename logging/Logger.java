@@ -0,0 +1,132 @@
+package logging;
+
+/**
+ * A named logger writing structured events through the {@link AsyncLogWriter}.
+ * <p>
+ * An event is a short constant message and up to two key/value fields, written as one logfmt line:
+ * {@code time=... level=INFO logger=servlets.TopicDisplayer thread=... msg="received" topic=A}.
+ * Logging an event copies its references into a lock-free ring and returns; the formatting and the
+ * writing happen on the writer thread, so request threads neither allocate nor contend on
+ * {@code System.out}. Values are formatted with {@code toString()} when written, so they should be
+ * immutable.
+ * </p>
+ * <p>
+ * The threshold is set once with {@code -Dlog.level=debug|info|warn|error|off}, default info. The
+ * enabled flags are constants, so a call below the threshold is removed by the JIT; callers that would
+ * compute or box a value guard it with {@link #DEBUG_ENABLED}.
+ * </p>
+ */
+public final class Logger {
+
+    /** The lowest level written. */
+    public static final Level THRESHOLD = Level.parse(System.getProperty("log.level"), Level.INFO);
+
+    /** Whether debug events are written. */
+    public static final boolean DEBUG_ENABLED = THRESHOLD.compareTo(Level.DEBUG) <= 0;
+
+    /** Whether info events are written. */
+    public static final boolean INFO_ENABLED = THRESHOLD.compareTo(Level.INFO) <= 0;
+
+    /** Whether warnings are written. */
+    public static final boolean WARN_ENABLED = THRESHOLD.compareTo(Level.WARN) <= 0;
+
+    /** Whether errors are written. */
+    public static final boolean ERROR_ENABLED = THRESHOLD.compareTo(Level.ERROR) <= 0;
+
+    private final String name;
+
+    private Logger(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the logger of a class, named after the class.
+     *
+     * @param type The class.
+     * @return The logger.
+     */
+    public static Logger get(Class<?> type) {
+        return new Logger(type.getName());
+    }
+
+    /**
+     * Returns the name of the logger.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void debug(String msg) {
+        if (DEBUG_ENABLED) {
+            AsyncLogWriter.get().append(Level.DEBUG, name, msg, null, null, null, null, null);
+        }
+    }
+
+    public void debug(String msg, String key, Object value) {
+        if (DEBUG_ENABLED) {
+            AsyncLogWriter.get().append(Level.DEBUG, name, msg, key, value, null, null, null);
+        }
+    }
+
+    public void debug(String msg, String key1, Object value1, String key2, Object value2) {
+        if (DEBUG_ENABLED) {
+            AsyncLogWriter.get().append(Level.DEBUG, name, msg, key1, value1, key2, value2, null);
+        }
+    }
+
+    public void info(String msg) {
+        if (INFO_ENABLED) {
+            AsyncLogWriter.get().append(Level.INFO, name, msg, null, null, null, null, null);
+        }
+    }
+
+    public void info(String msg, String key, Object value) {
+        if (INFO_ENABLED) {
+            AsyncLogWriter.get().append(Level.INFO, name, msg, key, value, null, null, null);
+        }
+    }
+
+    public void info(String msg, String key1, Object value1, String key2, Object value2) {
+        if (INFO_ENABLED) {
+            AsyncLogWriter.get().append(Level.INFO, name, msg, key1, value1, key2, value2, null);
+        }
+    }
+
+    public void warn(String msg) {
+        if (WARN_ENABLED) {
+            AsyncLogWriter.get().append(Level.WARN, name, msg, null, null, null, null, null);
+        }
+    }
+
+    public void warn(String msg, String key, Object value) {
+        if (WARN_ENABLED) {
+            AsyncLogWriter.get().append(Level.WARN, name, msg, key, value, null, null, null);
+        }
+    }
+
+    public void warn(String msg, Throwable error) {
+        if (WARN_ENABLED) {
+            AsyncLogWriter.get().append(Level.WARN, name, msg, null, null, null, null, error);
+        }
+    }
+
+    public void error(String msg) {
+        if (ERROR_ENABLED) {
+            AsyncLogWriter.get().append(Level.ERROR, name, msg, null, null, null, null, null);
+        }
+    }
+
+    public void error(String msg, Throwable error) {
+        if (ERROR_ENABLED) {
+            AsyncLogWriter.get().append(Level.ERROR, name, msg, null, null, null, null, error);
+        }
+    }
+
+    public void error(String msg, String key, Object value, Throwable error) {
+        if (ERROR_ENABLED) {
+            AsyncLogWriter.get().append(Level.ERROR, name, msg, key, value, null, null, error);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} are counted exactly; larger values fall into buckets whose
+ * width is 1/{@value #HALF} of their magnitude, so every recorded value is reported with a relative
+ * error below 1.6%. Recording is a single atomic increment and never allocates, so the histogram
+ * can be shared by any number of threads on hot paths. The whole positive long range is covered
+ * with a fixed set of buckets (about 30KB).
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS; // Values counted exactly
+    private static final int HALF = SUB_BUCKETS / 2;      // Buckets per power of two above that
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BITS) * HALF;
+
+    // Define members
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value to record, typically a latency in nanoseconds.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        totalSum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Records a value measured by a closed-loop client that meant to send a request every
+     * {@code expectedInterval}, correcting for coordinated omission: while a response was late the client
+     * sent nothing, so the requests it should have sent meanwhile are recorded with the latencies they
+     * would have seen, {@code value - expectedInterval}, {@code value - 2 * expectedInterval} and so on.
+     *
+     * @param value            The measured value.
+     * @param expectedInterval The interval between requests the client intended, 0 to record the value only.
+     */
+    public void recordCorrected(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    /**
+     * Adds all values recorded in another histogram to this one.
+     *
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        totalSum.add(other.totalSum.sum());
+        long otherMax = other.max.get();
+        long currentMax = max.get();
+        while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The count of values.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return The sum of values.
+     */
+    public long getSum() {
+        return totalSum.sum();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return The maximum, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The highest value equivalent to the bucket holding the percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * count);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Returns a one-line summary of the distribution, with values scaled to the given unit.
+     *
+     * @param unitDivisor The divisor applied to values, e.g. 1000 to report nanoseconds as microseconds.
+     * @param unitName    The name of the unit, e.g. "us".
+     * @return The summary.
+     */
+    public String summary(double unitDivisor, String unitName) {
+        return String.format("count=%d mean=%.1f%s p50=%.1f%s p90=%.1f%s p99=%.1f%s p99.9=%.1f%s max=%.1f%s",
+                getCount(),
+                getMean() / unitDivisor, unitName,
+                getValueAtPercentile(50) / unitDivisor, unitName,
+                getValueAtPercentile(90) / unitDivisor, unitName,
+                getValueAtPercentile(99) / unitDivisor, unitName,
+                getValueAtPercentile(99.9) / unitDivisor, unitName,
+                getMax() / unitDivisor, unitName);
+    }
+
+    /**
+     * Maps a value to its bucket index.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS; // >= 1
+        int top = (int) (value >>> shift);                               // in [HALF, SUB_BUCKETS)
+        return SUB_BUCKETS + (shift - 1) * HALF + (top - HALF);
+    }
+
+    /**
+     * Returns the highest value that maps to the given bucket.
+     */
+    private static long highestEquivalentValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long top = (bucket - SUB_BUCKETS) % HALF + HALF;
+        long high = ((top + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+}
@@ -0,0 +1,191 @@
+package metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The metrics of the server, exported in the Prometheus text format.
+ * <p>
+ * Metrics come in two forms. Registered metrics are created once by name and labels and then updated
+ * by their owner: counters are {@link LongAdder}s, striped so concurrent increments do not contend,
+ * latencies are lock-free {@link LatencyHistogram}s, and gauges are read from a supplier when scraped.
+ * Collectors instead write metrics computed at scrape time, for objects too many or too short-lived to
+ * register one by one, such as the topics and agents of the graphs. Nothing is done on the hot paths
+ * but the update itself; all the formatting happens when the metrics are scraped.
+ * </p>
+ */
+public class MetricsRegistry {
+
+    /**
+     * Writes metrics computed when the registry is scraped.
+     */
+    public interface Collector {
+        /**
+         * Writes complete metric families.
+         *
+         * @param out The writer.
+         */
+        void collect(PrometheusWriter out);
+    }
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    /** A metric family: its type, help and metrics by label values. */
+    private static final class Family {
+        final String type;
+        final String help;
+        final Map<List<String>, Object> metrics = new ConcurrentHashMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>(); // Sorted by name
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Returns the registry of the server.
+     *
+     * @return The registry.
+     */
+    public static MetricsRegistry get() {
+        return instance;
+    }
+
+    /**
+     * Returns the counter of the given name and labels, creating it on first use. Callers on hot
+     * paths keep the counter rather than looking it up every time.
+     *
+     * @param name   The metric name, ending in _total.
+     * @param help   The description.
+     * @param labels The labels as name, value pairs.
+     * @return The counter.
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) metric(name, "counter", help, labels, LongAdder::new);
+    }
+
+    /**
+     * Returns the latency histogram of the given name and labels, creating it on first use.
+     * It is exported as a summary in seconds.
+     *
+     * @param name   The metric name, ending in _seconds.
+     * @param help   The description.
+     * @param labels The labels as name, value pairs.
+     * @return The histogram, recording nanoseconds.
+     */
+    public LatencyHistogram latency(String name, String help, String... labels) {
+        return (LatencyHistogram) metric(name, "summary", help, labels, LatencyHistogram::new);
+    }
+
+    /**
+     * Registers a gauge read when the metrics are scraped, replacing a gauge of the same name and labels.
+     *
+     * @param name   The metric name.
+     * @param help   The description.
+     * @param value  Supplies the value.
+     * @param labels The labels as name, value pairs.
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, "gauge", help).metrics.put(labelList(labels), value);
+    }
+
+    /**
+     * Removes a registered metric.
+     *
+     * @param name   The metric name.
+     * @param labels The labels as name, value pairs.
+     */
+    public void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.metrics.remove(List.of(labels));
+        }
+    }
+
+    /**
+     * Adds a collector.
+     *
+     * @param collector The collector.
+     */
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    /**
+     * Removes a collector.
+     *
+     * @param collector The collector.
+     */
+    public void unregister(Collector collector) {
+        collectors.remove(collector);
+    }
+
+    private Object metric(String name, String type, String help, String[] labels, Supplier<Object> create) {
+        return family(name, type, help).metrics.computeIfAbsent(labelList(labels), l -> create.get());
+    }
+
+    private static List<String> labelList(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        }
+        return List.of(labels);
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes all metrics.
+     *
+     * @param out The writer.
+     */
+    public void write(PrometheusWriter out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            if (family.metrics.isEmpty()) {
+                continue;
+            }
+            out.family(name, family.type, family.help);
+            for (Map.Entry<List<String>, Object> metric : family.metrics.entrySet()) {
+                String[] labels = metric.getKey().toArray(new String[0]);
+                Object value = metric.getValue();
+                if (value instanceof LongAdder) {
+                    out.sample(name, labels, ((LongAdder) value).sum());
+                } else if (value instanceof LatencyHistogram) {
+                    out.summary(name, labels, (LatencyHistogram) value);
+                } else {
+                    out.sample(name, labels, ((LongSupplier) value).getAsLong());
+                }
+            }
+        }
+        for (Collector collector : collectors) {
+            collector.collect(out);
+        }
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text format.
+     *
+     * @return The metrics.
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder(4096);
+        write(new PrometheusWriter(text));
+        return text.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package metrics;
+
+import java.util.Locale;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4.
+ * <p>
+ * Callers start every metric family with {@link #family} and then write all of its samples, since the
+ * format requires the samples of a family to be adjacent. Label values are escaped; names are not
+ * checked. Durations are recorded in nanoseconds and written in seconds, as Prometheus expects.
+ * </p>
+ */
+public class PrometheusWriter {
+
+    /** The content type of the format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder out;
+
+    /**
+     * Creates a writer appending to a buffer.
+     *
+     * @param out The buffer.
+     */
+    public PrometheusWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a metric family.
+     *
+     * @param name The family name.
+     * @param type The type: counter, gauge, summary or histogram.
+     * @param help The description.
+     */
+    public void family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes a sample.
+     *
+     * @param name   The sample name.
+     * @param labels The labels as name, value pairs.
+     * @param value  The value.
+     */
+    public void sample(String name, String[] labels, long value) {
+        out.append(name);
+        labels(labels, null, null);
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes a sample.
+     *
+     * @param name   The sample name.
+     * @param labels The labels as name, value pairs.
+     * @param value  The value.
+     */
+    public void sample(String name, String[] labels, double value) {
+        out.append(name);
+        labels(labels, null, null);
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Writes a latency histogram as a summary in seconds: a few quantiles, the sum and the count.
+     *
+     * @param name      The family name.
+     * @param labels    The labels as name, value pairs.
+     * @param histogram The histogram, in nanoseconds.
+     */
+    public void summary(String name, String[] labels, LatencyHistogram histogram) {
+        for (double q : QUANTILES) {
+            out.append(name);
+            labels(labels, "quantile", format(q));
+            out.append(' ').append(format(histogram.getValueAtPercentile(q * 100) / 1e9)).append('\n');
+        }
+        sample(name + "_sum", labels, histogram.getSum() / 1e9);
+        sample(name + "_count", labels, histogram.getCount());
+    }
+
+    /**
+     * Writes a bucket histogram in seconds: the cumulative buckets, the sum and the count.
+     *
+     * @param name      The family name.
+     * @param labels    The labels as name, value pairs.
+     * @param histogram The histogram, in nanoseconds.
+     */
+    public void histogram(String name, String[] labels, BucketHistogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < BucketHistogram.BUCKETS; i++) {
+            cumulative += histogram.count(i);
+            out.append(name).append("_bucket");
+            labels(labels, "le", i < BucketHistogram.BUCKETS - 1 ? format(BucketHistogram.bound(i) / 1e9) : "+Inf");
+            out.append(' ').append(cumulative).append('\n');
+        }
+        sample(name + "_sum", labels, histogram.getSum() / 1e9);
+        sample(name + "_count", labels, cumulative);
+    }
+
+    private void labels(String[] labels, String extraName, String extraValue) {
+        if (labels.length == 0 && extraName == null) {
+            return;
+        }
+        out.append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            label(i > 0, labels[i], labels[i + 1]);
+        }
+        if (extraName != null) {
+            label(labels.length > 0, extraName, extraValue);
+        }
+        out.append('}');
+    }
+
+    private void label(boolean comma, String name, String value) {
+        if (comma) {
+            out.append(',');
+        }
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.9g", value).replaceAll("\\.?0+(e|$)", "$1");
+    }
+}
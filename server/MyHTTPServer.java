@@ -1,5 +1,7 @@
 package server;
 
+import logging.Logger;
+import metrics.MetricsRegistry;
 import servlets.Servlet;
 
 import java.io.*;
@@ -14,6 +16,8 @@ import java.net.ServerSocket;
  */
 public class MyHTTPServer extends Thread implements HTTPServer {
 
+    private static final Logger log = Logger.get(MyHTTPServer.class);
+
     /** Concurrent map to manage servlets for GET,POST,DELETE requests. */
     private ConcurrentHashMap<String, Servlet> getServlets = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, Servlet> postServlets = new ConcurrentHashMap<>();
@@ -112,9 +116,12 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                 try {
                     // Accept a new client connection
                     Socket clientSocket = serverSocket.accept();
+                    long acceptedAt = System.nanoTime();
 
                     // Handle the client request in a separate thread
                     requestHandlerPool.submit(() -> {
+                        String method = null;
+                        String route = "unmatched";
                         try {
                             Thread.sleep(125); // Delay to ensure proper request reception
                             BufferedReader requestReader = createBufferedReader(clientSocket);
@@ -124,6 +131,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                             ConcurrentHashMap<String, Servlet> servletMap;
 
                             if (requestInfo != null) {
+                                method = requestInfo.getHttpCommand();
                                 switch (requestInfo.getHttpCommand()) {
                                     case "GET":
                                         servletMap = getServlets;
@@ -150,18 +158,22 @@ public class MyHTTPServer extends Thread implements HTTPServer {
 
                                 // Handle the request using the matching servlet
                                 if (matchingServlet != null) {
+                                    route = bestMatchUri;
                                     matchingServlet.handle(requestInfo, clientSocket.getOutputStream());
                                 }
                             }
                             requestReader.close();
                         } catch (IOException | InterruptedException e) {
-                            e.printStackTrace();
+                            MetricsRegistry.get().counter("http_request_errors_total",
+                                    "Requests that failed with an I/O error.").increment();
+                            log.error("request failed", e);
                         } finally {
+                            recordRequest(method, route, System.nanoTime() - acceptedAt);
                             // Close the client connection
                             try {
                                 clientSocket.close();
                             } catch (IOException e) {
-                                e.printStackTrace();
+                                log.error("closing the connection failed", e);
                             }
                         }
                     });
@@ -173,10 +185,26 @@ public class MyHTTPServer extends Thread implements HTTPServer {
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("server failed", "port", port, e);
         }
     }
 
+    /**
+     * Records a handled request in the metrics of its route.
+     *
+     * @param method The HTTP command, or null if the request could not be parsed.
+     * @param route  The URI of the servlet that handled the request, or "unmatched".
+     * @param nanos  The time from accepting the connection to the end of the response.
+     */
+    private static void recordRequest(String method, String route, long nanos) {
+        String m = method != null ? method : "unknown";
+        MetricsRegistry registry = MetricsRegistry.get();
+        registry.counter("http_requests_total", "HTTP requests by method and route.",
+                "method", m, "route", route).increment();
+        registry.latency("http_request_duration_seconds", "Time from accepting the connection to the end of the response.",
+                "method", m, "route", route).record(nanos);
+    }
+
     /**
      * Creates a BufferedReader to read from the client socket.
      *
@@ -202,6 +230,14 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      */
     public void start() {
         isServerStopped = false;
+        if (requestHandlerPool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) requestHandlerPool;
+            String portLabel = String.valueOf(port);
+            MetricsRegistry.get().gauge("http_pool_queue_depth", "Accepted connections waiting for a handler thread.",
+                    () -> pool.getQueue().size(), "port", portLabel);
+            MetricsRegistry.get().gauge("http_pool_active_threads", "Handler threads busy with a request.",
+                    pool::getActiveCount, "port", portLabel);
+        }
         super.start();
     }
 
@@ -211,6 +247,8 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     public void close() {
         isServerStopped = true;
         requestHandlerPool.shutdownNow();
+        MetricsRegistry.get().remove("http_pool_queue_depth", "port", String.valueOf(port));
+        MetricsRegistry.get().remove("http_pool_active_threads", "port", String.valueOf(port));
     }
 
     /**
@@ -7,12 +7,16 @@ import java.util.*;
 import java.util.ArrayList;
 import java.util.List;
 
+import logging.Logger;
+
 /**
  * The RequestParser class is responsible for parsing HTTP requests from a BufferedReader.
  * It extracts HTTP command, URI, URI segments, parameters, and content from the request.
  */
 public class RequestParser {
 
+    private static final Logger log = Logger.get(RequestParser.class);
+
     /**
      * Parses an HTTP request from a BufferedReader and extracts relevant information.
      *
@@ -219,22 +223,22 @@ public class RequestParser {
         }
 
         /**
-         * Prints the details of the request for debugging purposes.
+         * Logs the details of the request at DEBUG level, for debugging purposes.
          * This includes the HTTP command, URI, URI segments, parameters, and content.
          */
         public void print() {
-            System.out.println("HTTP Command: " + httpCommand);
-            System.out.println("URI: " + uri);
-            System.out.println("URI Segments: ");
+            if (!Logger.DEBUG_ENABLED) {
+                return; // Nothing is logged, and the log writer thread is not started
+            }
+            log.debug("request", "command", httpCommand, "uri", uri);
             for (String segment : uriSegments) {
-                System.out.println("  - " + segment);
+                log.debug("uri segment", "segment", segment);
             }
-            System.out.println("Parameters: ");
             for (Map.Entry<String, String> entry : parameters.entrySet()) {
-                System.out.println("  " + entry.getKey() + " = " + entry.getValue());
+                log.debug("parameter", "name", entry.getKey(), "value", entry.getValue());
             }
             if (content != null) {
-                System.out.println("Content: " + new String(content));
+                log.debug("content", "text", new String(content));
             }
         }
     }
@@ -1,23 +1,59 @@
 package servlets;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import configs.GenericConfig;
 import configs.Graph;
+import configs.GraphAnalysis;
+import configs.Node;
 import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import logging.Logger;
 import server.RequestParser;
 import views.HtmlGraphWriter;
+import views.ResponseTemplate;
+import views.ViewStore;
 
 /**
  * This class is responsible for handling the loading of configuration files,
  * creating graphs, and generating corresponding HTML files.
+ * <p>
+ * The optional {@code graph} parameter names the graph instance the configuration is loaded into.
+ * Each graph has its own topics and agents, so uploading to one graph leaves the others running.
+ * </p>
+ * <p>
+ * Uploading to a graph that is already running hot reloads it: agents that did not change keep
+ * running with their state, and only added or removed agents are created or closed. The parameter
+ * {@code mode=replace} discards the running graph and creates the new one from scratch instead.
+ * </p>
+ * <p>
+ * Configurations may be in the text format or in the {@link configs.BinaryConfig binary format}.
+ * The parameter {@code conf} loads a configuration already in the graph's upload directory by name
+ * instead of uploading it, which suits large generated binary configurations.
+ * </p>
  */
 public class ConfLoader implements Servlet {
-    private PrintWriter clientOut;
+
+    private static final Logger log = Logger.get(ConfLoader.class);
+
+    // Error pages, encoded once
+    private static final ResponseTemplate CONFIG_NOT_UPLOADED = ResponseTemplate.html("200 OK",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>No configuration file selected. <br><br>Please select a file and try again</p>");
+    private static final ResponseTemplate INVALID_GRAPH = ResponseTemplate.html("400 Bad Request",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>Invalid graph id. <br><br>Please use letters, digits, '-' and '_' only</p>");
+    private static final ResponseTemplate GRAPH_HAS_CYCLE = ResponseTemplate.html("200 OK",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Warning!<br><br>The configuration describes a graph with a circle: {} <br><br>Please insert a graph without a cycle and try again.</p>");
+    private static final ResponseTemplate INVALID_INPUTS = ResponseTemplate.html("200 OK",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>Number of subs are not valid to the operation. <br><br>Please try again</p>");
+    /** The configurations created by the last successful upload, by graph id. */
+    private final Map<String, GenericConfig> activeConfigs = new ConcurrentHashMap<>();
+    /** Held while a configuration is loaded into a graph, so the uploads to one graph run one at a time. */
+    private final Map<String, Object> graphLocks = new ConcurrentHashMap<>();
 
     /**
      * Handles the client request and processes the configuration file.
@@ -28,198 +64,235 @@ public class ConfLoader implements Servlet {
      */
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
-        // Initialize PrintWriter for client response
-        clientOut = new PrintWriter(toClient);
-
-        // Clear existing topics in TopicManagerSingleton
-        TopicManagerSingleton.get().getTopics().clear();
-
-        // Retrieve the filename from the request parameters
-        String fileName = ri.getParameters().get("filename");
-
-        // Remove quotes from the filename if present
-        if (fileName != "") {
-            fileName = fileName.replace("\"", "");
-        }
-        else{ //if not upload a file
-            sendConfigNotUploadedError();
+        // Resolve the graph the configuration is loaded into
+        String graphId = graphIdOf(ri);
+        if (graphId == null) {
+            sendInvalidGraphError(toClient);
             return;
         }
+        TopicManager topicManager = TopicManagerSingleton.get(graphId);
 
-        // Retrieve the file content from the request body
-        String fileContent = new String(ri.getContent(), StandardCharsets.UTF_8);
+        // Uploaded configurations are kept per graph
+        String uploadDirectory = System.getProperty("user.dir") + "/uploads";
+        if (!TopicManagerSingleton.DEFAULT_GRAPH.equals(graphId)) {
+            uploadDirectory += "/" + graphId;
+        }
 
         Path filePath = null;
-        // If a filename is provided, save the file content
-        if (fileName != null) {
-            String currentWorkingDirectory = System.getProperty("user.dir") + "/uploads";
-            Path directoryPath = Paths.get(currentWorkingDirectory);
-            Files.createDirectories(directoryPath);
-            // Save the content as a .conf file
-            filePath = Paths.get(currentWorkingDirectory + "/" + fileName);
-            Files.writeString(filePath, fileContent);
+        String confName = ri.getParameters().get("conf");
+        if (confName != null) {
+            // Load a configuration already on the server by name, e.g. a large binary configuration
+            filePath = Paths.get(uploadDirectory, confName);
+            if (!confName.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*") || !Files.isRegularFile(filePath)) {
+                sendConfigNotUploadedError(toClient, graphId);
+                return;
+            }
         } else {
-            System.out.println("No file uploaded.");
+            // Retrieve the filename from the request parameters
+            String fileName = ri.getParameters().get("filename");
+
+            // Remove quotes from the filename if present
+            if (fileName != "") {
+                fileName = fileName.replace("\"", "");
+            }
+            else{ //if not upload a file
+                sendConfigNotUploadedError(toClient, graphId);
+                return;
+            }
+
+            // If a filename is provided, save the file content as is, text or binary
+            if (fileName != null) {
+                Path directoryPath = Paths.get(uploadDirectory);
+                Files.createDirectories(directoryPath);
+                filePath = Paths.get(uploadDirectory + "/" + fileName);
+                Files.write(filePath, ri.getContent());
+            } else {
+                log.warn("no file uploaded");
+            }
         }
 
         // Create and configure the graph from the config file
         GenericConfig config = new GenericConfig();
         config.setConfFile(String.valueOf(filePath));
+        config.setTopicManager(topicManager);
+        boolean replace = "replace".equals(ri.getParameters().get("mode"));
         try{
-            config.create();
+            // The running configuration is read, diffed and swapped by one upload at a time
+            synchronized (graphLocks.computeIfAbsent(graphId, id -> new Object())) {
+                GenericConfig previousConfig = activeConfigs.get(graphId);
+                if (previousConfig != null && !replace) {
+                    // Hot reload: keep unchanged agents and their state, other graphs keep running
+                    config.createFrom(previousConfig);
+                } else {
+                    // Full reload: stop the agents of this graph and clear its topics, publishers
+                    // see the old graph until the new one is complete
+                    activeConfigs.remove(graphId);
+                    topicManager.rewire(() -> {
+                        if (previousConfig != null) {
+                            previousConfig.close();
+                        }
+                        topicManager.clear();
+                        config.create();
+                        return null;
+                    });
+                }
+                activeConfigs.put(graphId, config);
+            }
         }
         catch(Exception e){
-            sendInputsError();
+            sendInputsError(toClient, graphId);
         }
 
-        // Create the graph from the topics
-        Graph graph = new Graph();
-        graph.createFromTopics();
+        // The graph of this graph instance, kept up to date as agents are wired
+        Graph graph = Graph.of(topicManager);
 
         // Check for cycles in the graph
-        if (graph.hasCycles()) {
-            // Send an HTML response indicating the graph has cycles
-            sendWarningCyclesMsg();
+        GraphAnalysis analysis;
+        synchronized (graph) {
+            analysis = graph.analyze();
+        }
+        if (analysis.hasCycles()) {
+            // Send an HTML response indicating the graph has cycles, naming one of them
+            // The names come from the uploaded configuration, so they are escaped
+            StringBuilder cycle = new StringBuilder();
+            for (Node node : analysis.getCycle()) {
+                appendEscaped(cycle, node.getName());
+                cycle.append(" &rarr; ");
+            }
+            appendEscaped(cycle, analysis.getCycle().get(0).getName());
+            sendWarningCyclesMsg(toClient, graphId, cycle.toString());
             return;
         }
 
-        // Generate the HTML representation of the graph
-        HtmlGraphWriter.getGraphHTML(graph);
-
-        // Send the generated graph HTML to the client
-        sendHtmlResponse("graph.html");
+        // Render the graph view in memory; large graphs are loaded by the page in pages
+        ViewStore.View view;
+        synchronized (graph) {
+            if (graph.size() > GraphJsonServlet.FULL_LIMIT) {
+                view = HtmlGraphWriter.getStreamingGraphHTML(graphId);
+            } else {
+                view = HtmlGraphWriter.getGraphHTML(graph, graphId);
+            }
+        }
 
-        // Clear the content of the temporary HTML file
-        clearFileContent(System.getProperty("user.dir") + "/html_files/temp.html");
+        // Send the rendered graph view to the client, and clear the message of the graph
+        view.send(toClient);
+        ViewStore.get().put(graphId, ViewStore.MESSAGE, ViewStore.EMPTY);
     }
 
     /**
-     * Closes the response writer.
+     * Returns the configuration created by the last successful upload to the default graph.
      *
-     * @throws IOException If an error occurs during closing.
+     * @return The active configuration, or null if none was uploaded.
      */
-    @Override
-    public void close() throws IOException {
-        if (clientOut != null) {
-            clientOut.close();
-        }
+    public GenericConfig getActiveConfig() {
+        return getActiveConfig(TopicManagerSingleton.DEFAULT_GRAPH);
     }
 
     /**
-     * Clears the content of the specified file.
+     * Returns the configuration created by the last successful upload to a graph.
      *
-     * @param filePath The path of the file to be cleared.
-     * @throws IOException If an error occurs during file handling.
+     * @param graphId The id of the graph.
+     * @return The active configuration, or null if none was uploaded.
      */
-    private void clearFileContent(String filePath) throws IOException {
-        Path path = Paths.get(filePath);
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
-            writer.print(""); // Write an empty string to clear the content
-        }
+    public GenericConfig getActiveConfig(String graphId) {
+        return activeConfigs.get(graphId);
     }
 
     /**
-     * Sends an HTML response to the client based on the specified HTML file.
+     * Returns the active configurations of all graphs.
      *
-     * @param htmlFileName The name of the HTML file to be sent.
-     * @throws IOException If an error occurs during file handling.
+     * @return A map of graph ids to configurations.
      */
-    private void sendHtmlResponse(String htmlFileName) throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        String htmlContent = HtmlLoader.readHtmlFile(new File(path + "/" + htmlFileName));
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + htmlContent.length());
-        clientOut.println();
-        clientOut.println(htmlContent);
-        clientOut.flush();
+    public Map<String, GenericConfig> getActiveConfigs() {
+        return activeConfigs;
     }
 
-    // Helper method to send an error message for configuration not uploaded
-    private void sendConfigNotUploadedError() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File errorFile = new File(path + "/temp.html");
-
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.print(""); // Write an empty string to clear the content
-        }
-
-        // Create an HTML error message
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>No configuration file selected. <br><br>Please select a file and try again</p>");
+    /**
+     * Sets the active configuration of the graph it was created in, e.g. after restoring a snapshot at startup.
+     *
+     * @param config The configuration that is now running.
+     */
+    public void setActiveConfig(GenericConfig config) {
+        activeConfigs.put(config.getTopicManager().getGraphId(), config);
+    }
 
-        // Write the error message to the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.write(errorMessage.toString());
+    /**
+     * Returns the graph id given by the {@code graph} request parameter.
+     * Graph ids are limited to letters, digits, '-' and '_' since they also name upload directories and snapshots.
+     *
+     * @param ri The request information.
+     * @return The graph id, the default graph id if none was given, or null if the id is invalid.
+     */
+    static String graphIdOf(RequestParser.RequestInfo ri) {
+        String graphId = ri.getParameters().get("graph");
+        if (graphId == null || graphId.isEmpty()) {
+            return TopicManagerSingleton.DEFAULT_GRAPH;
         }
-
-        // Send the error message as a response
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + errorMessage.length());
-        clientOut.println();
-        clientOut.println(errorMessage.toString());
-        clientOut.flush();
+        return graphId.matches("[A-Za-z0-9_-]{1,64}") ? graphId : null;
     }
 
-    // Helper method to send an error message for configuration not uploaded
-    private void sendWarningCyclesMsg() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File errorFile = new File(path + "/temp.html");
-
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.print(""); // Write an empty string to clear the content
+    /**
+     * Appends a string escaped for HTML text.
+     */
+    private static void appendEscaped(StringBuilder html, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    html.append("&amp;");
+                    break;
+                case '<':
+                    html.append("&lt;");
+                    break;
+                case '>':
+                    html.append("&gt;");
+                    break;
+                case '"':
+                    html.append("&quot;");
+                    break;
+                case '\'':
+                    html.append("&#39;");
+                    break;
+                default:
+                    html.append(c);
+            }
         }
+    }
 
-        // Create an HTML error message
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Warning!<br><br>The configuration describes a graph with a circle. <br><br>Please insert a graph without a cycle and try again.</p>");
-
-        // Write the error message to the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.write(errorMessage.toString());
-        }
+    @Override
+    public void close() throws IOException {
+        // Responses are written per request, nothing to close
+    }
 
-        // Send the error message as a response
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + errorMessage.length());
-        clientOut.println();
-        clientOut.println(errorMessage.toString());
-        clientOut.flush();
+    /**
+     * Shows a message for a graph: stores it as the graph's message view and sends it to the client.
+     *
+     * @param toClient The output stream to the client.
+     * @param graphId  The graph the message is about.
+     * @param message  The message.
+     * @throws IOException If an error occurs while writing.
+     */
+    private void sendMessage(OutputStream toClient, String graphId, ViewStore.View message) throws IOException {
+        ViewStore.get().put(graphId, ViewStore.MESSAGE, message).send(toClient);
     }
 
     // Helper method to send an error message for configuration not uploaded
-    private void sendInputsError() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File errorFile = new File(path + "/temp.html");
-
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.print(""); // Write an empty string to clear the content
-        }
+    private void sendConfigNotUploadedError(OutputStream toClient, String graphId) throws IOException {
+        sendMessage(toClient, graphId, CONFIG_NOT_UPLOADED.view());
+    }
 
-        // Create an HTML error message
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>Number of subs are not valid to the operation. <br><br>Please try again</p>");
+    // Helper method to send an error message for an invalid graph id
+    private void sendInvalidGraphError(OutputStream toClient) throws IOException {
+        INVALID_GRAPH.send(toClient);
+    }
 
-        // Write the error message to the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.write(errorMessage.toString());
-        }
+    // Helper method to send a warning naming a cycle of the graph
+    private void sendWarningCyclesMsg(OutputStream toClient, String graphId, String cycle) throws IOException {
+        sendMessage(toClient, graphId, GRAPH_HAS_CYCLE.view(cycle));
+    }
 
-        // Send the error message as a response
-        clientOut.println("HTTP/1.1 200 OK");
-        clientOut.println("Content-Type: text/html");
-        clientOut.println("Connection: close");
-        clientOut.println("Content-Length: " + errorMessage.length());
-        clientOut.println();
-        clientOut.println(errorMessage.toString());
-        clientOut.flush();
+    // Helper method to send an error message for agents that cannot be created
+    private void sendInputsError(OutputStream toClient, String graphId) throws IOException {
+        sendMessage(toClient, graphId, INVALID_INPUTS.view());
     }
 }
@@ -0,0 +1,342 @@
+package servlets;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import configs.Graph;
+import configs.GraphAnalysis;
+import configs.Node;
+import graph.TopicManagerSingleton;
+import server.RequestParser;
+import views.ResponseTemplate;
+
+/**
+ * The GraphJsonServlet serves the nodes and edges of a graph as JSON, so large graphs can be drawn
+ * incrementally instead of from one HTML page holding the whole graph.
+ * <p>
+ * Supported parameters:
+ * {@code graph} selects the graph instance;
+ * {@code lod} is {@code full} for the nodes themselves or {@code cluster} for an overview where nodes
+ * are grouped by depth, and defaults to {@code cluster} for graphs of more than {@link #FULL_LIMIT} nodes;
+ * {@code offset} and {@code limit} page through the nodes in full mode, each page carrying the edges
+ * leaving its nodes;
+ * {@code clusters} is the maximum number of clusters, and {@code cluster} restricts full mode to the
+ * nodes of one cluster.
+ * </p>
+ * Every response carries the graph {@code version}; a client paging through a graph starts over
+ * when it changes. The response is written as it is produced, without buffering it whole.
+ */
+public class GraphJsonServlet implements Servlet {
+
+    /** Graphs with more nodes are shown as clusters unless full mode is requested. */
+    public static final int FULL_LIMIT = Integer.getInteger("graph.fullLimit", 2000);
+
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10000;
+    private static final int DEFAULT_CLUSTERS = 100;
+    private static final int MAX_CLUSTERS = 1000;
+
+    // Error responses, encoded once
+    private static final ResponseTemplate NO_SUCH_GRAPH = ResponseTemplate.json("404 Not Found", "{\"error\":\"no such graph\"}");
+    private static final ResponseTemplate INVALID_PAGE = ResponseTemplate.json("400 Bad Request", "{\"error\":\"invalid offset, limit or cluster\"}");
+    private static final ResponseTemplate INVALID_LOD = ResponseTemplate.json("400 Bad Request", "{\"error\":\"lod must be full or cluster\"}");
+
+    /** The last snapshot taken of each graph, reused while the graph does not change. */
+    private final Map<Graph, Snapshot> snapshots = new IdentityHashMap<>();
+
+    @Override
+    public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientOutput) throws IOException {
+        Map<String, String> params = requestInfo.getParameters();
+        String graphId = ConfLoader.graphIdOf(requestInfo);
+        if (graphId == null || !TopicManagerSingleton.exists(graphId)) {
+            NO_SUCH_GRAPH.send(clientOutput);
+            return;
+        }
+
+        int offset;
+        int limit;
+        int clusters;
+        int cluster;
+        try {
+            offset = Math.max(0, Integer.parseInt(params.getOrDefault("offset", "0")));
+            limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)))));
+            clusters = Math.max(1, Math.min(MAX_CLUSTERS, Integer.parseInt(params.getOrDefault("clusters", String.valueOf(DEFAULT_CLUSTERS)))));
+            cluster = Integer.parseInt(params.getOrDefault("cluster", "-1"));
+        } catch (NumberFormatException e) {
+            INVALID_PAGE.send(clientOutput);
+            return;
+        }
+
+        Snapshot snapshot = snapshotOf(Graph.of(TopicManagerSingleton.get(graphId)));
+        String lod = params.get("lod");
+        if (lod == null) {
+            lod = snapshot.size() > FULL_LIMIT && cluster < 0 ? "cluster" : "full";
+        }
+        if (!lod.equals("cluster") && !lod.equals("full")) {
+            INVALID_LOD.send(clientOutput);
+            return;
+        }
+
+        clientOutput.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Cache-Control: no-store\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(clientOutput, StandardCharsets.UTF_8), 1 << 16);
+        out.write("{\"graph\":\"" + graphId + "\",\"version\":" + snapshot.version + ",\"total\":" + snapshot.size()
+                + ",\"lod\":\"" + lod + "\",");
+        if (lod.equals("cluster")) {
+            writeClusters(out, snapshot, clusters);
+        } else {
+            writeNodes(out, snapshot, offset, limit, cluster < 0 ? null : snapshot.bands(clusters), cluster);
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Writes a page of nodes, and the edges leaving them.
+     *
+     * @param bands   The cluster of each node, or null to page through all nodes.
+     * @param cluster The cluster to page through when bands is given; only edges within it are written.
+     */
+    private void writeNodes(Writer out, Snapshot snapshot, int offset, int limit, int[] bands, int cluster) throws IOException {
+        // Select the nodes of the page; offsets count the nodes of the cluster only
+        int n = snapshot.size();
+        int[] page = new int[Math.min(limit, n)];
+        int count = 0;
+        boolean more = false;
+        int seen = 0;
+        for (int v = bands == null ? Math.min(offset, n) : 0; v < n; v++) {
+            if (bands != null && (bands[v] != cluster || seen++ < offset)) {
+                continue;
+            }
+            if (count == limit) {
+                more = true;
+                break;
+            }
+            page[count++] = v;
+        }
+
+        out.write("\"nodes\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"id\":" + page[i] + ",\"label\":\"");
+            writeEscaped(out, snapshot.names[page[i]]);
+            out.write("\"}");
+        }
+        out.write("],\"links\":[");
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            int v = page[i];
+            for (int e = snapshot.offsets[v]; e < snapshot.offsets[v + 1]; e++) {
+                int target = snapshot.targets[e];
+                if (bands != null && bands[target] != cluster) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("{\"source\":" + v + ",\"target\":" + target + "}");
+            }
+        }
+        out.write("],\"next\":" + (more ? String.valueOf(offset + count) : "null"));
+    }
+
+    /**
+     * Writes the nodes grouped into clusters of consecutive depths, and the number of edges between clusters.
+     */
+    private void writeClusters(Writer out, Snapshot snapshot, int maxClusters) throws IOException {
+        int n = snapshot.size();
+        int[] bands = snapshot.bands(maxClusters);
+        GraphAnalysis analysis = snapshot.analysis();
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            count = Math.max(count, bands[v] + 1);
+        }
+
+        int[] size = new int[count];
+        int[] topics = new int[count];
+        int[] minDepth = new int[count];
+        int[] maxDepth = new int[count];
+        boolean[] cyclic = new boolean[count];
+        Arrays.fill(minDepth, Integer.MAX_VALUE);
+        for (int v = 0; v < n; v++) {
+            int b = bands[v];
+            size[b]++;
+            if (snapshot.names[v].startsWith("T")) {
+                topics[b]++;
+            }
+            minDepth[b] = Math.min(minDepth[b], analysis.getDepth(v));
+            maxDepth[b] = Math.max(maxDepth[b], analysis.getDepth(v));
+            cyclic[b] |= analysis.isCyclic(analysis.getComponent(v));
+        }
+
+        // Count the edges between each pair of clusters
+        Map<Long, int[]> links = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            for (int e = snapshot.offsets[v]; e < snapshot.offsets[v + 1]; e++) {
+                int target = bands[snapshot.targets[e]];
+                if (target != bands[v]) {
+                    links.computeIfAbsent(((long) bands[v] << 32) | target, k -> new int[1])[0]++;
+                }
+            }
+        }
+
+        out.write("\"clusters\":[");
+        boolean first = true;
+        for (int b = 0; b < count; b++) {
+            if (size[b] == 0) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            String label = minDepth[b] == maxDepth[b] ? "depth " + minDepth[b] : "depth " + minDepth[b] + "-" + maxDepth[b];
+            out.write("{\"id\":" + b + ",\"label\":\"" + label + "\",\"size\":" + size[b]
+                    + ",\"topics\":" + topics[b] + ",\"agents\":" + (size[b] - topics[b])
+                    + ",\"cyclic\":" + cyclic[b] + "}");
+        }
+        out.write("],\"links\":[");
+        first = true;
+        for (Map.Entry<Long, int[]> link : links.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"source\":" + (link.getKey() >>> 32) + ",\"target\":" + (link.getKey() & 0xFFFFFFFFL)
+                    + ",\"count\":" + link.getValue()[0] + "}");
+        }
+        out.write(']');
+    }
+
+    /**
+     * Returns a snapshot of the graph, taking a new one if the graph changed since the last one.
+     */
+    private Snapshot snapshotOf(Graph graph) {
+        synchronized (snapshots) {
+            Snapshot snapshot = snapshots.get(graph);
+            synchronized (graph) {
+                if (snapshot == null || snapshot.version != graph.getVersion()) {
+                    snapshot = new Snapshot(graph);
+                    snapshots.put(graph, snapshot);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Writes a string escaped for a JSON string literal.
+     */
+    private static void writeEscaped(Writer out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (snapshots) {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * An immutable copy of a graph: node names, and the edges in compressed sparse row form
+     * indexed by the position of the nodes in the graph.
+     */
+    private static final class Snapshot {
+        final long version;
+        final String[] names;
+        final int[] offsets;
+        final int[] targets;
+        private GraphAnalysis analysis;
+        private int[] bands;
+        private int bandCount;
+
+        /**
+         * Copies the graph. The caller holds the graph's lock.
+         */
+        Snapshot(Graph graph) {
+            version = graph.getVersion();
+            int n = graph.size();
+            names = new String[n];
+            Map<Node, Integer> indexes = new IdentityHashMap<>(n * 2);
+            int edgeCount = 0;
+            for (int v = 0; v < n; v++) {
+                Node node = graph.get(v);
+                names[v] = node.getName();
+                indexes.put(node, v);
+                edgeCount += node.getEdges().size();
+            }
+            offsets = new int[n + 1];
+            int[] edges = new int[edgeCount];
+            int e = 0;
+            for (int v = 0; v < n; v++) {
+                offsets[v] = e;
+                for (Node target : graph.get(v).getEdges()) {
+                    Integer index = indexes.get(target);
+                    if (index != null) {
+                        edges[e++] = index;
+                    }
+                }
+            }
+            offsets[n] = e;
+            targets = edges;
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        synchronized GraphAnalysis analysis() {
+            if (analysis == null) {
+                analysis = new GraphAnalysis(names.length, offsets, targets);
+            }
+            return analysis;
+        }
+
+        /**
+         * Groups the nodes into at most maxClusters clusters of consecutive depths.
+         *
+         * @return The cluster of each node.
+         */
+        synchronized int[] bands(int maxClusters) {
+            if (bands == null || bandCount != maxClusters) {
+                GraphAnalysis analysis = analysis();
+                int levels = 0;
+                for (int v = 0; v < names.length; v++) {
+                    levels = Math.max(levels, analysis.getDepth(v) + 1);
+                }
+                int count = Math.min(maxClusters, Math.max(1, levels));
+                int[] result = new int[names.length];
+                for (int v = 0; v < names.length; v++) {
+                    result[v] = (int) ((long) analysis.getDepth(v) * count / levels);
+                }
+                bands = result;
+                bandCount = maxClusters;
+            }
+            return bands;
+        }
+    }
+}
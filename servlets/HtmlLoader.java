@@ -1,16 +1,31 @@
 package servlets;
 
 import server.RequestParser;
+import views.ResponseTemplate;
+import views.ViewStore;
 
 import java.io.*;
 
 /**
  * The HtmlLoader class handles HTTP requests and serves HTML content from the server.
- * It can serve HTML files and clear file content if needed.
+ * It serves HTML files, and the graph view and message of a graph from the {@link ViewStore}.
  */
 public class HtmlLoader implements Servlet {
     private final String basePath;
-    private PrintWriter outputToClient;
+
+    // Fixed pages, encoded once
+    private static final ResponseTemplate UPLOAD_FORM = ResponseTemplate.html("200 OK", "<!DOCTYPE html>" +
+            "<html>" +
+            "<body>" +
+            "<form action=\"http://localhost:8080/upload\" method=\"post\" enctype=\"multipart/form-data\">" +
+            "Select file to upload:" +
+            "<input type=\"file\" name=\"fileToUpload\" id=\"fileToUpload\">" +
+            "<input type=\"submit\" value=\"Upload File\" name=\"submit\">" +
+            "</form>" +
+            "</body>" +
+            "</html>");
+    private static final ResponseTemplate NOT_FOUND = ResponseTemplate.html("404 Not Found", "404 Not Found");
+    private static final ResponseTemplate BAD_REQUEST = ResponseTemplate.html("400 Bad Request", "400 Bad Request");
 
     /**
      * Constructor to initialize the base path for HTML files.
@@ -23,53 +38,37 @@ public class HtmlLoader implements Servlet {
 
     @Override
     public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientStream) throws IOException {
-        outputToClient = new PrintWriter(clientStream);
-
         // Extract the requested URI from the request information
         String requestedUri = requestInfo.getUri();
 
         // Serve an HTML form if the root URI or index.html is requested
         if ("/".equals(requestedUri) || "/index.html".equals(requestedUri)) {
-            String htmlForm = "<!DOCTYPE html>" +
-                    "<html>" +
-                    "<body>" +
-                    "<form action=\"http://localhost:8080/upload\" method=\"post\" enctype=\"multipart/form-data\">" +
-                    "Select file to upload:" +
-                    "<input type=\"file\" name=\"fileToUpload\" id=\"fileToUpload\">" +
-                    "<input type=\"submit\" value=\"Upload File\" name=\"submit\">" +
-                    "</form>" +
-                    "</body>" +
-                    "</html>";
-
-            outputToClient.println("HTTP/1.1 200 OK");
-            outputToClient.println("Content-Type: text/html");
-            outputToClient.println("Content-Length: " + htmlForm.length());
-            outputToClient.println();
-            outputToClient.println(htmlForm);
-            outputToClient.flush();
+            UPLOAD_FORM.send(clientStream);
             return;
         }
 
         // Handle requests for application-specific URIs
         if (requestedUri.startsWith("/app/")) {
-            // Extract the file name from the URI
+            // Extract the file name from the URI, without the query
             String htmlFileName = requestedUri.substring("/app/".length());
+            int queryIndex = htmlFileName.indexOf('?');
+            if (queryIndex >= 0) {
+                htmlFileName = htmlFileName.substring(0, queryIndex);
+            }
+
+            // The graph view and the message of a graph are rendered in memory, not read from files
+            if (htmlFileName.equals("temp.html") || htmlFileName.equals("graph.html")) {
+                sendView(requestInfo, htmlFileName.equals("graph.html") ? ViewStore.GRAPH : ViewStore.MESSAGE, clientStream);
+                return;
+            }
 
             // Verify the existence of the HTML file in the specified directory
             File htmlFile = new File(basePath + "/" + htmlFileName);
             if (!htmlFile.exists()) {
-                outputToClient.println("HTTP/1.1 404 Not Found");
-                outputToClient.println();
-                outputToClient.println("404 Not Found");
-                outputToClient.flush();
+                NOT_FOUND.send(clientStream);
                 return;
             }
 
-            // Clear the file content if the requested file is "temp.html" or "graph.html"
-            if (htmlFileName.equals("temp.html") || htmlFileName.equals("graph.html")) {
-                clearFileContents(htmlFile);
-            }
-
             // Read the HTML file content into a string
             String htmlContent = readHtmlFile(htmlFile);
 
@@ -87,10 +86,7 @@ public class HtmlLoader implements Servlet {
             clientStream.flush();
         } else {
             // Respond with a 400 Bad Request status for unknown URIs
-            outputToClient.println("HTTP/1.1 400 Bad Request");
-            outputToClient.println();
-            outputToClient.println("400 Bad Request");
-            outputToClient.flush();
+            BAD_REQUEST.send(clientStream);
         }
     }
 
@@ -113,21 +109,21 @@ public class HtmlLoader implements Servlet {
     }
 
     /**
-     * Clears the content of the specified file by writing an empty string to it.
+     * Sends a view of the graph given by the {@code graph} parameter, or an empty page if it has none yet.
      *
-     * @param file The file to be cleared.
-     * @throws IOException If an I/O error occurs.
+     * @param requestInfo  The request.
+     * @param name         The view name.
+     * @param clientStream The output stream to the client.
+     * @throws IOException If an error occurs while writing.
      */
-    private void clearFileContents(File file) throws IOException {
-        try (PrintWriter writer = new PrintWriter(file)) {
-            writer.print(""); // Write an empty string to clear the file content
-        }
+    private void sendView(RequestParser.RequestInfo requestInfo, String name, OutputStream clientStream) throws IOException {
+        String graphId = ConfLoader.graphIdOf(requestInfo);
+        ViewStore.View view = graphId != null ? ViewStore.get().get(graphId, name) : null;
+        (view != null ? view : ViewStore.EMPTY).send(clientStream);
     }
 
     @Override
     public void close() throws IOException {
-        if (outputToClient != null) {
-            outputToClient.close();
-        }
+        // Responses are written per request, nothing to close
     }
 }
@@ -0,0 +1,32 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import metrics.MetricsRegistry;
+import metrics.PrometheusWriter;
+import server.RequestParser;
+
+/**
+ * The MetricsServlet class serves the metrics of the server in the Prometheus text format:
+ * topic publications, agent callback latencies and mailbox depths, dropped messages, HTTP requests
+ * per route and the depth of the request handler pool.
+ */
+public class MetricsServlet implements Servlet {
+
+    @Override
+    public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientOutput) throws IOException {
+        byte[] body = MetricsRegistry.get().scrape().getBytes(StandardCharsets.UTF_8);
+        clientOutput.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: " + PrometheusWriter.CONTENT_TYPE + "\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        clientOutput.write(body);
+        clientOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
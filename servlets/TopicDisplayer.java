@@ -1,44 +1,55 @@
 package servlets;
 
-import java.io.File;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import graph.Message;
 import graph.TopicManagerSingleton;
+import logging.Logger;
 import server.RequestParser;
+import views.ResponseTemplate;
+import views.ViewStore;
 
 /**
  * The TopicDisplayer class handles HTTP requests, displays topics and their messages,
  * and provides responses with improved HTML styling.
+ * The optional {@code graph} parameter selects the graph instance to publish to.
  */
 public class TopicDisplayer implements Servlet {
 
-    // Concurrent map to store topics and their latest messages
-    private static final Map<String, String> topicMessageMap = new ConcurrentHashMap<>();
+    private static final Logger log = Logger.get(TopicDisplayer.class);
 
-    // PrintWriter for sending responses
-    private PrintWriter responseWriter;
-
-    // StringBuilder for building HTML content
-    StringBuilder htmlBuilder = new StringBuilder();
+    // Error pages, encoded once
+    private static final ResponseTemplate METHOD_NOT_ALLOWED = ResponseTemplate.html("405 Method Not Allowed",
+            "<html><body><h1>405 Method Not Allowed</h1></body></html>");
+    private static final ResponseTemplate MISSING_PARAMETER = ResponseTemplate.html("400 Bad Request",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>400 Bad Request: Missing topic or message parameter<br><br>Please insert a valid number and try again</p>");
+    private static final ResponseTemplate NOT_A_NUMBER = ResponseTemplate.html("400 Bad Request",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>Message content is not a valid number.<br><br>Please insert a valid number and try again</p>");
+    private static final ResponseTemplate TOPIC_NOT_EXIST = ResponseTemplate.html("200 OK",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>The topic you selected does not exist.<br><br>Please use an existing topic</p>");
+    private static final ResponseTemplate CONFIG_NOT_UPLOADED = ResponseTemplate.html("200 OK",
+            "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>There are no topics whose value can be updated yet.<br><br>Please upload a graph configuration and try again</p>");
 
     @Override
     public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientOutput) throws IOException {
         String httpMethod = requestInfo.getHttpCommand();
         Map<String, String> queryParams = requestInfo.getParameters();
-        responseWriter = new PrintWriter(clientOutput);
 
-        // Singleton instance to manage topics
-        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        // Topics of the requested graph, an unknown graph has no topics
+        String graphId = ConfLoader.graphIdOf(requestInfo);
+        TopicManagerSingleton.TopicManager topicManager = graphId != null && TopicManagerSingleton.exists(graphId)
+                ? TopicManagerSingleton.get(graphId) : null;
+
+        // Map of this graph's topics and their latest messages, built per request
+        Map<String, String> topicMessageMap = new LinkedHashMap<>();
+        StringBuilder htmlBuilder = new StringBuilder();
 
         // Check if any topics are present in the topic manager
-        if (!topicManager.getTopics().isEmpty()) {
+        if (topicManager != null && !topicManager.getTopics().isEmpty()) {
             // Populate the map with topics and their latest messages
             for (String topic : topicManager.getTopics().keySet()) {
                 if (topic.startsWith("T")) {
@@ -49,31 +60,18 @@ public class TopicDisplayer implements Servlet {
 
             // Only handle GET requests
             if (!"GET".equalsIgnoreCase(httpMethod)) {
-                responseWriter.println("HTTP/1.1 405 Method Not Allowed");
-                responseWriter.println("Content-Type: text/html");
-                responseWriter.println();
-                responseWriter.println("<html><body><h1>405 Method Not Allowed</h1></body></html>");
-                responseWriter.flush();
+                METHOD_NOT_ALLOWED.send(clientOutput);
                 return;
             }
 
             // Extract parameters from the request
             String requestedTopic = queryParams.get("topic");
             String messageContent = queryParams.get("message");
-
-
-            // Debug prints to check parameters
-            System.out.println("Received topic: " + requestedTopic);
-            System.out.println("Received message: " + messageContent);
+            log.debug("received", "topic", requestedTopic, "message", messageContent);
 
             // Validate presence of topic and message parameters
             if (requestedTopic == null || messageContent == null) {
-                responseWriter.println("HTTP/1.1 400 Bad Request");
-                responseWriter.println("Content-Type: text/html");
-                responseWriter.println();
-                responseWriter.println( "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>400 Bad Request: Missing topic or message parameter<br><br>Please insert a valid number and try again</p>");
-
-                responseWriter.flush();
+                MISSING_PARAMETER.send(clientOutput);
                 return;
             }
 
@@ -81,11 +79,7 @@ public class TopicDisplayer implements Servlet {
             try {
                 Double.parseDouble(messageContent); // Try parsing as a double
             } catch (NumberFormatException e) {
-                responseWriter.println("HTTP/1.1 400 Bad Request");
-                responseWriter.println("Content-Type: text/html");
-                responseWriter.println();
-                responseWriter.println( "<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>Message content is not a valid number.<br><br>Please insert a valid number and try again</p>");
-                responseWriter.flush();
+                NOT_A_NUMBER.send(clientOutput);
                 return;
             }
 
@@ -93,7 +87,7 @@ public class TopicDisplayer implements Servlet {
             Set<String> existingTopics = topicMessageMap.keySet();
             if (!existingTopics.contains(requestedTopic)) {
                 // Send error message if the topic does not exist
-                sendTopicNotExistError();
+                sendTopicNotExistError(clientOutput, graphId);
             } else {
                 // Publish the new message to the specified topic
                 topicManager.getTopic(requestedTopic.substring(1)).publish(new Message(messageContent));
@@ -137,94 +131,36 @@ public class TopicDisplayer implements Servlet {
                 htmlBuilder.append("</body>");
                 htmlBuilder.append("</html>");
 
-                // Send the HTML response to the client
-                clientOutput.write("HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.UTF_8));
-                clientOutput.write("Content-Type: text/html\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-                clientOutput.write(htmlBuilder.toString().getBytes(StandardCharsets.UTF_8));
-                clientOutput.flush();
-
-                // Clear the HTML builder
-                htmlBuilder.setLength(0);
+                // Keep the result as the graph's message view and send it to the client
+                ViewStore.get().put(graphId, ViewStore.MESSAGE, htmlBuilder.toString()).send(clientOutput);
             }
         } else {
             // Send an error message if no topics are available
-            sendConfigNotUploadedError();
+            sendConfigNotUploadedError(clientOutput, graphId);
         }
     }
 
     @Override
     public void close() throws IOException {
-        if (responseWriter != null) {
-            responseWriter.close();
-        }
+        // Responses are written per request, nothing to close
     }
 
     // Helper method to send an error message for nonexistent topics
-    private void sendTopicNotExistError() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File errorFile = new File(path + "/temp.html");
-
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.print(""); // Write an empty string to clear the content
-        }
-
-        // Create an HTML error message
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>The topic you selected does not exist.<br><br>Please use an existing topic</p>");
-
-        // Write the error message to the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.write(errorMessage.toString());
-        }
-
-        // Send the error message as a response
-        responseWriter.println("HTTP/1.1 200 OK");
-        responseWriter.println("Content-Type: text/html");
-        responseWriter.println("Connection: close");
-        responseWriter.println("Content-Length: " + errorMessage.length());
-        responseWriter.println();
-        responseWriter.println(errorMessage.toString());
-        responseWriter.flush();
+    private void sendTopicNotExistError(OutputStream clientOutput, String graphId) throws IOException {
+        sendMessage(clientOutput, graphId, TOPIC_NOT_EXIST);
     }
 
     // Helper method to send an error message for configuration not uploaded
-    private void sendConfigNotUploadedError() throws IOException {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File errorFile = new File(path + "/temp.html");
-
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.print(""); // Write an empty string to clear the content
-        }
-
-        // Create an HTML error message
-        StringBuilder errorMessage = new StringBuilder();
-        errorMessage.append("<p style='font-weight: bold; font-family: Arial, sans-serif; color: #ff0000;'>Error:<br><br>There are no topics whose value can be updated yet.<br><br>Please upload a graph configuration and try again</p>");
-
-        // Write the error message to the file
-        try (PrintWriter writer = new PrintWriter(errorFile)) {
-            writer.write(errorMessage.toString());
-        }
-
-        // Send the error message as a response
-        responseWriter.println("HTTP/1.1 200 OK");
-        responseWriter.println("Content-Type: text/html");
-        responseWriter.println("Connection: close");
-        responseWriter.println("Content-Length: " + errorMessage.length());
-        responseWriter.println();
-        responseWriter.println(errorMessage.toString());
-        responseWriter.flush();
+    private void sendConfigNotUploadedError(OutputStream clientOutput, String graphId) throws IOException {
+        sendMessage(clientOutput, graphId, CONFIG_NOT_UPLOADED);
     }
 
-    // Helper method to send the final HTML response
-    private void sendHtmlResponse() {
-        responseWriter.println("HTTP/1.1 200 OK");
-        responseWriter.println("Content-Type: text/html");
-        responseWriter.println("Connection: close");
-        responseWriter.println("Content-Length: " + htmlBuilder.length());
-        responseWriter.println();
-        responseWriter.println(htmlBuilder.toString());
-        responseWriter.flush();
+    // Helper method to show a message: kept as the message view of a valid graph, and sent to the client
+    private void sendMessage(OutputStream clientOutput, String graphId, ResponseTemplate message) throws IOException {
+        if (graphId != null) {
+            ViewStore.get().put(graphId, ViewStore.MESSAGE, message.view()).send(clientOutput);
+        } else {
+            message.send(clientOutput);
+        }
     }
 }
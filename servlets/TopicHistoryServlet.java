@@ -0,0 +1,135 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import graph.Topic;
+import graph.TopicHistory;
+import graph.TopicManagerSingleton;
+import server.RequestParser;
+import views.ResponseTemplate;
+
+/**
+ * The TopicHistoryServlet class serves the recorded history of a topic as JSON,
+ * so dashboards can draw sparklines and compute moving windows.
+ * <p>
+ * Supported parameters: {@code topic} (required), and either {@code count} for the latest
+ * entries or {@code from}/{@code to} (milliseconds since the epoch) for a time range.
+ * The optional {@code graph} parameter selects the graph instance.
+ * </p>
+ */
+public class TopicHistoryServlet implements Servlet {
+
+    /** Number of entries returned when no count or range is given. */
+    private static final int DEFAULT_COUNT = 100;
+
+    // Error responses, encoded once
+    private static final ResponseTemplate NO_HISTORY = ResponseTemplate.json("404 Not Found", "{\"error\":\"no history for topic\"}");
+    private static final ResponseTemplate INVALID_RANGE = ResponseTemplate.json("400 Bad Request", "{\"error\":\"invalid count or range\"}");
+
+    @Override
+    public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientOutput) throws IOException {
+        Map<String, String> queryParams = requestInfo.getParameters();
+        String topicName = queryParams.get("topic");
+
+        String graphId = ConfLoader.graphIdOf(requestInfo);
+        Topic topic = null;
+        if (topicName != null && graphId != null && TopicManagerSingleton.exists(graphId)) {
+            TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get(graphId);
+            topic = topicManager.getTopics().get(topicName);
+            // Accept the "T" prefixed names shown in the graph view as well
+            if (topic == null && topicName.startsWith("T")) {
+                topic = topicManager.getTopics().get(topicName.substring(1));
+            }
+        }
+        if (topic == null || topic.getHistory() == null) {
+            NO_HISTORY.send(clientOutput);
+            return;
+        }
+
+        TopicHistory history = topic.getHistory();
+        long[] timestamps;
+        double[] values;
+        int count;
+        try {
+            if (queryParams.containsKey("from") || queryParams.containsKey("to")) {
+                long from = Long.parseLong(queryParams.getOrDefault("from", String.valueOf(Long.MIN_VALUE)));
+                long to = Long.parseLong(queryParams.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+                int matched = history.count(from, to);
+                timestamps = new long[matched];
+                values = new double[matched];
+                count = history.range(from, to, timestamps, values); // At most the entries counted
+            } else {
+                int requested = Integer.parseInt(queryParams.getOrDefault("count", String.valueOf(DEFAULT_COUNT)));
+                requested = Math.max(0, Math.min(requested, history.getCapacity()));
+                timestamps = new long[requested];
+                values = new double[requested];
+                count = history.latest(requested, timestamps, values);
+            }
+        } catch (NumberFormatException e) {
+            INVALID_RANGE.send(clientOutput);
+            return;
+        }
+
+        // Build the JSON response: {"topic":"A","points":[[time,value],...]}
+        StringBuilder json = new StringBuilder(32 + count * 32);
+        json.append("{\"topic\":\"");
+        appendEscaped(json, topic.getName());
+        json.append("\",\"points\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(timestamps[i]).append(',');
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+                json.append("null");
+            } else {
+                json.append(values[i]);
+            }
+            json.append(']');
+        }
+        json.append("]}");
+
+        sendResponse(clientOutput, "200 OK", json.toString());
+    }
+
+    /**
+     * Appends a string escaped for a JSON string literal.
+     */
+    private static void appendEscaped(StringBuilder json, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+    }
+
+    /**
+     * Sends a JSON response with the given status line.
+     *
+     * @param clientOutput The output stream to the client.
+     * @param status       The HTTP status, e.g. "200 OK".
+     * @param body         The JSON body.
+     * @throws IOException If an error occurs while writing.
+     */
+    private void sendResponse(OutputStream clientOutput, String status, String body) throws IOException {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        clientOutput.write(("HTTP/1.1 " + status + "\r\n").getBytes(StandardCharsets.UTF_8));
+        clientOutput.write("Content-Type: application/json\r\n".getBytes(StandardCharsets.UTF_8));
+        clientOutput.write(("Content-Length: " + bodyBytes.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        clientOutput.write(bodyBytes);
+        clientOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
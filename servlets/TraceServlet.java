@@ -0,0 +1,57 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import configs.Graph;
+import graph.TopicManagerSingleton;
+import graph.Tracing;
+import server.RequestParser;
+import views.HtmlGraphWriter;
+import views.ResponseTemplate;
+
+/**
+ * The TraceServlet class serves the traced latencies of a graph: the queueing and compute time of each
+ * edge from a topic to an agent, and the critical path, see {@link Tracing}.
+ * <p>
+ * Supported parameters: {@code graph} selects the graph instance; {@code format} is {@code text}
+ * (the default) for a report, or {@code html} to redraw the graph view with the latencies on its edges.
+ * </p>
+ */
+public class TraceServlet implements Servlet {
+
+    // Error responses, encoded once
+    private static final ResponseTemplate NO_SUCH_GRAPH = ResponseTemplate.json("404 Not Found", "{\"error\":\"no such graph\"}");
+    private static final ResponseTemplate INVALID_FORMAT = ResponseTemplate.json("400 Bad Request", "{\"error\":\"format must be text or html\"}");
+
+    @Override
+    public void handle(RequestParser.RequestInfo requestInfo, OutputStream clientOutput) throws IOException {
+        Map<String, String> params = requestInfo.getParameters();
+        String graphId = ConfLoader.graphIdOf(requestInfo);
+        if (graphId == null || !TopicManagerSingleton.exists(graphId)) {
+            NO_SUCH_GRAPH.send(clientOutput);
+            return;
+        }
+        String format = params.getOrDefault("format", "text");
+        if (format.equals("html")) {
+            // Redraws the graph view, which also updates the view shown by the application
+            HtmlGraphWriter.getGraphHTML(Graph.of(TopicManagerSingleton.get(graphId)), graphId).send(clientOutput);
+        } else if (format.equals("text")) {
+            byte[] body = Tracing.report(graphId).getBytes(StandardCharsets.UTF_8);
+            clientOutput.write(("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: text/plain; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            clientOutput.write(body);
+            clientOutput.flush();
+        } else {
+            INVALID_FORMAT.send(clientOutput);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -2,88 +2,94 @@ package views;
 import servlets.HtmlLoader;
 import configs.Graph;
 import configs.Node;
+import graph.TopicManagerSingleton;
+import graph.Tracing;
+import logging.Logger;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for generating an HTML representation of a graph.
  * <p>
- * This class provides a static method to create an HTML file that visualizes a {@link Graph}. It reads a template HTML file,
- * inserts nodes and edges information into it, and saves the result as a new HTML file.
+ * This class provides static methods to render a {@link Graph} as a page. They read a template HTML file,
+ * insert the nodes and edges information into it, and keep the result in the {@link ViewStore} as the
+ * graph view of the graph instance.
  * </p>
  */
 public class HtmlGraphWriter {
 
+    private static final Logger log = Logger.get(HtmlGraphWriter.class);
+
+    /** The templates, read once */
+    private static final Map<String, String> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Renders the graph view of the default graph instance.
+     *
+     * @param g The {@link Graph} object to be visualized.
+     * @return The stored view.
+     */
+    public static ViewStore.View getGraphHTML(Graph g) {
+        return getGraphHTML(g, TopicManagerSingleton.DEFAULT_GRAPH);
+    }
+
     /**
-     * Generates an HTML file representing the given graph.
+     * Renders the graph view of a graph instance.
      * <p>
-     * This method reads the content of the template HTML file (`temp_graph.html`), which should contain placeholders for nodes
-     * and edges. It then populates these placeholders with the nodes and edges of the provided {@link Graph} object and saves
-     * the resulting HTML content to a new file (`graph.html`).
+     * This method takes the template HTML file (`temp_graph.html`), which should contain placeholders for nodes
+     * and edges. It then populates these placeholders with the nodes and edges of the provided {@link Graph} object and stores
+     * the resulting page as the {@link ViewStore#GRAPH} view of the graph instance.
+     * When messages of the graph were traced, each edge from a topic to an agent is labelled with its mean
+     * queueing and compute time, and the edges of the critical path are highlighted; see {@link Tracing}.
      * </p>
      *
-     * @param g The {@link Graph} object to be visualized in the HTML file.
-     * @throws RuntimeException If an error occurs while reading or writing files.
+     * @param g       The {@link Graph} object to be visualized.
+     * @param graphId The id of the graph instance.
+     * @return The stored view.
      */
-    public static void getGraphHTML(Graph g) throws FileNotFoundException {
+    public static ViewStore.View getGraphHTML(Graph g, String graphId) {
 
-        // Read the content of the template HTML file
-        String path = System.getProperty("user.dir") + "/html_files";
-        String htmlContent = "";
-        try {
-            htmlContent = HtmlLoader.readHtmlFile(new File(path + "/temp_graph.html"));
-        } catch (Exception ignored) {
-            // Handle the exception or log the error as needed
-        }
+        // The template HTML file
+        String htmlContent = template("temp_graph.html");
 
         // Build the nodes data in the format required for the HTML file
         StringBuilder nodes = new StringBuilder();
-        Map<String, Integer> nodeToIndex = new HashMap<>();
+        Map<Node, Integer> nodeToIndex = new IdentityHashMap<>(); // By node, so a topic and an agent with the same name stay apart
         nodes.append("[ ");
         for (int i = 0; i < g.size(); i++) {
             Node node = g.get(i);
-            String nodeName = node.getName();
-
-            // Check and modify node name if it starts with 'T' or 'A'
-            if (nodeName.startsWith("T")) {
-                nodeName = nodeName.substring(1); // Remove 'T'
-            } else if (nodeName.startsWith("A")) {
-                nodeName = nodeName.substring(1); // Remove 'A'
-            }
-
             nodes.append("{id: ").append(i + 1).append(", label: \"").append(node.getName()).append("\"} ");
             if (i != g.size() - 1) {
                 nodes.append(", ");
             }
-            nodeToIndex.put(nodeName, i + 1);
+            nodeToIndex.put(node, i + 1);
         }
         nodes.append("];");
 
         // Build the edges data in the format required for the HTML file
+        Set<String> critical = criticalEdges(graphId);
         StringBuilder edges = new StringBuilder();
         edges.append("[ ");
         for (int i = 0; i < g.size(); i++) {
+            String source = g.get(i).getName();
             for (Node node : g.get(i).getEdges()) {
-
-                String targetName = node.getName();
-
-                // Check and modify target name if it starts with 'T' or 'A'
-                if (targetName.startsWith("T")) {
-                    targetName = targetName.substring(1); // Remove 'T'
-                } else if (targetName.startsWith("A")) {
-                    targetName = targetName.substring(1); // Remove 'A'
+                Integer index = nodeToIndex.get(node);
+                if (index == null) {
+                    continue; // Edge to a node outside the graph
                 }
-
-                int index = nodeToIndex.get(targetName);
-                edges.append("{source: ").append(i + 1).append(", target: ").append(index).append("}");
-                if (i != g.size() - 1) {
+                if (edges.length() > 2) {
                     edges.append(", ");
                 }
+                edges.append("{source: ").append(i + 1).append(", target: ").append(index);
+                appendLatency(edges, graphId, source, node.getName(), critical);
+                edges.append("}");
             }
         }
         edges.append("];");
@@ -92,28 +98,87 @@ public class HtmlGraphWriter {
         htmlContent = htmlContent.replace("NODE_PLACEHOLDER;", nodes);
         htmlContent = htmlContent.replace("LINK_PLACEHOLDER;", edges);
 
-        // Save the updated HTML content to a new file
-        try {
-            Files.write(Paths.get(path + "/graph.html"), htmlContent.getBytes());
+        return ViewStore.get().put(graphId, ViewStore.GRAPH, htmlContent);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Returns the edges of the critical path of a graph as "source\0target" node names, empty if nothing was traced.
+     *
+     * @param graphId The id of the graph instance.
+     * @return The edges.
+     */
+    private static Set<String> criticalEdges(String graphId) {
+        Set<String> critical = new HashSet<>();
+        if (!Tracing.ENABLED) {
+            return critical;
         }
+        List<Tracing.EdgeStats> path = Tracing.criticalPath(graphId);
+        for (int k = 0; k < path.size(); k++) {
+            Tracing.EdgeStats edge = path.get(k);
+            critical.add("T" + edge.topic + '\0' + "A" + edge.agent);
+            if (k + 1 < path.size()) {
+                critical.add("A" + edge.agent + '\0' + "T" + path.get(k + 1).topic);
+            }
+        }
+        return critical;
+    }
 
+    /**
+     * Appends the traced latency of an edge from a topic to an agent, and whether it is on the critical path.
+     *
+     * @param edges    The edges data.
+     * @param graphId  The id of the graph instance.
+     * @param source   The name of the source node.
+     * @param target   The name of the target node.
+     * @param critical The edges of the critical path.
+     */
+    private static void appendLatency(StringBuilder edges, String graphId, String source, String target, Set<String> critical) {
+        if (!Tracing.ENABLED) {
+            return;
+        }
+        if (source.startsWith("T") && target.startsWith("A")) {
+            Tracing.EdgeStats stats = Tracing.getEdge(graphId, source.substring(1), target.substring(1));
+            if (stats != null) {
+                edges.append(String.format(Locale.ROOT, ", label: \"q %.1f\\u00b5s / c %.1f\\u00b5s\"",
+                        stats.queue.getMean() / 1e3, stats.compute.getMean() / 1e3));
+            }
+        }
+        if (critical.contains(source + '\0' + target)) {
+            edges.append(", critical: true");
+        }
     }
 
     /**
-     * Clears the content of the temp.html file.
+     * Renders a graph view that loads the graph incrementally from the {@code /graph.json} endpoint,
+     * for graphs too large to inline into the page.
+     * <p>
+     * This method takes the template HTML file (`graph_stream.html`), sets the graph id it loads,
+     * and stores the result like {@link #getGraphHTML(Graph, String)}.
+     * </p>
+     *
+     * @param graphId The id of the graph instance to show.
+     * @return The stored view.
      */
-    private static void clearTempHtmlFile() {
-        String path = System.getProperty("user.dir") + "/html_files";
-        File tempFile = new File(path + "/temp.html");
+    public static ViewStore.View getStreamingGraphHTML(String graphId) {
+        String htmlContent = template("graph_stream.html").replace("GRAPH_PLACEHOLDER", graphId);
+        return ViewStore.get().put(graphId, ViewStore.GRAPH, htmlContent);
+    }
 
-        // Clear the existing content of the file
-        try (PrintWriter writer = new PrintWriter(tempFile)) {
-            writer.write(""); // Write an empty string to clear the content
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Returns a template of the html_files directory, reading it on first use.
+     *
+     * @param name The file name of the template.
+     * @return The template, empty if it cannot be read.
+     */
+    private static String template(String name) {
+        return templates.computeIfAbsent(name, n -> {
+            String path = System.getProperty("user.dir") + "/html_files";
+            try {
+                return HtmlLoader.readHtmlFile(new File(path + "/" + n));
+            } catch (IOException e) {
+                log.error("cannot read template", "file", n, e);
+                return "";
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -1,24 +1,82 @@
 package views;
 
+import configs.GenericConfig;
+import configs.GraphSnapshot;
+import graph.TopicJournal;
+import graph.TopicManagerSingleton;
+import logging.Logger;
 import server.HTTPServer;
 import server.MyHTTPServer;
 import servlets.ConfLoader;
+import servlets.GraphJsonServlet;
 import servlets.HtmlLoader;
+import servlets.MetricsServlet;
 import servlets.TopicDisplayer;
+import servlets.TopicHistoryServlet;
+import servlets.TraceServlet;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 
 public class Main {
+
+    private static final Logger log = Logger.get(Main.class);
+
     public static void main(String[] args) throws Exception {
 
+        // Keep a bounded history per topic when requested, e.g. -Dtopic.history=256
+        TopicManagerSingleton.get().setHistoryCapacity(Integer.getInteger("topic.history", 0));
+
+        // Suppress the publications that do not change a topic's value when requested, e.g. -Dtopic.dedup=0 for exact
+        TopicManagerSingleton.get().setDedup(Double.parseDouble(System.getProperty("topic.dedup", "-1")));
+
+        // Journal every publication when a directory is given, e.g. -Djournal.dir=journal
+        TopicJournal journal = null;
+        String journalDir = System.getProperty("journal.dir");
+        if (journalDir != null) {
+            journal = new TopicJournal(Paths.get(journalDir), 1 << 20, Integer.getInteger("journal.segments", 16),
+                    Long.getLong("journal.fsyncMillis", 1000), 1 << 16);
+            TopicManagerSingleton.get().setJournal(journal);
+        }
+
+        // Restore the graphs saved at the last shutdown, one <graph id>.snap per graph, e.g. -Dsnapshot.dir=snapshots
+        ConfLoader confLoader = new ConfLoader();
+        String snapshotDir = System.getProperty("snapshot.dir");
+        Path snapshotPath = snapshotDir != null ? Paths.get(snapshotDir) : null;
+        if (snapshotPath != null && Files.isDirectory(snapshotPath)) {
+            try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotPath, "*.snap")) {
+                for (Path snapshot : snapshots) {
+                    confLoader.setActiveConfig(GraphSnapshot.load(snapshot, null));
+                    log.info("restored snapshot", "path", snapshot);
+                }
+            }
+        }
+
         HTTPServer server = new MyHTTPServer(8080, 5);
 
         server.addServlet("GET", "/publish", new TopicDisplayer());
-        server.addServlet("POST", "/upload", new ConfLoader());
+        server.addServlet("POST", "/upload", confLoader);
         server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        server.addServlet("GET", "/graph.json", new GraphJsonServlet());
+        server.addServlet("GET", "/metrics", new MetricsServlet());
+        server.addServlet("GET", "/trace", new TraceServlet());
 
         server.start();
-        System.out.println("Server Start");
+        log.info("server started", "port", 8080);
         System.in.read();
         server.close();
-        System.out.println("done");
+        if (snapshotPath != null) {
+            for (Map.Entry<String, GenericConfig> entry : confLoader.getActiveConfigs().entrySet()) {
+                GraphSnapshot.save(entry.getValue(), snapshotPath.resolve(entry.getKey() + ".snap"));
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        log.info("server stopped");
     }
 }
@@ -0,0 +1,165 @@
+package views;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A complete HTTP response encoded once, such as an error page.
+ * <p>
+ * The body may contain {@code {}} slots that are filled in order when the response is sent. A response
+ * without slots is kept as a single byte array and sent as is; a response with slots is assembled into
+ * one array sized exactly, so sending it costs the encoding of the parameters and nothing else.
+ * Parameters are inserted as is, callers escape them if needed.
+ * </p>
+ */
+public final class ResponseTemplate {
+
+    private static final String SLOT = "{}";
+
+    private final byte[] head;    // Status line and headers up to the Content-Length value
+    private final byte[][] parts; // Body pieces around the slots
+    private final byte[] response; // The whole response, when there are no slots
+    private final ViewStore.View view; // The body as a view, when there are no slots
+
+    private ResponseTemplate(String status, String contentType, String body) {
+        head = ("HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Connection: close\r\n"
+                + "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+        List<byte[]> pieces = new ArrayList<>();
+        int from = 0;
+        for (int slot = body.indexOf(SLOT); slot >= 0; slot = body.indexOf(SLOT, from)) {
+            pieces.add(body.substring(from, slot).getBytes(StandardCharsets.UTF_8));
+            from = slot + SLOT.length();
+        }
+        pieces.add(body.substring(from).getBytes(StandardCharsets.UTF_8));
+        parts = pieces.toArray(new byte[0][]);
+        if (parts.length == 1) {
+            response = assemble(null);
+            view = ViewStore.View.of(parts[0]);
+        } else {
+            response = null;
+            view = null;
+        }
+    }
+
+    /**
+     * Creates an HTML response template.
+     *
+     * @param status The HTTP status, e.g. "400 Bad Request".
+     * @param body   The page, with a {@code {}} slot per parameter.
+     * @return The template.
+     */
+    public static ResponseTemplate html(String status, String body) {
+        return new ResponseTemplate(status, "text/html; charset=UTF-8", body);
+    }
+
+    /**
+     * Creates a JSON response template.
+     *
+     * @param status The HTTP status, e.g. "404 Not Found".
+     * @param body   The JSON body, with a {@code {}} slot per parameter.
+     * @return The template.
+     */
+    public static ResponseTemplate json(String status, String body) {
+        return new ResponseTemplate(status, "application/json", body);
+    }
+
+    /**
+     * Sends the response.
+     *
+     * @param out  The output stream to the client.
+     * @param args The values of the slots, in order.
+     * @throws IOException If an error occurs while writing.
+     */
+    public void send(OutputStream out, String... args) throws IOException {
+        out.write(response != null ? response : assemble(args));
+        out.flush();
+    }
+
+    /**
+     * Returns the body as a view that can be kept in the {@link ViewStore}. Templates without slots
+     * return the same view every time.
+     *
+     * @param args The values of the slots, in order.
+     * @return The view.
+     */
+    public ViewStore.View view(String... args) {
+        return view != null ? view : ViewStore.View.of(body(args));
+    }
+
+    /**
+     * Assembles the body with the given slot values.
+     */
+    private byte[] body(String[] args) {
+        byte[][] values = encode(args);
+        byte[] body = new byte[bodyLength(values)];
+        int pos = 0;
+        for (int i = 0; i < parts.length; i++) {
+            System.arraycopy(parts[i], 0, body, pos, parts[i].length);
+            pos += parts[i].length;
+            if (i < values.length) {
+                System.arraycopy(values[i], 0, body, pos, values[i].length);
+                pos += values[i].length;
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Assembles the whole response with the given slot values.
+     */
+    private byte[] assemble(String[] args) {
+        byte[][] values = encode(args);
+        int bodyLength = bodyLength(values);
+        int digits = 1;
+        for (int n = bodyLength; n >= 10; n /= 10) {
+            digits++;
+        }
+        byte[] response = new byte[head.length + digits + 4 + bodyLength];
+        System.arraycopy(head, 0, response, 0, head.length);
+        int pos = head.length + digits;
+        for (int n = bodyLength, i = pos - 1; i >= head.length; n /= 10, i--) {
+            response[i] = (byte) ('0' + n % 10);
+        }
+        response[pos++] = '\r';
+        response[pos++] = '\n';
+        response[pos++] = '\r';
+        response[pos++] = '\n';
+        for (int i = 0; i < parts.length; i++) {
+            System.arraycopy(parts[i], 0, response, pos, parts[i].length);
+            pos += parts[i].length;
+            if (i < values.length) {
+                System.arraycopy(values[i], 0, response, pos, values[i].length);
+                pos += values[i].length;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Encodes the slot values; missing values are empty.
+     */
+    private byte[][] encode(String[] args) {
+        byte[][] values = new byte[parts.length - 1][];
+        for (int i = 0; i < values.length; i++) {
+            String arg = args != null && i < args.length && args[i] != null ? args[i] : "";
+            values[i] = arg.getBytes(StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private int bodyLength(byte[][] values) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        for (byte[] value : values) {
+            length += value.length;
+        }
+        return length;
+    }
+}
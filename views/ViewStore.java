@@ -0,0 +1,157 @@
+package views;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory store of the rendered pages of each graph instance, such as the graph view and the
+ * last message shown to its users.
+ * <p>
+ * Pages are kept as complete, immutable HTTP responses keyed by graph id and view name, and every page
+ * gets its own version, so concurrent requests for different graphs never share a file and a page is
+ * rendered and encoded once however often it is served.
+ * </p>
+ */
+public class ViewStore {
+
+    /** The graph view of a graph instance. */
+    public static final String GRAPH = "graph";
+
+    /** The last message or error shown for a graph instance. */
+    public static final String MESSAGE = "temp";
+
+    private static final AtomicLong versions = new AtomicLong();
+
+    /** An empty page, shown for views not rendered yet. */
+    public static final View EMPTY = View.of(new byte[0]);
+
+    private static final ViewStore instance = new ViewStore();
+
+    /** The views of each graph, by view name */
+    private final Map<String, Map<String, View>> views = new ConcurrentHashMap<>();
+
+    private ViewStore() {}
+
+    /**
+     * Returns the view store of the server.
+     *
+     * @return The view store.
+     */
+    public static ViewStore get() {
+        return instance;
+    }
+
+    /**
+     * Stores a page, replacing the previous one.
+     *
+     * @param graphId The graph instance.
+     * @param name    The view name, e.g. {@link #GRAPH}.
+     * @param view    The page.
+     * @return The stored view.
+     */
+    public View put(String graphId, String name, View view) {
+        views.computeIfAbsent(graphId, id -> new ConcurrentHashMap<>()).put(name, view);
+        return view;
+    }
+
+    /**
+     * Stores a rendered page, replacing the previous one.
+     *
+     * @param graphId The graph instance.
+     * @param name    The view name, e.g. {@link #GRAPH}.
+     * @param content The page.
+     * @return The stored view.
+     */
+    public View put(String graphId, String name, byte[] content) {
+        return put(graphId, name, View.of(content));
+    }
+
+    /**
+     * Stores a rendered page, replacing the previous one.
+     *
+     * @param graphId The graph instance.
+     * @param name    The view name, e.g. {@link #GRAPH}.
+     * @param content The page.
+     * @return The stored view.
+     */
+    public View put(String graphId, String name, String content) {
+        return put(graphId, name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the current page of a view.
+     *
+     * @param graphId The graph instance.
+     * @param name    The view name.
+     * @return The view, or null if nothing was rendered yet.
+     */
+    public View get(String graphId, String name) {
+        Map<String, View> graphViews = views.get(graphId);
+        return graphViews == null ? null : graphViews.get(name);
+    }
+
+    /**
+     * A rendered page and its version, encoded once as a complete 200 OK response.
+     */
+    public static final class View {
+        private final byte[] response;
+        private final int length;
+        private final long version;
+
+        private View(byte[] content, long version) {
+            byte[] head = ("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: text/html; charset=UTF-8\r\n"
+                    + "ETag: \"" + version + "\"\r\n"
+                    + "Connection: close\r\n"
+                    + "Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.response = new byte[head.length + content.length];
+            System.arraycopy(head, 0, response, 0, head.length);
+            System.arraycopy(content, 0, response, head.length, content.length);
+            this.length = content.length;
+            this.version = version;
+        }
+
+        /**
+         * Creates a view of a page with a new version.
+         *
+         * @param content The page.
+         * @return The view.
+         */
+        public static View of(byte[] content) {
+            return new View(content, versions.incrementAndGet());
+        }
+
+        /**
+         * Returns the version of the page; different pages have different versions.
+         *
+         * @return The version.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the length of the page in bytes.
+         *
+         * @return The length.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Sends the page as a 200 OK response.
+         *
+         * @param out The output stream to the client.
+         * @throws IOException If an error occurs while writing.
+         */
+        public void send(OutputStream out) throws IOException {
+            out.write(response);
+            out.flush();
+        }
+    }
+}